@@ -0,0 +1,407 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.util.JSONObjectUtils;
+
+import es.us.dit.lti.persistence.KeyService;
+
+/**
+ * Cache of OAuth 2.0 access tokens of LTI 1.3 services (AGS and NRPS).
+ *
+ * <p>Tokens are requested with the client credentials grant and kept until
+ * they expire (<code>expires_in</code>) minus a safety margin. They are cached
+ * by token URL, client ID and set of scopes. Concurrent requests of the same
+ * token wait for a single request to the platform.
+ *
+ * <p>A token for all the scopes used by the application is requested first,
+ * so grades, results and rosters share it. If the platform refuses it (OAuth
+ * error) or grants fewer scopes than requested, tokens are requested per scope
+ * for that client during {@link #SINGLE_SCOPE_MILLIS}. A response without
+ * <code>scope</code> does not tell the granted scopes, so the token is used for
+ * all of them.
+ *
+ * <p>A token rejected by a service (HTTP 401) must be discarded with
+ * {@link #invalidate(String)}, so the next call requests a new one.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class AccessTokenManager {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(AccessTokenManager.class);
+
+	/**
+	 * Scope of AGS scores (write).
+	 */
+	public static final String SCOPE_SCORE = "https://purl.imsglobal.org/spec/lti-ags/scope/score";
+	/**
+	 * Scope of AGS results (read).
+	 */
+	public static final String SCOPE_RESULT_READONLY = "https://purl.imsglobal.org/spec/lti-ags/scope/result.readonly";
+	/**
+	 * Scope of NRPS memberships (read).
+	 */
+	public static final String SCOPE_NRPS_READONLY = "https://purl.imsglobal.org/spec/lti-nrps/scope/contextmembership.readonly";
+
+	/**
+	 * All scopes used by the application.
+	 */
+	private static final List<String> ALL_SCOPES = Collections
+			.unmodifiableList(Arrays.asList(SCOPE_RESULT_READONLY, SCOPE_SCORE, SCOPE_NRPS_READONLY));
+
+	/**
+	 * Safety margin before expiration in seconds.
+	 */
+	public static final long MARGIN_SECONDS = 60;
+	/**
+	 * Life of tokens without <code>expires_in</code> in seconds.
+	 */
+	public static final long DEFAULT_EXPIRES_SECONDS = 300;
+	/**
+	 * Time that a failed request is not repeated in milliseconds, so concurrent
+	 * callers do not repeat it.
+	 */
+	public static final long FAILURE_RETRY_MILLIS = 5000;
+	/**
+	 * Time that tokens are requested per scope for a client that does not grant
+	 * all scopes at once, in milliseconds.
+	 */
+	public static final long SINGLE_SCOPE_MILLIS = 3600 * 1000L;
+
+	/**
+	 * Tokens by token URL, client ID and scopes.
+	 */
+	private static final Map<String, Entry> tokens = new ConcurrentHashMap<>();
+	/**
+	 * Clients (token URL and client ID) that do not grant all scopes at once,
+	 * with the time until tokens are requested per scope in milliseconds.
+	 */
+	private static final Map<String, Long> singleScopeClients = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of hits.
+	 */
+	private static final LongAdder hits = new LongAdder();
+	/**
+	 * Number of misses.
+	 */
+	private static final LongAdder misses = new LongAdder();
+	/**
+	 * Number of failed requests.
+	 */
+	private static final LongAdder failures = new LongAdder();
+
+	/**
+	 * Access token.
+	 */
+	private static final class Token {
+		/**
+		 * The token, null if the request failed.
+		 */
+		private final String value;
+		/**
+		 * Granted scopes, null if unknown.
+		 */
+		private final Set<String> scopes;
+		/**
+		 * Time when it must be renewed in milliseconds.
+		 */
+		private final long renew;
+		/**
+		 * If the request failed because the platform refused it (OAuth error).
+		 */
+		private final boolean refused;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param value   the token, null if the request failed
+		 * @param scopes  granted scopes, null if unknown
+		 * @param renew   time when it must be renewed in milliseconds
+		 * @param refused if the platform refused the request
+		 */
+		private Token(String value, Set<String> scopes, long renew, boolean refused) {
+			this.value = value;
+			this.scopes = scopes;
+			this.renew = renew;
+			this.refused = refused;
+		}
+
+		/**
+		 * Checks if the token can be used for a scope.
+		 *
+		 * @param scope the scope
+		 * @return true if the scope is granted or granted scopes are unknown
+		 */
+		private boolean grants(String scope) {
+			return value != null && (scopes == null || scopes.contains(scope));
+		}
+	}
+
+	/**
+	 * Cached token. Requests are synchronized on it.
+	 */
+	private static final class Entry {
+		/**
+		 * Current token, null if none.
+		 */
+		private volatile Token token = null;
+	}
+
+	/**
+	 * Can not create objects.
+	 */
+	private AccessTokenManager() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Gets an access token with a scope.
+	 *
+	 * @param clientId client ID of the tool
+	 * @param tokenUrl token endpoint of the platform
+	 * @param kid      ID of the key to sign the client assertion
+	 * @param scope    needed scope
+	 * @return the access token or null if error
+	 */
+	public static String getToken(String clientId, String tokenUrl, String kid, String scope) {
+		final String client = tokenUrl + " " + clientId;
+		final Long singleUntil = singleScopeClients.get(client);
+		final boolean union = ALL_SCOPES.contains(scope)
+				&& (singleUntil == null || singleUntil <= System.currentTimeMillis());
+		Token token = null;
+		boolean narrowed = false;
+		if (union) {
+			token = getToken(clientId, tokenUrl, kid, ALL_SCOPES);
+			narrowed = token.value != null && !token.grants(scope);
+		}
+		if (token == null || !token.grants(scope)) {
+			final boolean refused = token != null && token.refused;
+			token = getToken(clientId, tokenUrl, kid, Collections.singletonList(scope));
+			if (narrowed || refused && token.value != null) {
+				// The platform works, but it does not grant all scopes at once
+				logger.info("Requesting LTI 1.3 tokens per scope for {}", client);
+				singleScopeClients.put(client, System.currentTimeMillis() + SINGLE_SCOPE_MILLIS);
+			}
+		}
+		return token.value;
+	}
+
+	/**
+	 * Gets a valid token, requesting it if necessary.
+	 *
+	 * @param clientId client ID of the tool
+	 * @param tokenUrl token endpoint of the platform
+	 * @param kid      ID of the key to sign the client assertion
+	 * @param scopes   requested scopes
+	 * @return the token, with null value if the request failed
+	 */
+	private static Token getToken(String clientId, String tokenUrl, String kid, List<String> scopes) {
+		final String scope = String.join(" ", scopes);
+		final Entry entry = tokens.computeIfAbsent(tokenUrl + " " + clientId + " " + scope, k -> new Entry());
+		Token token = entry.token;
+		if (isValid(token)) {
+			hits.increment();
+		} else {
+			synchronized (entry) {
+				token = entry.token;
+				if (isValid(token)) {
+					// Requested by other thread meanwhile
+					hits.increment();
+				} else {
+					misses.increment();
+					token = requestToken(clientId, tokenUrl, kid, scope);
+					if (token.value == null) {
+						failures.increment();
+					}
+					entry.token = token;
+				}
+			}
+		}
+		return token;
+	}
+
+	/**
+	 * Checks if a token can be used.
+	 *
+	 * @param token the token, may be null
+	 * @return true if it is not null and it is not going to expire or retried
+	 */
+	private static boolean isValid(Token token) {
+		return token != null && token.renew > System.currentTimeMillis();
+	}
+
+	/**
+	 * Requests an access token to the platform (OAuth 2.0 client credentials
+	 * grant).
+	 *
+	 * @param clientId client ID of the tool
+	 * @param tokenUrl token endpoint of the platform
+	 * @param kid      ID of the key to sign the client assertion
+	 * @param scope    requested scopes, separated by spaces
+	 * @return the token, with null value if error
+	 */
+	private static Token requestToken(String clientId, String tokenUrl, String kid, String scope) {
+		Token token = null;
+		boolean refused = false;
+		try {
+			final KeyService.SigningKey signingKey = new KeyService().getSigningKey(kid);
+			if (signingKey == null) {
+				logger.error("LTI 1.3 key not found: {}", kid);
+			} else {
+				final String clientAssertion = SecurityUtil.createLti13ClientAssertion(clientId, tokenUrl,
+						signingKey.getSigner(), kid);
+				final HttpPost post = new HttpPost(tokenUrl);
+				final List<NameValuePair> params = new ArrayList<>();
+				params.add(new BasicNameValuePair("grant_type", "client_credentials"));
+				params.add(new BasicNameValuePair("client_assertion_type",
+						"urn:ietf:params:oauth:client-assertion-type:jwt-bearer"));
+				params.add(new BasicNameValuePair("client_assertion", clientAssertion));
+				params.add(new BasicNameValuePair("scope", scope));
+				post.setEntity(new UrlEncodedFormEntity(params, StandardCharsets.UTF_8));
+				final long start = System.currentTimeMillis();
+				try (CloseableHttpResponse response = HttpClientManager.getClient().execute(post)) {
+					final int statusCode = response.getStatusLine().getStatusCode();
+					final HttpEntity entity = response.getEntity();
+					final String body = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : null;
+					if (statusCode >= 400 || body == null) {
+						logger.error("OAuth error {} from {}: {}", statusCode, tokenUrl, body);
+						// OAuth errors (invalid_scope...) are returned with 400
+						refused = statusCode == HttpStatus.SC_BAD_REQUEST;
+					} else {
+						token = parseToken(body, scope, start);
+					}
+				}
+			}
+		} catch (final Exception e) {
+			logger.error("Error getting LTI 1.3 access token", e);
+		}
+		if (token == null) {
+			token = new Token(null, Collections.emptySet(), System.currentTimeMillis() + FAILURE_RETRY_MILLIS,
+					refused);
+		}
+		return token;
+	}
+
+	/**
+	 * Parses the response of the token endpoint.
+	 *
+	 * @param body  the response
+	 * @param scope requested scopes, separated by spaces
+	 * @param start time of request in milliseconds
+	 * @return the token or null if it is not valid
+	 * @throws java.text.ParseException if the response is not JSON
+	 */
+	private static Token parseToken(String body, String scope, long start) throws java.text.ParseException {
+		final Map<String, Object> json = JSONObjectUtils.parse(body);
+		final Object value = json.get("access_token");
+		if (!(value instanceof String)) {
+			logger.error("Response without access_token: {}", body);
+			return null;
+		}
+		long expiresIn = DEFAULT_EXPIRES_SECONDS;
+		final Object expires = json.get("expires_in");
+		if (expires instanceof Number) {
+			expiresIn = ((Number) expires).longValue();
+		} else if (expires instanceof String) {
+			try {
+				expiresIn = Long.parseLong((String) expires);
+			} catch (final NumberFormatException e) {
+				// Use default
+			}
+		}
+		// Granted scopes, unknown if not present
+		final Object granted = json.get("scope");
+		final Set<String> scopes = granted instanceof String
+				? new HashSet<>(Arrays.asList(((String) granted).trim().split("\\s+")))
+				: null;
+		final long margin = Math.min(MARGIN_SECONDS, expiresIn / 2);
+		return new Token((String) value, scopes, start + (expiresIn - margin) * 1000, false);
+	}
+
+	/**
+	 * Discards a token rejected by a service (HTTP 401), so the next call
+	 * requests a new one.
+	 *
+	 * @param value the token
+	 */
+	public static void invalidate(String value) {
+		if (value != null) {
+			for (final Entry entry : tokens.values()) {
+				synchronized (entry) {
+					final Token token = entry.token;
+					if (token != null && value.equals(token.value)) {
+						logger.info("LTI 1.3 access token rejected, discarded");
+						entry.token = null;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all tokens.
+	 */
+	public static void clear() {
+		tokens.clear();
+		singleScopeClients.clear();
+	}
+
+	/**
+	 * Gets the statistics of the cache.
+	 *
+	 * @return name, size, hits, misses and failures
+	 */
+	public static Map<String, Object> getStatistics() {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		info.put("name", "accessTokens");
+		info.put("size", tokens.size());
+		info.put("hits", hits.sum());
+		info.put("misses", misses.sum());
+		info.put("failures", failures.sum());
+		return info;
+	}
+}
@@ -26,16 +26,26 @@ import java.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.us.dit.lti.config.DbPoolConfig;
+import es.us.dit.lti.config.HttpPoolConfig;
 import es.us.dit.lti.entity.Settings;
+import es.us.dit.lti.persistence.DbNonceStore;
 import es.us.dit.lti.persistence.DbUtilDataSource;
+import es.us.dit.lti.persistence.DbUtilPool;
 import es.us.dit.lti.persistence.DbUtilSingleConnection;
+import es.us.dit.lti.persistence.DbUtilSqliteWal;
+import es.us.dit.lti.persistence.GradeOutboxDao;
 import es.us.dit.lti.persistence.IDbUtil;
+import es.us.dit.lti.persistence.LaunchDao;
+import es.us.dit.lti.persistence.MemoryNonceStore;
 import es.us.dit.lti.persistence.MgmtUserDao;
+import es.us.dit.lti.persistence.NonceService;
 import es.us.dit.lti.persistence.SettingsDao;
 import es.us.dit.lti.persistence.ToolAttemptDao;
 import es.us.dit.lti.persistence.ToolConsumerDao;
 import es.us.dit.lti.persistence.ToolConsumerUserDao;
 import es.us.dit.lti.persistence.ToolContextDao;
+import es.us.dit.lti.persistence.ToolCounterService;
 import es.us.dit.lti.persistence.ToolDao;
 import es.us.dit.lti.persistence.ToolKeyDao;
 import es.us.dit.lti.persistence.ToolLti13Dao;
@@ -49,6 +59,8 @@ import es.us.dit.lti.persistence.KeyService;
 import es.us.dit.lti.persistence.LtiClientDao;
 import es.us.dit.lti.persistence.LtiDeploymentDao;
 import es.us.dit.lti.persistence.LtiPlatformDao;
+import es.us.dit.lti.runner.LocalWorkerPool;
+import es.us.dit.lti.runner.SshMasterConnections;
 
 /**
  * Web application initialization and destroy.
@@ -76,6 +88,15 @@ public class AppLoader implements ServletContextListener {
 	@Override
 	public void contextDestroyed(ServletContextEvent sce) {
 		logger.info("ServletContextListener destroyed");
+		NonceService.destroy();
+		GradeOutbox.destroy();
+		NrpsSyncScheduler.destroy();
+		AssessmentQueue.destroy();
+		LocalWorkerPool.destroy();
+		SshMasterConnections.destroy();
+		KeyService.destroy();
+		PlatformKeyCache.destroy();
+		HttpClientManager.destroy();
 		if (appDbUtil != null) {
 			appDbUtil.destroy();
 		}
@@ -96,6 +117,8 @@ public class AppLoader implements ServletContextListener {
 	 *
 	 * <p>If the connection succeeds, gets the settings using a {@link DbUtilSingleConnection}.
 	 * If setting <code>datasourceMode</code> is true, changes to {@link DbUtilDataSource}.
+	 * Else, if setting <code>sqliteWalMode</code> is true, changes to {@link DbUtilSqliteWal}
+	 * or, if setting <code>poolMode</code> is true, changes to {@link DbUtilPool}.
 	 *
      * @see ServletContextListener#contextInitialized(ServletContextEvent)
      */
@@ -134,6 +157,20 @@ public class AppLoader implements ServletContextListener {
 			appDbUtil.init(resourceName);
 			SettingsDao.setDbUtil(appDbUtil);
 			logger.info("Datasource mode");
+		} else if (Settings.isSqliteWalMode()) {
+			// SQLite WAL Mode (pool of readers and a single writer)
+			appDbUtil.destroy();
+			appDbUtil = new DbUtilSqliteWal(DbPoolConfig.fromString(Settings.getPoolConfig()));
+			appDbUtil.init(resourceName);
+			SettingsDao.setDbUtil(appDbUtil);
+			logger.info("SQLite WAL mode");
+		} else if (Settings.isPoolMode()) {
+			// Pool Mode (with internal pool of connections)
+			appDbUtil.destroy();
+			appDbUtil = new DbUtilPool(DbPoolConfig.fromString(Settings.getPoolConfig()));
+			appDbUtil.init(resourceName);
+			SettingsDao.setDbUtil(appDbUtil);
+			logger.info("Pool mode");
 		}
 
 		if (SettingsDao.init()) {
@@ -158,6 +195,21 @@ public class AppLoader implements ServletContextListener {
 		LtiPlatformDao.setDbUtil(appDbUtil);
 		LtiClientDao.setDbUtil(appDbUtil);
 		LtiDeploymentDao.setDbUtil(appDbUtil);
+		LaunchDao.setDbUtil(appDbUtil);
+		ToolCounterService.setDbUtil(appDbUtil);
+		ToolCounterService.setBlockSize(Settings.getCounterBlockSize());
+		if (Settings.isNonceDbMode()) {
+			NonceService.init(new DbNonceStore(), NonceService.DEFAULT_SWEEP_SECONDS);
+		} else {
+			NonceService.init(new MemoryNonceStore(), NonceService.DEFAULT_SWEEP_SECONDS);
+		}
+		KeyService.init(Settings.getKeyRotationDays(), KeyService.DEFAULT_CHECK_SECONDS);
+		HttpClientManager.init(HttpPoolConfig.fromString(Settings.getHttpPoolConfig()));
+		GradeOutboxDao.setDbUtil(appDbUtil);
+		GradeOutbox.init(GradeOutbox.DEFAULT_POLL_SECONDS, GradeOutbox.DEFAULT_PARALLEL_SENDS);
+		NrpsSyncScheduler.init(NrpsSyncScheduler.DEFAULT_WORKERS);
+		AssessmentQueue.init(Settings::getConcurrentUsers, AssessmentQueue.DEFAULT_MAX_QUEUED,
+				AssessmentQueue.DEFAULT_MAX_WAIT_MILLIS);
 
 	}
 
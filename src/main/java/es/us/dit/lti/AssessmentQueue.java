@@ -0,0 +1,938 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import org.owasp.encoder.Encode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.entity.Tool;
+
+/**
+ * Scheduler of the assessments, run in background.
+ *
+ * <p>The request that delivers a file returns at once with the ID of a job and
+ * does not keep a container thread during the correction. Learners get the
+ * result by polling or waiting for events (see
+ * {@link es.us.dit.lti.servlet.AssessJobServlet}).
+ *
+ * <p>Assessments run in a global pool of slots (the maximum number of
+ * concurrent users of the settings) and in the slots of each tool
+ * ({@link es.us.dit.lti.config.ToolUiConfig#getMaxConcurrentUsers()}, -1 if
+ * unlimited). When several tools are waiting, free slots are shared in
+ * proportion to the scheduling weights of the tools (stride scheduling), so a
+ * tool with many deliveries does not starve the others. Tests of instructors
+ * go first. Jobs wait in a queue of limited size instead of being rejected at
+ * once. A job that waits more than the maximum time runs its fallback (only
+ * store the delivery) instead of the assessment, without taking a slot.
+ *
+ * <p>Jobs are only visible to their owner and are removed
+ * {@link #RESULT_TTL_MILLIS} after they finish.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class AssessmentQueue {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(AssessmentQueue.class);
+
+	/**
+	 * Default maximum number of queued jobs.
+	 */
+	public static final int DEFAULT_MAX_QUEUED = 1000;
+	/**
+	 * Default maximum time waiting in the queue, in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 2 * 60 * 1000L;
+	/**
+	 * Time that the result of a job is kept, in milliseconds.
+	 */
+	public static final long RESULT_TTL_MILLIS = 10 * 60 * 1000L;
+	/**
+	 * Period of removal of old jobs in milliseconds.
+	 */
+	private static final long SWEEP_MILLIS = 60 * 1000L;
+	/**
+	 * Period of the check of jobs waiting too long, in milliseconds.
+	 */
+	private static final long EXPIRE_CHECK_MILLIS = 1000L;
+	/**
+	 * Result of the assessments stopped by {@link #destroy()}.
+	 */
+	private static final String STOPPED_HTML = "<p class='error'>Assessment stopped</p>";
+
+	/**
+	 * State of a job.
+	 */
+	public enum State {
+		/**
+		 * Waiting for a slot.
+		 */
+		QUEUED,
+		/**
+		 * Running.
+		 */
+		RUNNING,
+		/**
+		 * Finished, the result is available.
+		 */
+		DONE
+	}
+
+	/**
+	 * An assessment.
+	 */
+	public static final class Job {
+		/**
+		 * Random ID.
+		 */
+		private final String id = UUID.randomUUID().toString();
+		/**
+		 * Owner (user and launch).
+		 */
+		private final String owner;
+		/**
+		 * Tool and user, only one job of them can be active.
+		 */
+		private final String user;
+		/**
+		 * Queue of the tool.
+		 */
+		private final ToolQueue queue;
+		/**
+		 * If it goes before other jobs.
+		 */
+		private final boolean priority;
+		/**
+		 * The assessment, returns the result (HTML).
+		 */
+		private final Supplier<String> task;
+		/**
+		 * Run instead of the task if the job waits too long, returns the result
+		 * (HTML).
+		 */
+		private final Supplier<String> fallback;
+		/**
+		 * Order of submission.
+		 */
+		private final long sequence = submittedSequence.incrementAndGet();
+		/**
+		 * Start of the scheduler that accepted it, see {@link #generation}.
+		 */
+		private final int generation = AssessmentQueue.generation;
+		/**
+		 * Time of submission in milliseconds.
+		 */
+		private final long submitted = System.currentTimeMillis();
+		/**
+		 * Time of start in milliseconds, 0 if not started.
+		 */
+		private volatile long started = 0;
+		/**
+		 * Time of end in milliseconds, 0 if not finished.
+		 */
+		private volatile long finished = 0;
+		/**
+		 * Current state.
+		 */
+		private volatile State state = State.QUEUED;
+		/**
+		 * Result (HTML), null if not finished.
+		 */
+		private volatile String result = null;
+		/**
+		 * Signals the end.
+		 */
+		private final CountDownLatch done = new CountDownLatch(1);
+		/**
+		 * Actions to run when it finishes. Guarded by this.
+		 */
+		private List<Runnable> listeners = new ArrayList<>();
+		/**
+		 * Actions to run when the position in the queue may have changed.
+		 */
+		private final List<Runnable> updateListeners = new CopyOnWriteArrayList<>();
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param owner    owner
+		 * @param user     tool and user
+		 * @param queue    queue of the tool
+		 * @param priority if it goes before other jobs
+		 * @param task     the assessment
+		 * @param fallback run instead of the task if the job waits too long
+		 */
+		private Job(String owner, String user, ToolQueue queue, boolean priority, Supplier<String> task,
+				Supplier<String> fallback) {
+			this.owner = owner;
+			this.user = user;
+			this.queue = queue;
+			this.priority = priority;
+			this.task = task;
+			this.fallback = fallback;
+		}
+
+		/**
+		 * Gets the ID.
+		 *
+		 * @return the ID
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * Gets the state.
+		 *
+		 * @return the state
+		 */
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * Gets the result.
+		 *
+		 * @return the result (HTML) or null if not finished
+		 */
+		public String getResult() {
+			return result;
+		}
+
+		/**
+		 * Gets an estimation of the number of jobs that will start before this
+		 * one.
+		 *
+		 * @return the number of jobs, 0 if running or finished
+		 */
+		public int getPosition() {
+			return state == State.QUEUED ? position(this) : 0;
+		}
+
+		/**
+		 * Waits for the end of the job, at most the maximum time in the queue
+		 * plus the time of the assessment.
+		 *
+		 * @param runMillis maximum time of the assessment in milliseconds
+		 * @return the result (HTML) or null if interrupted or not finished in time
+		 */
+		public String await(long runMillis) {
+			try {
+				if (!done.await(maxWaitMillis + runMillis, TimeUnit.MILLISECONDS)) {
+					logger.warn("Assessment not finished in time: {}", id);
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return result;
+		}
+
+		/**
+		 * Runs an action when the job finishes, at once if it is finished.
+		 *
+		 * @param listener the action
+		 */
+		public void whenFinished(Runnable listener) {
+			synchronized (this) {
+				if (listeners != null) {
+					listeners.add(listener);
+					return;
+				}
+			}
+			listener.run();
+		}
+
+		/**
+		 * Runs an action each time the position or state of the job may have
+		 * changed, until it finishes or the action is removed.
+		 *
+		 * @param listener the action
+		 */
+		public void whenUpdated(Runnable listener) {
+			updateListeners.add(listener);
+		}
+
+		/**
+		 * Removes an action added with {@link #whenUpdated(Runnable)}.
+		 *
+		 * @param listener the action
+		 */
+		public void removeUpdated(Runnable listener) {
+			updateListeners.remove(listener);
+		}
+
+		/**
+		 * Runs the update actions.
+		 */
+		private void updated() {
+			for (final Runnable r : updateListeners) {
+				try {
+					r.run();
+				} catch (final RuntimeException e) {
+					logger.warn("Assessment listener error: {}", e.getMessage());
+				}
+			}
+		}
+
+		/**
+		 * Sets the result and runs the actions.
+		 *
+		 * @param html the result
+		 */
+		private void finish(String html) {
+			final List<Runnable> toRun;
+			synchronized (this) {
+				if (state == State.DONE) {
+					// Already finished by destroy()
+					return;
+				}
+				result = html;
+				finished = System.currentTimeMillis();
+				state = State.DONE;
+				toRun = listeners;
+				listeners = null;
+			}
+			updateListeners.clear();
+			done.countDown();
+			for (final Runnable r : toRun) {
+				try {
+					r.run();
+				} catch (final RuntimeException e) {
+					logger.warn("Assessment listener error: {}", e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Jobs of a tool waiting or running. Guarded by the lock of the class.
+	 */
+	private static final class ToolQueue {
+		/**
+		 * Name of the tool.
+		 */
+		private final String name;
+		/**
+		 * Slots of the tool, -1 if unlimited.
+		 */
+		private int slots = -1;
+		/**
+		 * Scheduling weight.
+		 */
+		private int weight = 1;
+		/**
+		 * Running jobs.
+		 */
+		private int running = 0;
+		/**
+		 * Virtual time of the next job (stride scheduling).
+		 */
+		private double pass = 0;
+		/**
+		 * Queued jobs with priority.
+		 */
+		private final Deque<Job> priority = new ArrayDeque<>();
+		/**
+		 * Other queued jobs.
+		 */
+		private final Deque<Job> normal = new ArrayDeque<>();
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param name name of the tool
+		 */
+		private ToolQueue(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Checks if a job of this tool can start.
+		 *
+		 * @return true if it has free slots
+		 */
+		private boolean hasFreeSlot() {
+			return slots < 0 || running < slots;
+		}
+
+		/**
+		 * Checks if it has no jobs.
+		 *
+		 * @return true if no job is waiting or running
+		 */
+		private boolean isIdle() {
+			return running == 0 && priority.isEmpty() && normal.isEmpty();
+		}
+	}
+
+	/**
+	 * Lock of the queues.
+	 */
+	private static final Object lock = new Object();
+	/**
+	 * Queues by tool name. Guarded by lock.
+	 */
+	private static final Map<String, ToolQueue> queues = new LinkedHashMap<>();
+	/**
+	 * Tools and users with an active job. Guarded by lock.
+	 */
+	private static final Set<String> activeUsers = new HashSet<>();
+	/**
+	 * Number of queued jobs. Guarded by lock.
+	 */
+	private static int queued = 0;
+	/**
+	 * Number of running jobs. Guarded by lock.
+	 */
+	private static int running = 0;
+	/**
+	 * Virtual time of the last job started (stride scheduling). Guarded by lock.
+	 */
+	private static double virtualTime = 0;
+	/**
+	 * Number of the current start of the scheduler. Jobs of previous starts do
+	 * not change the counters. Guarded by lock.
+	 */
+	private static int generation = 0;
+
+	/**
+	 * Jobs by ID.
+	 */
+	private static final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+	/**
+	 * Executor of jobs, null if not started.
+	 */
+	private static volatile ExecutorService workers = null;
+	/**
+	 * Timer of the check of jobs waiting too long, null if not started.
+	 */
+	private static volatile ScheduledExecutorService timer = null;
+	/**
+	 * Number of global slots.
+	 */
+	private static volatile IntSupplier slots = () -> 1;
+	/**
+	 * Maximum number of queued jobs.
+	 */
+	private static volatile int maxQueued = DEFAULT_MAX_QUEUED;
+	/**
+	 * Maximum time waiting in the queue in milliseconds.
+	 */
+	private static volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+	/**
+	 * Sequence of the last job submitted.
+	 */
+	private static final AtomicLong submittedSequence = new AtomicLong();
+	/**
+	 * Time of last removal of old jobs in milliseconds.
+	 */
+	private static volatile long lastSweep = 0;
+
+	/**
+	 * Number of accepted jobs.
+	 */
+	private static final LongAdder accepted = new LongAdder();
+	/**
+	 * Number of accepted jobs with priority.
+	 */
+	private static final LongAdder acceptedPriority = new LongAdder();
+	/**
+	 * Number of finished jobs.
+	 */
+	private static final LongAdder completed = new LongAdder();
+	/**
+	 * Number of jobs rejected because the queue is full.
+	 */
+	private static final LongAdder rejected = new LongAdder();
+	/**
+	 * Number of jobs that waited too long and ran their fallback.
+	 */
+	private static final LongAdder expired = new LongAdder();
+	/**
+	 * Total time waiting in the queue in milliseconds.
+	 */
+	private static final LongAdder totalWait = new LongAdder();
+	/**
+	 * Total time running in milliseconds.
+	 */
+	private static final LongAdder totalRun = new LongAdder();
+	/**
+	 * Maximum time waiting in the queue in milliseconds.
+	 */
+	private static final AtomicLong maxWait = new AtomicLong();
+	/**
+	 * Time waiting in the queue of the last job started, in milliseconds.
+	 */
+	private static volatile long lastWait = 0;
+
+	/**
+	 * Can not create objects.
+	 */
+	private AssessmentQueue() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Starts the scheduler.
+	 *
+	 * @param globalSlots number of assessments run in parallel, read each time a
+	 *                    job may start so changes of settings are applied
+	 * @param maxQueue    maximum number of queued jobs
+	 * @param maxWait     maximum time waiting in the queue in milliseconds
+	 */
+	public static synchronized void init(IntSupplier globalSlots, int maxQueue, long maxWait) {
+		destroy();
+		slots = globalSlots;
+		maxQueued = Math.max(1, maxQueue);
+		maxWaitMillis = Math.max(EXPIRE_CHECK_MILLIS, maxWait);
+		final AtomicInteger count = new AtomicInteger();
+		workers = Executors.newCachedThreadPool(r -> {
+			final Thread t = new Thread(r, "assessment-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread t = new Thread(r, "assessment-expiry");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleWithFixedDelay(AssessmentQueue::expire, EXPIRE_CHECK_MILLIS, EXPIRE_CHECK_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the scheduler. Queued assessments run their fallbacks, and running
+	 * ones are interrupted and finished with an error, so nobody waits for them.
+	 */
+	public static synchronized void destroy() {
+		if (timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+		final List<Job> pending = new ArrayList<>();
+		synchronized (lock) {
+			for (final ToolQueue q : queues.values()) {
+				pending.addAll(q.priority);
+				pending.addAll(q.normal);
+			}
+			queues.clear();
+			activeUsers.clear();
+			queued = 0;
+			running = 0;
+			generation++;
+		}
+		for (final Job job : pending) {
+			job.state = State.RUNNING;
+			runFallback(job);
+		}
+		for (final Job job : jobs.values()) {
+			if (job.state != State.DONE) {
+				job.finish(STOPPED_HTML);
+			}
+		}
+	}
+
+	/**
+	 * Submits an assessment.
+	 *
+	 * @param owner    owner of the job (user and launch)
+	 * @param tool     the tool
+	 * @param userId   ID of the user
+	 * @param priority if it goes before other jobs (tests of instructors)
+	 * @param task     the assessment, returns the result (HTML)
+	 * @param fallback run instead of the assessment if the job waits more than
+	 *                 the maximum time, returns the result (HTML)
+	 * @return the job or null if the queue is full, the tool has no slots or the
+	 *         scheduler is not started
+	 * @throws ConcurrentModificationException if the user has other job of the
+	 *                                         tool queued or running
+	 */
+	public static Job submit(String owner, Tool tool, String userId, boolean priority, Supplier<String> task,
+			Supplier<String> fallback) throws ConcurrentModificationException {
+		removeOld(System.currentTimeMillis());
+		final int toolSlots = tool.getToolUiConfig().getMaxConcurrentUsers();
+		final Job job;
+		synchronized (lock) {
+			if (workers == null || toolSlots == 0 || queued >= maxQueued) {
+				rejected.increment();
+				return null;
+			}
+			final String user = tool.getName() + ":" + userId;
+			if (!activeUsers.add(user)) {
+				throw new ConcurrentModificationException();
+			}
+			ToolQueue q = queues.get(tool.getName());
+			if (q == null) {
+				q = new ToolQueue(tool.getName());
+				queues.put(q.name, q);
+			}
+			if (q.isIdle()) {
+				// Does not keep credit from periods without jobs
+				q.pass = Math.max(q.pass, virtualTime);
+			}
+			q.slots = toolSlots;
+			q.weight = Math.max(1, tool.getToolUiConfig().getSchedulingWeight());
+			job = new Job(owner, user, q, priority, task, fallback);
+			(priority ? q.priority : q.normal).add(job);
+			queued++;
+			jobs.put(job.id, job);
+		}
+		accepted.increment();
+		if (priority) {
+			acceptedPriority.increment();
+		}
+		dispatch();
+		return job;
+	}
+
+	/**
+	 * Starts the next jobs while there are free slots.
+	 */
+	private static void dispatch() {
+		final ExecutorService executor = workers;
+		if (executor == null) {
+			return;
+		}
+		boolean started = false;
+		synchronized (lock) {
+			Job job;
+			while (running < slots.getAsInt() && (job = next()) != null) {
+				job.queue.running++;
+				running++;
+				queued--;
+				job.state = State.RUNNING;
+				started = true;
+				final Job toRun = job;
+				try {
+					executor.execute(() -> run(toRun));
+				} catch (final RejectedExecutionException e) {
+					// Stopped
+					logger.warn("Assessment not started: {}", job.id);
+				}
+			}
+		}
+		if (started) {
+			notifyQueued(executor);
+		}
+	}
+
+	/**
+	 * Removes the next job that can start from its queue. Must be called with
+	 * the lock.
+	 *
+	 * @return the job or null if none can start
+	 */
+	private static Job next() {
+		// First, jobs with priority in order of arrival
+		Job first = null;
+		for (final ToolQueue q : queues.values()) {
+			final Job j = q.priority.peek();
+			if (j != null && q.hasFreeSlot() && (first == null || j.sequence < first.sequence)) {
+				first = j;
+			}
+		}
+		if (first != null) {
+			return first.queue.priority.poll();
+		}
+		// Then, the tool with lower virtual time
+		ToolQueue selected = null;
+		for (final ToolQueue q : queues.values()) {
+			final Job j = q.normal.peek();
+			if (j != null && q.hasFreeSlot() && (selected == null || q.pass < selected.pass
+					|| q.pass == selected.pass && j.sequence < selected.normal.peek().sequence)) {
+				selected = q;
+			}
+		}
+		Job job = null;
+		if (selected != null) {
+			virtualTime = selected.pass;
+			selected.pass += 1.0 / selected.weight;
+			job = selected.normal.poll();
+		}
+		return job;
+	}
+
+	/**
+	 * Runs the update actions of queued jobs, in background.
+	 *
+	 * @param executor executor of the actions
+	 */
+	private static void notifyQueued(ExecutorService executor) {
+		final List<Job> waiting = new ArrayList<>();
+		for (final Job j : jobs.values()) {
+			if (j.state != State.DONE && !j.updateListeners.isEmpty()) {
+				waiting.add(j);
+			}
+		}
+		if (!waiting.isEmpty()) {
+			try {
+				executor.execute(() -> waiting.forEach(Job::updated));
+			} catch (final RejectedExecutionException e) {
+				// Stopped
+			}
+		}
+	}
+
+	/**
+	 * Runs a job.
+	 *
+	 * @param job the job
+	 */
+	private static void run(Job job) {
+		job.started = System.currentTimeMillis();
+		final long wait = job.started - job.submitted;
+		lastWait = wait;
+		totalWait.add(wait);
+		maxWait.accumulateAndGet(wait, Math::max);
+		String html = null;
+		try {
+			html = job.task.get();
+		} catch (final RuntimeException e) {
+			logger.error("Assessment error", e);
+			html = "<p class='error'>" + Encode.forHtml(e.getMessage()) + "</p>";
+		} finally {
+			// Also on errors, or the slots and the user would be kept forever
+			totalRun.add(System.currentTimeMillis() - job.started);
+			completed.increment();
+			synchronized (lock) {
+				if (job.generation == generation) {
+					job.queue.running--;
+					running--;
+					release(job);
+				}
+			}
+			job.finish(html);
+			dispatch();
+		}
+	}
+
+	/**
+	 * Removes the jobs that have waited more than the maximum time from the
+	 * queues and runs their fallbacks in background.
+	 */
+	private static void expire() {
+		final ExecutorService executor = workers;
+		if (executor == null) {
+			return;
+		}
+		final long limit = System.currentTimeMillis() - maxWaitMillis;
+		final List<Job> late = new ArrayList<>();
+		synchronized (lock) {
+			for (final ToolQueue q : queues.values()) {
+				// Queues are in order of arrival
+				for (final Deque<Job> d : List.of(q.priority, q.normal)) {
+					while (!d.isEmpty() && d.peek().submitted <= limit) {
+						final Job job = d.poll();
+						job.state = State.RUNNING;
+						queued--;
+						late.add(job);
+					}
+				}
+			}
+		}
+		for (final Job job : late) {
+			logger.warn("Assessment waited too long: {}", job.user);
+			expired.increment();
+			try {
+				executor.execute(() -> runFallback(job));
+			} catch (final RejectedExecutionException e) {
+				// Stopped
+				logger.warn("Assessment fallback not started: {}", job.id);
+			}
+		}
+		if (!late.isEmpty()) {
+			notifyQueued(executor);
+		}
+	}
+
+	/**
+	 * Runs the fallback of a job that waited too long.
+	 *
+	 * @param job the job
+	 */
+	private static void runFallback(Job job) {
+		job.started = System.currentTimeMillis();
+		String html = null;
+		try {
+			html = job.fallback.get();
+		} catch (final RuntimeException e) {
+			logger.error("Assessment fallback error", e);
+			html = "<p class='error'>" + Encode.forHtml(e.getMessage()) + "</p>";
+		} finally {
+			synchronized (lock) {
+				if (job.generation == generation) {
+					release(job);
+				}
+			}
+			job.finish(html);
+		}
+	}
+
+	/**
+	 * Frees the user of a finished job and removes the queue of the tool if it
+	 * has no jobs. Must be called with the lock.
+	 *
+	 * @param job the job
+	 */
+	private static void release(Job job) {
+		activeUsers.remove(job.user);
+		if (job.queue.isIdle()) {
+			queues.remove(job.queue.name, job.queue);
+		}
+	}
+
+	/**
+	 * Estimates the number of jobs that will start before a queued job, with
+	 * the current weights of the tools.
+	 *
+	 * @param job the job
+	 * @return the number of jobs
+	 */
+	private static int position(Job job) {
+		synchronized (lock) {
+			int ahead = 0;
+			if (job.priority) {
+				for (final ToolQueue q : queues.values()) {
+					for (final Job j : q.priority) {
+						if (j.sequence < job.sequence) {
+							ahead++;
+						}
+					}
+				}
+			} else {
+				int index = 0;
+				for (final Job j : job.queue.normal) {
+					if (j == job) {
+						break;
+					}
+					index++;
+				}
+				ahead = index;
+				// Jobs of other tools with lower virtual time
+				final double until = job.queue.pass + (double) index / job.queue.weight;
+				for (final ToolQueue q : queues.values()) {
+					ahead += q.priority.size();
+					if (q != job.queue && !q.normal.isEmpty()) {
+						final long turns = (long) Math.floor((until - q.pass) * q.weight) + 1;
+						ahead += (int) Math.max(0, Math.min(q.normal.size(), turns));
+					}
+				}
+			}
+			return ahead;
+		}
+	}
+
+	/**
+	 * Gets a job of an owner.
+	 *
+	 * @param id    ID of the job
+	 * @param owner owner of the job
+	 * @return the job or null if not found or of other owner
+	 */
+	public static Job get(String id, String owner) {
+		final Job job = id != null ? jobs.get(id) : null;
+		return job != null && job.owner.equals(owner) ? job : null;
+	}
+
+	/**
+	 * Removes the jobs finished more than {@link #RESULT_TTL_MILLIS} ago, at
+	 * most once per {@link #SWEEP_MILLIS}.
+	 *
+	 * @param now current time in milliseconds
+	 */
+	private static void removeOld(long now) {
+		if (now - lastSweep < SWEEP_MILLIS) {
+			return;
+		}
+		lastSweep = now;
+		jobs.values().removeIf(j -> j.finished > 0 && now - j.finished > RESULT_TTL_MILLIS);
+	}
+
+	/**
+	 * Gets the statistics of the scheduler.
+	 *
+	 * @return name, slots, queued and running jobs (global and by tool),
+	 *         counters and wait and run times in milliseconds
+	 */
+	public static Map<String, Object> getStatistics() {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		final Map<String, Object> byTool = new LinkedHashMap<>();
+		final long done = completed.sum();
+		info.put("name", "assessmentQueue");
+		info.put("slots", slots.getAsInt());
+		synchronized (lock) {
+			info.put("queued", queued);
+			info.put("running", running);
+			for (final ToolQueue q : queues.values()) {
+				final Map<String, Object> t = new HashMap<>();
+				t.put("slots", q.slots);
+				t.put("weight", q.weight);
+				t.put("running", q.running);
+				t.put("queued", q.priority.size() + q.normal.size());
+				byTool.put(q.name, t);
+			}
+		}
+		info.put("submitted", accepted.sum());
+		info.put("priority", acceptedPriority.sum());
+		info.put("completed", done);
+		info.put("rejected", rejected.sum());
+		info.put("expired", expired.sum());
+		info.put("maxQueueWait", maxWaitMillis);
+		info.put("lastWait", lastWait);
+		info.put("maxWait", maxWait.get());
+		info.put("avgWait", done > 0 ? totalWait.sum() / done : 0);
+		info.put("avgRun", done > 0 ? totalRun.sum() / done : 0);
+		info.put("tools", byTool);
+		return info;
+	}
+}
@@ -0,0 +1,569 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.entity.OutboxGrade;
+import es.us.dit.lti.entity.ResourceLink;
+import es.us.dit.lti.entity.ResourceUser;
+import es.us.dit.lti.entity.ToolKey;
+import es.us.dit.lti.persistence.GradeOutboxDao;
+import es.us.dit.lti.persistence.KeyService;
+import es.us.dit.lti.persistence.Lti13Registry;
+import es.us.dit.lti.persistence.Lti13ToolConfig;
+import es.us.dit.lti.persistence.ToolAttemptDao;
+import es.us.dit.lti.persistence.ToolKeyDao;
+import es.us.dit.lti.runner.ToolRunner;
+
+/**
+ * Outbox of scores to send to tool consumers (LTI 1.1 outcomes and LTI 1.3
+ * AGS).
+ *
+ * <p>Scores are saved in the database and sent by a background dispatcher, so
+ * the assessment does not wait for the tool consumer and scores are not lost if
+ * it is down. Only the last score of each resource user and line item is kept,
+ * and new scores wait {@link #COALESCE_MILLIS} before being sent, so scores
+ * replaced shortly after are not sent.
+ *
+ * <p>The dispatcher groups the pending scores by line item, in groups of at
+ * most {@link #GROUP_SIZE} scores, and sends each group in a task of a bounded
+ * pool, so several line items (or parts of a big one) are sent in parallel and
+ * the scores of the same group share the scores URL and access token. Each
+ * score is taken with a lease of {@link #LEASE_MILLIS} right before it is
+ * sent, so other nodes can send the scores that are still waiting. If a
+ * platform answers HTTP 429 (or 503 with <code>Retry-After</code>), no more
+ * scores are sent to that host until the requested time.
+ *
+ * <p>Failed scores are retried with exponential backoff, up to
+ * {@link #MAX_TRIES} times. Attempts with a score in the outbox have the error
+ * code {@link #OUTCOME_PENDING}. When a score is sent, the error code of its
+ * attempt is changed to {@link #OK_WITH_OUTCOME}; if it is discarded, to
+ * {@link ToolRunner#ERROR_WRITE_OUTCOME}. The attempts whose pending scores it
+ * replaced get the same code.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class GradeOutbox {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(GradeOutbox.class);
+
+	/**
+	 * Default period of the dispatcher in seconds.
+	 */
+	public static final long DEFAULT_POLL_SECONDS = 10;
+	/**
+	 * Default number of line items sent in parallel.
+	 */
+	public static final int DEFAULT_PARALLEL_SENDS = 4;
+	/**
+	 * Time that a new score waits before being sent, in milliseconds.
+	 */
+	public static final long COALESCE_MILLIS = 2000;
+	/**
+	 * Delay of first retry in milliseconds, doubled in each try.
+	 */
+	public static final long BASE_RETRY_MILLIS = 10000;
+	/**
+	 * Maximum delay between tries in milliseconds.
+	 */
+	public static final long MAX_RETRY_MILLIS = 3600000;
+	/**
+	 * Pause after HTTP 429 without <code>Retry-After</code>, in milliseconds.
+	 */
+	public static final long DEFAULT_THROTTLE_MILLIS = 5000;
+	/**
+	 * Maximum number of tries of a score.
+	 */
+	public static final int MAX_TRIES = 20;
+	/**
+	 * Time that a score being sent is not taken by other nodes, in milliseconds.
+	 * Longer than the timeout of a request.
+	 */
+	public static final long LEASE_MILLIS = 120000;
+	/**
+	 * Maximum number of scores read at once.
+	 */
+	private static final int BATCH_SIZE = 500;
+	/**
+	 * Maximum number of scores of a line item sent in the same task.
+	 */
+	public static final int GROUP_SIZE = 25;
+	/**
+	 * Error code if assessment was successful and outcome was written in consumer.
+	 */
+	public static final int OK_WITH_OUTCOME = 1;
+	/**
+	 * Error code if assessment was successful and outcome is waiting in the
+	 * outbox.
+	 */
+	public static final int OUTCOME_PENDING = 2;
+	/**
+	 * Result of a score that could not be sent.
+	 */
+	private static final OutcomeService.ScoreResult FAILED = new OutcomeService.ScoreResult(0, 0);
+
+	/**
+	 * Executor of the dispatcher, null if not started.
+	 */
+	private static ScheduledExecutorService dispatcher = null;
+	/**
+	 * Executor of the groups of scores, null if not started.
+	 */
+	private static volatile ExecutorService senders = null;
+	/**
+	 * Time of the next dispatch requested out of period, 0 if none. Guarded by the
+	 * class.
+	 */
+	private static long wakeUpTime = 0;
+	/**
+	 * Time until no scores are sent to a host, in milliseconds, by host.
+	 */
+	private static final Map<String, Long> throttledHosts = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of scores saved.
+	 */
+	private static final LongAdder enqueued = new LongAdder();
+	/**
+	 * Number of scores sent.
+	 */
+	private static final LongAdder delivered = new LongAdder();
+	/**
+	 * Number of failed tries.
+	 */
+	private static final LongAdder retried = new LongAdder();
+	/**
+	 * Number of scores discarded after {@link #MAX_TRIES}.
+	 */
+	private static final LongAdder discarded = new LongAdder();
+	/**
+	 * Number of HTTP 429 responses.
+	 */
+	private static final LongAdder throttled = new LongAdder();
+	/**
+	 * Number of groups of scores sent.
+	 */
+	private static final LongAdder batches = new LongAdder();
+	/**
+	 * Scores sent per second in the last dispatch with scores.
+	 */
+	private static volatile long lastRate = 0;
+
+	/**
+	 * Can not create objects.
+	 */
+	private GradeOutbox() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Starts the dispatcher.
+	 *
+	 * @param pollSeconds   period of the dispatcher in seconds
+	 * @param parallelSends number of line items sent in parallel
+	 */
+	public static synchronized void init(long pollSeconds, int parallelSends) {
+		destroy();
+		dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread t = new Thread(r, "grade-outbox");
+			t.setDaemon(true);
+			return t;
+		});
+		final AtomicInteger count = new AtomicInteger();
+		senders = Executors.newFixedThreadPool(Math.max(1, parallelSends), r -> {
+			final Thread t = new Thread(r, "grade-sender-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		final long period = Math.max(1, pollSeconds);
+		dispatcher.scheduleWithFixedDelay(GradeOutbox::dispatch, 0, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the dispatcher. Pending scores are sent when it starts again.
+	 */
+	public static synchronized void destroy() {
+		if (dispatcher != null) {
+			dispatcher.shutdownNow();
+			dispatcher = null;
+		}
+		if (senders != null) {
+			senders.shutdownNow();
+			senders = null;
+		}
+	}
+
+	/**
+	 * Saves a score to be sent, replacing the pending one of the same user and
+	 * line item.
+	 *
+	 * @param user       resource user, with resource link and result source ID
+	 * @param attemptSid serial ID of the attempt, 0 if unknown
+	 * @param score      score (0-100)
+	 * @param clientId   client ID of the tool (LTI 1.3), null in LTI 1.1
+	 * @param toolKey    tool key to sign the request (LTI 1.1)
+	 * @return true if saved, false if there is no outcome service or error
+	 */
+	public static boolean enqueue(ResourceUser user, int attemptSid, int score, String clientId, ToolKey toolKey) {
+		final String url = user.getResourceLink().getOutcomeServiceUrl();
+		if (url == null || url.isEmpty()) {
+			return false;
+		}
+		final OutboxGrade grade = new OutboxGrade();
+		grade.setResourceUserSid(user.getSid());
+		grade.setLineItem(url);
+		grade.setAttemptSid(attemptSid);
+		grade.setScore(score);
+		grade.setClientId(clientId);
+		grade.setToolKeySid(toolKey != null ? toolKey.getSid() : 0);
+		grade.setResultSourceId(user.getResultSourceId());
+		grade.setNextTry(System.currentTimeMillis() + COALESCE_MILLIS);
+		final boolean saved = GradeOutboxDao.put(grade);
+		if (saved) {
+			enqueued.increment();
+			wakeUpAt(grade.getNextTry());
+		}
+		return saved;
+	}
+
+	/**
+	 * Requests a dispatch at a time, without waiting for the next period.
+	 *
+	 * @param time the time in milliseconds
+	 */
+	private static synchronized void wakeUpAt(long time) {
+		if (dispatcher != null && (wakeUpTime == 0 || time < wakeUpTime)) {
+			wakeUpTime = time;
+			dispatcher.schedule(() -> {
+				synchronized (GradeOutbox.class) {
+					wakeUpTime = 0;
+				}
+				dispatch();
+			}, Math.max(0, time - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Sends the scores whose time of next try has come, grouped by line item.
+	 */
+	private static void dispatch() {
+		final ExecutorService pool = senders;
+		if (pool == null) {
+			return;
+		}
+		try {
+			List<OutboxGrade> due;
+			do {
+				final long start = System.currentTimeMillis();
+				due = GradeOutboxDao.getDue(start, BATCH_SIZE);
+				final Map<String, List<OutboxGrade>> lineItems = new LinkedHashMap<>();
+				for (final OutboxGrade grade : due) {
+					lineItems.computeIfAbsent(grade.getClientId() + " " + grade.getLineItem(), k -> new ArrayList<>())
+							.add(grade);
+				}
+				final List<List<OutboxGrade>> groups = new ArrayList<>();
+				for (final List<OutboxGrade> scores : lineItems.values()) {
+					for (int i = 0; i < scores.size(); i += GROUP_SIZE) {
+						groups.add(scores.subList(i, Math.min(scores.size(), i + GROUP_SIZE)));
+					}
+				}
+				if (!groups.isEmpty()) {
+					final List<Callable<Integer>> tasks = new ArrayList<>();
+					for (final List<OutboxGrade> group : groups) {
+						tasks.add(() -> sendGroup(group));
+					}
+					int sent = 0;
+					for (final Future<Integer> f : pool.invokeAll(tasks)) {
+						sent += f.get();
+					}
+					batches.add(groups.size());
+					lastRate = sent * 1000L / Math.max(1, System.currentTimeMillis() - start);
+				}
+			} while (due.size() == BATCH_SIZE);
+			// Scores coalescing, retried or paused
+			final long next = GradeOutboxDao.getNextTry();
+			if (next > 0) {
+				wakeUpAt(next);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException | RuntimeException e) {
+			// Keep dispatching, taken scores are retried when their lease ends
+			logger.error("Error dispatching scores", e);
+		}
+	}
+
+	/**
+	 * Sends a group of scores of the same line item, taking each one right before
+	 * sending it.
+	 *
+	 * @param group the scores
+	 * @return number of scores sent
+	 */
+	private static int sendGroup(List<OutboxGrade> group) {
+		final OutboxGrade first = group.get(0);
+		final String host = getHost(first.getLineItem());
+		String scoresUrl = null;
+		String tokenUrl = null;
+		String kid = null;
+		if (first.getClientId() != null) {
+			final Lti13ToolConfig config = Lti13Registry.findConfigByClientId(first.getClientId());
+			if (config == null) {
+				logger.error("LTI 1.3 client not found: {}", first.getClientId());
+			} else {
+				try {
+					kid = new KeyService().getFirstKid();
+					tokenUrl = config.getTokenUrl();
+					scoresUrl = OutcomeService.getLti13ScoresUrl(first.getLineItem());
+				} catch (final Exception e) {
+					logger.error("Error getting LTI 1.3 key", e);
+				}
+			}
+		}
+		final Map<Integer, ToolKey> toolKeys = new HashMap<>();
+		int sent = 0;
+		for (int i = 0; i < group.size() && !Thread.currentThread().isInterrupted(); i++) {
+			final OutboxGrade grade = group.get(i);
+			final long until = getThrottledUntil(host);
+			if (until > 0) {
+				// Postpone the rest, without counting a try
+				for (int j = i; j < group.size(); j++) {
+					GradeOutboxDao.reschedule(group.get(j), group.get(j).getTries(), until);
+				}
+				break;
+			}
+			// Take it, if other node has not taken it and it has not been replaced
+			if (!GradeOutboxDao.reschedule(grade, grade.getTries(), System.currentTimeMillis() + LEASE_MILLIS)) {
+				continue;
+			}
+			final OutcomeService.ScoreResult result;
+			if (grade.getClientId() != null) {
+				result = sendLti13(grade, scoresUrl, tokenUrl, kid);
+			} else {
+				final ToolKey toolKey = toolKeys.computeIfAbsent(grade.getToolKeySid(), ToolKeyDao::getBySid);
+				result = sendLti11(grade, toolKey);
+			}
+			if (result.isSuccess()) {
+				sent++;
+				onSuccess(grade);
+			} else if (result.isThrottled()) {
+				throttled.increment();
+				final long wait = result.getRetryAfterMillis() > 0
+						? Math.min(MAX_RETRY_MILLIS, result.getRetryAfterMillis())
+						: DEFAULT_THROTTLE_MILLIS;
+				logger.warn("Scores to {} paused for {} ms", host, wait);
+				final long resume = System.currentTimeMillis() + wait;
+				throttledHosts.merge(host, resume, Math::max);
+				GradeOutboxDao.reschedule(grade, grade.getTries(), resume);
+			} else {
+				onFailure(grade);
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * Gets the host of a URL.
+	 *
+	 * @param url the URL
+	 * @return the host and port, or the URL if it is not valid
+	 */
+	private static String getHost(String url) {
+		try {
+			final String authority = URI.create(url).getAuthority();
+			if (authority != null) {
+				return authority;
+			}
+		} catch (final IllegalArgumentException e) {
+			// Use the URL
+		}
+		return url;
+	}
+
+	/**
+	 * Gets the time until no scores can be sent to a host.
+	 *
+	 * @param host the host
+	 * @return the time in milliseconds, 0 if they can be sent now
+	 */
+	private static long getThrottledUntil(String host) {
+		final Long until = throttledHosts.get(host);
+		if (until == null) {
+			return 0;
+		}
+		if (until <= System.currentTimeMillis()) {
+			throttledHosts.remove(host, until);
+			return 0;
+		}
+		return until;
+	}
+
+	/**
+	 * Updates the outbox and the attempt of a score sent.
+	 *
+	 * @param grade the score
+	 */
+	private static void onSuccess(OutboxGrade grade) {
+		delivered.increment();
+		// Score read next, usually shown soon after the assessment
+		OutcomeService.cacheScore(grade.getLineItem(), grade.getResultSourceId(), getValue(grade));
+		// Not deleted if replaced meanwhile, the new score will be sent
+		GradeOutboxDao.delete(grade);
+		if (grade.getAttemptSid() > 0) {
+			ToolAttemptDao.updateOutcomeErrorCode(grade.getResourceUserSid(), grade.getAttemptSid(),
+					OK_WITH_OUTCOME);
+		}
+	}
+
+	/**
+	 * Schedules the retry of a score not sent, or discards it.
+	 *
+	 * @param grade the score
+	 */
+	private static void onFailure(OutboxGrade grade) {
+		retried.increment();
+		final int tries = grade.getTries() + 1;
+		if (tries >= MAX_TRIES) {
+			discarded.increment();
+			logger.error("Score of attempt {} discarded after {} tries: {}", grade.getAttemptSid(), tries,
+					grade.getLineItem());
+			if (GradeOutboxDao.delete(grade) && grade.getAttemptSid() > 0) {
+				ToolAttemptDao.updateOutcomeErrorCode(grade.getResourceUserSid(), grade.getAttemptSid(),
+						ToolRunner.ERROR_WRITE_OUTCOME);
+			}
+		} else {
+			GradeOutboxDao.reschedule(grade, tries, System.currentTimeMillis() + getRetryDelay(tries));
+		}
+	}
+
+	/**
+	 * Gets the delay before a retry.
+	 *
+	 * @param tries number of failed tries
+	 * @return the delay in milliseconds
+	 */
+	private static long getRetryDelay(int tries) {
+		return Math.min(MAX_RETRY_MILLIS, BASE_RETRY_MILLIS << Math.min(tries - 1, 20));
+	}
+
+	/**
+	 * Gets the value of a score sent to the tool consumer.
+	 *
+	 * @param grade the score
+	 * @return the value (0.0-1.0)
+	 */
+	private static String getValue(OutboxGrade grade) {
+		return String.valueOf(grade.getScore() * 0.01);
+	}
+
+	/**
+	 * Sends a LTI 1.3 score (AGS).
+	 *
+	 * @param grade     the score
+	 * @param scoresUrl scores URL of the line item, null if unknown
+	 * @param tokenUrl  token endpoint of the platform
+	 * @param kid       ID of the key to get the access token
+	 * @return the result
+	 */
+	private static OutcomeService.ScoreResult sendLti13(OutboxGrade grade, String scoresUrl, String tokenUrl,
+			String kid) {
+		if (scoresUrl == null) {
+			return FAILED;
+		}
+		final String accessToken = AccessTokenManager.getToken(grade.getClientId(), tokenUrl, kid,
+				AccessTokenManager.SCOPE_SCORE);
+		if (accessToken == null) {
+			return FAILED;
+		}
+		return OutcomeService.sendLti13Score(scoresUrl, grade.getResultSourceId(), getValue(grade), "1.0",
+				accessToken);
+	}
+
+	/**
+	 * Sends a LTI 1.1 outcome.
+	 *
+	 * @param grade   the score
+	 * @param toolKey tool key to sign the request, null if not found
+	 * @return the result
+	 */
+	private static OutcomeService.ScoreResult sendLti11(OutboxGrade grade, ToolKey toolKey) {
+		if (toolKey == null) {
+			logger.error("Tool key not found: {}", grade.getToolKeySid());
+			return FAILED;
+		}
+		final ResourceLink rl = new ResourceLink();
+		rl.setOutcomeServiceUrl(grade.getLineItem());
+		final ResourceUser user = new ResourceUser();
+		user.setSid(grade.getResourceUserSid());
+		user.setResourceLink(rl);
+		user.setResultSourceId(grade.getResultSourceId());
+		try {
+			if (OutcomeService.writeOutcome(user, toolKey, getValue(grade))) {
+				return new OutcomeService.ScoreResult(200, 0);
+			}
+		} catch (final RuntimeException e) {
+			logger.error("Error sending outcome", e);
+		}
+		return FAILED;
+	}
+
+	/**
+	 * Gets the statistics of the outbox.
+	 *
+	 * @return name, pending scores (in db), enqueued, delivered, retried,
+	 *         discarded and throttled scores, groups sent and scores per second
+	 *         of the last dispatch
+	 */
+	public static Map<String, Object> getStatistics() {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		info.put("name", "gradeOutbox");
+		info.put("pending", GradeOutboxDao.count());
+		info.put("enqueued", enqueued.sum());
+		info.put("delivered", delivered.sum());
+		info.put("retried", retried.sum());
+		info.put("discarded", discarded.sum());
+		info.put("throttled", throttled.sum());
+		info.put("batches", batches.sum());
+		info.put("lastRate", lastRate);
+		return info;
+	}
+}
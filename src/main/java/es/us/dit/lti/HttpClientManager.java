@@ -0,0 +1,166 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpProcessorBuilder;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestTargetHost;
+import org.apache.http.protocol.RequestUserAgent;
+import org.apache.http.util.VersionInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.config.HttpPoolConfig;
+
+/**
+ * Shared HTTP client for the requests to learning platforms (outcomes, scores
+ * and access tokens).
+ *
+ * <p>It keeps a pool of keep-alive connections per host, so requests to the
+ * same platform do not pay the TCP and TLS setup each time. Idle connections
+ * are closed by a background thread.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class HttpClientManager {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(HttpClientManager.class);
+
+	/**
+	 * Pool of connections, null if not started.
+	 */
+	private static PoolingHttpClientConnectionManager connectionManager = null;
+
+	/**
+	 * The client, null if not started.
+	 */
+	private static CloseableHttpClient client = null;
+
+	/**
+	 * Can not create objects.
+	 */
+	private HttpClientManager() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Creates the client, closing the previous one.
+	 *
+	 * @param config parameters of the pool
+	 */
+	public static synchronized void init(HttpPoolConfig config) {
+		destroy();
+		final PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+		cm.setMaxTotal(config.getMaxTotal());
+		cm.setDefaultMaxPerRoute(config.getMaxPerRoute());
+		cm.setValidateAfterInactivity(config.getValidateAfterInactivityMillis());
+		for (final Map.Entry<String, Integer> e : config.getRouteLimits().entrySet()) {
+			try {
+				HttpHost host = HttpHost.create(e.getKey());
+				final boolean secure = "https".equalsIgnoreCase(host.getSchemeName());
+				if (host.getPort() < 0) {
+					host = new HttpHost(host.getHostName(), secure ? 443 : 80, host.getSchemeName());
+				}
+				cm.setMaxPerRoute(new HttpRoute(host, null, secure), Math.max(1, e.getValue()));
+			} catch (final IllegalArgumentException ex) {
+				logger.error("Invalid host in HTTP pool config: {}", e.getKey());
+			}
+		}
+		final RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(config.getConnectTimeoutMillis())
+				.setSocketTimeout(config.getSocketTimeoutMillis())
+				.setConnectionRequestTimeout(config.getRequestTimeoutMillis()).setRedirectsEnabled(false)
+				.setContentCompressionEnabled(false).build();
+		client = HttpClients.custom().setConnectionManager(cm)
+				.setHttpProcessor(HttpProcessorBuilder.create()
+						.addAll(new RequestUserAgent(VersionInfo.getUserAgent("Apache-HttpClient",
+								"org.apache.http.client", HttpClientManager.class)), new RequestTargetHost(),
+								new RequestContent())
+						.build())
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections()
+				.evictIdleConnections(config.getIdleTimeoutMillis(), TimeUnit.MILLISECONDS).build();
+		connectionManager = cm;
+	}
+
+	/**
+	 * Closes the client and its connections.
+	 */
+	public static synchronized void destroy() {
+		if (client != null) {
+			try {
+				client.close();
+			} catch (final IOException e) {
+				logger.error("Error closing HTTP client", e);
+			}
+			client = null;
+			connectionManager = null;
+		}
+	}
+
+	/**
+	 * Gets the shared client, creating it with default parameters if necessary.
+	 *
+	 * <p>Responses must be consumed or closed, so connections return to the
+	 * pool. The client must not be closed.
+	 *
+	 * @return the client
+	 */
+	public static synchronized CloseableHttpClient getClient() {
+		if (client == null) {
+			init(new HttpPoolConfig());
+		}
+		return client;
+	}
+
+	/**
+	 * Gets the statistics of the pool.
+	 *
+	 * @return name, routes, leased, pending, available and max connections
+	 */
+	public static synchronized Map<String, Object> getStatistics() {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		info.put("name", "httpPool");
+		if (connectionManager != null) {
+			final PoolStats stats = connectionManager.getTotalStats();
+			info.put("routes", connectionManager.getRoutes().size());
+			info.put("leased", stats.getLeased());
+			info.put("pending", stats.getPending());
+			info.put("available", stats.getAvailable());
+			info.put("max", stats.getMax());
+		}
+		return info;
+	}
+}
@@ -1,145 +1,422 @@
 package es.us.dit.lti;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.security.interfaces.RSAPrivateKey;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.nimbusds.jose.jwk.RSAKey;
-import com.nimbusds.jose.util.JSONObjectUtils;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import es.us.dit.lti.entity.Consumer;
 import es.us.dit.lti.entity.LtiUser;
 import es.us.dit.lti.entity.ResourceLink;
-import es.us.dit.lti.entity.ResourceUser;
 import es.us.dit.lti.persistence.KeyService;
 import es.us.dit.lti.persistence.ToolConsumerUserDao;
-import es.us.dit.lti.persistence.ToolResourceUserDao;
 
 /**
  * Servicio encargado de la sincronización de miembros usando NRPS (Names and
  * Role Provisioning Services).
- 
+ *
+ * <p>La lista se pide por páginas, siguiendo la cabecera <code>Link</code> con
+ * <code>rel="next"</code>, y los miembros se leen del flujo de la respuesta
+ * sin cargarla entera. Cada bloque de {@link #PAGE_SIZE} miembros se guarda en
+ * una transacción, así que la memoria usada no depende del tamaño del curso.
+
  * @author Juan López Suárez
 */
 public class NrpsService {
 
     private static final Logger logger = LoggerFactory.getLogger(NrpsService.class);
 
+    /**
+     * Tipo de contenido de las respuestas NRPS.
+     */
+    private static final String MEMBERSHIP_CONTAINER = "application/vnd.ims.lti-nrps.v2.membershipcontainer+json";
+
+    /**
+     * Miembros pedidos por página (parámetro <code>limit</code>) y guardados en
+     * cada transacción.
+     */
+    public static final int PAGE_SIZE = 500;
+
+    /**
+     * Número máximo de miembros devueltos para mostrarlos.
+     */
+    public static final int MAX_LISTED_MEMBERS = 2000;
+
+    /**
+     * Número máximo de páginas, por si el LMS devuelve enlaces en bucle.
+     */
+    public static final int MAX_PAGES = 1000;
+
+    /**
+     * Tamaño máximo del cuerpo de error que se registra.
+     */
+    private static final int MAX_ERROR_BODY = 1000;
+
+    /**
+     * Enlace de la cabecera <code>Link</code> con sus parámetros.
+     */
+    private static final Pattern LINK = Pattern.compile("<([^>]*)>([^<]*)");
+
+    /**
+     * Parámetro <code>rel</code> de un enlace.
+     */
+    private static final Pattern REL = Pattern.compile("rel\\s*=\\s*\"?([^\";,]*)\"?");
+
+    /**
+     * Resultado de una sincronización.
+     */
+    public static final class SyncResult {
+        /**
+         * Número de miembros sincronizados.
+         */
+        private int total = 0;
+        /**
+         * Nombre, email y roles de los primeros miembros.
+         */
+        private final List<Map<String, Object>> members = new ArrayList<>();
+        /**
+         * URL de cambios (enlace <code>differences</code>), null si el LMS no la da.
+         */
+        private String differencesUrl = null;
+
+        /**
+         * Obtiene el número de miembros sincronizados.
+         *
+         * @return el número de miembros
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Obtiene nombre, email y roles de los miembros, como mucho
+         * {@link #MAX_LISTED_MEMBERS}.
+         *
+         * @return la lista de miembros
+         */
+        public List<Map<String, Object>> getMembers() {
+            return Collections.unmodifiableList(members);
+        }
+
+        /**
+         * Obtiene la URL para pedir los cambios desde esta sincronización.
+         *
+         * @return la URL o null si el LMS no la da
+         */
+        public String getDifferencesUrl() {
+            return differencesUrl;
+        }
+    }
+
+    /**
+     * Miembro leído de la respuesta.
+     */
+    private static final class Member {
+        /**
+         * Usuario con los datos recibidos.
+         */
+        private final LtiUser user = new LtiUser();
+        /**
+         * Roles en el contexto.
+         */
+        private final List<String> roles = new ArrayList<>();
+        /**
+         * Estado (Active, Inactive o Deleted).
+         */
+        private String status = null;
+    }
+
     /**
      * Sincroniza la lista de la clase (roster) con la base de datos de TPM.
-     * 
+     *
      * @param contextMembershipsUrl Endpoint de NRPS del LMS
      * @param clientId              ID del cliente de la herramienta (LTI 1.3)
      * @param tokenUrl              URL del servicio de tokens del LMS
      * @param consumer              El consumidor LTI (Plataforma/Deployment) actual
      * @param resourceLink          El enlace de recurso (ResourceLink) desde el que
      *                              se accedió
+     * @return el resultado o null si hay algún error
      */
-    public static List<Map<String, Object>> syncRoster(String contextMembershipsUrl, String clientId, String tokenUrl, Consumer consumer,
-            ResourceLink resourceLink) {
-        List<Map<String, Object>> processedMembers = null;
+    public static SyncResult syncRoster(String contextMembershipsUrl, String clientId, String tokenUrl,
+            Consumer consumer, ResourceLink resourceLink) {
+        SyncResult result = null;
         try {
             // 1. Obtener Access Token mediante Client Credentials
             String accessToken = getNrpsAccessToken(clientId, tokenUrl);
             if (accessToken == null) {
                 logger.error("NRPS: No se pudo obtener el Access Token.");
             } else {
-                // 2. Consumir la API NRPS
-                HttpClient client = HttpClient.newBuilder()
-                        .connectTimeout(Duration.ofSeconds(10))
-                        .build();
-
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(contextMembershipsUrl))
-                        .header("Authorization", "Bearer " + accessToken)
-                        .header("Accept", "application/vnd.ims.lti-nrps.v2.membershipcontainer+json")
-                        .GET()
-                        .build();
-
-                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-                if (response.statusCode() >= 400) {
-                    logger.error("NRPS: Fallo en la llamada a {}. Status: {}, Body: {}", contextMembershipsUrl,
-                            response.statusCode(), response.body());
-                } else {
-                    // 3. Procesar los miembros devueltos y sincronizarlos
-                    Map<String, Object> jsonMap = JSONObjectUtils.parse(response.body());
-                    List<Object> members = (List<Object>) jsonMap.get("members");
-
-                    if (members != null) {
-                        processedMembers = new java.util.ArrayList<>();
-                        for (Object m : members) {
-                            Map<String, Object> member = (Map<String, Object>) m;
-                            String userId = (String) member.get("user_id"); // En LTI 1.3 el "sub" suele venir aquí
-
-                            if (userId != null) {
-                                // Comprobar si existe el LtiUser en el sistema bajo este Consumer
-                                LtiUser user = ToolConsumerUserDao.getById(consumer.getSid(), userId);
-                                boolean canProceed = true;
-
-                                if (user == null) {
-                                    user = new LtiUser();
-                                    user.setConsumer(consumer);
-                                    user.setUserId(userId);
-                                    user.setSourceId(userId); // Fallback interno
-
-                                    // Si vienen detalles del nombre/email, los mapeamos
-                                    if (member.containsKey("given_name")) {
-                                        user.setNameGiven((String) member.get("given_name"));
-                                    }
-                                    if (member.containsKey("family_name")) {
-                                        user.setNameFamily((String) member.get("family_name"));
-                                    }
-                                    if (member.containsKey("name")) {
-                                        user.setNameFull((String) member.get("name"));
-                                    }
-                                    if (member.containsKey("email")) {
-                                        user.setEmail((String) member.get("email"));
-                                    }
-
-                                    boolean created = ToolConsumerUserDao.create(user);
-                                    if (!created) {
-                                        logger.error("NRPS: Error al crear el usuario {}", userId);
-                                        canProceed = false;
-                                    }
-                                }
-
-                                if (canProceed) {
-                                    // Comprobar si el usuario está asociado a este ResourceLink
-                                    ResourceUser ru = ToolResourceUserDao.getById(resourceLink.getSid(), user.getSid());
-                                    if (ru == null) {
-                                        ru = new ResourceUser();
-                                        ru.setUser(user);
-                                        ru.setResourceLink(resourceLink);
-                                        ToolResourceUserDao.create(ru);
-                                    }
-                                    
-                                    // Añadir a la lista de procesados
-                                    Map<String, Object> memberInfo = new java.util.HashMap<>();
-                                    memberInfo.put("name", user.getNameFull() != null ? user.getNameFull() : user.getNameGiven() + " " + user.getNameFamily());
-                                    memberInfo.put("email", user.getEmail());
-                                    memberInfo.put("roles", member.get("roles"));
-                                    processedMembers.add(memberInfo);
-                                }
-                            }
+                // 2. Consumir la API NRPS página a página
+                result = new SyncResult();
+                String url = addLimit(contextMembershipsUrl);
+                int pages = 0;
+                while (url != null && result != null) {
+                    if (++pages > MAX_PAGES) {
+                        logger.error("NRPS: Demasiadas páginas en {}", contextMembershipsUrl);
+                        result = null;
+                    } else {
+                        url = syncPage(url, accessToken, consumer, resourceLink, result);
+                        if (url == null && result.total < 0) {
+                            result = null;
                         }
-                        logger.info("NRPS: Total miembros procesados: {}", processedMembers.size());
                     }
                 }
+                if (result != null) {
+                    logger.info("NRPS: Total miembros procesados: {} en {} páginas", result.total, pages);
+                }
             }
         } catch (Exception e) {
             logger.error("NRPS: Excepción durante la sincronización", e);
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * Pide una página de miembros y la sincroniza.
+     *
+     * @param url          URL de la página
+     * @param accessToken  token de acceso
+     * @param consumer     consumidor de los usuarios
+     * @param resourceLink enlace de recurso
+     * @param result       resultado, se marca con total negativo si hay error
+     * @return URL de la página siguiente o null si es la última o hay error
+     * @throws IOException si falla la comunicación
+     */
+    private static String syncPage(String url, String accessToken, Consumer consumer, ResourceLink resourceLink,
+            SyncResult result) throws IOException {
+        String next = null;
+        final HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+        get.setHeader(HttpHeaders.ACCEPT, MEMBERSHIP_CONTAINER);
+        try (CloseableHttpResponse response = HttpClientManager.getClient().execute(get)) {
+            final int status = response.getStatusLine().getStatusCode();
+            final HttpEntity entity = response.getEntity();
+            if (status >= 400 || entity == null) {
+                String body = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : null;
+                if (body != null && body.length() > MAX_ERROR_BODY) {
+                    body = body.substring(0, MAX_ERROR_BODY);
+                }
+                logger.error("NRPS: Fallo en la llamada a {}. Status: {}, Body: {}", url, status, body);
+                if (status == HttpStatus.SC_UNAUTHORIZED) {
+                    // El siguiente intento pide un token nuevo
+                    AccessTokenManager.invalidate(accessToken);
+                }
+                result.total = -1;
+            } else {
+                // 3. Procesar los miembros según se leen y sincronizarlos por bloques
+                try (JsonReader reader = new JsonReader(
+                        new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8))) {
+                    if (readMembers(reader, consumer, resourceLink, result)) {
+                        next = getLink(response, url, "next");
+                        final String differences = getLink(response, url, "differences");
+                        if (differences != null) {
+                            result.differencesUrl = differences;
+                        }
+                    } else {
+                        result.total = -1;
+                    }
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Lee los miembros de un contenedor y los guarda en bloques de
+     * {@link #PAGE_SIZE}.
+     *
+     * @param reader       lector del contenedor
+     * @param consumer     consumidor de los usuarios
+     * @param resourceLink enlace de recurso
+     * @param result       resultado, se actualiza
+     * @return true si todos se han guardado
+     * @throws IOException si la respuesta no es válida
+     */
+    private static boolean readMembers(JsonReader reader, Consumer consumer, ResourceLink resourceLink,
+            SyncResult result) throws IOException {
+        boolean ok = true;
+        final List<Member> block = new ArrayList<>(PAGE_SIZE);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("members".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    final Member member = readMember(reader, consumer);
+                    if (ok && member != null) {
+                        block.add(member);
+                        if (block.size() >= PAGE_SIZE) {
+                            ok = saveMembers(block, consumer, resourceLink, result);
+                            block.clear();
+                        }
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (ok && !block.isEmpty()) {
+            ok = saveMembers(block, consumer, resourceLink, result);
+        }
+        return ok;
+    }
+
+    /**
+     * Lee un miembro.
+     *
+     * @param reader   lector situado en el miembro
+     * @param consumer consumidor del usuario
+     * @return el miembro o null si no tiene user_id o ha sido eliminado
+     * @throws IOException si la respuesta no es válida
+     */
+    private static Member readMember(JsonReader reader, Consumer consumer) throws IOException {
+        final Member member = new Member();
+        final LtiUser user = member.user;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("roles".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    member.roles.add(reader.nextString());
+                }
+                reader.endArray();
+            } else if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+            } else {
+                final String value = reader.nextString();
+                switch (name) {
+                    case "user_id": // En LTI 1.3 el "sub" suele venir aquí
+                        user.setUserId(value);
+                        user.setSourceId(value); // Fallback interno
+                        break;
+                    case "given_name":
+                        user.setNameGiven(value);
+                        break;
+                    case "family_name":
+                        user.setNameFamily(value);
+                        break;
+                    case "name":
+                        user.setNameFull(value);
+                        break;
+                    case "email":
+                        user.setEmail(value);
+                        break;
+                    case "status":
+                        member.status = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        reader.endObject();
+        if (user.getUserId() == null || "Deleted".equals(member.status)) {
+            return null;
+        }
+        user.setConsumer(consumer);
+        return member;
+    }
+
+    /**
+     * Crea o actualiza un bloque de usuarios en una transacción y los asocia al
+     * enlace de recurso.
+     *
+     * @param block        miembros del bloque
+     * @param consumer     consumidor de los usuarios
+     * @param resourceLink enlace de recurso
+     * @param result       resultado, se actualiza
+     * @return true si se han guardado
+     */
+    private static boolean saveMembers(List<Member> block, Consumer consumer, ResourceLink resourceLink,
+            SyncResult result) {
+        final List<LtiUser> users = new ArrayList<>(block.size());
+        for (final Member member : block) {
+            users.add(member.user);
+        }
+        if (!ToolConsumerUserDao.upsertMembers(consumer, resourceLink, users)) {
+            logger.error("NRPS: Error al guardar {} usuarios", users.size());
+            return false;
+        }
+        result.total += block.size();
+        for (final Member member : block) {
+            if (result.members.size() >= MAX_LISTED_MEMBERS) {
+                break;
+            }
+            // Añadir a la lista de procesados
+            final LtiUser user = member.user;
+            Map<String, Object> memberInfo = new HashMap<>();
+            memberInfo.put("name", user.getNameFull() != null ? user.getNameFull()
+                    : user.getNameGiven() + " " + user.getNameFamily());
+            memberInfo.put("email", user.getEmail());
+            memberInfo.put("roles", member.roles);
+            result.members.add(memberInfo);
+        }
+        return true;
+    }
+
+    /**
+     * Añade el parámetro <code>limit</code> a la URL de miembros si no lo tiene.
+     *
+     * @param url URL de miembros
+     * @return la URL con paginación
+     */
+    private static String addLimit(String url) {
+        final String query = URI.create(url).getRawQuery();
+        if (query != null && (query.startsWith("limit=") || query.contains("&limit="))) {
+            return url;
+        }
+        return url + (query == null ? "?" : "&") + "limit=" + PAGE_SIZE;
+    }
+
+    /**
+     * Obtiene un enlace de la cabecera <code>Link</code> de una respuesta.
+     *
+     * @param response respuesta
+     * @param url      URL pedida, para resolver enlaces relativos
+     * @param rel      tipo de enlace (next, differences...)
+     * @return la URL del enlace o null si no está
+     */
+    static String getLink(HttpResponse response, String url, String rel) {
+        for (final Header header : response.getHeaders("Link")) {
+            final Matcher link = LINK.matcher(header.getValue());
+            while (link.find()) {
+                final Matcher params = REL.matcher(link.group(2));
+                if (params.find()) {
+                    for (final String r : params.group(1).trim().split("\\s+")) {
+                        if (r.equalsIgnoreCase(rel)) {
+                            return URI.create(url).resolve(link.group(1).trim()).toString();
+                        }
+                    }
+                }
+            }
         }
-        return processedMembers;
+        return null;
     }
 
     /**
@@ -149,45 +426,9 @@ public class NrpsService {
     private static String getNrpsAccessToken(String clientId, String tokenUrl) {
         String token = null;
         try {
-            KeyService keyService = new KeyService();
-            String kid = keyService.getFirstKid();
-            RSAKey rsaKey = keyService.getPrivateKey(kid);
-
-            if (rsaKey == null) {
-                logger.error("NRPS: No se encontró la clave privada local para el kid: {}", kid);
-            } else {
-                RSAPrivateKey privateKey = rsaKey.toRSAPrivateKey();
-
-                // Reutilizamos la función ya existente para generar el Client Assertion (JWT firmado)
-                String clientAssertion = SecurityUtil.createLti13ClientAssertion(clientId, tokenUrl, privateKey, kid);
-
-                // Scope oficial para consumir los miembros del contexto de forma de solo lectura
-                String scope = "https://purl.imsglobal.org/spec/lti-nrps/scope/contextmembership.readonly";
-                String formData = "grant_type=client_credentials"
-                        + "&client_assertion_type=urn:ietf:params:oauth:client-assertion-type:jwt-bearer"
-                        + "&client_assertion=" + clientAssertion
-                        + "&scope=" + scope;
-
-                HttpClient client = HttpClient.newBuilder()
-                        .connectTimeout(Duration.ofSeconds(10))
-                        .build();
-
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(tokenUrl))
-                        .header("Content-Type", "application/x-www-form-urlencoded")
-                        .POST(HttpRequest.BodyPublishers.ofString(formData, StandardCharsets.UTF_8))
-                        .build();
-
-                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-                if (response.statusCode() >= 400) {
-                    logger.error("NRPS: El LMS rechazó la petición del token. HTTP {}: {}", response.statusCode(),
-                            response.body());
-                } else {
-                    Map<String, Object> jsonMap = JSONObjectUtils.parse(response.body());
-                    token = (String) jsonMap.get("access_token");
-                }
-            }
+            String kid = new KeyService().getFirstKid();
+            // Token en caché hasta que caduque, compartido con AGS
+            token = AccessTokenManager.getToken(clientId, tokenUrl, kid, AccessTokenManager.SCOPE_NRPS_READONLY);
         } catch (Exception e) {
             logger.error("NRPS: Excepción al intentar obtener el token", e);
         }
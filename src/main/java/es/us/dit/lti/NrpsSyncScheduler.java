@@ -0,0 +1,467 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.entity.Consumer;
+import es.us.dit.lti.entity.ResourceLink;
+
+/**
+ * Scheduler of NRPS roster synchronizations.
+ *
+ * <p>Synchronizations run in a bounded pool. There is one synchronization per
+ * context membership URL and resource link at a time: requests made while one
+ * is queued or running join it. Launches do not repeat a synchronization that
+ * finished less than {@link #MIN_RESYNC_MILLIS} ago, and manual requests less
+ * than {@link #MIN_MANUAL_RESYNC_MILLIS} ago.
+ *
+ * <p>If the platform returns a <code>differences</code> link, the next
+ * synchronization only requests the changes since the previous one. A full
+ * synchronization is done if it fails or the last full one is older than
+ * {@link #FULL_SYNC_MILLIS}.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class NrpsSyncScheduler {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(NrpsSyncScheduler.class);
+
+	/**
+	 * Default number of synchronizations run in parallel.
+	 */
+	public static final int DEFAULT_WORKERS = 2;
+	/**
+	 * Maximum number of queued synchronizations.
+	 */
+	public static final int MAX_QUEUED = 100;
+	/**
+	 * Minimum time between synchronizations requested by launches, in
+	 * milliseconds.
+	 */
+	public static final long MIN_RESYNC_MILLIS = 10 * 60 * 1000L;
+	/**
+	 * Minimum time between synchronizations requested by instructors, in
+	 * milliseconds.
+	 */
+	public static final long MIN_MANUAL_RESYNC_MILLIS = 30 * 1000L;
+	/**
+	 * Maximum time between full synchronizations, in milliseconds.
+	 */
+	public static final long FULL_SYNC_MILLIS = 24 * 3600 * 1000L;
+	/**
+	 * Time after which the state of an unused roster is removed, in milliseconds.
+	 */
+	public static final long IDLE_MILLIS = 7 * 24 * 3600 * 1000L;
+	/**
+	 * Period of removal of unused rosters in milliseconds.
+	 */
+	private static final long SWEEP_MILLIS = 3600 * 1000L;
+
+	/**
+	 * State of a synchronization.
+	 */
+	public enum State {
+		/**
+		 * Waiting for a worker.
+		 */
+		QUEUED,
+		/**
+		 * Running.
+		 */
+		RUNNING,
+		/**
+		 * Finished successfully.
+		 */
+		DONE,
+		/**
+		 * Finished with error.
+		 */
+		FAILED
+	}
+
+	/**
+	 * A synchronization of a roster.
+	 */
+	public static final class Job {
+		/**
+		 * True if only changes are requested.
+		 */
+		private final boolean differential;
+		/**
+		 * Time of request in milliseconds.
+		 */
+		private final long requested = System.currentTimeMillis();
+		/**
+		 * Result, completed with null if error.
+		 */
+		private final CompletableFuture<NrpsService.SyncResult> future = new CompletableFuture<>();
+		/**
+		 * Current state.
+		 */
+		private volatile State state = State.QUEUED;
+		/**
+		 * Time of end in milliseconds, 0 if not finished.
+		 */
+		private volatile long finished = 0;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param differential true if only changes are requested
+		 */
+		private Job(boolean differential) {
+			this.differential = differential;
+		}
+
+		/**
+		 * Gets the state.
+		 *
+		 * @return the state
+		 */
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * Checks if only changes are requested.
+		 *
+		 * @return true if differential
+		 */
+		public boolean isDifferential() {
+			return differential;
+		}
+
+		/**
+		 * Gets the time of request.
+		 *
+		 * @return the time in milliseconds
+		 */
+		public long getRequested() {
+			return requested;
+		}
+
+		/**
+		 * Gets the time of end.
+		 *
+		 * @return the time in milliseconds, 0 if not finished
+		 */
+		public long getFinished() {
+			return finished;
+		}
+
+		/**
+		 * Waits for the result a limited time.
+		 *
+		 * @param millis maximum time to wait in milliseconds
+		 * @return the result or null if error or not finished
+		 */
+		public NrpsService.SyncResult await(long millis) {
+			try {
+				return future.get(millis, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (final ExecutionException | TimeoutException e) {
+				// Not available
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Synchronization state of a roster. Access is synchronized on it.
+	 */
+	private static final class Roster {
+		/**
+		 * Last requested synchronization, null if none.
+		 */
+		private Job last = null;
+		/**
+		 * URL of changes since the last synchronization, null if none.
+		 */
+		private String differencesUrl = null;
+		/**
+		 * Time of last successful full synchronization in milliseconds.
+		 */
+		private long lastFull = 0;
+	}
+
+	/**
+	 * Rosters by context membership URL and resource link.
+	 */
+	private static final Map<String, Roster> rosters = new ConcurrentHashMap<>();
+
+	/**
+	 * Executor of synchronizations, null if not started.
+	 */
+	private static volatile ThreadPoolExecutor workers = null;
+	/**
+	 * Time of last removal of unused rosters in milliseconds.
+	 */
+	private static volatile long lastSweep = 0;
+
+	/**
+	 * Number of synchronizations started.
+	 */
+	private static final LongAdder started = new LongAdder();
+	/**
+	 * Number of requests that joined a synchronization.
+	 */
+	private static final LongAdder joined = new LongAdder();
+	/**
+	 * Number of requests skipped by the minimum interval.
+	 */
+	private static final LongAdder skipped = new LongAdder();
+	/**
+	 * Number of differential synchronizations.
+	 */
+	private static final LongAdder differential = new LongAdder();
+	/**
+	 * Number of failed synchronizations.
+	 */
+	private static final LongAdder failed = new LongAdder();
+	/**
+	 * Number of requests rejected because the queue is full.
+	 */
+	private static final LongAdder rejected = new LongAdder();
+
+	/**
+	 * Can not create objects.
+	 */
+	private NrpsSyncScheduler() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Starts the workers.
+	 *
+	 * @param threads number of synchronizations run in parallel
+	 */
+	public static synchronized void init(int threads) {
+		destroy();
+		final AtomicInteger count = new AtomicInteger();
+		final int n = Math.max(1, threads);
+		workers = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(MAX_QUEUED),
+				r -> {
+					final Thread t = new Thread(r, "nrps-sync-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	/**
+	 * Stops the workers. Queued synchronizations are discarded.
+	 */
+	public static synchronized void destroy() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+		rosters.clear();
+	}
+
+	/**
+	 * Requests the synchronization of a roster.
+	 *
+	 * <p>It returns the synchronization in progress if any, or the last one if it
+	 * finished successfully less than the minimum interval ago.
+	 *
+	 * @param contextMembershipsUrl NRPS endpoint of the context
+	 * @param clientId              client ID of the tool (LTI 1.3)
+	 * @param tokenUrl              token endpoint of the platform
+	 * @param consumer              consumer of the users
+	 * @param resourceLink          resource link to add the users to
+	 * @param manual                true if requested by an instructor
+	 * @return the synchronization
+	 */
+	public static Job request(String contextMembershipsUrl, String clientId, String tokenUrl, Consumer consumer,
+			ResourceLink resourceLink, boolean manual) {
+		final long now = System.currentTimeMillis();
+		removeIdle(now);
+		final Roster roster = rosters.computeIfAbsent(contextMembershipsUrl + " " + resourceLink.getSid(),
+				k -> new Roster());
+		synchronized (roster) {
+			final Job last = roster.last;
+			if (last != null) {
+				if (last.state == State.QUEUED || last.state == State.RUNNING) {
+					joined.increment();
+					return last;
+				}
+				final long minInterval = manual ? MIN_MANUAL_RESYNC_MILLIS : MIN_RESYNC_MILLIS;
+				if (last.state == State.DONE && now - last.finished < minInterval) {
+					skipped.increment();
+					return last;
+				}
+			}
+			final String differences = now - roster.lastFull < FULL_SYNC_MILLIS ? roster.differencesUrl : null;
+			final Job job = new Job(differences != null);
+			roster.last = job;
+			final ThreadPoolExecutor executor = workers;
+			try {
+				if (executor == null) {
+					throw new RejectedExecutionException("NRPS scheduler not started");
+				}
+				executor.execute(() -> run(roster, job, contextMembershipsUrl, differences, clientId, tokenUrl,
+						consumer, resourceLink));
+			} catch (final RejectedExecutionException e) {
+				logger.warn("NRPS sync rejected: {}", e.getMessage());
+				rejected.increment();
+				finish(job, State.FAILED, null);
+			}
+			return job;
+		}
+	}
+
+	/**
+	 * Runs a synchronization.
+	 *
+	 * @param roster                state of the roster
+	 * @param job                   the synchronization
+	 * @param contextMembershipsUrl NRPS endpoint of the context
+	 * @param differencesUrl        URL of changes, null for a full
+	 *                              synchronization
+	 * @param clientId              client ID of the tool (LTI 1.3)
+	 * @param tokenUrl              token endpoint of the platform
+	 * @param consumer              consumer of the users
+	 * @param resourceLink          resource link to add the users to
+	 */
+	private static void run(Roster roster, Job job, String contextMembershipsUrl, String differencesUrl,
+			String clientId, String tokenUrl, Consumer consumer, ResourceLink resourceLink) {
+		job.state = State.RUNNING;
+		started.increment();
+		final long start = System.currentTimeMillis();
+		NrpsService.SyncResult result = null;
+		boolean full = differencesUrl == null;
+		try {
+			if (!full) {
+				differential.increment();
+				result = NrpsService.syncRoster(differencesUrl, clientId, tokenUrl, consumer, resourceLink);
+				if (result == null) {
+					logger.info("NRPS differences failed, full sync of {}", contextMembershipsUrl);
+					full = true;
+				}
+			}
+			if (full) {
+				result = NrpsService.syncRoster(contextMembershipsUrl, clientId, tokenUrl, consumer, resourceLink);
+			}
+		} catch (final RuntimeException e) {
+			logger.error("NRPS sync error", e);
+			result = null;
+		}
+		synchronized (roster) {
+			if (result != null) {
+				roster.differencesUrl = result.getDifferencesUrl();
+				if (full) {
+					roster.lastFull = start;
+				}
+			} else {
+				roster.differencesUrl = null;
+				failed.increment();
+			}
+		}
+		finish(job, result != null ? State.DONE : State.FAILED, result);
+	}
+
+	/**
+	 * Finishes a synchronization.
+	 *
+	 * @param job    the synchronization
+	 * @param state  final state
+	 * @param result the result, null if error
+	 */
+	private static void finish(Job job, State state, NrpsService.SyncResult result) {
+		job.finished = System.currentTimeMillis();
+		job.state = state;
+		job.future.complete(result);
+	}
+
+	/**
+	 * Removes the state of rosters not synchronized for {@link #IDLE_MILLIS}, at
+	 * most once per {@link #SWEEP_MILLIS}.
+	 *
+	 * @param now current time in milliseconds
+	 */
+	private static void removeIdle(long now) {
+		if (now - lastSweep < SWEEP_MILLIS) {
+			return;
+		}
+		lastSweep = now;
+		rosters.values().removeIf(r -> {
+			synchronized (r) {
+				return r.last != null && r.last.finished > 0 && now - r.last.finished > IDLE_MILLIS;
+			}
+		});
+	}
+
+	/**
+	 * Gets the last synchronization of a roster.
+	 *
+	 * @param contextMembershipsUrl NRPS endpoint of the context
+	 * @param resourceLink          resource link
+	 * @return the synchronization or null if none
+	 */
+	public static Job getLast(String contextMembershipsUrl, ResourceLink resourceLink) {
+		final Roster roster = rosters.get(contextMembershipsUrl + " " + resourceLink.getSid());
+		if (roster == null) {
+			return null;
+		}
+		synchronized (roster) {
+			return roster.last;
+		}
+	}
+
+	/**
+	 * Gets the statistics of the scheduler.
+	 *
+	 * @return name, rosters, running and queued synchronizations and counters
+	 */
+	public static Map<String, Object> getStatistics() {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		final ThreadPoolExecutor executor = workers;
+		info.put("name", "nrpsSync");
+		info.put("rosters", rosters.size());
+		info.put("running", executor != null ? executor.getActiveCount() : 0);
+		info.put("queued", executor != null ? executor.getQueue().size() : 0);
+		info.put("started", started.sum());
+		info.put("joined", joined.sum());
+		info.put("skipped", skipped.sum());
+		info.put("differential", differential.sum());
+		info.put("failed", failed.sum());
+		info.put("rejected", rejected.sum());
+		return info;
+	}
+}
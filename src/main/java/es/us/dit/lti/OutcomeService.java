@@ -23,7 +23,6 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
-import java.security.interfaces.RSAPrivateKey;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -33,32 +32,28 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.function.UnaryOperator;
 
 import javax.xml.XMLConstants;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.protocol.HttpProcessorBuilder;
-import org.apache.http.protocol.RequestContent;
-import org.apache.http.protocol.RequestTargetHost;
-import org.apache.http.protocol.RequestUserAgent;
 import org.apache.http.util.EntityUtils;
-import org.apache.http.util.VersionInfo;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
@@ -67,12 +62,11 @@ import org.jdom2.input.SAXBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jose.util.JSONObjectUtils;
 
 import es.us.dit.lti.entity.ResourceUser;
 import es.us.dit.lti.entity.ToolKey;
-import es.us.dit.lti.persistence.KeyService;
+import es.us.dit.lti.persistence.EntityCache;
 import net.oauth.OAuthAccessor;
 import net.oauth.OAuthConsumer;
 import net.oauth.OAuthException;
@@ -93,9 +87,20 @@ public final class OutcomeService {
 	private static final Logger logger = LoggerFactory.getLogger(OutcomeService.class);
 
 	/**
-	 * Timeout for receiving an HTTP response.
+	 * Maximum number of cached scores.
 	 */
-	private static final int TIMEOUT = 30000;
+	public static final int SCORE_CACHE_SIZE = 10000;
+	/**
+	 * Time to live of cached scores in seconds.
+	 */
+	public static final long SCORE_CACHE_TTL_SECONDS = 60;
+
+	/**
+	 * Scores read from or written to tool consumers, by line item and result
+	 * source ID. Values are strings, so they are not copied.
+	 */
+	private static final EntityCache<String, String> scoreCache = new EntityCache<>("score_read",
+			SCORE_CACHE_SIZE, SCORE_CACHE_TTL_SECONDS, UnaryOperator.identity());
 
 	/**
 	 * Can not create objects.
@@ -122,6 +127,7 @@ public final class OutcomeService {
 			if (doServiceRequest(url, "replaceResultRequest", user.getResultSourceId(), value,
 					toolKey.getKey(), toolKey.getSecret()) != null) {
 				result = true;
+				cacheScore(url, user.getResultSourceId(), value);
 			}
 		}
 		return result;
@@ -151,12 +157,14 @@ public final class OutcomeService {
 			}
 
 			// Pedir el Access Token
-			String accessToken = getLti13AccessToken(clientId, tokenUrl, kid,
-					"https://purl.imsglobal.org/spec/lti-ags/scope/score");
+			String accessToken = getLti13AccessToken(clientId, tokenUrl, kid, AccessTokenManager.SCOPE_SCORE);
 
 			if (accessToken != null) {
 				// PASO B: Mandar la nota en JSON pasándole ambos valores
 				result = doLti13ServiceRequest(url, user.getResultSourceId(), finalValue, finalMaxValue, accessToken);
+				if (result) {
+					cacheScore(url, user.getResultSourceId(), normalizeScore(finalValue, finalMaxValue));
+				}
 			} else {
 				logger.error("No se pudo enviar la nota porque falló la obtención del Access Token.");
 			}
@@ -178,6 +186,7 @@ public final class OutcomeService {
 		if (url != null && !url.isEmpty() && doServiceRequest(url, "deleteResultRequest", user.getResultSourceId(),
 				null, toolKey.getKey(), toolKey.getSecret()) != null) {
 			result = true;
+			cacheScore(url, user.getResultSourceId(), null);
 		}
 		return result;
 	}
@@ -198,12 +207,14 @@ public final class OutcomeService {
 
 		if (url != null && !url.isEmpty()) {
 			// Solicitamos permiso de ESCRITURA
-			String accessToken = getLti13AccessToken(clientId, tokenUrl, kid,
-					"https://purl.imsglobal.org/spec/lti-ags/scope/score");
+			String accessToken = getLti13AccessToken(clientId, tokenUrl, kid, AccessTokenManager.SCOPE_SCORE);
 
 			if (accessToken != null) {
 				// Pasamos value y maxValue a null para efectuar el borrado
 				result = doLti13ServiceRequest(url, user.getResultSourceId(), null, null, accessToken);
+				if (result) {
+					cacheScore(url, user.getResultSourceId(), null);
+				}
 			} else {
 				logger.error("No se pudo borrar la nota porque falló la obtención del Access Token.");
 			}
@@ -222,12 +233,17 @@ public final class OutcomeService {
 		String result = null;
 		final String url = user.getResourceLink().getOutcomeServiceUrl();
 		if (url != null && !url.isEmpty()) {
+			result = scoreCache.get(getScoreKey(url, user.getResultSourceId()));
+			if (result != null) {
+				return result;
+			}
 			final Document xmlDoc = doServiceRequest(url, "readResultRequest", user.getResultSourceId(), null,
 					toolKey.getKey(), toolKey.getSecret());
 			if (xmlDoc != null) {
 				final Element element = getXmlChild(xmlDoc.getRootElement(), "textString");
 				if (element != null) {
 					result = element.getText();
+					cacheScore(url, user.getResultSourceId(), result);
 				}
 			}
 		}
@@ -423,15 +439,8 @@ public final class OutcomeService {
 
 		String fileContent = null;
 
-		// set the connection timeout
-		final RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(TIMEOUT).setRedirectsEnabled(false)
-				.setContentCompressionEnabled(false).build();
-
-		final HttpClient client = HttpClientBuilder.create().setHttpProcessor(HttpProcessorBuilder.create()
-				.addAll(new RequestUserAgent(
-						VersionInfo.getUserAgent("Apache-HttpClient", "org.apache.http.client", OutcomeService.class)),
-						new RequestTargetHost(), new RequestContent())
-				.build()).setDefaultRequestConfig(requestConfig).build();
+		// shared client, the connection returns to the pool when released
+		final HttpClient client = HttpClientManager.getClient();
 
 		final HttpPost httpPost = new HttpPost();
 
@@ -453,6 +462,7 @@ public final class OutcomeService {
 			}
 
 			final HttpResponse response = client.execute(httpPost);
+			discardRejectedToken(response, header);
 			fileContent = processHttpResponse(response);
 
 		} catch (IOException | URISyntaxException e) {
@@ -501,6 +511,22 @@ public final class OutcomeService {
 
 	}
 
+	/**
+	 * Descarta el token de acceso de una petición LTI 1.3 rechazada por el LMS
+	 * (401), para que la siguiente petición pida uno nuevo.
+	 *
+	 * @param response La respuesta del LMS
+	 * @param header   Las cabeceras de la petición, puede ser null
+	 */
+	private static void discardRejectedToken(HttpResponse response, Map<String, String> header) {
+		if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED && header != null) {
+			final String authorization = header.get("Authorization");
+			if (authorization != null && authorization.startsWith("Bearer ")) {
+				AccessTokenManager.invalidate(authorization.substring(7));
+			}
+		}
+	}
+
 	/**
 	 * Solicita el Access Token temporal al LMS (OAuth 2.0 Client Credentials Grant)
 	 *
@@ -511,69 +537,8 @@ public final class OutcomeService {
 	 * @return El Access Token en texto, o null si hay error.
 	 */
 	private static String getLti13AccessToken(String clientId, String tokenUrl, String kid, String scope) {
-		String accessToken = null;
-		try {
-			// Recuperar la Clave Privada de la BD
-			KeyService keyService = new KeyService();
-			RSAKey rsaKey = keyService.getPrivateKey(kid);
-
-			if (rsaKey == null) {
-				logger.error("LTI 1.3 Error: No se encontró la clave privada para el kid: " + kid);
-
-			} else {
-
-				RSAPrivateKey privateKey = rsaKey.toRSAPrivateKey();
-
-				// Generar el JWT firmado (Client Assertion)
-				String clientAssertion = SecurityUtil.createLti13ClientAssertion(clientId, tokenUrl, privateKey,
-						kid);
-
-				// Petición HTTP POST en línea usando Apache HttpClient tal y como lo requiere
-				// el usuario
-				try (CloseableHttpClient client = HttpClients.createDefault()) {
-					HttpPost post = new HttpPost(tokenUrl);
-					// post.setHeader("User-Agent", "Mozilla/5.0 (TPM LTI 1.3 Client)");
-					// post.setHeader("Accept", "application/json");
-					// Añadir parámetros
-					List<NameValuePair> params = new ArrayList<>();
-					params.add(new BasicNameValuePair("grant_type", "client_credentials"));
-					params.add(new BasicNameValuePair("client_assertion_type",
-							"urn:ietf:params:oauth:client-assertion-type:jwt-bearer"));
-					params.add(new BasicNameValuePair("client_assertion", clientAssertion));
-					params.add(new BasicNameValuePair("scope", scope));
-
-					post.setEntity(
-							new UrlEncodedFormEntity(params, StandardCharsets.UTF_8));
-
-					// Ejecutar petición
-					try (CloseableHttpResponse response = client.execute(post)) {
-						int statusCode = response.getStatusLine().getStatusCode();
-						HttpEntity entity = response.getEntity();
-						String body = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8)
-								: "EMPTY_BODY";
-						System.out.println("Estado: " + statusCode);
-						System.out.println("Cuerpo de Respuesta: " + body);
-
-						if (statusCode >= 400) {
-							logger.error("Fallo OAuth. Body crudo del LMS: " + body);
-							accessToken = null; // Salimos después de haber impreso el error
-						} else {
-
-							if (body != null && body.contains("\"access_token\"")) {
-								Map<String, Object> jsonMap = JSONObjectUtils.parse(body);
-								accessToken = (String) jsonMap.get("access_token");
-							} else {
-								logger.error("LTI 1.3 Error: Respuesta no contiene access_token. Body: " + body);
-							}
-						}
-					}
-				}
-			} // closes else
-		} catch (Exception e) {
-			logger.error("Error obteniendo el Access Token LTI 1.3", e);
-			e.printStackTrace();
-		}
-		return accessToken;
+		// En caché hasta que caduque, compartido con NRPS
+		return AccessTokenManager.getToken(clientId, tokenUrl, kid, scope);
 	}
 
 	/**
@@ -591,54 +556,13 @@ public final class OutcomeService {
 		boolean success = false;
 
 		try {
-			// Construir la fecha en formato ISO 8601 exigido por IMS Global
-			String timestamp = DateTimeFormatter.ISO_INSTANT.format(Instant.now());
-			String scoreGivenStr = "";
-			if (value != null && !value.isEmpty()) {
-				scoreGivenStr = "  \"scoreGiven\": " + value + ",\n  \"scoreMaximum\": " + maxValue + ",\n";
-			}
-			// Construir el JSON estricto de AGS
-			String jsonPayload = "{\n" +
-					"  \"timestamp\": \"" + timestamp + "\",\n" +
-					scoreGivenStr +
-					"  \"comment\": \"Actualizado automáticamente por TPM\",\n" +
-					"  \"activityProgress\": \"Completed\",\n" +
-					"  \"gradingProgress\": \"FullyGraded\",\n" +
-					"  \"userId\": \"" + userId + "\"\n" +
-					"}";
-			logger.info("Enviando Nota a URL: " + url + "\nPayload:\n" + jsonPayload + "\n");
-			// El Content-Type DEBE ser exactamente este por estándar:
-			StringEntity entity = new StringEntity(jsonPayload,
-					ContentType.create("application/vnd.ims.lis.v1.score+json", "UTF-8"));
-
 			// Preparar cabeceras con el Token Temporal
 			Map<String, String> headers = new HashMap<>();
 			headers.put("Authorization", "Bearer " + accessToken);
 
-			// Adaptar la URL si es necesario
-			String scoreUrl = url;
-
-			try {
-				URIBuilder ub = new URIBuilder(url);
-				String path = ub.getPath();
-				if (path != null) {
-					if (path.endsWith("linteitems") || path.endsWith("line_items")) {
-						logger.info("URL en plural");
-					} else if (!path.endsWith("/scores")) {
-						ub.setPath(path + "/scores");
-						scoreUrl = ub.build().toString();
-					}
-				}
-			} catch (URISyntaxException e) {
-				logger.error("Invalid AGS URL: {}", url);
-				if (!scoreUrl.endsWith("/scores") && !scoreUrl.endsWith("/lineitems")
-						&& !scoreUrl.endsWith("/line_items")) {
-					scoreUrl += "/scores";
-				}
-			}
-
 			// Enviar la nota
-			String response = sendRequest(scoreUrl, null, headers, entity);
+			String response = sendRequest(getLti13ScoresUrl(url), null, headers,
+					buildLti13Score(userId, value, maxValue));
 
 			if (response != null) {
 				success = true; // Éxito
@@ -651,6 +575,178 @@ public final class OutcomeService {
 		return success;
 	}
 
+	/**
+	 * Construye el cuerpo JSON de una nota AGS.
+	 *
+	 * @param userId   El ID del usuario en el LMS
+	 * @param value    La nota obtenida por el alumno, null para borrarla
+	 * @param maxValue La nota máxima posible
+	 * @return El cuerpo de la petición
+	 */
+	private static StringEntity buildLti13Score(String userId, String value, String maxValue) {
+		// Construir la fecha en formato ISO 8601 exigido por IMS Global
+		String timestamp = DateTimeFormatter.ISO_INSTANT.format(Instant.now());
+		String scoreGivenStr = "";
+		if (value != null && !value.isEmpty()) {
+			scoreGivenStr = "  \"scoreGiven\": " + value + ",\n  \"scoreMaximum\": " + maxValue + ",\n";
+		}
+		// Construir el JSON estricto de AGS
+		String jsonPayload = "{\n" +
+				"  \"timestamp\": \"" + timestamp + "\",\n" +
+				scoreGivenStr +
+				"  \"comment\": \"Actualizado automáticamente por TPM\",\n" +
+				"  \"activityProgress\": \"Completed\",\n" +
+				"  \"gradingProgress\": \"FullyGraded\",\n" +
+				"  \"userId\": \"" + userId + "\"\n" +
+				"}";
+		logger.debug("Payload:\n{}", jsonPayload);
+		// El Content-Type DEBE ser exactamente este por estándar:
+		return new StringEntity(jsonPayload, ContentType.create("application/vnd.ims.lis.v1.score+json", "UTF-8"));
+	}
+
+	/**
+	 * Obtiene la URL de notas (<code>/scores</code>) de un LineItem AGS.
+	 *
+	 * @param url La URL del LineItem (lisOutcomeServiceUrl)
+	 * @return La URL a la que enviar las notas
+	 */
+	static String getLti13ScoresUrl(String url) {
+		String scoreUrl = url;
+		try {
+			URIBuilder ub = new URIBuilder(url);
+			String path = ub.getPath();
+			if (path != null) {
+				if (path.endsWith("linteitems") || path.endsWith("line_items")) {
+					logger.info("URL en plural");
+				} else if (!path.endsWith("/scores")) {
+					ub.setPath(path + "/scores");
+					scoreUrl = ub.build().toString();
+				}
+			}
+		} catch (URISyntaxException e) {
+			logger.error("Invalid AGS URL: {}", url);
+			if (!scoreUrl.endsWith("/scores") && !scoreUrl.endsWith("/lineitems")
+					&& !scoreUrl.endsWith("/line_items")) {
+				scoreUrl += "/scores";
+			}
+		}
+		return scoreUrl;
+	}
+
+	/**
+	 * Respuesta del LMS a una nota AGS.
+	 */
+	static final class ScoreResult {
+		/**
+		 * Código HTTP, 0 si hubo error de red.
+		 */
+		private final int status;
+		/**
+		 * Espera pedida por el LMS (<code>Retry-After</code>) en milisegundos, 0 si
+		 * no la indica.
+		 */
+		private final long retryAfterMillis;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param status           Código HTTP, 0 si hubo error de red
+		 * @param retryAfterMillis Espera pedida por el LMS en milisegundos
+		 */
+		ScoreResult(int status, long retryAfterMillis) {
+			this.status = status;
+			this.retryAfterMillis = retryAfterMillis;
+		}
+
+		/**
+		 * Indica si la nota se guardó.
+		 *
+		 * @return true si el código HTTP es 2xx
+		 */
+		boolean isSuccess() {
+			return status >= 200 && status < 300;
+		}
+
+		/**
+		 * Indica si el LMS pide reducir el ritmo de peticiones (429 o 503).
+		 *
+		 * @return true si hay que esperar antes de seguir enviando
+		 */
+		boolean isThrottled() {
+			return status == HttpStatus.SC_TOO_MANY_REQUESTS
+					|| status == HttpStatus.SC_SERVICE_UNAVAILABLE && retryAfterMillis > 0;
+		}
+
+		/**
+		 * Obtiene la espera pedida por el LMS.
+		 *
+		 * @return La espera en milisegundos, 0 si no la indica
+		 */
+		long getRetryAfterMillis() {
+			return retryAfterMillis;
+		}
+	}
+
+	/**
+	 * Envía una nota AGS a una URL de notas ya calculada, devolviendo el código
+	 * HTTP y la cabecera <code>Retry-After</code>.
+	 *
+	 * @param scoresUrl   La URL de notas (ver {@link #getLti13ScoresUrl(String)})
+	 * @param userId      El ID del usuario en el LMS
+	 * @param value       La nota obtenida por el alumno
+	 * @param maxValue    La nota máxima posible
+	 * @param accessToken El token de autorización
+	 * @return La respuesta del LMS
+	 */
+	static ScoreResult sendLti13Score(String scoresUrl, String userId, String value, String maxValue,
+			String accessToken) {
+		int status = 0;
+		long retryAfter = 0;
+		final HttpPost httpPost = new HttpPost(scoresUrl);
+		httpPost.setEntity(buildLti13Score(userId, value, maxValue));
+		httpPost.addHeader("Authorization", "Bearer " + accessToken);
+		try (CloseableHttpResponse response = HttpClientManager.getClient().execute(httpPost)) {
+			status = response.getStatusLine().getStatusCode();
+			if (status == HttpStatus.SC_UNAUTHORIZED) {
+				AccessTokenManager.invalidate(accessToken);
+			}
+			final Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+			if (header != null) {
+				retryAfter = parseRetryAfter(header.getValue());
+			}
+			final String body = response.getEntity() != null
+					? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8)
+					: null;
+			if (status == HttpStatus.SC_TOO_MANY_REQUESTS) {
+				logger.warn("Too many requests to {}, retry after {} ms", scoresUrl, retryAfter);
+			} else if (status >= 400) {
+				logger.error("HTTP error response {} from {}: {}", status, scoresUrl, body);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			logger.error("Network or URI Error sending score to " + scoresUrl, e);
+		}
+		return new ScoreResult(status, retryAfter);
+	}
+
+	/**
+	 * Interpreta la cabecera <code>Retry-After</code> (segundos o fecha HTTP).
+	 *
+	 * @param value El valor de la cabecera
+	 * @return La espera en milisegundos, 0 si no es válida
+	 */
+	private static long parseRetryAfter(String value) {
+		long millis = 0;
+		try {
+			millis = Long.parseLong(value.trim()) * 1000;
+		} catch (final NumberFormatException e) {
+			final java.util.Date date = DateUtils.parseDate(value);
+			if (date != null) {
+				millis = date.getTime() - System.currentTimeMillis();
+			}
+		}
+		return Math.max(0, millis);
+	}
+
 	/**
 	 * Envía una petición HTTP GET (necesaria para lectura de notas en LTI 1.3).
 	 * 
@@ -661,14 +757,7 @@ public final class OutcomeService {
 	 */
 	private static String sendGetRequest(String url, Map<String, String> header) {
 		String fileContent = null;
-		final RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(TIMEOUT).setRedirectsEnabled(false)
-				.setContentCompressionEnabled(false).build();
-
-		final HttpClient client = HttpClientBuilder.create().setHttpProcessor(HttpProcessorBuilder.create()
-				.addAll(new RequestUserAgent(
-						VersionInfo.getUserAgent("Apache-HttpClient", "org.apache.http.client", OutcomeService.class)),
-						new RequestTargetHost(), new RequestContent())
-				.build()).setDefaultRequestConfig(requestConfig).build();
+		final HttpClient client = HttpClientManager.getClient();
 
 		final org.apache.http.client.methods.HttpGet httpGet = new org.apache.http.client.methods.HttpGet();
 
@@ -680,6 +769,7 @@ public final class OutcomeService {
 				}
 			}
 			final HttpResponse response = client.execute(httpGet);
+			discardRejectedToken(response, header);
 			fileContent = processHttpResponse(response);
 		} catch (IOException | URISyntaxException e) {
 			logger.error("Error en petición GET", e);
@@ -698,16 +788,22 @@ public final class OutcomeService {
 	 * @param clientId El Client ID de tu herramienta
 	 * @param tokenUrl La URL de tokens del LMS (Token Endpoint)
 	 * @param kid      El identificador de tu clave pública/privada
-	 * @return La nota obtenida como texto, o null si hubo error o no hay nota.
+	 * @return La nota obtenida como texto (de 0 a 1, normalizada con
+	 *         resultMaximum), o null si hubo error o no hay nota.
 	 */
 	public static String readLti13Outcome(ResourceUser user, String clientId, String tokenUrl, String kid) {
 		String result = null;
 		final String url = user.getResourceLink().getOutcomeServiceUrl();
 
 		if (url != null && !url.isEmpty()) {
+			// Nota leída o enviada hace poco
+			result = scoreCache.get(getScoreKey(url, user.getResultSourceId()));
+			if (result != null) {
+				return result;
+			}
 			// Solicitamos permiso exclusivo de LECTURA (result.readonly)
 			String accessToken = getLti13AccessToken(clientId, tokenUrl, kid,
-					"https://purl.imsglobal.org/spec/lti-ags/scope/result.readonly");
+					AccessTokenManager.SCOPE_RESULT_READONLY);
 
 			if (accessToken != null) {
 				try {
@@ -737,7 +833,11 @@ public final class OutcomeService {
 								// Parseo seguro usando JSONObjectUtils de Nimbus
 								Map<String, Object> jsonMap = JSONObjectUtils.parse(cleanResponse);
 								if (jsonMap.containsKey("resultScore")) {
-									result = String.valueOf(jsonMap.get("resultScore"));
+									// Escala de 0 a 1, como la nota escrita que se guarda en caché
+									final Object max = jsonMap.get("resultMaximum");
+									result = normalizeScore(String.valueOf(jsonMap.get("resultScore")),
+											max != null ? String.valueOf(max) : "1.0");
+									cacheScore(url, user.getResultSourceId(), result);
 								}
 							}
 						}
@@ -752,4 +852,48 @@ public final class OutcomeService {
 		return result;
 	}
 
+	/**
+	 * Gets the key of a score in the cache.
+	 *
+	 * @param lineItem       URL of the outcome service or line item
+	 * @param resultSourceId result source ID (user ID in LTI 1.3)
+	 * @return the key
+	 */
+	private static String getScoreKey(String lineItem, String resultSourceId) {
+		return lineItem + " " + resultSourceId;
+	}
+
+	/**
+	 * Updates a cached score, after reading it or writing it successfully.
+	 *
+	 * @param lineItem       URL of the outcome service or line item
+	 * @param resultSourceId result source ID (user ID in LTI 1.3)
+	 * @param value          score between 0.0 and 1.0, null or empty to remove it
+	 */
+	static void cacheScore(String lineItem, String resultSourceId, String value) {
+		final String key = getScoreKey(lineItem, resultSourceId);
+		if (value == null || value.isEmpty()) {
+			scoreCache.remove(key);
+		} else {
+			scoreCache.put(key, value);
+		}
+	}
+
+	/**
+	 * Converts a score to the scale from 0.0 to 1.0.
+	 *
+	 * @param value    the score
+	 * @param maxValue maximum score
+	 * @return the normalized score or null if they are not numbers
+	 */
+	private static String normalizeScore(String value, String maxValue) {
+		try {
+			final double max = Double.parseDouble(maxValue);
+			final double score = Double.parseDouble(value);
+			return max == 1.0 ? value : max > 0 ? String.valueOf(score / max) : null;
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
 }
@@ -0,0 +1,317 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.DefaultResourceRetriever;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+
+/**
+ * Cache of the public keys (JWKS) of LTI 1.3 platforms, used to verify the
+ * signature of id_tokens.
+ *
+ * <p>Keys are downloaded and refreshed ahead of expiration by background
+ * threads, so launches do not download them. A launch only waits for a
+ * download when the platform keys are not loaded yet or the token uses an
+ * unknown key ID; in that case the download is shared with other launches and
+ * it is not repeated more than once per {@link #MIN_REFETCH_MILLIS}. If the
+ * platform is down, the last keys downloaded are still used.
+ *
+ * <p>Each platform has a reusable JWT processor. Platforms not used for
+ * {@link #IDLE_MILLIS} are removed.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class PlatformKeyCache {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(PlatformKeyCache.class);
+
+	/**
+	 * Period of refresh of keys in seconds.
+	 */
+	public static final long REFRESH_SECONDS = 300;
+	/**
+	 * Minimum time between downloads caused by unknown key IDs.
+	 */
+	public static final long MIN_REFETCH_MILLIS = 30000;
+	/**
+	 * Maximum time that a launch waits for a download.
+	 */
+	public static final long MAX_WAIT_MILLIS = 5000;
+	/**
+	 * Time without use after which a platform is removed.
+	 */
+	public static final long IDLE_MILLIS = 24 * 3600 * 1000L;
+	/**
+	 * Timeouts of downloads in milliseconds.
+	 */
+	private static final int HTTP_TIMEOUT = 10000;
+	/**
+	 * Maximum size of JWKS documents.
+	 */
+	private static final int SIZE_LIMIT = 50000;
+
+	/**
+	 * Platforms by JWKS URL.
+	 */
+	private static final Map<String, Platform> platforms = new ConcurrentHashMap<>();
+
+	/**
+	 * Executor of downloads, null if not started.
+	 */
+	private static ScheduledExecutorService executor = null;
+
+	/**
+	 * Keys of a platform.
+	 */
+	private static final class Platform implements JWKSource<SecurityContext> {
+		/**
+		 * JWKS URL.
+		 */
+		private final String url;
+		/**
+		 * Downloader.
+		 */
+		private final DefaultResourceRetriever retriever = new DefaultResourceRetriever(HTTP_TIMEOUT, HTTP_TIMEOUT,
+				SIZE_LIMIT);
+		/**
+		 * Reusable processor.
+		 */
+		private final ConfigurableJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+		/**
+		 * Last keys downloaded, null if none.
+		 */
+		private volatile JWKSet keys = null;
+		/**
+		 * Time of last use.
+		 */
+		private volatile long lastUsed = System.currentTimeMillis();
+		/**
+		 * Time of last download started. Guarded by this.
+		 */
+		private long lastFetch = 0;
+		/**
+		 * Download in progress, null if none. Guarded by this.
+		 */
+		private CompletableFuture<Void> pending = null;
+		/**
+		 * Periodic refresh.
+		 */
+		private volatile ScheduledFuture<?> refresher = null;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param url JWKS URL
+		 */
+		private Platform(String url) {
+			this.url = url;
+			processor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, this));
+		}
+
+		/**
+		 * Starts a download if there is not one in progress.
+		 *
+		 * @param limited true to not start it if other started recently
+		 * @return the download in progress
+		 */
+		private synchronized CompletableFuture<Void> fetch(boolean limited) {
+			final long now = System.currentTimeMillis();
+			if (pending == null && (!limited || now - lastFetch >= MIN_REFETCH_MILLIS)) {
+				lastFetch = now;
+				final CompletableFuture<Void> f = CompletableFuture.runAsync(this::download, getExecutor());
+				pending = f;
+				f.whenComplete((r, e) -> {
+					synchronized (this) {
+						pending = null;
+					}
+				});
+			}
+			return pending != null ? pending : CompletableFuture.completedFuture(null);
+		}
+
+		/**
+		 * Downloads the keys, keeping the previous ones on error.
+		 */
+		private void download() {
+			try {
+				final Resource resource = retriever.retrieveResource(URI.create(url).toURL());
+				keys = JWKSet.parse(resource.getContent());
+				logger.debug("JWKS downloaded: {}", url);
+			} catch (final Exception e) {
+				if (keys != null) {
+					logger.warn("Error downloading JWKS {}, using previous keys: {}", url, e.getMessage());
+				} else {
+					logger.error("Error downloading JWKS {}: {}", url, e.getMessage());
+				}
+			}
+		}
+
+		/**
+		 * Periodic task: refreshes the keys or removes the platform if idle.
+		 */
+		private void refresh() {
+			if (System.currentTimeMillis() - lastUsed > IDLE_MILLIS) {
+				platforms.remove(url, this);
+				refresher.cancel(false);
+			} else {
+				fetch(false);
+			}
+		}
+
+		@Override
+		public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) {
+			JWKSet current = keys;
+			List<JWK> selected = current != null ? jwkSelector.select(current) : Collections.emptyList();
+			if (selected.isEmpty()) {
+				// Not loaded yet or unknown kid
+				await(fetch(true));
+				current = keys;
+				if (current != null) {
+					selected = jwkSelector.select(current);
+				}
+			}
+			return selected;
+		}
+	}
+
+	/**
+	 * Can not create objects.
+	 */
+	private PlatformKeyCache() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Gets the executor, starting it if necessary.
+	 *
+	 * @return the executor
+	 */
+	private static synchronized ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newScheduledThreadPool(2, r -> {
+				final Thread t = new Thread(r, "jwks-refresher");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Stops the background threads and removes all platforms.
+	 */
+	public static synchronized void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		platforms.clear();
+	}
+
+	/**
+	 * Waits for a download a limited time.
+	 *
+	 * @param download the download
+	 */
+	private static void await(CompletableFuture<Void> download) {
+		try {
+			download.get(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException | TimeoutException e) {
+			logger.warn("JWKS not available yet: {}", e.toString());
+		}
+	}
+
+	/**
+	 * Gets a platform, registering it if necessary.
+	 *
+	 * @param jwksUrl JWKS URL of the platform
+	 * @return the platform
+	 */
+	private static Platform getPlatform(String jwksUrl) {
+		Platform p = platforms.get(jwksUrl);
+		if (p == null) {
+			final Platform created = new Platform(jwksUrl);
+			p = platforms.putIfAbsent(jwksUrl, created);
+			if (p == null) {
+				p = created;
+				p.fetch(false);
+				p.refresher = getExecutor().scheduleWithFixedDelay(p::refresh, REFRESH_SECONDS, REFRESH_SECONDS,
+						TimeUnit.SECONDS);
+			}
+		}
+		p.lastUsed = System.currentTimeMillis();
+		return p;
+	}
+
+	/**
+	 * Starts the download of the keys of a platform in background, if they are
+	 * not loaded.
+	 *
+	 * <p>It is called in the OIDC login, before the launch needs them.
+	 *
+	 * @param jwksUrl JWKS URL of the platform
+	 */
+	public static void prefetch(String jwksUrl) {
+		if (jwksUrl != null && !jwksUrl.isEmpty()) {
+			getPlatform(jwksUrl);
+		}
+	}
+
+	/**
+	 * Gets the reusable JWT processor of a platform, that verifies RS256
+	 * signatures with its keys.
+	 *
+	 * @param jwksUrl JWKS URL of the platform
+	 * @return the processor
+	 */
+	public static ConfigurableJWTProcessor<SecurityContext> getProcessor(String jwksUrl) {
+		return getPlatform(jwksUrl).processor;
+	}
+}
@@ -19,7 +19,6 @@
 
 package es.us.dit.lti;
 
-import java.net.URI;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -30,8 +29,6 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -48,15 +45,10 @@ import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.jwk.source.JWKSource;
-import com.nimbusds.jose.proc.JWSKeySelector;
-import com.nimbusds.jose.proc.JWSVerificationKeySelector;
 import com.nimbusds.jose.proc.SecurityContext;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
-import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 
 import es.us.dit.lti.entity.IUpdateRecordEntity;
 
@@ -130,10 +122,6 @@ public final class SecurityUtil {
 	 * timeout in case of encryption error to avoid brute force attacks.
 	 */
 	private static final long ERROR_INTERVAL = 6000L; // 6 seconds
-	/**
- 	* Caché para reutilizar las fuentes de claves JWK de los distintos LMS.
- 	*/
-	private static final ConcurrentMap<String, JWKSource<SecurityContext>> jwkSourceCache = new ConcurrentHashMap<>();
 
 	// Initialize all class members.
 	static {
@@ -424,32 +412,12 @@ public final class SecurityUtil {
 	}
 	/*
      * Valida un ID Token (JWT) recibido del LMS para LTI 1.3.
-     * Descarga las claves públicas del LMS y verifica la firma.
+     * Verifica la firma con las claves públicas del LMS en caché.
      */
 	public static JWTClaimsSet validateLti13Token(String idTokenString, String jwksUrl, String expectedIssuer, String expectedClientId) throws Exception {
 		
-		// Configurar el procesador de JWT
-		ConfigurableJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
-
-		// Configurar la fuente de claves (Remote JWK Set)
-		JWKSource<SecurityContext> keySource = jwkSourceCache.computeIfAbsent(jwksUrl, url -> {
-			try {
-			com.nimbusds.jose.util.DefaultResourceRetriever resourceRetriever = 
-            new com.nimbusds.jose.util.DefaultResourceRetriever(10000, 10000, 50000);
-        	return new com.nimbusds.jose.jwk.source.RemoteJWKSet<>(
-            URI.create(url).toURL(), 
-            resourceRetriever
-        );
-			} catch (Exception e) {
-				logger.error("Error creando el JWKSource para la URL: " + url, e);
-				throw new RuntimeException("No se pudo construir la fuente de claves JWKS", e);
-			}
-		});
-
-        //Esperamos firma RSA (RS256)
-        JWSAlgorithm expectedJWSAlg = JWSAlgorithm.RS256;
-        JWSKeySelector<SecurityContext> keySelector = new JWSVerificationKeySelector<>(expectedJWSAlg, keySource);
-        jwtProcessor.setJWSKeySelector(keySelector);
+		// Procesador reutilizable con las claves del LMS en caché (ver PlatformKeyCache)
+		ConfigurableJWTProcessor<SecurityContext> jwtProcessor = PlatformKeyCache.getProcessor(jwksUrl);
 
         // Procesar y verificar firma
         JWTClaimsSet claims = jwtProcessor.process(idTokenString, null);
@@ -478,6 +446,20 @@ public final class SecurityUtil {
 	 * @throws Exception Si hay un error en la firma.
 	 */
 	public static String createLti13ClientAssertion(String clientId, String tokenUrl, java.security.interfaces.RSAPrivateKey privateKey, String keyId) throws Exception {
+		return createLti13ClientAssertion(clientId, tokenUrl, new com.nimbusds.jose.crypto.RSASSASigner(privateKey), keyId);
+	}
+
+	/**
+	 * Genera un JWT (Client Assertion) firmado con un firmante reutilizable.
+	 *
+	 * @param clientId El Client ID de la herramienta.
+	 * @param tokenUrl La URL del endpoint de tokens del LMS (Token URL).
+	 * @param signer   El firmante de la clave privada, ver {@link es.us.dit.lti.persistence.KeyService}.
+	 * @param keyId    El identificador de la clave (kid) que publicas en tu JWKS.
+	 * @return El JWT serializado listo para enviar.
+	 * @throws Exception Si hay un error en la firma.
+	 */
+	public static String createLti13ClientAssertion(String clientId, String tokenUrl, com.nimbusds.jose.JWSSigner signer, String keyId) throws Exception {
 		
 		// 5 minutos de validez es el estándar recomendado para Client Assertions en OAuth 2.0
 		java.util.Date now = new java.util.Date();
@@ -501,7 +483,6 @@ public final class SecurityUtil {
 
 		// Firmar el JWT con tu Clave Privada
 		SignedJWT signedJWT = new SignedJWT(header, claimsSet);
-		com.nimbusds.jose.JWSSigner signer = new com.nimbusds.jose.crypto.RSASSASigner(privateKey);
 		signedJWT.sign(signer);
 
 		// Devolver el JWT serializado en texto
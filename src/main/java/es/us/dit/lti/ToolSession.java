@@ -46,14 +46,15 @@ import es.us.dit.lti.entity.ResourceUser;
 import es.us.dit.lti.entity.Settings;
 import es.us.dit.lti.entity.Tool;
 import es.us.dit.lti.entity.ToolKey;
+import es.us.dit.lti.persistence.LaunchDao;
 import es.us.dit.lti.persistence.Lti13ToolConfig;
+import es.us.dit.lti.persistence.NonceService;
 import es.us.dit.lti.persistence.ToolConsumerDao;
 import es.us.dit.lti.persistence.ToolConsumerUserDao;
 import es.us.dit.lti.persistence.ToolContextDao;
 
 import es.us.dit.lti.persistence.ToolKeyDao;
-import es.us.dit.lti.persistence.ToolLti13Dao;
-import es.us.dit.lti.persistence.ToolNonceDao;
+import es.us.dit.lti.persistence.Lti13Registry;
 import es.us.dit.lti.persistence.ToolResourceLinkDao;
 import es.us.dit.lti.persistence.ToolResourceUserDao;
 import jakarta.servlet.http.HttpServletRequest;
@@ -810,91 +811,16 @@ public final class ToolSession implements Serializable {
 		} else if (request.getParameter("ext_launch_presentation_css_url") != null) {
 			auxConsumer.setCssPath(request.getParameter("ext_launch_presentation_css_url"));
 		}
-		// Check if exist
-		if (toolKey.getConsumer() != null) {
-			consumer = toolKey.getConsumer();
-		} else {
-			consumer = ToolConsumerDao.getByGuid(consumerGuid);
-		}
-		if (consumer != null) {
-			// compare with auxConsumer and update
-			if (!consumer.equals(auxConsumer)) {
-				logger.info("Consumer has changed");
-				auxConsumer.setSid(consumer.getSid());
-				ToolConsumerDao.update(auxConsumer);
-				consumer = auxConsumer;
-				logger.info("Consumer updated: {}", auxConsumer.getName());
-			}
-		} else // if not exist, create
-		if (!ToolConsumerDao.create(auxConsumer)) {
-			logger.error("I can't continue because I can't create the consumer");
-			return valid;
-		} else {
-			consumer = auxConsumer;
-			logger.info("New Consumer created: {}", auxConsumer.getName());
-		}
-
-		// Check nonce
-		// "The LTI parameter oauth_nonce in combination with the oauth_timestamp is
-		// used by the OAuth authentication
-		// protocol as a defense against man-in-the-middle attacks."
-		// Unique for a tool consumer
-		int ts = 0;
-		try {
-			ts = Integer.parseInt(request.getParameter("oauth_timestamp"));
-		} catch (final NumberFormatException e) {
-			logger.error("Error getting oauth_timestamp: {}", request.getParameter("oauth_timestamp"));
-		}
-		final Nonce nonce = new Nonce(toolKey.getSid(), consumer.getSid(), request.getParameter("oauth_nonce"), ts,
-				DEFAULT_NONCE_DURATION);
-		if (!ToolNonceDao.exist(nonce)) {
-			ToolNonceDao.create(nonce);
-		} else {
-			logger.error("Nonce exists");
-			error = "T_LTI_ERROR_NONCE_DUPLICADO";
-			return valid;
-		}
-		// Delete expired nonces
-		ToolNonceDao.deleteExpired();
-
-		// Create/update objects
-
-		// Consumer data (before)
 
 		// Context data
 		final Context auxContext = new Context();
-		auxContext.setConsumer(consumer);
 		auxContext.setContextId(contextId);
 		auxContext.setLabel(request.getParameter("context_label"));
 		auxContext.setTitle(request.getParameter("context_title"));
-		// Check if exist
-		if (toolKey.getContext() != null) {
-			context = toolKey.getContext();
-		} else {
-			context = ToolContextDao.getById(consumer, contextId);
-		}
-		if (context != null) {
-			// compare with auxConsumer and update
-			if (!context.equals(auxContext)) {
-				logger.info("Context has changed");
-				auxContext.setSid(context.getSid());
-				ToolContextDao.update(auxContext);
-				context = auxContext;
-				logger.info("Context updated: {}", auxContext.getContextId());
-			}
-		} else // if not exist, create
-		if (!ToolContextDao.create(auxContext)) {
-			logger.error("I can't continue because I can't create the context");
-			return valid;
-		} else {
-			context = auxContext;
-			logger.info("New Context created: {}", auxContext.getContextId());
-		}
 
 		// Resource link data
 		final ResourceLink auxResourceLink = new ResourceLink();
 		auxResourceLink.setTool(tool);
-		auxResourceLink.setContext(context);
 		auxResourceLink.setResourceId(resourceLinkId);
 		auxResourceLink.setTitle(request.getParameter("resource_link_title"));
 		auxResourceLink.setOutcomeServiceUrl(request.getParameter("lis_outcome_service_url"));
@@ -905,35 +831,9 @@ public final class ToolSession implements Serializable {
 				auxResourceLink.setCustomProperty(name, request.getParameter(name));
 			}
 		}
-		// Check if exist
-		if (toolKey.getResourceLink() != null) {
-			resourceLink = toolKey.getResourceLink();
-		} else {
-			final Integer toolSid = auxResourceLink.getTool() == null ? null : auxResourceLink.getTool().getSid();
-			final Integer contextSid = auxResourceLink.getContext() == null ? null
-					: auxResourceLink.getContext().getSid();
-			resourceLink = ToolResourceLinkDao.getById(toolSid, contextSid, resourceLinkId);
-		}
-		if (resourceLink != null) {
-			auxResourceLink.setSid(resourceLink.getSid());
-			// compare with aux and update
-			if (!resourceLink.equals(auxResourceLink)) {
-				logger.info("Resource Link has changed");
-				ToolResourceLinkDao.update(auxResourceLink);
-				logger.info("Resource Link updated : {}", auxResourceLink.getResourceId());
-			}
-			resourceLink = auxResourceLink;
-		} else if (!ToolResourceLinkDao.create(auxResourceLink)) { // if not exist, create
-			logger.error("I can't continue because I can't create the resource link");
-			return valid;
-		} else {
-			resourceLink = auxResourceLink;
-			logger.info("New Resource Link created: {}", auxResourceLink.getResourceId());
-		}
 
 		// user data
-		LtiUser user = new LtiUser();
-		user.setConsumer(consumer);
+		final LtiUser user = new LtiUser();
 		user.setUserId(request.getParameter("user_id").trim());
 		user.setNameGiven(request.getParameter("lis_person_name_given"));
 		user.setNameFamily(request.getParameter("lis_person_name_family"));
@@ -950,54 +850,45 @@ public final class ToolSession implements Serializable {
 		}
 		user.setSourceId(sourceId);
 
-		// Check if exist
-		final LtiUser auxUser = ToolConsumerUserDao.getById(consumer.getSid(), user.getUserId());
+		// resource_user data
+		final ResourceUser auxResourceUser = new ResourceUser();
+		auxResourceUser.setResultSourceId(request.getParameter("lis_result_sourcedid"));
 
-		if (auxUser != null) {
-			// compare with auxConsumer and update
-			if (!auxUser.equals(user)) {
-				logger.info("LTI User has changed");
-				user.setSid(auxUser.getSid());
-				ToolConsumerUserDao.update(user);
-				logger.info("LTI user updated: {}", user.getSourceId());
-			} else {
-				user = auxUser;
-			}
-		} else // if not exist, create
-		if (!ToolConsumerUserDao.create(user)) {
-			logger.error("I can't continue because I can't create the LTI user");
+		// Create/update objects in a single transaction
+		final LaunchDao.Launch launch = new LaunchDao.Launch(true);
+		launch.setConsumer(auxConsumer);
+		launch.setContext(auxContext);
+		launch.setResourceLink(auxResourceLink);
+		launch.setUser(user);
+		launch.setResourceUser(auxResourceUser);
+		if (!LaunchDao.save(launch)) {
+			logger.error("I can't continue because I can't save the launch data");
 			return valid;
-		} else {
-			logger.info("New LTI user created: {}", user.getSourceId());
 		}
+		consumer = launch.getConsumer();
+		context = launch.getContext();
+		resourceLink = launch.getResourceLink();
+		ltiResourceUser = launch.getResourceUser();
 
-		// resource_user data
-		final ResourceUser auxResourceUser = new ResourceUser();
-		auxResourceUser.setResourceLink(resourceLink);
-		auxResourceUser.setUser(user);
-		auxResourceUser.setResultSourceId(request.getParameter("lis_result_sourcedid"));
-		// Check if exist
-		ltiResourceUser = ToolResourceUserDao.getById(resourceLink.getSid(), user.getSid());
-		if (ltiResourceUser != null) {
-			// compare with aux and update
-			if (!ltiResourceUser.equals(auxResourceUser)) {
-				logger.info("Resource User has changed");
-				auxResourceUser.setSid(ltiResourceUser.getSid());
-				ToolResourceUserDao.update(auxResourceUser);
-				logger.info("Resource User updated.");
-				ltiResourceUser = auxResourceUser;
-			} else {
-				// equals, complete fields
-				ltiResourceUser.setResourceLink(resourceLink);
-				ltiResourceUser.setUser(user);
-			}
-		} else // if not exist, create
-		if (!ToolResourceUserDao.create(auxResourceUser)) {
-			logger.error("I can't continue because I can't create the resource user");
+		// Check nonce
+		// "The LTI parameter oauth_nonce in combination with the oauth_timestamp is
+		// used by the OAuth authentication
+		// protocol as a defense against man-in-the-middle attacks."
+		// Unique for a tool consumer
+		// A replayed launch has the same data, so nothing has been written before.
+		int ts = 0;
+		try {
+			ts = Integer.parseInt(request.getParameter("oauth_timestamp"));
+		} catch (final NumberFormatException e) {
+			logger.error("Error getting oauth_timestamp: {}", request.getParameter("oauth_timestamp"));
+		}
+		final Nonce nonce = new Nonce(toolKey.getSid(), consumer.getSid(), request.getParameter("oauth_nonce"), ts,
+				DEFAULT_NONCE_DURATION);
+		// Expired nonces are deleted in background
+		if (!NonceService.checkAndAdd(nonce)) {
+			logger.error("Nonce exists");
+			error = "T_LTI_ERROR_NONCE_DUPLICADO";
 			return valid;
-		} else {
-			logger.info("New Resource User created.");
-			ltiResourceUser = auxResourceUser;
 		}
 
 		// Session data
@@ -1039,8 +930,7 @@ public final class ToolSession implements Serializable {
 				this.lti13ClientId = clientId;
 				this.lti13DeploymentId = claims
 						.getStringClaim("https://purl.imsglobal.org/spec/lti/claim/deployment_id");
-				ToolLti13Dao lti13Dao = new ToolLti13Dao();
-				Lti13ToolConfig toolConfig = lti13Dao.findByClientId(clientId);
+				Lti13ToolConfig toolConfig = Lti13Registry.findConfigByClientId(clientId);
 
 				// Mapear Datos de Presentación (Launch Presentation)
 				// Usamos getJSONObjectClaim que devuelve un Map estándar
@@ -1062,36 +952,29 @@ public final class ToolSession implements Serializable {
 
 				String issuer = claims.getIssuer();
 
-				// Buscamos si ya conocemos este LMS usando el 'iss' como GUID
-				this.consumer = ToolConsumerDao.getByGuid(issuer);
+				// Usamos el 'iss' como GUID del consumidor. Solo se crea si no existe
+				Consumer auxConsumer = new Consumer();
+				auxConsumer.setGuid(issuer);
+				auxConsumer.setLtiVersion("1.3.0");
 
-				// Si no existe, lo creamos
-				if (this.consumer == null) {
-					this.consumer = new Consumer();
-					this.consumer.setGuid(issuer);
-					this.consumer.setLtiVersion("1.3.0");
+				// Intentamos sacar nombre y versión del claim 'tool_platform' si viene
+				Map<String, Object> platformClaim = claims
+						.getJSONObjectClaim("https://purl.imsglobal.org/spec/lti/claim/tool_platform");
+				if (platformClaim != null) {
 
-					// Intentamos sacar nombre y versión del claim 'tool_platform' si viene
-					Map<String, Object> platformClaim = claims
-							.getJSONObjectClaim("https://purl.imsglobal.org/spec/lti/claim/tool_platform");
-					if (platformClaim != null) {
-
-						String name = (String) platformClaim.get("name");
-						String version = (String) platformClaim.get("version");
-						this.consumer.setName(name != null ? name : issuer);
-						this.consumer.setVersion(version != null ? version : "Unknown");
-					} else {
-						this.consumer.setName(issuer);
-						this.consumer.setVersion("Unknown");
-					}
-
-					// Guardamos en BBDD
-					boolean created = ToolConsumerDao.create(this.consumer);
-					if (!created) {
-						throw new Exception("Error crítico: No se pudo crear el ToolConsumer para " + issuer);
-					}
+					String name = (String) platformClaim.get("name");
+					String version = (String) platformClaim.get("version");
+					auxConsumer.setName(name != null ? name : issuer);
+					auxConsumer.setVersion(version != null ? version : "Unknown");
+				} else {
+					auxConsumer.setName(issuer);
+					auxConsumer.setVersion("Unknown");
 				}
 
+				// Todo se guarda en una única transacción, sin reemplazar los datos existentes
+				LaunchDao.Launch launch = new LaunchDao.Launch(false);
+				launch.setConsumer(auxConsumer);
+
 				// Gestionar Contexto (Curso)
 				Map<String, Object> contextClaim = claims
 						.getJSONObjectClaim("https://purl.imsglobal.org/spec/lti/claim/context");
@@ -1106,27 +989,12 @@ public final class ToolSession implements Serializable {
 						contextLabel = "LTI " + contextId;
 					}
 
-					// Buscamos si ya existe este curso para este consumidor
-
-					Context existingContext = ToolContextDao.getById(this.consumer, contextId);
-
-					if (existingContext != null) {
-						this.context = existingContext;
-					} else {
-						// Si no existe, creamos el objeto Context y lo vinculamos al Consumer
-						Context newContext = new Context();
-						newContext.setContextId(contextId);
-						newContext.setTitle(contextTitle);
-						newContext.setLabel(contextLabel);
-						newContext.setConsumer(this.consumer); // Vinculamos con el padre Consumer
-
-						boolean created = ToolContextDao.create(newContext);
-						if (created) {
-							this.context = newContext;
-						} else {
-							logger.error("Error creando Contexto LTI 1.3: " + contextId);
-						}
-					}
+					// Solo se crea si no existe este curso para este consumidor
+					Context newContext = new Context();
+					newContext.setContextId(contextId);
+					newContext.setTitle(contextTitle);
+					newContext.setLabel(contextLabel);
+					launch.setContext(newContext);
 				}
 				// Recursos (Resource Link)
 				Map<String, Object> resourceLinkClaim = claims
@@ -1150,75 +1018,40 @@ public final class ToolSession implements Serializable {
 						}
 					}
 
-					// Preparamos los IDs para la consulta
-
-					Integer contextSid = null;
-					if (this.context != null) {
-						contextSid = this.context.getSid();
-					}
-					Integer toolSid = null;
-					if (this.tool != null) {
-						toolSid = this.tool.getSid();
-					}
-
-					// Buscamos el enlace de recurso
-					this.resourceLink = ToolResourceLinkDao.getById(toolSid, contextSid, resourceLinkId);
+					// Se busca por herramienta, contexto e id. Si existe, se actualizan el
+					// título, la toolKey y la URL de AGS si han cambiado
+					ResourceLink newLink = new ResourceLink();
+					newLink.setResourceId(resourceLinkId);
+					newLink.setTitle(resourceLinkTitle);
+					newLink.setTool(this.tool);
+					newLink.setToolKey(this.toolKey);
 
-					// Si no existe, lo creamos
-					if (this.resourceLink == null) {
-						ResourceLink newLink = new ResourceLink();
-						newLink.setResourceId(resourceLinkId);
-						newLink.setTitle(resourceLinkTitle);
+					// CALIFICACIONES AGS (Assignment and Grade Services)
 
-						// Vinculamos con el Contexto y el Consumer padre
-						newLink.setContext(this.context);
+					Map<String, Object> agsClaim = claims
+							.getJSONObjectClaim("https://purl.imsglobal.org/spec/lti-ags/claim/endpoint");
 
-						// Si tenemos herramienta asignada, la vinculamos
-						if (this.tool != null) {
-							newLink.setTool(this.tool);
-						}
+					if (agsClaim != null) {
+						// Si el claim existe, el LMS permite calificar
+						this.outcomeAllowed = true;
 
-						// Si tenemos toolKey asignada, la vinculamos
-						if (this.toolKey != null) {
-							newLink.setToolKey(this.toolKey);
+						// 'lineitem' es la URL específica donde enviaremos la nota
+						// La guardamos en la variable que OutcomeService antiguo seguramente ya usa.
+						String lineItemUrl = (String) agsClaim.get("lineitem");
+						if (lineItemUrl == null || lineItemUrl.isEmpty()) {
+							lineItemUrl = (String) agsClaim.get("lineitems");
+							logger.info("Usando 'lineitems' porque 'lineitem' es nulo: ");
 						}
 
-						// Guardamos en BBDD
-						boolean created = ToolResourceLinkDao.create(newLink);
-
-						if (created) {
-							this.resourceLink = newLink;
-						} else {
-							logger.error("No se pudo crear el ResourceLink: " + resourceLinkId);
+						if (lineItemUrl != null && !lineItemUrl.isEmpty()) {
+							this.lisOutcomeServiceUrl = lineItemUrl;
+							logger.info("AGS LineItem URL guardada: " + lineItemUrl);
+							newLink.setOutcomeServiceUrl(lineItemUrl);
 						}
 					} else {
-						boolean linkChanged = false;
-						// Asegurar que la herramienta está cargada en memoria y vinculada
-						if (this.tool != null) {
-							if (this.resourceLink.getTool() == null
-									|| this.resourceLink.getTool().getSid() != this.tool.getSid()) {
-								linkChanged = true;
-							}
-							this.resourceLink.setTool(this.tool);
-						}
-						// Asegurar que la toolKey está cargada en memoria y vinculada
-						if (this.toolKey != null) {
-							if (this.resourceLink.getToolKey() == null
-									|| this.resourceLink.getToolKey().getSid() != this.toolKey.getSid()) {
-								linkChanged = true;
-							}
-							this.resourceLink.setToolKey(this.toolKey);
-						}
-						// Si existe, lo usamos y actualizamos el título si ha cambiado
-						if (!this.resourceLink.getTitle().equals(resourceLinkTitle)) {
-							this.resourceLink.setTitle(resourceLinkTitle);
-							linkChanged = true;
-						}
-
-						if (linkChanged) {
-							ToolResourceLinkDao.update(this.resourceLink);
-						}
+						this.outcomeAllowed = false;
 					}
+					launch.setResourceLink(newLink);
 
 					// Usuario
 					// Extraer datos del Token LTI 1.3
@@ -1263,70 +1096,31 @@ public final class ToolSession implements Serializable {
 						}
 					}
 
-					// Sincronizar LtiUser
-					es.us.dit.lti.entity.LtiUser ltiUser = ToolConsumerUserDao.getById(this.consumer.getSid(),
-							this.sessionUserId);
-
-					if (ltiUser == null) {
-						// Si no existe lo creamos
-						ltiUser = new es.us.dit.lti.entity.LtiUser();
-						ltiUser.setConsumer(this.consumer);
-						ltiUser.setUserId(this.sessionUserId);
-						ltiUser.setEmail(email);
-						ltiUser.setNameFull(name);
-						ltiUser.setNameGiven(givenName);
-						ltiUser.setNameFamily(familyName);
-
-						boolean created = ToolConsumerUserDao.create(ltiUser);
-						if (!created) {
-							logger.error("No se pudo crear el LTI User: " + this.sessionUserId);
-						} else {
-							logger.info("Nuevo LTI User creado: " + this.sessionUserId);
-						}
-					} else {
-						// Actualizamos los datos del usuario si han cambiado
-						boolean changed = false;
-						if (email != null && !email.equals(ltiUser.getEmail())) {
-							ltiUser.setEmail(email);
-							changed = true;
-						}
-						if (name != null && !name.equals(ltiUser.getNameFull())) {
-							ltiUser.setNameFull(name);
-							changed = true;
-						}
-						if (givenName != null && !givenName.equals(ltiUser.getNameGiven())) {
-							ltiUser.setNameGiven(givenName);
-							changed = true;
-						}
-						if (familyName != null && !familyName.equals(ltiUser.getNameFamily())) {
-							ltiUser.setNameFamily(familyName);
-							changed = true;
-						}
-						if (changed) {
-							ToolConsumerUserDao.update(ltiUser);
-						}
-					}
+					// Sincronizar LtiUser: se crea o se actualizan los datos recibidos
+					LtiUser ltiUser = new LtiUser();
+					ltiUser.setUserId(this.sessionUserId);
+					ltiUser.setEmail(email);
+					ltiUser.setNameFull(name);
+					ltiUser.setNameGiven(givenName);
+					ltiUser.setNameFamily(familyName);
+					launch.setUser(ltiUser);
+
+					// Sincronizar ResourceUser: solo se crea si no existe
+					ResourceUser auxResourceUser = new ResourceUser();
+					auxResourceUser.setResultSourceId(this.sessionUserId);
+					launch.setResourceUser(auxResourceUser);
+				}
 
-					// Sincronizar ResourceUser (Solo si el recurso ya existe, NO en Deep Linking)
-					if (this.resourceLink != null && ltiUser != null && ltiUser.getSid() > 0) {
-						this.ltiResourceUser = ToolResourceUserDao.getById(this.resourceLink.getSid(),
-								ltiUser.getSid());
-						if (this.ltiResourceUser == null) {
-							this.ltiResourceUser = new ResourceUser();
-							this.ltiResourceUser.setResourceLink(this.resourceLink);
-							this.ltiResourceUser.setUser(ltiUser);
-							this.ltiResourceUser.setResultSourceId(this.sessionUserId);
-							boolean created = ToolResourceUserDao.create(this.ltiResourceUser);
-							if (!created) {
-								logger.error("No se pudo crear el ResourceUser para: " + this.sessionUserId);
-							}
-						} else {
-							// INYECCIÓN: Completar relaciones en memoria si ya existía (Evita NPE)
-							this.ltiResourceUser.setResourceLink(this.resourceLink);
-							this.ltiResourceUser.setUser(ltiUser);
-						}
-					}
+				// Guardamos en BBDD
+				if (!LaunchDao.save(launch)) {
+					throw new Exception("Error crítico: No se pudieron guardar los datos del lanzamiento de " + issuer);
+				}
+				this.consumer = launch.getConsumer();
+				this.context = launch.getContext();
+				this.resourceLink = launch.getResourceLink();
+				this.ltiResourceUser = launch.getResourceUser();
 
+				if (resourceLinkClaim != null) {
 					// PROCESAR ROLES
 					// Extraemos la lista de roles del token
 					List<String> lti13Roles = claims
@@ -1339,35 +1133,6 @@ public final class ToolSession implements Serializable {
 						logger.debug("Usuario identificado como ESTUDIANTE");
 					}
 
-					// CALIFICACIONES AGS (Assignment and Grade Services)
-
-					Map<String, Object> agsClaim = claims
-							.getJSONObjectClaim("https://purl.imsglobal.org/spec/lti-ags/claim/endpoint");
-
-					if (agsClaim != null) {
-						// Si el claim existe, el LMS permite calificar
-						this.outcomeAllowed = true;
-
-						// 'lineitem' es la URL específica donde enviaremos la nota
-						// La guardamos en la variable que OutcomeService antiguo seguramente ya usa.
-						String lineItemUrl = (String) agsClaim.get("lineitem");
-						if (lineItemUrl == null || lineItemUrl.isEmpty()) {
-							lineItemUrl = (String) agsClaim.get("lineitems");
-							logger.info("Usando 'lineitems' porque 'lineitem' es nulo: ");
-						}
-
-						if (lineItemUrl != null && !lineItemUrl.isEmpty()) {
-							this.lisOutcomeServiceUrl = lineItemUrl;
-							logger.info("AGS LineItem URL guardada: " + lineItemUrl);
-							if (this.resourceLink != null) {
-								this.resourceLink.setOutcomeServiceUrl(lineItemUrl);
-								ToolResourceLinkDao.update(this.resourceLink);
-							}
-						}
-					} else {
-						this.outcomeAllowed = false;
-					}
-
 					// PARÁMETROS PERSONALIZADOS
 
 					Map<String, Object> custom = claims
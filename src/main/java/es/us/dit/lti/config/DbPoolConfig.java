@@ -0,0 +1,245 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.config;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Parameters of the internal pool of database connections.
+ *
+ * <p>It is stored as a JSON string in the <code>pool_config</code> column of
+ * the settings. Missing properties take the default values.
+ *
+ * @author Francisco José Fernández Jiménez
+ */
+public class DbPoolConfig {
+	/**
+	 * Minimum number of idle connections kept open.
+	 */
+	private int minIdle = 2;
+	/**
+	 * Maximum number of open connections (idle or in use).
+	 */
+	private int maxTotal = 10;
+	/**
+	 * Maximum time waiting for a free connection, in milliseconds.
+	 */
+	private long maxWaitMillis = 10000;
+	/**
+	 * Time after which an idle connection (above minIdle) is closed, in milliseconds.
+	 */
+	private long idleTimeoutMillis = 600000;
+	/**
+	 * Interval between runs of the idle connection evictor, in milliseconds.
+	 */
+	private long evictionIntervalMillis = 30000;
+	/**
+	 * Timeout of the validation of a connection when it is borrowed, in seconds.
+	 */
+	private int validationTimeout = 2;
+	/**
+	 * Connections used less than this time ago are not validated, in milliseconds.
+	 */
+	private long validationSkipMillis = 1000;
+	/**
+	 * Time a connection can be borrowed before a possible leak is logged, in
+	 * milliseconds. Zero or negative disables leak detection.
+	 */
+	private long leakDetectionThresholdMillis = 60000;
+
+	/**
+	 * Gets the minimum number of idle connections.
+	 *
+	 * @return the minimum number of idle connections
+	 */
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * Sets the minimum number of idle connections.
+	 *
+	 * @param minIdle new value
+	 */
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	/**
+	 * Gets the maximum number of open connections.
+	 *
+	 * @return the maximum number of open connections
+	 */
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	/**
+	 * Sets the maximum number of open connections.
+	 *
+	 * @param maxTotal new value
+	 */
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	/**
+	 * Gets the maximum time waiting for a free connection, in milliseconds.
+	 *
+	 * @return the maximum wait time
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * Sets the maximum time waiting for a free connection, in milliseconds.
+	 *
+	 * @param maxWaitMillis new value
+	 */
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * Gets the time after which an idle connection is closed, in milliseconds.
+	 *
+	 * @return the idle timeout
+	 */
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Sets the time after which an idle connection is closed, in milliseconds.
+	 *
+	 * @param idleTimeoutMillis new value
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Gets the interval between runs of the evictor, in milliseconds.
+	 *
+	 * @return the eviction interval
+	 */
+	public long getEvictionIntervalMillis() {
+		return evictionIntervalMillis;
+	}
+
+	/**
+	 * Sets the interval between runs of the evictor, in milliseconds.
+	 *
+	 * @param evictionIntervalMillis new value
+	 */
+	public void setEvictionIntervalMillis(long evictionIntervalMillis) {
+		this.evictionIntervalMillis = evictionIntervalMillis;
+	}
+
+	/**
+	 * Gets the timeout of the validation of a borrowed connection, in seconds.
+	 *
+	 * @return the validation timeout
+	 */
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	/**
+	 * Sets the timeout of the validation of a borrowed connection, in seconds.
+	 *
+	 * @param validationTimeout new value
+	 */
+	public void setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	/**
+	 * Gets the time since the last use under which a connection is not
+	 * validated, in milliseconds.
+	 *
+	 * @return the validation skip time
+	 */
+	public long getValidationSkipMillis() {
+		return validationSkipMillis;
+	}
+
+	/**
+	 * Sets the time since the last use under which a connection is not
+	 * validated, in milliseconds.
+	 *
+	 * @param validationSkipMillis new value
+	 */
+	public void setValidationSkipMillis(long validationSkipMillis) {
+		this.validationSkipMillis = validationSkipMillis;
+	}
+
+	/**
+	 * Gets the leak detection threshold, in milliseconds.
+	 *
+	 * @return the leak detection threshold
+	 */
+	public long getLeakDetectionThresholdMillis() {
+		return leakDetectionThresholdMillis;
+	}
+
+	/**
+	 * Sets the leak detection threshold, in milliseconds.
+	 *
+	 * <p>Zero or negative disables leak detection.
+	 *
+	 * @param leakDetectionThresholdMillis new value
+	 */
+	public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+		this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+	}
+
+	/**
+	 * Deserialize from JSON string.
+	 *
+	 * <p>If the string is null, empty or invalid, the default values are used.
+	 *
+	 * @param json JSON string
+	 * @return the deserialized object, never null
+	 */
+	public static DbPoolConfig fromString(String json) {
+		DbPoolConfig t = null;
+		if (json != null && !json.isEmpty()) {
+			try {
+				t = new Gson().fromJson(json, DbPoolConfig.class);
+			} catch (JsonSyntaxException e) {
+				//ignore, use default values
+				t = null;
+			}
+		}
+		if (t == null) {
+			t = new DbPoolConfig();
+		}
+		if (t.maxTotal < 1) {
+			t.maxTotal = 1;
+		}
+		if (t.minIdle > t.maxTotal) {
+			t.minIdle = t.maxTotal;
+		}
+		return t;
+	}
+}
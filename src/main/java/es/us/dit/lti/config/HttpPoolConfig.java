@@ -0,0 +1,249 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+package es.us.dit.lti.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Parameters of the shared pool of HTTP connections to learning platforms.
+ *
+ * <p>It is stored as a JSON string in the <code>http_pool_config</code> column
+ * of the settings. Missing properties take the default values.
+ *
+ * @author Francisco José Fernández Jiménez
+ */
+public class HttpPoolConfig {
+	/**
+	 * Maximum number of open connections.
+	 */
+	private int maxTotal = 50;
+	/**
+	 * Maximum number of open connections to each host.
+	 */
+	private int maxPerRoute = 10;
+	/**
+	 * Maximum number of open connections to specific hosts, by URL of the host
+	 * (for example <code>https://lms.example.com</code>).
+	 */
+	private Map<String, Integer> routeLimits = new HashMap<>();
+	/**
+	 * Timeout of connection establishment, in milliseconds.
+	 */
+	private int connectTimeoutMillis = 30000;
+	/**
+	 * Timeout waiting for data (socket timeout), in milliseconds.
+	 */
+	private int socketTimeoutMillis = 30000;
+	/**
+	 * Maximum time waiting for a free connection of the pool, in milliseconds.
+	 */
+	private int requestTimeoutMillis = 10000;
+	/**
+	 * Time after which an idle connection is closed, in milliseconds.
+	 */
+	private long idleTimeoutMillis = 60000;
+	/**
+	 * Idle connections used less than this time ago are not validated, in
+	 * milliseconds.
+	 */
+	private int validateAfterInactivityMillis = 2000;
+
+	/**
+	 * Gets the maximum number of open connections.
+	 *
+	 * @return the maximum number of open connections
+	 */
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	/**
+	 * Sets the maximum number of open connections.
+	 *
+	 * @param maxTotal new value
+	 */
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	/**
+	 * Gets the maximum number of open connections to each host.
+	 *
+	 * @return the maximum number of open connections per host
+	 */
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	/**
+	 * Sets the maximum number of open connections to each host.
+	 *
+	 * @param maxPerRoute new value
+	 */
+	public void setMaxPerRoute(int maxPerRoute) {
+		this.maxPerRoute = maxPerRoute;
+	}
+
+	/**
+	 * Gets the limits of specific hosts.
+	 *
+	 * @return maximum number of connections by URL of the host
+	 */
+	public Map<String, Integer> getRouteLimits() {
+		return routeLimits;
+	}
+
+	/**
+	 * Sets the limits of specific hosts.
+	 *
+	 * @param routeLimits maximum number of connections by URL of the host
+	 */
+	public void setRouteLimits(Map<String, Integer> routeLimits) {
+		this.routeLimits = routeLimits;
+	}
+
+	/**
+	 * Gets the connect timeout, in milliseconds.
+	 *
+	 * @return the connect timeout
+	 */
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * Sets the connect timeout, in milliseconds.
+	 *
+	 * @param connectTimeoutMillis new value
+	 */
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/**
+	 * Gets the socket timeout, in milliseconds.
+	 *
+	 * @return the socket timeout
+	 */
+	public int getSocketTimeoutMillis() {
+		return socketTimeoutMillis;
+	}
+
+	/**
+	 * Sets the socket timeout, in milliseconds.
+	 *
+	 * @param socketTimeoutMillis new value
+	 */
+	public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+		this.socketTimeoutMillis = socketTimeoutMillis;
+	}
+
+	/**
+	 * Gets the maximum time waiting for a free connection, in milliseconds.
+	 *
+	 * @return the request timeout
+	 */
+	public int getRequestTimeoutMillis() {
+		return requestTimeoutMillis;
+	}
+
+	/**
+	 * Sets the maximum time waiting for a free connection, in milliseconds.
+	 *
+	 * @param requestTimeoutMillis new value
+	 */
+	public void setRequestTimeoutMillis(int requestTimeoutMillis) {
+		this.requestTimeoutMillis = requestTimeoutMillis;
+	}
+
+	/**
+	 * Gets the time after which an idle connection is closed, in milliseconds.
+	 *
+	 * @return the idle timeout
+	 */
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Sets the time after which an idle connection is closed, in milliseconds.
+	 *
+	 * @param idleTimeoutMillis new value
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Gets the inactivity time after which a connection is validated, in
+	 * milliseconds.
+	 *
+	 * @return the inactivity time
+	 */
+	public int getValidateAfterInactivityMillis() {
+		return validateAfterInactivityMillis;
+	}
+
+	/**
+	 * Sets the inactivity time after which a connection is validated, in
+	 * milliseconds.
+	 *
+	 * @param validateAfterInactivityMillis new value
+	 */
+	public void setValidateAfterInactivityMillis(int validateAfterInactivityMillis) {
+		this.validateAfterInactivityMillis = validateAfterInactivityMillis;
+	}
+
+	/**
+	 * Deserialize from JSON string.
+	 *
+	 * <p>If the string is null, empty or invalid, the default values are used.
+	 *
+	 * @param json JSON string
+	 * @return the deserialized object, never null
+	 */
+	public static HttpPoolConfig fromString(String json) {
+		HttpPoolConfig t = null;
+		if (json != null && !json.isEmpty()) {
+			try {
+				t = new Gson().fromJson(json, HttpPoolConfig.class);
+			} catch (JsonSyntaxException e) {
+				//ignore, use default values
+				t = null;
+			}
+		}
+		if (t == null) {
+			t = new HttpPoolConfig();
+		}
+		if (t.maxTotal < 1) {
+			t.maxTotal = 1;
+		}
+		if (t.maxPerRoute < 1) {
+			t.maxPerRoute = 1;
+		}
+		if (t.routeLimits == null) {
+			t.routeLimits = new HashMap<>();
+		}
+		return t;
+	}
+}
@@ -121,6 +121,12 @@ public class ToolUiConfig implements Serializable {
 	 */
 	private int maxConcurrentUsers = -1;
 
+	/**
+	 * Share of the assessment slots that the tool gets when other tools are
+	 * waiting too.
+	 */
+	private int schedulingWeight = 1;
+
 	/**
 	 * The number of attempts is by file name delivered and not by the total
 	 * number of attempts.
@@ -447,6 +453,28 @@ public class ToolUiConfig implements Serializable {
 		this.maxConcurrentUsers = maxConcurrentUsers;
 	}
 
+	/**
+	 * Gets the share of the assessment slots that the tool gets when other
+	 * tools are waiting too.
+	 *
+	 * <p>A tool with weight 2 gets twice the assessments of a tool with weight 1.
+	 *
+	 * @return the weight
+	 */
+	public int getSchedulingWeight() {
+		return schedulingWeight;
+	}
+
+	/**
+	 * Sets the share of the assessment slots that the tool gets when other
+	 * tools are waiting too.
+	 *
+	 * @param schedulingWeight new value
+	 */
+	public void setSchedulingWeight(int schedulingWeight) {
+		this.schedulingWeight = schedulingWeight;
+	}
+
 	/**
 	 * Gets if the number of attempts is by file name delivered and not by the total
 	 * number of attempts.
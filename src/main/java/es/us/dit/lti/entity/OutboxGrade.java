@@ -0,0 +1,253 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.entity;
+
+/**
+ * Score waiting in the outbox to be sent to the tool consumer.
+ *
+ * <p>There is one pending score per resource user and line item (outcome
+ * service URL), the last one.
+ *
+ * @author Francisco José Fernández Jiménez
+ */
+public class OutboxGrade {
+
+	/**
+	 * Serial ID.
+	 */
+	private int sid;
+	/**
+	 * Resource user serial ID.
+	 */
+	private int resourceUserSid;
+	/**
+	 * Line item (LTI 1.3) or outcome service URL (LTI 1.1).
+	 */
+	private String lineItem;
+	/**
+	 * Serial ID of the attempt of the score, 0 if unknown.
+	 */
+	private int attemptSid;
+	/**
+	 * Score (0-100).
+	 */
+	private int score;
+	/**
+	 * Client ID of the tool (LTI 1.3), null in LTI 1.1.
+	 */
+	private String clientId;
+	/**
+	 * Tool key serial ID to sign requests (LTI 1.1).
+	 */
+	private int toolKeySid;
+	/**
+	 * Result source ID (LTI 1.1) or user ID (LTI 1.3).
+	 */
+	private String resultSourceId;
+	/**
+	 * Number of failed tries.
+	 */
+	private int tries;
+	/**
+	 * Time of next try in milliseconds.
+	 */
+	private long nextTry;
+
+	/**
+	 * Gets the serial ID.
+	 *
+	 * @return the sid
+	 */
+	public int getSid() {
+		return sid;
+	}
+
+	/**
+	 * Sets the serial ID.
+	 *
+	 * @param sid the sid to set
+	 */
+	public void setSid(int sid) {
+		this.sid = sid;
+	}
+
+	/**
+	 * Gets the resource user serial ID.
+	 *
+	 * @return the resourceUserSid
+	 */
+	public int getResourceUserSid() {
+		return resourceUserSid;
+	}
+
+	/**
+	 * Sets the resource user serial ID.
+	 *
+	 * @param resourceUserSid the resourceUserSid to set
+	 */
+	public void setResourceUserSid(int resourceUserSid) {
+		this.resourceUserSid = resourceUserSid;
+	}
+
+	/**
+	 * Gets the line item or outcome service URL.
+	 *
+	 * @return the lineItem
+	 */
+	public String getLineItem() {
+		return lineItem;
+	}
+
+	/**
+	 * Sets the line item or outcome service URL.
+	 *
+	 * @param lineItem the lineItem to set
+	 */
+	public void setLineItem(String lineItem) {
+		this.lineItem = lineItem;
+	}
+
+	/**
+	 * Gets the serial ID of the attempt.
+	 *
+	 * @return the attemptSid
+	 */
+	public int getAttemptSid() {
+		return attemptSid;
+	}
+
+	/**
+	 * Sets the serial ID of the attempt.
+	 *
+	 * @param attemptSid the attemptSid to set
+	 */
+	public void setAttemptSid(int attemptSid) {
+		this.attemptSid = attemptSid;
+	}
+
+	/**
+	 * Gets the score.
+	 *
+	 * @return the score
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Sets the score.
+	 *
+	 * @param score the score to set
+	 */
+	public void setScore(int score) {
+		this.score = score;
+	}
+
+	/**
+	 * Gets the client ID (LTI 1.3).
+	 *
+	 * @return the clientId, null in LTI 1.1
+	 */
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Sets the client ID (LTI 1.3).
+	 *
+	 * @param clientId the clientId to set
+	 */
+	public void setClientId(String clientId) {
+		this.clientId = clientId;
+	}
+
+	/**
+	 * Gets the tool key serial ID (LTI 1.1).
+	 *
+	 * @return the toolKeySid
+	 */
+	public int getToolKeySid() {
+		return toolKeySid;
+	}
+
+	/**
+	 * Sets the tool key serial ID (LTI 1.1).
+	 *
+	 * @param toolKeySid the toolKeySid to set
+	 */
+	public void setToolKeySid(int toolKeySid) {
+		this.toolKeySid = toolKeySid;
+	}
+
+	/**
+	 * Gets the result source ID.
+	 *
+	 * @return the resultSourceId
+	 */
+	public String getResultSourceId() {
+		return resultSourceId;
+	}
+
+	/**
+	 * Sets the result source ID.
+	 *
+	 * @param resultSourceId the resultSourceId to set
+	 */
+	public void setResultSourceId(String resultSourceId) {
+		this.resultSourceId = resultSourceId;
+	}
+
+	/**
+	 * Gets the number of failed tries.
+	 *
+	 * @return the tries
+	 */
+	public int getTries() {
+		return tries;
+	}
+
+	/**
+	 * Sets the number of failed tries.
+	 *
+	 * @param tries the tries to set
+	 */
+	public void setTries(int tries) {
+		this.tries = tries;
+	}
+
+	/**
+	 * Gets the time of next try.
+	 *
+	 * @return the nextTry in milliseconds
+	 */
+	public long getNextTry() {
+		return nextTry;
+	}
+
+	/**
+	 * Sets the time of next try.
+	 *
+	 * @param nextTry the nextTry to set, in milliseconds
+	 */
+	public void setNextTry(long nextTry) {
+		this.nextTry = nextTry;
+	}
+
+}
@@ -72,6 +72,35 @@ public final class Settings {
 	 * Use DbUtilDatasource if true or DbUtilSingleConnection if false.
 	 */
 	private static boolean datasourceMode = false;
+	/**
+	 * Use DbUtilPool if true and datasource mode is false.
+	 */
+	private static boolean poolMode = false;
+	/**
+	 * Use DbUtilSqliteWal if true and datasource mode is false.
+	 */
+	private static boolean sqliteWalMode = false;
+	/**
+	 * Pool parameters in JSON format (see DbPoolConfig).
+	 */
+	private static String poolConfig = null;
+	/**
+	 * Number of tool counter values reserved each time in the database.
+	 */
+	private static int counterBlockSize = 1;
+	/**
+	 * Store LTI 1.1 nonces in db (several nodes) if true or in memory if false.
+	 */
+	private static boolean nonceDbMode = false;
+	/**
+	 * Days of life of the LTI 1.3 signing key, 0 to not rotate it.
+	 */
+	private static int keyRotationDays = 0;
+	/**
+	 * Parameters of the pool of HTTP connections to platforms in JSON format (see
+	 * HttpPoolConfig).
+	 */
+	private static String httpPoolConfig = null;
 	/**
 	 * Folder where tool data is stored.
 	 */
@@ -148,6 +177,13 @@ public final class Settings {
 		final StringBuilder sb = new StringBuilder();
 		sb.append("\nAPP_NAME: [" + appName + "]\n");
 		sb.append("DATASOURCE_MODE: [" + datasourceMode + "]\n");
+		sb.append("POOL_MODE: [" + poolMode + "]\n");
+		sb.append("SQLITE_WAL_MODE: [" + sqliteWalMode + "]\n");
+		sb.append("POOL_CONFIG: [" + poolConfig + "]\n");
+		sb.append("COUNTER_BLOCK_SIZE: [" + counterBlockSize + "]\n");
+		sb.append("NONCE_DB_MODE: [" + nonceDbMode + "]\n");
+		sb.append("KEY_ROTATION_DAYS: [" + keyRotationDays + "]\n");
+		sb.append("HTTP_POOL_CONFIG: [" + httpPoolConfig + "]\n");
 		sb.append("TOOLS_FOLDER: [" + toolsFolder + "]\n");
 		sb.append("MAX_UPLOAD_SIZE: [" + maxUploadSize + "]\n");
 		sb.append("CONCURRENT_USERS: [" + concurrentUsers + "]\n");
@@ -321,4 +357,156 @@ public final class Settings {
 		return datasourceMode;
 	}
 
+	/**
+	 * Gets the pool mode.
+	 *
+	 * <p>Use DbUtilPool if true and datasource mode is false.
+	 *
+	 * @return the poolMode
+	 */
+	public static boolean isPoolMode() {
+		return poolMode;
+	}
+
+	/**
+	 * Sets the pool mode.
+	 *
+	 * <p>It only takes effect when the application starts.
+	 *
+	 * @param poolMode the poolMode to set
+	 */
+	public static void setPoolMode(boolean poolMode) {
+		Settings.poolMode = poolMode;
+	}
+
+	/**
+	 * Gets the SQLite WAL mode.
+	 *
+	 * <p>Use DbUtilSqliteWal if true and datasource mode is false. It has
+	 * priority over pool mode.
+	 *
+	 * @return the sqliteWalMode
+	 */
+	public static boolean isSqliteWalMode() {
+		return sqliteWalMode;
+	}
+
+	/**
+	 * Sets the SQLite WAL mode.
+	 *
+	 * <p>It only takes effect when the application starts.
+	 *
+	 * @param sqliteWalMode the sqliteWalMode to set
+	 */
+	public static void setSqliteWalMode(boolean sqliteWalMode) {
+		Settings.sqliteWalMode = sqliteWalMode;
+	}
+
+	/**
+	 * Gets the pool parameters in JSON format.
+	 *
+	 * @return the pool parameters or null (default values)
+	 */
+	public static String getPoolConfig() {
+		return poolConfig;
+	}
+
+	/**
+	 * Sets the pool parameters in JSON format.
+	 *
+	 * @param poolConfig the pool parameters to set
+	 */
+	public static void setPoolConfig(String poolConfig) {
+		Settings.poolConfig = poolConfig;
+	}
+
+	/**
+	 * Gets the number of tool counter values reserved each time in the database.
+	 *
+	 * <p>1 means that every value is obtained from the database. With greater
+	 * values each node hands out consecutive values from memory; a multiple of the
+	 * number of SSH servers keeps the round robin exact when a new block starts.
+	 *
+	 * @return the counterBlockSize
+	 */
+	public static int getCounterBlockSize() {
+		return counterBlockSize;
+	}
+
+	/**
+	 * Sets the number of tool counter values reserved each time in the database.
+	 *
+	 * <p>It only takes effect when the application starts.
+	 *
+	 * @param counterBlockSize the counterBlockSize to set
+	 */
+	public static void setCounterBlockSize(int counterBlockSize) {
+		Settings.counterBlockSize = counterBlockSize;
+	}
+
+	/**
+	 * Gets the nonce db mode.
+	 *
+	 * <p>Store LTI 1.1 nonces in db if true (needed if several nodes share the
+	 * db) or in memory if false.
+	 *
+	 * @return the nonceDbMode
+	 */
+	public static boolean isNonceDbMode() {
+		return nonceDbMode;
+	}
+
+	/**
+	 * Sets the nonce db mode.
+	 *
+	 * <p>It only takes effect when the application starts.
+	 *
+	 * @param nonceDbMode the nonceDbMode to set
+	 */
+	public static void setNonceDbMode(boolean nonceDbMode) {
+		Settings.nonceDbMode = nonceDbMode;
+	}
+
+	/**
+	 * Gets the days of life of the LTI 1.3 signing key.
+	 *
+	 * <p>A new key is generated when the active one is older, 0 to not rotate it.
+	 *
+	 * @return the keyRotationDays
+	 */
+	public static int getKeyRotationDays() {
+		return keyRotationDays;
+	}
+
+	/**
+	 * Sets the days of life of the LTI 1.3 signing key.
+	 *
+	 * <p>It only takes effect when the application starts.
+	 *
+	 * @param keyRotationDays the keyRotationDays to set
+	 */
+	public static void setKeyRotationDays(int keyRotationDays) {
+		Settings.keyRotationDays = keyRotationDays;
+	}
+
+	/**
+	 * Gets the parameters of the pool of HTTP connections to platforms.
+	 *
+	 * @return the httpPoolConfig, JSON (see HttpPoolConfig) or null
+	 */
+	public static String getHttpPoolConfig() {
+		return httpPoolConfig;
+	}
+
+	/**
+	 * Sets the parameters of the pool of HTTP connections to platforms.
+	 *
+	 * <p>It only takes effect when the application starts.
+	 *
+	 * @param httpPoolConfig the httpPoolConfig to set
+	 */
+	public static void setHttpPoolConfig(String httpPoolConfig) {
+		Settings.httpPoolConfig = httpPoolConfig;
+	}
+
 }
@@ -28,10 +28,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Objects;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -127,10 +124,6 @@ public class Tool extends UpdateRecordEntity {
 	 * Tool runner to assess.
 	 */
 	private transient ToolRunner toolRunner;
-	/**
-	 * LTI usernames that are concurrently performing assessments.
-	 */
-	private transient SortedSet<String> concurrentUsers;
 
 	// Paths
 	/**
@@ -459,27 +452,6 @@ public class Tool extends UpdateRecordEntity {
 		this.toolRunner = toolRunner;
 	}
 
-	/**
-	 * Gets the LTI usernames that are concurrently performing assessments.
-	 *
-	 * @return set of usernames
-	 */
-	public SortedSet<String> getConcurrentUsers() {
-		if (concurrentUsers == null) {
-			concurrentUsers = Collections.synchronizedSortedSet(new TreeSet<String>());
-		}
-		return concurrentUsers;
-	}
-
-	/**
-	 * Sets the LTI usernames that are concurrently performing assessments.
-	 *
-	 * @param concurrentUsers set of usernames
-	 */
-	public void setConcurrentUsers(SortedSet<String> concurrentUsers) {
-		this.concurrentUsers = concurrentUsers;
-	}
-
 	/**
 	 * Gets a JSON string with properties of a tool that you do not want to store
 	 * separately in the database.
@@ -45,7 +45,7 @@ import jakarta.servlet.http.HttpSession;
  *
  * @author Francisco José Fernández Jiménez
  */
-@WebFilter(dispatcherTypes = { DispatcherType.REQUEST }, filterName = "CsrfFilter", urlPatterns = { "/*" })
+@WebFilter(dispatcherTypes = { DispatcherType.REQUEST }, filterName = "CsrfFilter", urlPatterns = { "/*" }, asyncSupported = true)
 public class CsrfFilter extends HttpFilter implements Filter {
 
 	/**
@@ -40,7 +40,7 @@ import es.us.dit.lti.ToolSession;
  * @author Francisco José Fernández Jiménez
  * @version 1.0
  */
-@WebFilter(dispatcherTypes = { DispatcherType.REQUEST, DispatcherType.FORWARD }, urlPatterns = { "/learner/*" })
+@WebFilter(dispatcherTypes = { DispatcherType.REQUEST, DispatcherType.FORWARD }, urlPatterns = { "/learner/*" }, asyncSupported = true)
 public class LearnerFilter implements Filter {
 
 	/**
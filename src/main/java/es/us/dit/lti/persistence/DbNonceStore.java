@@ -0,0 +1,48 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import es.us.dit.lti.entity.Nonce;
+
+/**
+ * Store of used nonces in the <code>nonce</code> table of the database.
+ *
+ * <p>Valid when several nodes share the database.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public class DbNonceStore implements INonceStore {
+
+	@Override
+	public boolean add(Nonce nonce) {
+		return ToolNonceDao.add(nonce);
+	}
+
+	@Override
+	public void deleteExpired() {
+		ToolNonceDao.deleteExpired();
+	}
+
+	@Override
+	public void deleteAll() {
+		ToolNonceDao.deleteAll();
+	}
+}
@@ -0,0 +1,525 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.config.DbPoolConfig;
+
+/**
+ * Utility class that provides methods for managing connections to a database,
+ * with its own bounded pool of connections.
+ *
+ * <p>Connections are created with the JNDI DataSource, if it exists, or with the
+ * JDBC connection string. The pool limits the number of open connections, closes
+ * idle connections, validates connections when they are borrowed, logs possible
+ * leaks and limits the time waiting for a free connection.
+ *
+ * <p>Like {@link DbUtilSingleConnection}, it is reentrant: if a thread that
+ * already has a connection calls getConnection again, it gets the same
+ * connection. So nested DAO calls share the connection (and the transaction) of
+ * the caller. Each getConnection must be paired with a closeConnection.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public class DbUtilPool implements IDbUtil {
+	/**
+	 * Logger.
+	 */
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	/**
+	 * Pool parameters.
+	 */
+	private final DbPoolConfig config;
+	/**
+	 * Optional DataSource object.
+	 */
+	private DataSource dataSource = null;
+	/**
+	 * JNDI name of a DataSource or JDBC connection string.
+	 */
+	private String connectionString = null;
+	/**
+	 * Idle connections. The most recently used are first.
+	 */
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+	/**
+	 * Borrowed connections.
+	 */
+	private final Map<Connection, PooledConnection> borrowed = new ConcurrentHashMap<>();
+	/**
+	 * Connection of the current thread.
+	 */
+	private final ThreadLocal<PooledConnection> current = new ThreadLocal<>();
+	/**
+	 * Permits to borrow connections (fair, to serve in arrival order).
+	 */
+	private final Semaphore permits;
+	/**
+	 * Number of open connections (idle, borrowed or being created).
+	 */
+	private final AtomicInteger total = new AtomicInteger();
+	/**
+	 * Generation of the pool. It changes every time the pool is initialized so
+	 * connections of an old generation are closed when they are returned.
+	 */
+	private final AtomicInteger generation = new AtomicInteger();
+	/**
+	 * Scheduler of the evictor task.
+	 */
+	private ScheduledExecutorService evictor = null;
+
+	/**
+	 * Connection managed by the pool.
+	 */
+	private static final class PooledConnection {
+		/**
+		 * Physical connection.
+		 */
+		private final Connection connection;
+		/**
+		 * Generation of the pool when it was created.
+		 */
+		private final int generation;
+		/**
+		 * Last time it was returned to the pool, in milliseconds.
+		 */
+		private long lastUsed;
+		/**
+		 * Time it was borrowed, in milliseconds.
+		 */
+		private long borrowedAt;
+		/**
+		 * Stack trace of the borrower, if leak detection is enabled.
+		 */
+		private Exception borrowTrace;
+		/**
+		 * Number of nested getConnection calls of the owner thread.
+		 */
+		private int depth;
+		/**
+		 * A possible leak has been logged.
+		 */
+		private boolean leakReported;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param connection physical connection
+		 * @param generation generation of the pool
+		 */
+		private PooledConnection(Connection connection, int generation) {
+			this.connection = connection;
+			this.generation = generation;
+			lastUsed = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param config pool parameters, default values if null
+	 */
+	public DbUtilPool(DbPoolConfig config) {
+		this.config = config != null ? config : DbPoolConfig.fromString(null);
+		permits = new Semaphore(this.config.getMaxTotal(), true);
+	}
+
+	/**
+	 * Gets the DataSource object or null if not used.
+	 *
+	 * @return the datasource
+	 */
+	private DataSource getDataSource() {
+		if (dataSource == null) {
+			try {
+				final InitialContext ctx = new InitialContext();
+				dataSource = (DataSource) ctx.lookup("java:comp/env/" + connectionString);
+			} catch (final NamingException e) {
+				logger.info("DataSource not found.");
+			}
+		}
+		return dataSource;
+	}
+
+	@Override
+	public void init(String connectionString) {
+		if (connectionString != null && !connectionString.isEmpty()) {
+			this.connectionString = connectionString;
+		}
+		generation.incrementAndGet();
+		getDataSource();
+		fillIdle();
+		synchronized (this) {
+			if (evictor == null && config.getEvictionIntervalMillis() > 0) {
+				evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+					final Thread t = new Thread(r, "DbUtilPool-evictor");
+					t.setDaemon(true);
+					return t;
+				});
+				evictor.scheduleWithFixedDelay(this::evict, config.getEvictionIntervalMillis(),
+						config.getEvictionIntervalMillis(), TimeUnit.MILLISECONDS);
+			}
+		}
+		logger.info("Connection pool initialized: {}", this);
+	}
+
+	@Override
+	public void destroy() {
+		synchronized (this) {
+			if (evictor != null) {
+				evictor.shutdownNow();
+				evictor = null;
+			}
+		}
+		// Borrowed connections will be closed when returned
+		generation.incrementAndGet();
+		PooledConnection pc;
+		while ((pc = idle.pollLast()) != null) {
+			closePhysical(pc);
+		}
+		dataSource = null;
+		connectionString = null;
+	}
+
+	@Override
+	public Connection getConnection() {
+		PooledConnection pc = current.get();
+		if (pc != null) {
+			// Reentrant
+			pc.depth++;
+			return pc.connection;
+		}
+		try {
+			if (!permits.tryAcquire(config.getMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+				logger.error("Timeout waiting for a connection: {}", this);
+				return null;
+			}
+		} catch (final InterruptedException e) {
+			logger.error("Interrupted", e);
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		pc = borrow();
+		if (pc == null) {
+			permits.release();
+			return null;
+		}
+		pc.depth = 1;
+		pc.borrowedAt = System.currentTimeMillis();
+		pc.leakReported = false;
+		if (config.getLeakDetectionThresholdMillis() > 0) {
+			pc.borrowTrace = new Exception("Connection borrowed by " + Thread.currentThread().getName());
+		}
+		borrowed.put(pc.connection, pc);
+		current.set(pc);
+		return pc.connection;
+	}
+
+	/**
+	 * Gets a valid idle connection or creates a new one. A permit must be held.
+	 *
+	 * @return the connection or null if error
+	 */
+	private PooledConnection borrow() {
+		final long deadline = System.currentTimeMillis() + config.getMaxWaitMillis();
+		while (System.currentTimeMillis() <= deadline) {
+			final PooledConnection pc = idle.pollFirst();
+			if (pc != null) {
+				if (isValid(pc)) {
+					return pc;
+				}
+				closePhysical(pc);
+			} else if (reserve()) {
+				return create();
+			} else {
+				// The evictor is creating connections, wait for them
+				try {
+					final PooledConnection next = idle.pollFirst(100, TimeUnit.MILLISECONDS);
+					if (next != null) {
+						idle.offerFirst(next);
+					}
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+		}
+		logger.error("Timeout getting a connection: {}", this);
+		return null;
+	}
+
+	/**
+	 * Validates a connection before borrowing it.
+	 *
+	 * @param pc the pooled connection
+	 * @return true if it can be used
+	 */
+	private boolean isValid(PooledConnection pc) {
+		if (pc.generation != generation.get()) {
+			return false;
+		}
+		if (System.currentTimeMillis() - pc.lastUsed < config.getValidationSkipMillis()) {
+			return true;
+		}
+		try {
+			return pc.connection.isValid(config.getValidationTimeout());
+		} catch (final SQLException e) {
+			logger.error("Error validating connection", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Reserves a place for a new connection.
+	 *
+	 * @return true if the maximum number of connections has not been reached
+	 */
+	private boolean reserve() {
+		int n;
+		do {
+			n = total.get();
+			if (n >= config.getMaxTotal()) {
+				return false;
+			}
+		} while (!total.compareAndSet(n, n + 1));
+		return true;
+	}
+
+	/**
+	 * Creates a new physical connection. A place must be reserved.
+	 *
+	 * @return the new connection or null if error
+	 */
+	private PooledConnection create() {
+		Connection c = null;
+		try {
+			if (dataSource != null) {
+				c = dataSource.getConnection();
+			} else if (connectionString != null) {
+				c = DriverManager.getConnection(connectionString);
+			}
+		} catch (final SQLException e) {
+			logger.error("Error getting connection", e);
+		}
+		if (c != null) {
+			try {
+				initConnection(c);
+			} catch (final SQLException e) {
+				logger.error("Error initializing connection", e);
+				try {
+					c.close();
+				} catch (final SQLException e1) {
+					// ignore
+				}
+				c = null;
+			}
+		}
+		if (c == null) {
+			total.decrementAndGet();
+			return null;
+		}
+		return new PooledConnection(c, generation.get());
+	}
+
+	/**
+	 * Prepares a new physical connection before adding it to the pool.
+	 *
+	 * <p>Nothing by default. Subclasses may set connection parameters.
+	 *
+	 * @param connection the new connection
+	 * @throws SQLException if a database error occurs
+	 */
+	protected void initConnection(Connection connection) throws SQLException {
+		// empty
+	}
+
+	/**
+	 * Closes a physical connection.
+	 *
+	 * @param pc the pooled connection
+	 */
+	private void closePhysical(PooledConnection pc) {
+		total.decrementAndGet();
+		try {
+			pc.connection.close();
+		} catch (final SQLException e) {
+			// ignore
+			logger.error("Connection close", e);
+		}
+	}
+
+	@Override
+	public void closeConnection(Connection connection) {
+		if (connection == null) {
+			return;
+		}
+		final PooledConnection pc = borrowed.get(connection);
+		if (pc == null) {
+			logger.error("Connection not borrowed from this pool");
+			return;
+		}
+		if (current.get() == pc && --pc.depth > 0) {
+			// Reentrant, still in use
+			return;
+		}
+		current.remove();
+		borrowed.remove(connection);
+		pc.borrowTrace = null;
+		boolean reusable = pc.generation == generation.get();
+		try {
+			if (!connection.getAutoCommit()) {
+				// Unfinished transaction
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			reusable = reusable && !connection.isClosed();
+		} catch (final SQLException e) {
+			logger.error("Error resetting connection", e);
+			reusable = false;
+		}
+		if (reusable) {
+			pc.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(pc);
+		} else {
+			closePhysical(pc);
+		}
+		permits.release();
+	}
+
+	/**
+	 * Closes connections idle for too long, keeps the minimum number of idle
+	 * connections and logs possible leaks.
+	 */
+	private void evict() {
+		try {
+			final long now = System.currentTimeMillis();
+			// The least recently used are last
+			while (idle.size() > config.getMinIdle()) {
+				final PooledConnection pc = idle.peekLast();
+				if (pc == null || now - pc.lastUsed < config.getIdleTimeoutMillis() || !idle.remove(pc)) {
+					break;
+				}
+				closePhysical(pc);
+			}
+			fillIdle();
+			if (config.getLeakDetectionThresholdMillis() > 0) {
+				for (final PooledConnection pc : borrowed.values()) {
+					if (!pc.leakReported && now - pc.borrowedAt > config.getLeakDetectionThresholdMillis()) {
+						pc.leakReported = true;
+						logger.warn("Possible connection leak, borrowed {} ms ago", now - pc.borrowedAt,
+								pc.borrowTrace);
+					}
+				}
+			}
+		} catch (final RuntimeException e) {
+			// The scheduled task must not die
+			logger.error("Evictor error", e);
+		}
+	}
+
+	/**
+	 * Opens connections until the minimum number of idle connections is reached.
+	 */
+	private void fillIdle() {
+		while (idle.size() < config.getMinIdle() && reserve()) {
+			final PooledConnection pc = create();
+			if (pc == null) {
+				break;
+			}
+			idle.offerLast(pc);
+		}
+	}
+
+	/**
+	 * Checks if a connection has been borrowed from this pool.
+	 *
+	 * @param connection the connection
+	 * @return true if it is borrowed from this pool
+	 */
+	boolean isBorrowed(Connection connection) {
+		return connection != null && borrowed.containsKey(connection);
+	}
+
+	/**
+	 * Gets the number of borrowed connections.
+	 *
+	 * @return the number of borrowed connections
+	 */
+	public int getActiveCount() {
+		return borrowed.size();
+	}
+
+	/**
+	 * Gets the number of idle connections.
+	 *
+	 * @return the number of idle connections
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Gets the number of open connections.
+	 *
+	 * @return the number of open connections
+	 */
+	public int getTotalCount() {
+		return total.get();
+	}
+
+	/**
+	 * Gets the estimated number of threads waiting for a connection.
+	 *
+	 * @return the number of waiting threads
+	 */
+	public int getWaitingCount() {
+		return permits.getQueueLength();
+	}
+
+	/**
+	 * Returns the pool statistics.
+	 *
+	 * @return the pool statistics
+	 */
+	@Override
+	public String toString() {
+		return "DbUtilPool [active=" + getActiveCount() + ", idle=" + getIdleCount() + ", total="
+				+ getTotalCount() + ", waiting=" + getWaitingCount() + ", max=" + config.getMaxTotal() + "]";
+	}
+}
@@ -160,6 +160,15 @@ public class DbUtilSingleConnection implements IDbUtil {
 		return connection;
 	}
 
+	/**
+	 * Checks if the current thread is using the connection.
+	 *
+	 * @return true if the current thread holds the lock
+	 */
+	public boolean isHeldByCurrentThread() {
+		return rl.isHeldByCurrentThread();
+	}
+
 	@Override
 	public void closeConnection(Connection connection) {
 		// Reuse connection
@@ -0,0 +1,216 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.config.DbPoolConfig;
+
+/**
+ * Utility class that provides methods for managing connections to a SQLite
+ * database in WAL mode, splitting reads and writes.
+ *
+ * <p>The database is switched to WAL journaling, so readers do not wait for the
+ * writer. Writes ({@link #getConnection()}) use a single serialized connection
+ * (a {@link DbUtilSingleConnection}), because SQLite only allows one writer.
+ * Reads ({@link #getReadConnection()}) use a {@link DbUtilPool} of read-only
+ * connections.
+ *
+ * <p>If the current thread is using the writer connection, reads use it too, so
+ * they see the uncommitted changes of its transaction.
+ *
+ * <p>The JDBC URL is obtained from the JNDI DataSource, if it exists, and then the
+ * connections are created directly, so the limits of the DataSource (usually
+ * <code>maxTotal=1</code> with SQLite) do not apply. If the database is not SQLite,
+ * all connections are the writer connection.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public class DbUtilSqliteWal implements IDbUtil {
+	/**
+	 * Logger.
+	 */
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	/**
+	 * Prefix of SQLite JDBC URLs.
+	 */
+	private static final String SQLITE_URL_PREFIX = "jdbc:sqlite:";
+	/**
+	 * Time that a connection waits for a lock before failing, in milliseconds.
+	 */
+	private static final int BUSY_TIMEOUT = 10000;
+	/**
+	 * Parameters of the pool of readers.
+	 */
+	private final DbPoolConfig config;
+	/**
+	 * Serialized writer connection.
+	 */
+	private DbUtilSingleConnection writer = null;
+	/**
+	 * Pool of read-only connections, null if reads and writes are not split.
+	 */
+	private DbUtilPool readers = null;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param config parameters of the pool of readers, default values if null
+	 */
+	public DbUtilSqliteWal(DbPoolConfig config) {
+		this.config = config != null ? config : DbPoolConfig.fromString(null);
+	}
+
+	/**
+	 * Gets the JDBC URL of the database.
+	 *
+	 * @param connectionString DataSource JNDI name or JDBC connection string
+	 * @return the JDBC URL or null if unknown
+	 */
+	private String getUrl(String connectionString) {
+		if (connectionString == null || connectionString.startsWith(SQLITE_URL_PREFIX)) {
+			return connectionString;
+		}
+		String url = null;
+		try {
+			final InitialContext ctx = new InitialContext();
+			final DataSource ds = (DataSource) ctx.lookup("java:comp/env/" + connectionString);
+			try (Connection c = ds.getConnection()) {
+				url = c.getMetaData().getURL();
+			}
+		} catch (final NamingException e) {
+			logger.info("DataSource not found.");
+			url = connectionString;
+		} catch (final SQLException e) {
+			logger.error("Error getting DataSource URL", e);
+		}
+		return url;
+	}
+
+	/**
+	 * Executes a statement that may return a result.
+	 *
+	 * @param c   the connection
+	 * @param sql the statement
+	 * @return the first column of the first row or null
+	 * @throws SQLException if a database error occurs
+	 */
+	private static String execute(Connection c, String sql) throws SQLException {
+		String result = null;
+		try (Statement stmt = c.createStatement()) {
+			if (stmt.execute(sql)) {
+				final ResultSet rs = stmt.getResultSet();
+				if (rs.next()) {
+					result = rs.getString(1);
+				}
+				rs.close();
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public void init(String connectionString) {
+		final String url = getUrl(connectionString);
+		writer = new DbUtilSingleConnection();
+		if (url == null || !url.startsWith(SQLITE_URL_PREFIX)) {
+			logger.error("Not a SQLite database, reads and writes are not split: {}", url);
+			writer.init(connectionString);
+			return;
+		}
+		writer.init(url);
+		final Connection c = writer.getConnection();
+		try {
+			logger.info("Journal mode: {}", execute(c, "PRAGMA journal_mode=WAL"));
+			execute(c, "PRAGMA synchronous=NORMAL");
+			execute(c, "PRAGMA busy_timeout=" + BUSY_TIMEOUT);
+		} catch (final SQLException e) {
+			logger.error("Error setting WAL mode", e);
+		} finally {
+			writer.closeConnection(c);
+		}
+		readers = new DbUtilPool(config) {
+			@Override
+			protected void initConnection(Connection connection) throws SQLException {
+				execute(connection, "PRAGMA query_only=1");
+				execute(connection, "PRAGMA busy_timeout=" + BUSY_TIMEOUT);
+			}
+		};
+		readers.init(url);
+	}
+
+	@Override
+	public void destroy() {
+		if (readers != null) {
+			readers.destroy();
+			readers = null;
+		}
+		if (writer != null) {
+			writer.destroy();
+			writer = null;
+		}
+	}
+
+	@Override
+	public Connection getConnection() {
+		return writer.getConnection();
+	}
+
+	@Override
+	public Connection getReadConnection() {
+		final DbUtilPool r = readers;
+		if (r == null || writer.isHeldByCurrentThread()) {
+			// Not split or inside a write
+			return writer.getConnection();
+		}
+		return r.getConnection();
+	}
+
+	@Override
+	public void closeConnection(Connection connection) {
+		final DbUtilPool r = readers;
+		if (r != null && r.isBorrowed(connection)) {
+			r.closeConnection(connection);
+		} else {
+			writer.closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Returns the statistics of the pool of readers.
+	 *
+	 * @return the statistics
+	 */
+	@Override
+	public String toString() {
+		return "DbUtilSqliteWal [readers=" + readers + "]";
+	}
+}
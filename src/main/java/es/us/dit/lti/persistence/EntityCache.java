@@ -0,0 +1,262 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded cache of entities read from db.
+ *
+ * <p>Entries expire after a time to live, so changes made by other nodes are
+ * seen eventually, and the least recently used entry is evicted when the cache
+ * is full. DAOs must remove the entries of the records they change.
+ *
+ * <p>Entities are mutable, so the cache keeps and returns copies made by the
+ * given copier.
+ *
+ * @param <K> type of keys
+ * @param <V> type of entities
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public class EntityCache<K, V> {
+	/**
+	 * Default maximum number of entries.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	/**
+	 * Default time to live of entries in seconds.
+	 */
+	public static final long DEFAULT_TTL_SECONDS = 300;
+
+	/**
+	 * All created caches, to show their statistics.
+	 */
+	private static final List<EntityCache<?, ?>> caches = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Name of the cache.
+	 */
+	private final String name;
+	/**
+	 * Maximum number of entries.
+	 */
+	private final int maxSize;
+	/**
+	 * Time to live of entries in milliseconds.
+	 */
+	private final long ttlMillis;
+	/**
+	 * Copier of entities.
+	 */
+	private final UnaryOperator<V> copier;
+	/**
+	 * Entries in access order. Access is synchronized on it.
+	 */
+	private final Map<K, Entry<V>> entries;
+	/**
+	 * Number of hits.
+	 */
+	private final LongAdder hits = new LongAdder();
+	/**
+	 * Number of misses.
+	 */
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Cached entity.
+	 *
+	 * @param <V> type of entity
+	 */
+	private static final class Entry<V> {
+		/**
+		 * The entity.
+		 */
+		private final V value;
+		/**
+		 * Expiration time in milliseconds.
+		 */
+		private final long expires;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param value   the entity
+		 * @param expires expiration time in milliseconds
+		 */
+		private Entry(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Class constructor with default limits.
+	 *
+	 * @param name   name of the cache
+	 * @param copier copier of entities
+	 */
+	public EntityCache(String name, UnaryOperator<V> copier) {
+		this(name, DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS, copier);
+	}
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param name       name of the cache
+	 * @param maxSize    maximum number of entries
+	 * @param ttlSeconds time to live of entries in seconds
+	 * @param copier     copier of entities
+	 */
+	public EntityCache(String name, int maxSize, long ttlSeconds, UnaryOperator<V> copier) {
+		this.name = name;
+		this.maxSize = Math.max(1, maxSize);
+		this.ttlMillis = ttlSeconds * 1000;
+		this.copier = copier;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				return size() > EntityCache.this.maxSize;
+			}
+		};
+		caches.add(this);
+	}
+
+	/**
+	 * Gets a copy of a cached entity.
+	 *
+	 * @param key the key
+	 * @return the copy or null if it is not cached or it has expired
+	 */
+	public V get(K key) {
+		Entry<V> entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && entry.expires <= System.currentTimeMillis()) {
+				entries.remove(key);
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return copier.apply(entry.value);
+	}
+
+	/**
+	 * Caches a copy of an entity.
+	 *
+	 * @param key   the key
+	 * @param value the entity
+	 */
+	public void put(K key, V value) {
+		final Entry<V> entry = new Entry<>(copier.apply(value), System.currentTimeMillis() + ttlMillis);
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * Removes an entity.
+	 *
+	 * @param key the key
+	 */
+	public void remove(K key) {
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all entities.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Gets the name of the cache.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of entries, including expired ones not removed yet.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Gets the number of hits.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of misses.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the statistics of all caches.
+	 *
+	 * @return a list with name, size, hits and misses of each cache
+	 */
+	public static List<Map<String, Object>> getStatistics() {
+		final List<Map<String, Object>> result = new ArrayList<>();
+		for (final EntityCache<?, ?> c : caches) {
+			final Map<String, Object> info = new LinkedHashMap<>();
+			info.put("name", c.getName());
+			info.put("size", c.size());
+			info.put("hits", c.getHits());
+			info.put("misses", c.getMisses());
+			result.add(info);
+		}
+		return Collections.unmodifiableList(result);
+	}
+}
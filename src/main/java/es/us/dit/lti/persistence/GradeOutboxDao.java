@@ -0,0 +1,348 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.entity.OutboxGrade;
+
+/**
+ * The Grade Outbox Data Access Object is the interface providing access to the
+ * scores pending to be sent to tool consumers.
+ *
+ * <p>The time of next try is also used as version of a row: a process that
+ * takes a score sets it, and only changes or deletes the row if it has not
+ * changed meanwhile (by a new score or by other node).
+ *
+ * @author Francisco José Fernández Jiménez
+ */
+public final class GradeOutboxDao {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(GradeOutboxDao.class);
+
+	/**
+	 * Table name of this DAO.
+	 */
+	public static final String GO_TABLE_NAME = "grade_outbox";
+
+	/**
+	 * SQL statement to replace the pending score of a resource user and line item.
+	 */
+	private static final String SQL_REPLACE = "UPDATE " + GO_TABLE_NAME
+			+ " SET attempt_sid=?, score=?, client_id=?, tool_key_sid=?, result_source_id=?, tries=0, next_try=?"
+			+ " WHERE resource_user_sid=? AND lineitem=?";
+
+	/**
+	 * SQL statement to add a pending score.
+	 */
+	private static final String SQL_NEW = "INSERT INTO " + GO_TABLE_NAME
+			+ " (attempt_sid, score, client_id, tool_key_sid, result_source_id, tries, next_try, resource_user_sid, lineitem)"
+			+ " VALUES (?, ?, ?, ?, ?, 0, ?, ?, ?)";
+
+	/**
+	 * SQL statement to get the scores to send.
+	 */
+	private static final String SQL_GET_DUE = "SELECT sid, resource_user_sid, lineitem, attempt_sid, score, client_id,"
+			+ " tool_key_sid, result_source_id, tries, next_try FROM " + GO_TABLE_NAME
+			+ " WHERE next_try<=? ORDER BY next_try LIMIT ?";
+
+	/**
+	 * SQL statement to change the time of next try if it has not changed.
+	 */
+	private static final String SQL_RESCHEDULE = "UPDATE " + GO_TABLE_NAME
+			+ " SET tries=?, next_try=? WHERE sid=? AND next_try=?";
+
+	/**
+	 * SQL statement to delete a score if it has not changed.
+	 */
+	private static final String SQL_DELETE = "DELETE FROM " + GO_TABLE_NAME + " WHERE sid=? AND next_try=?";
+
+	/**
+	 * SQL statement to get the time of the next try.
+	 */
+	private static final String SQL_GET_NEXT_TRY = "SELECT MIN(next_try) FROM " + GO_TABLE_NAME;
+
+	/**
+	 * SQL statement to count the pending scores.
+	 */
+	private static final String SQL_COUNT = "SELECT count(sid) FROM " + GO_TABLE_NAME;
+
+	/**
+	 * Utility class that provides methods for managing connections to a database.
+	 */
+	private static IDbUtil dbUtil = null;
+
+	/**
+	 * Can not create objects.
+	 */
+	private GradeOutboxDao() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Sets the db utility class.
+	 *
+	 * @param dbu the db utility class to set
+	 */
+	public static synchronized void setDbUtil(IDbUtil dbu) {
+		dbUtil = dbu;
+	}
+
+	/**
+	 * Gets the db utility class.
+	 *
+	 * @return the db utility class
+	 */
+	public static synchronized IDbUtil getDbUtil() {
+		return dbUtil;
+	}
+
+	/**
+	 * Saves a score, replacing the pending one of the same resource user and line
+	 * item.
+	 *
+	 * @param grade the score, its time of next try is used
+	 * @return true if successful
+	 */
+	public static boolean put(OutboxGrade grade) {
+		boolean res = false;
+		final Connection conn = dbUtil.getConnection();
+		if (conn == null) {
+			return res;
+		}
+		try {
+			res = putInTransaction(conn, grade);
+		} catch (final SQLException e) {
+			// Inserted by other request meanwhile, the row exists now
+			try (PreparedStatement stmt = conn.prepareStatement(SQL_REPLACE)) {
+				setParameters(stmt, grade);
+				res = stmt.executeUpdate() == 1;
+			} catch (final SQLException e2) {
+				logger.error("Put: ", e2);
+			}
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+		return res;
+	}
+
+	/**
+	 * Replaces or adds a score in a transaction.
+	 *
+	 * @param conn  the connection
+	 * @param grade the score
+	 * @return true if successful
+	 * @throws SQLException if a database error occurs
+	 */
+	private static boolean putInTransaction(Connection conn, OutboxGrade grade) throws SQLException {
+		boolean res;
+		final boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_REPLACE)) {
+			setParameters(stmt, grade);
+			res = stmt.executeUpdate() == 1;
+			if (!res) {
+				try (PreparedStatement stmt2 = conn.prepareStatement(SQL_NEW)) {
+					setParameters(stmt2, grade);
+					res = stmt2.executeUpdate() == 1;
+				}
+			}
+			if (autoCommit) {
+				conn.commit();
+			}
+		} catch (final SQLException e) {
+			if (autoCommit) {
+				conn.rollback();
+			}
+			throw e;
+		} finally {
+			if (autoCommit) {
+				conn.setAutoCommit(true);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Sets the parameters of a replace or insert statement.
+	 *
+	 * @param stmt  the statement
+	 * @param grade the score
+	 * @throws SQLException if a database error occurs
+	 */
+	private static void setParameters(PreparedStatement stmt, OutboxGrade grade) throws SQLException {
+		int i = 1;
+		stmt.setInt(i++, grade.getAttemptSid());
+		stmt.setInt(i++, grade.getScore());
+		if (grade.getClientId() != null) {
+			stmt.setString(i++, grade.getClientId());
+		} else {
+			stmt.setNull(i++, Types.VARCHAR);
+		}
+		stmt.setInt(i++, grade.getToolKeySid());
+		stmt.setString(i++, grade.getResultSourceId());
+		stmt.setLong(i++, grade.getNextTry());
+		stmt.setInt(i++, grade.getResourceUserSid());
+		stmt.setString(i, grade.getLineItem());
+	}
+
+	/**
+	 * Gets the scores whose time of next try has come.
+	 *
+	 * @param now current time in milliseconds
+	 * @param max maximum number of scores
+	 * @return the scores, the oldest first
+	 */
+	public static List<OutboxGrade> getDue(long now, int max) {
+		final List<OutboxGrade> result = new ArrayList<>();
+		final Connection conn = dbUtil.getReadConnection();
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_DUE)) {
+			stmt.setLong(1, now);
+			stmt.setInt(2, max);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					int i = 1;
+					final OutboxGrade grade = new OutboxGrade();
+					grade.setSid(rs.getInt(i++));
+					grade.setResourceUserSid(rs.getInt(i++));
+					grade.setLineItem(rs.getString(i++));
+					grade.setAttemptSid(rs.getInt(i++));
+					grade.setScore(rs.getInt(i++));
+					grade.setClientId(rs.getString(i++));
+					grade.setToolKeySid(rs.getInt(i++));
+					grade.setResultSourceId(rs.getString(i++));
+					grade.setTries(rs.getInt(i++));
+					grade.setNextTry(rs.getLong(i));
+					result.add(grade);
+				}
+			}
+		} catch (final SQLException e) {
+			logger.error("Get due: ", e);
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+		return result;
+	}
+
+	/**
+	 * Changes the number of tries and time of next try of a score, if it has not
+	 * changed since it was read.
+	 *
+	 * <p>It is used to take a score (so other nodes do not send it) and to retry
+	 * it later.
+	 *
+	 * @param grade   the score, updated if successful
+	 * @param tries   new number of failed tries
+	 * @param nextTry new time of next try in milliseconds
+	 * @return true if successful, false if it has changed
+	 */
+	public static boolean reschedule(OutboxGrade grade, int tries, long nextTry) {
+		boolean res = false;
+		final Connection conn = dbUtil.getConnection();
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_RESCHEDULE)) {
+			stmt.setInt(1, tries);
+			stmt.setLong(2, nextTry);
+			stmt.setInt(3, grade.getSid());
+			stmt.setLong(4, grade.getNextTry());
+			res = stmt.executeUpdate() == 1;
+			if (res) {
+				grade.setTries(tries);
+				grade.setNextTry(nextTry);
+			}
+		} catch (final SQLException e) {
+			logger.error("Reschedule: ", e);
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+		return res;
+	}
+
+	/**
+	 * Deletes a score if it has not changed since it was read.
+	 *
+	 * @param grade the score
+	 * @return true if deleted, false if it has changed
+	 */
+	public static boolean delete(OutboxGrade grade) {
+		boolean res = false;
+		final Connection conn = dbUtil.getConnection();
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_DELETE)) {
+			stmt.setInt(1, grade.getSid());
+			stmt.setLong(2, grade.getNextTry());
+			res = stmt.executeUpdate() == 1;
+		} catch (final SQLException e) {
+			logger.error("Delete: ", e);
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+		return res;
+	}
+
+	/**
+	 * Gets the time of the next try of any score.
+	 *
+	 * @return the time in milliseconds, 0 if there are no scores or error
+	 */
+	public static long getNextTry() {
+		long res = 0;
+		final Connection conn = dbUtil.getReadConnection();
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_NEXT_TRY); ResultSet rs = stmt.executeQuery()) {
+			if (rs.next()) {
+				res = rs.getLong(1);
+			}
+		} catch (final SQLException e) {
+			logger.error("Get next try: ", e);
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+		return res;
+	}
+
+	/**
+	 * Counts the pending scores.
+	 *
+	 * @return the number of scores or -1 if error
+	 */
+	public static int count() {
+		int res = -1;
+		final Connection conn = dbUtil.getReadConnection();
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_COUNT); ResultSet rs = stmt.executeQuery()) {
+			if (rs.next()) {
+				res = rs.getInt(1);
+			}
+		} catch (final SQLException e) {
+			logger.error("Count: ", e);
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+		return res;
+	}
+}
@@ -48,6 +48,19 @@ public interface IDbUtil {
 	 */
 	Connection getConnection();
 
+	/**
+	 * Returns a database connection that will only be used to read.
+	 *
+	 * <p>Implementations may return a connection that reads in parallel with
+	 * writers. It must be released with {@link #closeConnection(Connection)}.
+	 * By default, it is the same as {@link #getConnection()}.
+	 *
+	 * @return database connection instance
+	 */
+	default Connection getReadConnection() {
+		return getConnection();
+	}
+
 	/**
 	 * closeConnection close the connection if open.
 	 *
@@ -1,29 +1,282 @@
 package es.us.dit.lti.persistence;
+import com.google.gson.Gson;
+import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.KeyUse;
 import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 /**
  * Servicio encargado de la gestión de claves asimétricas para LTI 1.3.
  * Genera, almacena y recupera claves RSA de la tabla 'lti_key_set'.
- 
+ *
+ * <p>Las claves se mantienen en memoria ya analizadas, junto con un firmante
+ * reutilizable, de modo que firmar no accede a la base de datos. Una tarea en
+ * segundo plano comprueba periódicamente una marca de versión de la tabla
+ * (número de claves y mayor id) y recarga las claves si otro nodo las ha
+ * cambiado.
+ *
+ * <p>Si la rotación está activada, la tarea genera una clave nueva cuando la
+ * activa tiene más de los días indicados. La clave nueva se publica en el JWKS
+ * pero no se usa para firmar hasta que pasa {@link #PUBLISH_MILLIS}, y las
+ * claves anteriores se siguen publicando durante {@link #RETIRE_MILLIS} después
+ * de que la nueva pase a ser la activa; después se borran. Aunque haya varios
+ * nodos, solo uno genera cada clave nueva (ver <code>lti_key_rotation</code>).
+
  * @author Juan López Suárez
 */
 public class KeyService {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(KeyService.class);
+
+	/**
+	 * Periodo por defecto de comprobación de la versión en segundos.
+	 */
+	public static final long DEFAULT_CHECK_SECONDS = 60;
+
+	/**
+	 * Tiempo que una clave nueva se publica antes de usarla para firmar.
+	 */
+	public static final long PUBLISH_MILLIS = 3600 * 1000L;
+
+	/**
+	 * Tiempo que una clave sustituida se sigue publicando.
+	 */
+	public static final long RETIRE_MILLIS = 24 * 3600 * 1000L;
+
 	/**
 	 * Utility class that provides methods for managing connections to a database.
 	 */
 	private static IDbUtil dbUtil = null;
 
+	/**
+	 * Claves en memoria, null si no se han cargado.
+	 */
+	private static volatile KeyRing keyRing = null;
+
+	/**
+	 * Versión local de las claves, incrementada cada vez que cambian.
+	 */
+	private static final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Días de vida de la clave activa, 0 si no se rotan.
+	 */
+	private static int rotationDays = 0;
+
+	/**
+	 * Ejecutor de la tarea de mantenimiento, null si no se ha iniciado.
+	 */
+	private static ScheduledExecutorService scheduler = null;
+
+	/**
+	 * Clave de firma analizada.
+	 */
+	public static final class SigningKey {
+		/**
+		 * Key ID.
+		 */
+		private final String kid;
+		/**
+		 * Clave RSA completa.
+		 */
+		private final RSAKey rsaKey;
+		/**
+		 * Clave privada.
+		 */
+		private final RSAPrivateKey privateKey;
+		/**
+		 * Firmante reutilizable.
+		 */
+		private final JWSSigner signer;
+		/**
+		 * Fecha de creación en milisegundos.
+		 */
+		private final long created;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param rsaKey  clave RSA completa
+		 * @param created fecha de creación en milisegundos
+		 * @throws JOSEException si la clave no es válida
+		 */
+		private SigningKey(RSAKey rsaKey, long created) throws JOSEException {
+			this.kid = rsaKey.getKeyID();
+			this.rsaKey = rsaKey;
+			this.privateKey = rsaKey.toRSAPrivateKey();
+			this.signer = new RSASSASigner(privateKey);
+			this.created = created;
+		}
+
+		/**
+		 * Gets the key ID.
+		 *
+		 * @return the kid
+		 */
+		public String getKid() {
+			return kid;
+		}
+
+		/**
+		 * Gets the RSA key.
+		 *
+		 * @return the RSA key
+		 */
+		public RSAKey getRsaKey() {
+			return rsaKey;
+		}
+
+		/**
+		 * Gets the private key.
+		 *
+		 * @return the private key
+		 */
+		public RSAPrivateKey getPrivateKey() {
+			return privateKey;
+		}
+
+		/**
+		 * Gets the signer, it can be used concurrently.
+		 *
+		 * @return the signer
+		 */
+		public JWSSigner getSigner() {
+			return signer;
+		}
+	}
+
+	/**
+	 * Documento JWKS ya serializado.
+	 */
+	public static final class PublishedKeySet {
+		/**
+		 * JSON en UTF-8.
+		 */
+		private final byte[] json;
+		/**
+		 * ETag fuerte, entre comillas.
+		 */
+		private final String etag;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param keys claves públicas
+		 */
+		private PublishedKeySet(JWKSet keys) {
+			json = new Gson().toJson(keys.toJSONObject()).getBytes(StandardCharsets.UTF_8);
+			String hash;
+			try {
+				hash = Base64.getUrlEncoder().withoutPadding()
+						.encodeToString(MessageDigest.getInstance("SHA-256").digest(json));
+			} catch (final NoSuchAlgorithmException e) {
+				// SHA-256 siempre está disponible
+				hash = Integer.toHexString(Arrays.hashCode(json));
+			}
+			etag = "\"" + hash + "\"";
+		}
+
+		/**
+		 * Gets the JSON document, it must not be modified.
+		 *
+		 * @return the JSON in UTF-8
+		 */
+		public byte[] getJson() {
+			return json;
+		}
+
+		/**
+		 * Gets the strong ETag of the document.
+		 *
+		 * @return the quoted ETag
+		 */
+		public String getETag() {
+			return etag;
+		}
+	}
+
+	/**
+	 * Conjunto inmutable de claves cargadas.
+	 */
+	private static final class KeyRing {
+		/**
+		 * Marca de versión de la tabla.
+		 */
+		private final String stamp;
+		/**
+		 * Claves por kid, en orden de creación.
+		 */
+		private final Map<String, SigningKey> keys;
+		/**
+		 * Clave activa, null si no hay claves.
+		 */
+		private final SigningKey active;
+		/**
+		 * Claves públicas.
+		 */
+		private final JWKSet publicKeys;
+		/**
+		 * Claves públicas serializadas.
+		 */
+		private final PublishedKeySet published;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param stamp marca de versión
+		 * @param keys  claves en orden de creación
+		 */
+		private KeyRing(String stamp, Map<String, SigningKey> keys) {
+			this.stamp = stamp;
+			this.keys = Collections.unmodifiableMap(keys);
+			final long limit = System.currentTimeMillis() - PUBLISH_MILLIS;
+			SigningKey newest = null;
+			SigningKey published = null;
+			final List<JWK> jwks = new ArrayList<>();
+			for (final SigningKey k : keys.values()) {
+				newest = k;
+				if (k.created <= limit) {
+					published = k;
+				}
+				jwks.add(k.rsaKey.toPublicJWK());
+			}
+			// La primera clave se usa en cuanto se crea
+			this.active = published != null ? published : newest;
+			this.publicKeys = new JWKSet(jwks);
+			this.published = new PublishedKeySet(publicKeys);
+		}
+	}
+
 	/**
 	 * Sets the db utility class.
 	 *
@@ -48,88 +301,346 @@ public class KeyService {
 	 * @return una conexión a la base de datos
 	 * @throws Exception si ocurre un error al obtener la conexión
 	 */
-	private Connection getConnection() throws Exception {
+	private static Connection getConnection() throws Exception {
 		if (dbUtil == null) {
 			throw new IllegalStateException("KeyService no ha sido inicializada.");
 		}
 		return dbUtil.getConnection();
 	}
 
+	/**
+	 * Inicia la tarea de mantenimiento de las claves.
+	 *
+	 * @param days         días de vida de la clave activa, 0 para no rotar
+	 * @param checkSeconds periodo de comprobación de la versión en segundos
+	 */
+	public static synchronized void init(int days, long checkSeconds) {
+		destroy();
+		rotationDays = Math.max(0, days);
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread t = new Thread(r, "key-maintenance");
+			t.setDaemon(true);
+			return t;
+		});
+		final long period = Math.max(1, checkSeconds);
+		scheduler.scheduleWithFixedDelay(KeyService::maintain, 0, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Detiene la tarea de mantenimiento.
+	 */
+	public static synchronized void destroy() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Obtiene la versión local de las claves.
+	 *
+	 * <p>Cambia cada vez que se añaden, activan o borran claves.
+	 *
+	 * @return la versión
+	 */
+	public static long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Tarea de mantenimiento: recarga, rota y retira claves.
+	 */
+	private static void maintain() {
+		try {
+			KeyRing ring = refresh();
+			if (rotationDays > 0 && ring.active != null) {
+				final long now = System.currentTimeMillis();
+				SigningKey newest = null;
+				for (final SigningKey k : ring.keys.values()) {
+					newest = k;
+				}
+				if (newest != null && newest.created + rotationDays * 24 * 3600 * 1000L <= now
+						&& rotate(newest.kid)) {
+					ring = getKeyRing();
+				}
+				if (ring.active.created + PUBLISH_MILLIS + RETIRE_MILLIS <= now) {
+					retireOlderThan(ring);
+				}
+			}
+		} catch (final Exception e) {
+			// Seguir en la siguiente ejecución
+			logger.error("Error maintaining LTI 1.3 keys", e);
+		}
+	}
+
+	/**
+	 * Genera una clave nueva que sustituye a la más reciente, si otro nodo no lo
+	 * ha hecho ya.
+	 *
+	 * <p>La clave se inserta en la misma transacción que un registro en
+	 * <code>lti_key_rotation</code> cuya clave primaria es el kid sustituido, de
+	 * modo que solo un nodo rota cada clave. Después de insertar el registro se
+	 * comprueba de nuevo que la clave sustituida sigue siendo la más reciente.
+	 *
+	 * @param kid kid de la clave más reciente
+	 * @return true si se ha generado la clave
+	 * @throws Exception si hay error de base de datos
+	 */
+	private static boolean rotate(String kid) throws Exception {
+		final RSAKey jwk = newKey();
+		boolean rotated = false;
+		Connection conn = null;
+		try {
+			conn = getConnection();
+			conn.setAutoCommit(false);
+			try {
+				try (PreparedStatement ps = conn.prepareStatement(
+						"INSERT INTO lti_key_rotation (replaced_kid, created) VALUES (?, ?)")) {
+					ps.setString(1, kid);
+					ps.setLong(2, System.currentTimeMillis());
+					ps.executeUpdate();
+				} catch (final SQLException e) {
+					// Otro nodo la está rotando o ya la ha rotado
+					logger.debug("LTI 1.3 key {} already rotated: {}", kid, e.getMessage());
+					conn.rollback();
+					return false;
+				}
+				try (PreparedStatement ps = conn
+						.prepareStatement("SELECT kid FROM lti_key_set ORDER BY id DESC LIMIT 1");
+						ResultSet rs = ps.executeQuery()) {
+					if (!rs.next() || !kid.equals(rs.getString(1))) {
+						conn.rollback();
+						return false;
+					}
+				}
+				insertKey(conn, jwk);
+				conn.commit();
+				rotated = true;
+				logger.info("LTI 1.3 key {} rotated, new key: {}", kid, jwk.getKeyID());
+			} catch (final SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		} finally {
+			if (conn != null && dbUtil != null) {
+				dbUtil.closeConnection(conn);
+			}
+		}
+		refresh();
+		return rotated;
+	}
+
+	/**
+	 * Genera un par de claves RSA 2048.
+	 *
+	 * @return la clave
+	 * @throws JOSEException si hay error al generarla
+	 */
+	private static RSAKey newKey() throws JOSEException {
+		return new RSAKeyGenerator(2048).keyUse(KeyUse.SIGNATURE).keyID(UUID.randomUUID().toString())
+				.algorithm(JWSAlgorithm.RS256) // Algoritmo recomendado para LTI 1.3
+				.generate();
+	}
+
+	/**
+	 * Guarda una clave en la base de datos.
+	 *
+	 * @param conn conexión
+	 * @param jwk  la clave
+	 * @throws SQLException si hay error de base de datos
+	 */
+	private static void insertKey(Connection conn, RSAKey jwk) throws SQLException {
+		final String sql = "INSERT INTO lti_key_set (kid, private_key, public_key, alg) VALUES (?, ?, ?, ?)";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setString(1, jwk.getKeyID());
+			ps.setString(2, jwk.toJSONString());
+			ps.setString(3, jwk.toPublicJWK().toJSONString());
+			ps.setString(4, jwk.getAlgorithm().getName());
+			ps.executeUpdate();
+		}
+	}
+
+	/**
+	 * Borra las claves anteriores a la activa.
+	 *
+	 * @param ring claves actuales
+	 * @throws Exception si hay error de base de datos
+	 */
+	private static void retireOlderThan(KeyRing ring) throws Exception {
+		final List<String> retired = new ArrayList<>();
+		for (final SigningKey k : ring.keys.values()) {
+			if (k == ring.active) {
+				break;
+			}
+			retired.add(k.kid);
+		}
+		if (!retired.isEmpty()) {
+			final String sql = "DELETE FROM lti_key_set WHERE kid = ?";
+			final String sqlRotation = "DELETE FROM lti_key_rotation WHERE replaced_kid = ?";
+			Connection conn = null;
+			try {
+				conn = getConnection();
+				try (PreparedStatement ps = conn.prepareStatement(sql);
+						PreparedStatement psRotation = conn.prepareStatement(sqlRotation)) {
+					for (final String kid : retired) {
+						ps.setString(1, kid);
+						ps.executeUpdate();
+						psRotation.setString(1, kid);
+						psRotation.executeUpdate();
+						logger.info("LTI 1.3 key retired: {}", kid);
+					}
+				}
+			} finally {
+				if (conn != null && dbUtil != null) {
+					dbUtil.closeConnection(conn);
+				}
+			}
+			refresh();
+		}
+	}
+
+	/**
+	 * Obtiene las claves, cargándolas si es necesario.
+	 *
+	 * @return las claves
+	 * @throws Exception si hay error de base de datos
+	 */
+	private static KeyRing getKeyRing() throws Exception {
+		KeyRing ring = keyRing;
+		if (ring == null) {
+			synchronized (KeyService.class) {
+				ring = keyRing;
+				if (ring == null) {
+					ring = load(readStamp());
+				}
+			}
+		}
+		return ring;
+	}
+
+	/**
+	 * Recarga las claves si la marca de versión de la tabla ha cambiado.
+	 *
+	 * @return las claves actuales
+	 * @throws Exception si hay error de base de datos
+	 */
+	private static KeyRing refresh() throws Exception {
+		final String stamp = readStamp();
+		synchronized (KeyService.class) {
+			KeyRing ring = keyRing;
+			if (ring == null || !ring.stamp.equals(stamp)) {
+				ring = load(stamp);
+			} else if (ring.keys.size() > 1) {
+				// Una clave publicada puede haber pasado a ser la activa
+				final KeyRing updated = new KeyRing(stamp, new LinkedHashMap<>(ring.keys));
+				if (updated.active != ring.active) {
+					logger.info("LTI 1.3 active key: {}", updated.active.kid);
+					keyRing = updated;
+					version.incrementAndGet();
+					ring = updated;
+				}
+			}
+			return ring;
+		}
+	}
+
+	/**
+	 * Lee la marca de versión de la tabla de claves.
+	 *
+	 * @return la marca de versión
+	 * @throws Exception si hay error de base de datos
+	 */
+	private static String readStamp() throws Exception {
+		final String sql = "SELECT COUNT(*), MAX(id) FROM lti_key_set";
+		Connection conn = null;
+		try {
+			conn = getConnection();
+			try (PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+				return rs.next() ? rs.getLong(1) + ":" + rs.getLong(2) : "0:0";
+			}
+		} finally {
+			if (conn != null && dbUtil != null) {
+				dbUtil.closeConnection(conn);
+			}
+		}
+	}
+
+	/**
+	 * Carga y analiza todas las claves. Debe llamarse con el cerrojo de la clase.
+	 *
+	 * @param stamp marca de versión leída antes de cargar
+	 * @return las claves
+	 * @throws Exception si hay error de base de datos
+	 */
+	private static KeyRing load(String stamp) throws Exception {
+		final String sql = "SELECT kid, private_key, created_at FROM lti_key_set ORDER BY id";
+		final Map<String, SigningKey> keys = new LinkedHashMap<>();
+		Connection conn = null;
+		try {
+			conn = getConnection();
+			try (PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					final long created = rs.getLong("created_at") * 1000;
+					try {
+						final SigningKey k = new SigningKey(RSAKey.parse(rs.getString("private_key")), created);
+						keys.put(k.kid, k);
+					} catch (final Exception e) {
+						logger.error("Invalid LTI 1.3 key {}", rs.getString("kid"), e);
+					}
+				}
+			}
+		} finally {
+			if (conn != null && dbUtil != null) {
+				dbUtil.closeConnection(conn);
+			}
+		}
+		final KeyRing ring = new KeyRing(stamp, keys);
+		keyRing = ring;
+		version.incrementAndGet();
+		logger.info("LTI 1.3 keys loaded: {}, active: {}", keys.size(),
+				ring.active != null ? ring.active.kid : null);
+		return ring;
+	}
+
      /**
      * Genera un nuevo par de claves RSA 2048 y lo guarda en la base de datos.
      * @return El ID de la clave generada (kid)
      */
     public String generateAndSaveNewKey() throws Exception {
         // Generar clave RSA con Nimbus (Librería LTI 1.3)
-        RSAKey jwk = new RSAKeyGenerator(2048)
-                .keyUse(KeyUse.SIGNATURE) 
-                .keyID(UUID.randomUUID().toString())
-                .algorithm(JWSAlgorithm.RS256)       // Algoritmo recomendado para LTI 1.3
-                .generate();
+        RSAKey jwk = newKey();
 
         // Guardar en Base de Datos
-        String sql = "INSERT INTO lti_key_set (kid, private_key, public_key, alg) VALUES (?, ?, ?, ?)";
         Connection conn = null;
-        PreparedStatement ps = null;
         try {
             conn = getConnection();
-            ps = conn.prepareStatement(sql);
-            
-            ps.setString(1, jwk.getKeyID());
-            
-            ps.setString(2, jwk.toJSONString()); 
-            
-            ps.setString(3, jwk.toPublicJWK().toJSONString()); 
-
-            ps.setString(4, jwk.getAlgorithm().getName());
-            
-            ps.executeUpdate();
+            insertKey(conn, jwk);
         }
         finally {
-            if (ps != null) {
-                ps.close();
-            }
             if (conn != null && dbUtil != null) {
                 dbUtil.closeConnection(conn);
             }
         }
+        refresh();
 
         return jwk.getKeyID();
     }
     /**
      * Obtiene todas las claves PÚBLICAS para exponerlas en el endpoint JWKS.
      * El LMS usará esto para verificar nuestras firmas.
+     * Incluye las claves publicadas que aún no se usan y las que se están retirando.
      */
     public JWKSet getPublicJWKSet() throws Exception {
-        List<JWK> keys = new ArrayList<>();
-        String sql = "SELECT public_key FROM lti_key_set";
-        Connection conn = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        try{
-            conn = getConnection();
-            ps = conn.prepareStatement(sql);
-            rs = ps.executeQuery();
-            
-            while (rs.next()) {
-                String jsonParams = rs.getString("public_key");
-                // Convertimos el String JSON de la BD a un objeto JWK
-                keys.add(JWK.parse(jsonParams));
-            }
-        }
-        finally {
-            if (rs != null) {
-                rs.close();
-            }
-            if (ps != null) {
-                ps.close();
-            }
-            if (conn != null && dbUtil != null) {
-                dbUtil.closeConnection(conn);
-            }
-        }
-        
-        return new JWKSet(keys);
+        return getKeyRing().publicKeys;
+    }
+    /**
+     * Obtiene el JWKS público ya serializado, con su ETag.
+     * Solo se vuelve a generar cuando cambian las claves.
+     */
+    public PublishedKeySet getPublishedKeySet() throws Exception {
+        return getKeyRing().published;
     }
     /**
      * Obtiene una clave PRIVADA específica para firmar un mensaje.
@@ -137,79 +648,39 @@ public class KeyService {
      * @return La clave RSA correspondiente al kid, o null si no se encuentra
      */
     public RSAKey getPrivateKey(String kid) throws Exception {
-        String sql = "SELECT private_key FROM lti_key_set WHERE kid = ?";
-        Connection conn = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        RSAKey rsaKey = null;
-        try {
-            conn = getConnection();
-            ps = conn.prepareStatement(sql);
-            ps.setString(1, kid);
-            rs = ps.executeQuery();
-            if(rs.next()) {
-                rsaKey = RSAKey.parse(rs.getString("private_key"));
-            }
-        }
-        finally {
-            if (rs != null) {
-                rs.close();
-            }
-            if (ps != null) {
-                ps.close();
-            }
-            if (conn != null && dbUtil != null) {
-                dbUtil.closeConnection(conn);
-            }
+        SigningKey k = getSigningKey(kid);
+        return k != null ? k.rsaKey : null;
+    }
+
+    /**
+     * Obtiene una clave de firma ya analizada, con su firmante reutilizable.
+     * Si no está en memoria comprueba si otro nodo la ha añadido.
+     * @param kid El ID de la clave (Key ID) que se desea obtener
+     * @return La clave de firma, o null si no se encuentra
+     */
+    public SigningKey getSigningKey(String kid) throws Exception {
+        SigningKey k = getKeyRing().keys.get(kid);
+        if (k == null && kid != null) {
+            k = refresh().keys.get(kid);
         }
-        return rsaKey;
+        return k;
     }
 
     /**
-     * Obtiene el ID de la primera clave disponible.
+     * Obtiene el ID de la clave activa.
      * Útil para recuperar el kid y firmar el Client Assertion.
      */
     public String getFirstKid() throws Exception {
-        String sql = "SELECT kid FROM lti_key_set LIMIT 1";
-        Connection conn = null;
-        PreparedStatement ps = null;
-        ResultSet rs = null;
-        String foundKid = null;
-        try{
-            conn = getConnection();
-            ps = conn.prepareStatement(sql);
-            rs = ps.executeQuery();
-            if (rs.next()) {
-                foundKid = rs.getString("kid");
-            }
-        }
-        finally {
-            if (rs != null) {
-                rs.close();
+        KeyRing ring = getKeyRing();
+        if (ring.active == null) {
+            synchronized (KeyService.class) {
+                ring = refresh();
+                if (ring.active == null) { //Si no hay claves en la tabla, generamos una nueva al vuelo
+                    generateAndSaveNewKey();
+                    ring = getKeyRing();
+                }
             }
-            if (ps != null) {
-                ps.close();
-            }
-            if (conn != null && dbUtil != null) {
-                dbUtil.closeConnection(conn);
-            }
-        }
-        if (foundKid == null) {//Si no hay claves en la tabla, generamos una nueva al vuelo
-             foundKid= generateAndSaveNewKey();
         }
-        
-
-        return foundKid;
+        return ring.active.kid;
     }
 }
-        
-
-
-
-
-
-
-
-
-
-
@@ -0,0 +1,1136 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.entity.Consumer;
+import es.us.dit.lti.entity.Context;
+import es.us.dit.lti.entity.LtiUser;
+import es.us.dit.lti.entity.ResourceLink;
+import es.us.dit.lti.entity.ResourceUser;
+import es.us.dit.lti.entity.ToolKey;
+
+/**
+ * Saves the data of a launch (consumer, context, resource link, LTI user and
+ * resource user) in a single transaction with one connection.
+ *
+ * <p>Each record is looked up by its natural key and is only written if it does
+ * not exist or has changed. New records are inserted with
+ * <code>INSERT ... ON CONFLICT ... RETURNING</code> (SQLite, PostgreSQL) or
+ * <code>INSERT ... ON DUPLICATE KEY UPDATE</code> (MySQL), so a concurrent
+ * launch that creates the same record does not make the launch fail, and the
+ * serial ID is obtained in the same statement. Children of a new record are not
+ * looked up, they can not exist.
+ *
+ * <p>The consumer, context and resource link stored are taken from the entity
+ * caches of their DAOs if they are there, so a launch with the same data as the
+ * previous ones does not access db for them. If the data received differ from
+ * the cached record, the record is read in the transaction, because the cached
+ * copy may be stale, and the update is decided with it. Records found are
+ * cached after the commit.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class LaunchDao {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(LaunchDao.class);
+
+	/**
+	 * SQL statement to get a consumer by GUID.
+	 */
+	private static final String SQL_GET_CONSUMER = "SELECT sid, lti_version, name, version, css_path, created, updated FROM "
+			+ ToolConsumerDao.CONSUMER_TABLE_NAME + " WHERE guid=?";
+	/**
+	 * SQL statement to update a consumer.
+	 */
+	private static final String SQL_UPDATE_CONSUMER = "UPDATE " + ToolConsumerDao.CONSUMER_TABLE_NAME
+			+ " SET lti_version=?, name=?, version=?, css_path=?, updated=? WHERE sid=?";
+	/**
+	 * SQL statement to get a context by consumer and context ID.
+	 */
+	private static final String SQL_GET_CONTEXT = "SELECT sid, label, title, created, updated FROM "
+			+ ToolContextDao.CONTEXT_TABLE_NAME + " WHERE consumer_sid=? AND context_id=?";
+	/**
+	 * SQL statement to update a context.
+	 */
+	private static final String SQL_UPDATE_CONTEXT = "UPDATE " + ToolContextDao.CONTEXT_TABLE_NAME
+			+ " SET label=?, title=?, updated=? WHERE sid=?";
+	/**
+	 * SQL statement to get a resource link by resource link ID, the conditions of
+	 * tool and context are added.
+	 */
+	private static final String SQL_GET_RL = "SELECT sid, title, custom_properties, outcome_service_url, tool_key_sid, created, updated, mapped_toolname FROM "
+			+ ToolResourceLinkDao.RL_TABLE_NAME + " WHERE resource_id=?";
+	/**
+	 * SQL statement to update a resource link (mapped tool name is not changed).
+	 */
+	private static final String SQL_UPDATE_RL = "UPDATE " + ToolResourceLinkDao.RL_TABLE_NAME
+			+ " SET title=?, custom_properties=?, outcome_service_url=?, tool_key_sid=?, updated=? WHERE sid=?";
+	/**
+	 * SQL statement to get a LTI user by consumer and user ID.
+	 */
+	private static final String SQL_GET_USER = "SELECT sid, source_id, name_given, name_family, name_full, email, created, updated FROM "
+			+ ToolConsumerUserDao.LTI_USER_TABLE_NAME + " WHERE consumer_sid=? AND lti_user_id=?";
+	/**
+	 * SQL statement to update a LTI user.
+	 */
+	private static final String SQL_UPDATE_USER = "UPDATE " + ToolConsumerUserDao.LTI_USER_TABLE_NAME
+			+ " SET source_id=?, name_given=?, name_family=?, name_full=?, email=?, updated=? WHERE sid=?";
+	/**
+	 * SQL statement to get a resource user by resource link and user.
+	 */
+	private static final String SQL_GET_RU = "SELECT sid, lti_result_sourcedid, created, updated FROM "
+			+ ToolResourceUserDao.RU_TABLE_NAME + " WHERE resource_sid=? AND lti_user_sid=?";
+	/**
+	 * SQL statement to update a resource user.
+	 */
+	private static final String SQL_UPDATE_RU = "UPDATE " + ToolResourceUserDao.RU_TABLE_NAME
+			+ " SET lti_result_sourcedid=?, updated=? WHERE sid=?";
+
+	/**
+	 * Utility class that provides methods for managing connections to a database.
+	 */
+	private static IDbUtil dbUtil = null;
+
+	/**
+	 * Dialect of the database, null if unknown yet.
+	 */
+	private static volatile SqlDialect dialect = null;
+
+	/**
+	 * Data of a launch.
+	 *
+	 * <p>Objects are set with the values received in the launch and, after
+	 * {@link LaunchDao#save(Launch)}, they have the serial IDs and the values
+	 * stored. Relations between them are set by {@link LaunchDao#save(Launch)}.
+	 */
+	public static final class Launch {
+		/**
+		 * Replace stored values (LTI 1.1) or keep them (LTI 1.3).
+		 */
+		private final boolean replace;
+		/**
+		 * Consumer, mandatory.
+		 */
+		private Consumer consumer;
+		/**
+		 * Context, optional.
+		 */
+		private Context context;
+		/**
+		 * Resource link, optional.
+		 */
+		private ResourceLink resourceLink;
+		/**
+		 * LTI user, optional.
+		 */
+		private LtiUser user;
+		/**
+		 * Resource user, optional (needs resource link and user).
+		 */
+		private ResourceUser resourceUser;
+		/**
+		 * Number of statements executed.
+		 */
+		private int statements = 0;
+		/**
+		 * If a stored consumer, context or resource link has been updated.
+		 */
+		private boolean updated = false;
+
+		/**
+		 * Class constructor.
+		 *
+		 * <p>If <code>replace</code> is true, all the stored values that have changed
+		 * are replaced. Else consumer, context and resource user are only created if
+		 * they do not exist, and in resource link and user only the values that are not
+		 * null (or empty) are replaced.
+		 *
+		 * @param replace replace stored values
+		 */
+		public Launch(boolean replace) {
+			this.replace = replace;
+		}
+
+		/**
+		 * Gets if stored values are replaced.
+		 *
+		 * @return true if stored values are replaced
+		 */
+		public boolean isReplace() {
+			return replace;
+		}
+
+		/**
+		 * Gets the consumer.
+		 *
+		 * @return the consumer
+		 */
+		public Consumer getConsumer() {
+			return consumer;
+		}
+
+		/**
+		 * Sets the consumer.
+		 *
+		 * @param consumer the consumer to set
+		 */
+		public void setConsumer(Consumer consumer) {
+			this.consumer = consumer;
+		}
+
+		/**
+		 * Gets the context.
+		 *
+		 * @return the context
+		 */
+		public Context getContext() {
+			return context;
+		}
+
+		/**
+		 * Sets the context.
+		 *
+		 * @param context the context to set
+		 */
+		public void setContext(Context context) {
+			this.context = context;
+		}
+
+		/**
+		 * Gets the resource link.
+		 *
+		 * @return the resource link
+		 */
+		public ResourceLink getResourceLink() {
+			return resourceLink;
+		}
+
+		/**
+		 * Sets the resource link.
+		 *
+		 * @param resourceLink the resource link to set
+		 */
+		public void setResourceLink(ResourceLink resourceLink) {
+			this.resourceLink = resourceLink;
+		}
+
+		/**
+		 * Gets the LTI user.
+		 *
+		 * @return the user
+		 */
+		public LtiUser getUser() {
+			return user;
+		}
+
+		/**
+		 * Sets the LTI user.
+		 *
+		 * @param user the user to set
+		 */
+		public void setUser(LtiUser user) {
+			this.user = user;
+		}
+
+		/**
+		 * Gets the resource user.
+		 *
+		 * @return the resource user
+		 */
+		public ResourceUser getResourceUser() {
+			return resourceUser;
+		}
+
+		/**
+		 * Sets the resource user.
+		 *
+		 * @param resourceUser the resource user to set
+		 */
+		public void setResourceUser(ResourceUser resourceUser) {
+			this.resourceUser = resourceUser;
+		}
+
+		/**
+		 * Gets the number of statements (round trips) executed by the last save.
+		 *
+		 * @return the number of statements
+		 */
+		public int getStatements() {
+			return statements;
+		}
+	}
+
+	/**
+	 * Sets the parameters of a statement.
+	 */
+	@FunctionalInterface
+	private interface ParameterSetter {
+		/**
+		 * Sets the parameters.
+		 *
+		 * @param stmt the statement
+		 * @throws SQLException if a database error occurs
+		 */
+		void set(PreparedStatement stmt) throws SQLException;
+	}
+
+	/**
+	 * Can not create objects.
+	 */
+	private LaunchDao() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Sets the db utility class.
+	 *
+	 * @param dbu the db utility class to set
+	 */
+	public static synchronized void setDbUtil(IDbUtil dbu) {
+		dbUtil = dbu;
+		dialect = null;
+	}
+
+	/**
+	 * Gets the db utility class.
+	 *
+	 * @return the db utility class
+	 */
+	public static synchronized IDbUtil getDbUtil() {
+		return dbUtil;
+	}
+
+	/**
+	 * Saves the data of a launch in a transaction.
+	 *
+	 * @param launch launch data, with consumer
+	 * @return true if successful, false if nothing has been saved
+	 */
+	public static boolean save(Launch launch) {
+		if (launch == null || launch.consumer == null) {
+			return false;
+		}
+		launch.statements = 0;
+		launch.updated = false;
+		boolean result = false;
+		final Connection conn = dbUtil.getConnection();
+		if (conn == null) {
+			return false;
+		}
+		boolean transactional = false;
+		try {
+			conn.setAutoCommit(false);
+			transactional = true;
+			final SqlDialect d = getDialect(conn);
+			final Calendar now = Calendar.getInstance();
+			final boolean newConsumer = saveConsumer(conn, d, launch, now);
+			boolean newContext = false;
+			if (launch.context != null) {
+				newContext = saveContext(conn, d, launch, now, newConsumer);
+			}
+			boolean newResourceLink = false;
+			if (launch.resourceLink != null) {
+				newResourceLink = saveResourceLink(conn, d, launch, now, newContext);
+			}
+			boolean newUser = false;
+			if (launch.user != null) {
+				newUser = saveUser(conn, d, launch, now, newConsumer);
+			}
+			if (launch.resourceUser != null && launch.resourceLink != null && launch.user != null) {
+				saveResourceUser(conn, d, launch, now, newResourceLink || newUser);
+			}
+			conn.commit();
+			result = true;
+			cache(launch, newConsumer, newContext, newResourceLink);
+			if (launch.updated) {
+				// Cached tool keys have copies of them
+				ToolKeyDao.clearCache();
+			}
+		} catch (final SQLException e) {
+			logger.error("Save launch", e);
+			// The cached data may be wrong (deleted by other node)
+			uncache(launch);
+			if (transactional) {
+				try {
+					conn.rollback();
+				} catch (final SQLException e1) {
+					logger.error("Rollback", e1);
+				}
+			}
+		} finally {
+			if (transactional) {
+				try {
+					conn.setAutoCommit(true);
+				} catch (final SQLException e) {
+					logger.error("Error ending transaction.", e);
+				}
+			}
+			dbUtil.closeConnection(conn);
+		}
+		logger.debug("Launch saved: {}, statements: {}", result, launch.statements);
+		return result;
+	}
+
+	/**
+	 * Caches the consumer, context and resource link of a saved launch, if they
+	 * were found. New ones are cached when they are found in the next launch.
+	 *
+	 * @param launch          launch data
+	 * @param newConsumer     if the consumer has been created
+	 * @param newContext      if the context has been created
+	 * @param newResourceLink if the resource link has been created
+	 */
+	private static void cache(Launch launch, boolean newConsumer, boolean newContext, boolean newResourceLink) {
+		if (!newConsumer) {
+			ToolConsumerDao.cache.put(launch.consumer.getGuid(), launch.consumer);
+		}
+		if (launch.context != null && !newContext) {
+			ToolContextDao.cache.put(contextKey(launch.context), launch.context);
+		}
+		if (launch.resourceLink != null && !newResourceLink) {
+			ToolResourceLinkDao.cache.put(resourceLinkKey(launch.resourceLink), launch.resourceLink);
+		}
+	}
+
+	/**
+	 * Removes the consumer, context and resource link of a launch from caches.
+	 *
+	 * @param launch launch data
+	 */
+	private static void uncache(Launch launch) {
+		ToolConsumerDao.cache.remove(launch.consumer.getGuid());
+		if (launch.context != null && launch.context.getConsumer() != null) {
+			ToolContextDao.cache.remove(contextKey(launch.context));
+		}
+		if (launch.resourceLink != null) {
+			ToolResourceLinkDao.cache.remove(resourceLinkKey(launch.resourceLink));
+		}
+	}
+
+	/**
+	 * Gets the cache key of the context of a launch.
+	 *
+	 * @param c the context, with consumer
+	 * @return the key
+	 */
+	private static String contextKey(Context c) {
+		return ToolContextDao.cacheKey(c.getConsumer().getSid(), c.getContextId());
+	}
+
+	/**
+	 * Gets the cache key of the resource link of a launch.
+	 *
+	 * @param rl the resource link
+	 * @return the key
+	 */
+	private static String resourceLinkKey(ResourceLink rl) {
+		return ToolResourceLinkDao.cacheKey(rl.getTool() == null ? null : rl.getTool().getSid(),
+				rl.getContext() == null ? null : rl.getContext().getSid(), rl.getResourceId());
+	}
+
+	/**
+	 * Gets the dialect of the database.
+	 *
+	 * @param conn a connection to the database
+	 * @return the dialect
+	 */
+	private static SqlDialect getDialect(Connection conn) {
+		SqlDialect d = dialect;
+		if (d == null) {
+			d = SqlDialect.of(conn);
+			dialect = d;
+		}
+		return d;
+	}
+
+	/**
+	 * Checks if the consumer of a launch changes a stored one.
+	 *
+	 * @param launch launch data
+	 * @param stored stored consumer
+	 * @return true if the stored consumer must be updated
+	 */
+	private static boolean changes(Launch launch, Consumer stored) {
+		final Consumer c = launch.consumer;
+		return differs(launch.replace, stored.getLtiVersion(), c.getLtiVersion())
+				|| differs(launch.replace, stored.getName(), c.getName())
+				|| differs(launch.replace, stored.getVersion(), c.getVersion())
+				|| differs(launch.replace, stored.getCssPath(), c.getCssPath());
+	}
+
+	/**
+	 * Checks if the context of a launch changes a stored one.
+	 *
+	 * @param launch launch data
+	 * @param stored stored context
+	 * @return true if the stored context must be updated
+	 */
+	private static boolean changes(Launch launch, Context stored) {
+		final Context c = launch.context;
+		return differs(launch.replace, stored.getLabel(), c.getLabel())
+				|| differs(launch.replace, stored.getTitle(), c.getTitle());
+	}
+
+	/**
+	 * Checks if the resource link of a launch changes a stored one.
+	 *
+	 * <p>Without replace, values not received are kept.
+	 *
+	 * @param launch launch data
+	 * @param stored stored resource link
+	 * @return true if the stored resource link must be updated
+	 */
+	private static boolean changes(Launch launch, ResourceLink stored) {
+		final ResourceLink rl = launch.resourceLink;
+		final String customProperties = rl.customPropertiesToString();
+		return differs(launch.replace || rl.getTitle() != null, stored.getTitle(), rl.getTitle())
+				|| differs(launch.replace || customProperties != null, stored.customPropertiesToString(),
+						customProperties)
+				|| differs(launch.replace || rl.getOutcomeServiceUrl() != null, stored.getOutcomeServiceUrl(),
+						rl.getOutcomeServiceUrl())
+				|| differs(launch.replace || rl.getToolKey() != null, stored.getToolKey(), rl.getToolKey());
+	}
+
+	/**
+	 * Checks if a received value replaces a stored one.
+	 *
+	 * @param replace  if the received value replaces the stored one
+	 * @param stored   stored value
+	 * @param received received value
+	 * @return true if the value must be updated
+	 */
+	private static boolean differs(boolean replace, Object stored, Object received) {
+		return replace && !Objects.equals(stored, received);
+	}
+
+	/**
+	 * Saves the consumer.
+	 *
+	 * @param conn   the connection
+	 * @param d      dialect of database
+	 * @param launch launch data
+	 * @param now    current time
+	 * @return true if it has been created
+	 * @throws SQLException if a database error occurs
+	 */
+	private static boolean saveConsumer(Connection conn, SqlDialect d, Launch launch, Calendar now)
+			throws SQLException {
+		final Consumer c = launch.consumer;
+		final ParameterSetter key = stmt -> stmt.setString(1, c.getGuid());
+		Consumer stored = ToolConsumerDao.cache.get(c.getGuid());
+		if (stored != null && changes(launch, stored)) {
+			// Decide with the record in db
+			stored = null;
+		}
+		if (stored == null) {
+			try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_CONSUMER)) {
+				key.set(stmt);
+				launch.statements++;
+				try (ResultSet rs = stmt.executeQuery()) {
+					if (rs.next()) {
+						stored = new Consumer();
+						stored.setSid(rs.getInt(1));
+						stored.setGuid(c.getGuid());
+						stored.setLtiVersion(rs.getString(2));
+						stored.setName(rs.getString(3));
+						stored.setVersion(rs.getString(4));
+						stored.setCssPath(rs.getString(5));
+						stored.setCreated(DaoUtil.toCalendar(rs.getTimestamp(6)));
+						stored.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(7)));
+					}
+				}
+			}
+		}
+		final boolean found = stored != null;
+		if (found) {
+			c.setSid(stored.getSid());
+			c.setCreated(stored.getCreated());
+			c.setUpdated(stored.getUpdated());
+			if (!launch.replace) {
+				c.setLtiVersion(stored.getLtiVersion());
+				c.setName(stored.getName());
+				c.setVersion(stored.getVersion());
+				c.setCssPath(stored.getCssPath());
+			}
+			if (!stored.equals(c)) {
+				try (PreparedStatement ustmt = conn.prepareStatement(SQL_UPDATE_CONSUMER)) {
+					int i = 1;
+					ustmt.setString(i++, c.getLtiVersion());
+					ustmt.setString(i++, c.getName());
+					ustmt.setString(i++, c.getVersion());
+					ustmt.setString(i++, c.getCssPath());
+					ustmt.setTimestamp(i++, DaoUtil.toTimestamp(now));
+					ustmt.setInt(i++, c.getSid());
+					execute(launch, ustmt);
+				}
+				c.setUpdated(now);
+				launch.updated = true;
+				logger.info("Consumer updated: {}", c.getName());
+			}
+		}
+		if (!found) {
+			final Timestamp ts = DaoUtil.toTimestamp(now);
+			c.setSid(insert(conn, d, launch, ToolConsumerDao.CONSUMER_TABLE_NAME,
+					new String[] { "guid", "lti_version", "name", "version", "css_path", "created", "updated" },
+					new String[] { "guid" }, new String[] { "lti_version", "name", "version", "css_path" }, stmt -> {
+						int i = 1;
+						stmt.setString(i++, c.getGuid());
+						stmt.setString(i++, c.getLtiVersion());
+						stmt.setString(i++, c.getName());
+						stmt.setString(i++, c.getVersion());
+						stmt.setString(i++, c.getCssPath());
+						stmt.setTimestamp(i++, ts);
+						stmt.setTimestamp(i++, ts);
+					}, SQL_GET_CONSUMER, key));
+			c.setCreated(now);
+			c.setUpdated(now);
+			logger.info("New Consumer created: {}", c.getName());
+		}
+		return !found;
+	}
+
+	/**
+	 * Saves the context.
+	 *
+	 * @param conn      the connection
+	 * @param d         dialect of database
+	 * @param launch    launch data
+	 * @param now       current time
+	 * @param newParent if the consumer has been created
+	 * @return true if it has been created
+	 * @throws SQLException if a database error occurs
+	 */
+	private static boolean saveContext(Connection conn, SqlDialect d, Launch launch, Calendar now,
+			boolean newParent) throws SQLException {
+		final Context c = launch.context;
+		c.setConsumer(launch.consumer);
+		final ParameterSetter key = stmt -> {
+			stmt.setInt(1, c.getConsumer().getSid());
+			stmt.setString(2, c.getContextId());
+		};
+		Context stored = null;
+		if (!newParent) {
+			stored = ToolContextDao.cache.get(contextKey(c));
+			if (stored != null && changes(launch, stored)) {
+				// Decide with the record in db
+				stored = null;
+			}
+			if (stored == null) {
+				try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_CONTEXT)) {
+					key.set(stmt);
+					launch.statements++;
+					try (ResultSet rs = stmt.executeQuery()) {
+						if (rs.next()) {
+							stored = new Context();
+							stored.setSid(rs.getInt(1));
+							stored.setLabel(rs.getString(2));
+							stored.setTitle(rs.getString(3));
+							stored.setCreated(DaoUtil.toCalendar(rs.getTimestamp(4)));
+							stored.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(5)));
+						}
+					}
+				}
+			}
+		}
+		final boolean found = stored != null;
+		if (found) {
+			c.setSid(stored.getSid());
+			c.setCreated(stored.getCreated());
+			c.setUpdated(stored.getUpdated());
+			if (!launch.replace) {
+				c.setLabel(stored.getLabel());
+				c.setTitle(stored.getTitle());
+			} else if (!Objects.equals(stored.getLabel(), c.getLabel())
+					|| !Objects.equals(stored.getTitle(), c.getTitle())) {
+				try (PreparedStatement ustmt = conn.prepareStatement(SQL_UPDATE_CONTEXT)) {
+					int i = 1;
+					ustmt.setString(i++, c.getLabel());
+					ustmt.setString(i++, c.getTitle());
+					ustmt.setTimestamp(i++, DaoUtil.toTimestamp(now));
+					ustmt.setInt(i++, c.getSid());
+					execute(launch, ustmt);
+				}
+				c.setUpdated(now);
+				launch.updated = true;
+				logger.info("Context updated: {}", c.getContextId());
+			}
+		}
+		if (!found) {
+			final Timestamp ts = DaoUtil.toTimestamp(now);
+			c.setSid(insert(conn, d, launch, ToolContextDao.CONTEXT_TABLE_NAME,
+					new String[] { "consumer_sid", "context_id", "label", "title", "created", "updated" },
+					new String[] { "consumer_sid", "context_id" }, new String[] { "label", "title" }, stmt -> {
+						int i = 1;
+						stmt.setInt(i++, c.getConsumer().getSid());
+						stmt.setString(i++, c.getContextId());
+						stmt.setString(i++, c.getLabel());
+						stmt.setString(i++, c.getTitle());
+						stmt.setTimestamp(i++, ts);
+						stmt.setTimestamp(i++, ts);
+					}, SQL_GET_CONTEXT, key));
+			c.setCreated(now);
+			c.setUpdated(now);
+			logger.info("New Context created: {}", c.getContextId());
+		}
+		return !found;
+	}
+
+	/**
+	 * Saves the resource link.
+	 *
+	 * @param conn      the connection
+	 * @param d         dialect of database
+	 * @param launch    launch data
+	 * @param now       current time
+	 * @param newParent if the context has been created
+	 * @return true if it has been created
+	 * @throws SQLException if a database error occurs
+	 */
+	private static boolean saveResourceLink(Connection conn, SqlDialect d, Launch launch, Calendar now,
+			boolean newParent) throws SQLException {
+		final ResourceLink rl = launch.resourceLink;
+		rl.setContext(launch.context);
+		final StringBuilder sql = new StringBuilder(SQL_GET_RL);
+		sql.append(rl.getTool() == null ? " AND tool_sid IS NULL" : " AND tool_sid=?");
+		sql.append(rl.getContext() == null ? " AND context_sid IS NULL" : " AND context_sid=?");
+		final ParameterSetter key = stmt -> {
+			int i = 1;
+			stmt.setString(i++, rl.getResourceId());
+			if (rl.getTool() != null) {
+				stmt.setInt(i++, rl.getTool().getSid());
+			}
+			if (rl.getContext() != null) {
+				stmt.setInt(i++, rl.getContext().getSid());
+			}
+		};
+		ResourceLink stored = null;
+		if (!newParent) {
+			stored = ToolResourceLinkDao.cache.get(resourceLinkKey(rl));
+			if (stored != null && changes(launch, stored)) {
+				// Decide with the record in db
+				stored = null;
+			}
+			if (stored == null) {
+				try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+					key.set(stmt);
+					launch.statements++;
+					try (ResultSet rs = stmt.executeQuery()) {
+						if (rs.next()) {
+							stored = new ResourceLink();
+							stored.setSid(rs.getInt(1));
+							stored.setTitle(rs.getString(2));
+							stored.setCustomPropertiesFromString(rs.getString(3));
+							stored.setOutcomeServiceUrl(rs.getString(4));
+							final int tkSid = rs.getInt(5);
+							if (!rs.wasNull()) {
+								final ToolKey toolKey = new ToolKey();
+								toolKey.setSid(tkSid);
+								stored.setToolKey(toolKey);
+							}
+							stored.setCreated(DaoUtil.toCalendar(rs.getTimestamp(6)));
+							stored.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(7)));
+							stored.setMappedToolname(rs.getString(8));
+						}
+					}
+				}
+			}
+		}
+		final boolean found = stored != null;
+		if (found) {
+			rl.setSid(stored.getSid());
+			rl.setCreated(stored.getCreated());
+			rl.setUpdated(stored.getUpdated());
+			rl.setMappedToolname(stored.getMappedToolname());
+			final String customProperties = stored.customPropertiesToString();
+			if (!launch.replace) {
+				// Keep stored values not received
+				if (rl.getTitle() == null) {
+					rl.setTitle(stored.getTitle());
+				}
+				if (rl.customPropertiesToString() == null) {
+					rl.setCustomPropertiesFromString(customProperties);
+				}
+				if (rl.getOutcomeServiceUrl() == null) {
+					rl.setOutcomeServiceUrl(stored.getOutcomeServiceUrl());
+				}
+				if (rl.getToolKey() == null) {
+					rl.setToolKey(stored.getToolKey());
+				}
+			}
+			if (!Objects.equals(stored.getTitle(), rl.getTitle())
+					|| !Objects.equals(customProperties, rl.customPropertiesToString())
+					|| !Objects.equals(stored.getOutcomeServiceUrl(), rl.getOutcomeServiceUrl())
+					|| !Objects.equals(stored.getToolKey(), rl.getToolKey())) {
+				try (PreparedStatement ustmt = conn.prepareStatement(SQL_UPDATE_RL)) {
+					int i = 1;
+					ustmt.setString(i++, rl.getTitle());
+					ustmt.setString(i++, rl.customPropertiesToString());
+					ustmt.setString(i++, rl.getOutcomeServiceUrl());
+					if (rl.getToolKey() != null) {
+						ustmt.setInt(i++, rl.getToolKey().getSid());
+					} else {
+						ustmt.setNull(i++, java.sql.Types.INTEGER);
+					}
+					ustmt.setTimestamp(i++, DaoUtil.toTimestamp(now));
+					ustmt.setInt(i++, rl.getSid());
+					execute(launch, ustmt);
+				}
+				rl.setUpdated(now);
+				launch.updated = true;
+				logger.info("Resource Link updated: {}", rl.getResourceId());
+			}
+		}
+		if (!found) {
+			final Timestamp ts = DaoUtil.toTimestamp(now);
+			rl.setSid(insert(conn, d, launch, ToolResourceLinkDao.RL_TABLE_NAME,
+					new String[] { "tool_sid", "context_sid", "resource_id", "title", "custom_properties",
+							"outcome_service_url", "tool_key_sid", "created", "updated" },
+					new String[] { "tool_sid", "context_sid", "resource_id" },
+					new String[] { "title", "custom_properties", "outcome_service_url", "tool_key_sid" }, stmt -> {
+						int i = 1;
+						if (rl.getTool() != null) {
+							stmt.setInt(i++, rl.getTool().getSid());
+						} else {
+							stmt.setNull(i++, java.sql.Types.INTEGER);
+						}
+						if (rl.getContext() != null) {
+							stmt.setInt(i++, rl.getContext().getSid());
+						} else {
+							stmt.setNull(i++, java.sql.Types.INTEGER);
+						}
+						stmt.setString(i++, rl.getResourceId());
+						stmt.setString(i++, rl.getTitle());
+						stmt.setString(i++, rl.customPropertiesToString());
+						stmt.setString(i++, rl.getOutcomeServiceUrl());
+						if (rl.getToolKey() != null) {
+							stmt.setInt(i++, rl.getToolKey().getSid());
+						} else {
+							stmt.setNull(i++, java.sql.Types.INTEGER);
+						}
+						stmt.setTimestamp(i++, ts);
+						stmt.setTimestamp(i++, ts);
+					}, sql.toString(), key));
+			rl.setCreated(now);
+			rl.setUpdated(now);
+			logger.info("New Resource Link created: {}", rl.getResourceId());
+		}
+		return !found;
+	}
+
+	/**
+	 * Saves the LTI user.
+	 *
+	 * @param conn      the connection
+	 * @param d         dialect of database
+	 * @param launch    launch data
+	 * @param now       current time
+	 * @param newParent if the consumer has been created
+	 * @return true if it has been created
+	 * @throws SQLException if a database error occurs
+	 */
+	private static boolean saveUser(Connection conn, SqlDialect d, Launch launch, Calendar now, boolean newParent)
+			throws SQLException {
+		final LtiUser u = launch.user;
+		u.setConsumer(launch.consumer);
+		final ParameterSetter key = stmt -> {
+			stmt.setInt(1, u.getConsumer().getSid());
+			stmt.setString(2, u.getUserId());
+		};
+		boolean found = false;
+		if (!newParent) {
+			try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_USER)) {
+				key.set(stmt);
+				launch.statements++;
+				try (ResultSet rs = stmt.executeQuery()) {
+					if (rs.next()) {
+						found = true;
+						final LtiUser stored = new LtiUser();
+						stored.setConsumer(u.getConsumer());
+						stored.setUserId(u.getUserId());
+						stored.setSourceId(rs.getString(2));
+						stored.setNameGiven(rs.getString(3));
+						stored.setNameFamily(rs.getString(4));
+						stored.setNameFull(rs.getString(5));
+						stored.setEmail(rs.getString(6));
+						u.setSid(rs.getInt(1));
+						u.setCreated(DaoUtil.toCalendar(rs.getTimestamp(7)));
+						u.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(8)));
+						if (!launch.replace) {
+							// Keep stored values not received
+							if (u.getSourceId() == null) {
+								u.setSourceId(stored.getSourceId());
+							}
+							if (u.getNameGiven() == null) {
+								u.setNameGiven(stored.getNameGiven());
+							}
+							if (u.getNameFamily() == null) {
+								u.setNameFamily(stored.getNameFamily());
+							}
+							if (u.getNameFull() == null) {
+								u.setNameFull(stored.getNameFull());
+							}
+							if (u.getEmail() == null) {
+								u.setEmail(stored.getEmail());
+							}
+						}
+						if (!stored.equals(u)) {
+							try (PreparedStatement ustmt = conn.prepareStatement(SQL_UPDATE_USER)) {
+								int i = 1;
+								ustmt.setString(i++, u.getSourceId());
+								ustmt.setString(i++, u.getNameGiven());
+								ustmt.setString(i++, u.getNameFamily());
+								ustmt.setString(i++, u.getNameFull());
+								ustmt.setString(i++, u.getEmail());
+								ustmt.setTimestamp(i++, DaoUtil.toTimestamp(now));
+								ustmt.setInt(i++, u.getSid());
+								execute(launch, ustmt);
+							}
+							u.setUpdated(now);
+							logger.info("LTI user updated: {}", u.getUserId());
+						}
+					}
+				}
+			}
+		}
+		if (!found) {
+			final Timestamp ts = DaoUtil.toTimestamp(now);
+			u.setSid(insert(conn, d, launch, ToolConsumerUserDao.LTI_USER_TABLE_NAME,
+					new String[] { "consumer_sid", "lti_user_id", "source_id", "name_given", "name_family",
+							"name_full", "email", "created", "updated" },
+					new String[] { "consumer_sid", "lti_user_id" },
+					new String[] { "source_id", "name_given", "name_family", "name_full", "email" }, stmt -> {
+						int i = 1;
+						stmt.setInt(i++, u.getConsumer().getSid());
+						stmt.setString(i++, u.getUserId());
+						stmt.setString(i++, u.getSourceId());
+						stmt.setString(i++, u.getNameGiven());
+						stmt.setString(i++, u.getNameFamily());
+						stmt.setString(i++, u.getNameFull());
+						stmt.setString(i++, u.getEmail());
+						stmt.setTimestamp(i++, ts);
+						stmt.setTimestamp(i++, ts);
+					}, SQL_GET_USER, key));
+			u.setCreated(now);
+			u.setUpdated(now);
+			logger.info("New LTI user created: {}", u.getUserId());
+		}
+		return !found;
+	}
+
+	/**
+	 * Saves the resource user.
+	 *
+	 * @param conn      the connection
+	 * @param d         dialect of database
+	 * @param launch    launch data
+	 * @param now       current time
+	 * @param newParent if the resource link or the user have been created
+	 * @return true if it has been created
+	 * @throws SQLException if a database error occurs
+	 */
+	private static boolean saveResourceUser(Connection conn, SqlDialect d, Launch launch, Calendar now,
+			boolean newParent) throws SQLException {
+		final ResourceUser ru = launch.resourceUser;
+		ru.setResourceLink(launch.resourceLink);
+		ru.setUser(launch.user);
+		final ParameterSetter key = stmt -> {
+			stmt.setInt(1, ru.getResourceLink().getSid());
+			stmt.setInt(2, ru.getUser().getSid());
+		};
+		boolean found = false;
+		if (!newParent) {
+			try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_RU)) {
+				key.set(stmt);
+				launch.statements++;
+				try (ResultSet rs = stmt.executeQuery()) {
+					if (rs.next()) {
+						found = true;
+						final String resultSourceId = rs.getString(2);
+						ru.setSid(rs.getInt(1));
+						ru.setCreated(DaoUtil.toCalendar(rs.getTimestamp(3)));
+						ru.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(4)));
+						if (!launch.replace) {
+							ru.setResultSourceId(resultSourceId);
+						} else if (!Objects.equals(resultSourceId, ru.getResultSourceId())) {
+							try (PreparedStatement ustmt = conn.prepareStatement(SQL_UPDATE_RU)) {
+								int i = 1;
+								ustmt.setString(i++, ru.getResultSourceId());
+								ustmt.setTimestamp(i++, DaoUtil.toTimestamp(now));
+								ustmt.setInt(i++, ru.getSid());
+								execute(launch, ustmt);
+							}
+							ru.setUpdated(now);
+							logger.info("Resource User updated.");
+						}
+					}
+				}
+			}
+		}
+		if (!found) {
+			final Timestamp ts = DaoUtil.toTimestamp(now);
+			ru.setSid(insert(conn, d, launch, ToolResourceUserDao.RU_TABLE_NAME,
+					new String[] { "resource_sid", "lti_user_sid", "lti_result_sourcedid", "created", "updated" },
+					new String[] { "resource_sid", "lti_user_sid" }, new String[] { "lti_result_sourcedid" }, stmt -> {
+						int i = 1;
+						stmt.setInt(i++, ru.getResourceLink().getSid());
+						stmt.setInt(i++, ru.getUser().getSid());
+						stmt.setString(i++, ru.getResultSourceId());
+						stmt.setTimestamp(i++, ts);
+						stmt.setTimestamp(i++, ts);
+					}, SQL_GET_RU, key));
+			ru.setCreated(now);
+			ru.setUpdated(now);
+			logger.info("New Resource User created.");
+		}
+		return !found;
+	}
+
+	/**
+	 * Executes an update that must change one row.
+	 *
+	 * @param launch launch data
+	 * @param stmt   the statement
+	 * @throws SQLException if a database error occurs or no row is changed
+	 */
+	private static void execute(Launch launch, PreparedStatement stmt) throws SQLException {
+		launch.statements++;
+		if (stmt.executeUpdate() != 1) {
+			throw new SQLException("Record not updated");
+		}
+	}
+
+	/**
+	 * Builds an insert statement that updates the record if the natural key
+	 * exists.
+	 *
+	 * @param d       dialect of database
+	 * @param table   table name
+	 * @param columns columns of the insert
+	 * @param keys    columns of the natural key (unique index)
+	 * @param updates columns updated if the record exists
+	 * @return the SQL statement
+	 */
+	private static String buildInsert(SqlDialect d, String table, String[] columns, String[] keys,
+			String[] updates) {
+		final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+		sql.append(String.join(", ", columns)).append(") VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i == 0 ? "?" : ", ?");
+		}
+		sql.append(')');
+		if (d.hasReturning()) {
+			sql.append(" ON CONFLICT (").append(String.join(", ", keys)).append(") DO UPDATE SET ");
+			for (final String column : updates) {
+				sql.append(column).append("=excluded.").append(column).append(", ");
+			}
+			sql.append("updated=excluded.updated RETURNING sid");
+		} else if (d == SqlDialect.MYSQL) {
+			sql.append(" ON DUPLICATE KEY UPDATE ");
+			for (final String column : updates) {
+				sql.append(column).append("=VALUES(").append(column).append("), ");
+			}
+			// The serial ID of the existing record is returned as generated key
+			sql.append("updated=VALUES(updated), sid=LAST_INSERT_ID(sid)");
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * Inserts a record, or updates it if the natural key exists, and gets its
+	 * serial ID.
+	 *
+	 * @param conn      the connection
+	 * @param d         dialect of database
+	 * @param launch    launch data
+	 * @param table     table name
+	 * @param columns   columns of the insert
+	 * @param keys      columns of the natural key (unique index)
+	 * @param updates   columns updated if the record exists
+	 * @param setter    sets the parameters of the insert
+	 * @param selectSql SQL statement to get the record by natural key, the serial
+	 *                  ID must be the first column
+	 * @param keySetter sets the parameters of <code>selectSql</code>
+	 * @return the serial ID
+	 * @throws SQLException if a database error occurs or the serial ID is not
+	 *                      obtained
+	 */
+	private static int insert(Connection conn, SqlDialect d, Launch launch, String table, String[] columns,
+			String[] keys, String[] updates, ParameterSetter setter, String selectSql, ParameterSetter keySetter)
+			throws SQLException {
+		int sid = -1;
+		final String sql = buildInsert(d, table, columns, keys, updates);
+		if (d.hasReturning()) {
+			try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+				setter.set(stmt);
+				launch.statements++;
+				try (ResultSet rs = stmt.executeQuery()) {
+					if (rs.next()) {
+						sid = rs.getInt(1);
+					}
+				}
+			}
+		} else if (d == SqlDialect.MYSQL) {
+			try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+				setter.set(stmt);
+				launch.statements++;
+				stmt.executeUpdate();
+				try (ResultSet rs = stmt.getGeneratedKeys()) {
+					if (rs.next()) {
+						sid = rs.getInt(1);
+					}
+				}
+			}
+		} else {
+			try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+				setter.set(stmt);
+				launch.statements++;
+				stmt.executeUpdate();
+			}
+			try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+				keySetter.set(stmt);
+				launch.statements++;
+				try (ResultSet rs = stmt.executeQuery()) {
+					if (rs.next()) {
+						sid = rs.getInt(1);
+					}
+				}
+			}
+		}
+		if (sid <= 0) {
+			throw new SQLException("Serial ID not obtained in " + table);
+		}
+		return sid;
+	}
+}
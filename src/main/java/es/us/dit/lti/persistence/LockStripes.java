@@ -0,0 +1,62 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of reentrant locks selected by an integer key (for example, a
+ * serial ID).
+ *
+ * <p>Operations on different keys usually use different locks and do not wait
+ * for each other. Two keys may share a lock, so a thread must not hold the lock
+ * of one key while waiting for the lock of another key of the same set.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+final class LockStripes {
+	/**
+	 * The locks.
+	 */
+	private final ReentrantLock[] locks;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param size number of locks
+	 */
+	LockStripes(int size) {
+		locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Gets the lock of a key.
+	 *
+	 * @param key the key
+	 * @return the lock
+	 */
+	ReentrantLock get(int key) {
+		return locks[Math.floorMod(key, locks.length)];
+	}
+}
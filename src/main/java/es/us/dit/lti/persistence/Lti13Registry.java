@@ -0,0 +1,439 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.entity.LtiClient;
+import es.us.dit.lti.entity.LtiDeployment;
+import es.us.dit.lti.entity.LtiPlatform;
+
+/**
+ * In-memory registry of LTI 1.3 platforms, clients and deployments, used by
+ * OIDC login and launches.
+ *
+ * <p>All registrations are loaded at once in an immutable snapshot. The DAOs of
+ * platforms, clients and deployments invalidate it when they change a record,
+ * so it is loaded again in the next access. It also expires after a time to
+ * live, so changes made by other nodes are seen eventually. A record not found
+ * in the snapshot is searched in db, and if it exists the snapshot is
+ * invalidated. If it does not exist, the miss is remembered in the snapshot
+ * for a short time, so repeated requests with unknown issuers or client_ids do
+ * not reach db.
+ *
+ * <p>Discovery of new clients and deployments is serialized per key, so
+ * concurrent logins of the same client insert it once.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class Lti13Registry {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(Lti13Registry.class);
+
+	/**
+	 * Time to live of the snapshot in milliseconds.
+	 */
+	private static final long TTL_MILLIS = EntityCache.DEFAULT_TTL_SECONDS * 1000;
+	/**
+	 * Time to live of the registrations not found in milliseconds.
+	 */
+	private static final long MISS_TTL_MILLIS = 10 * 1000L;
+	/**
+	 * Maximum number of registrations not found kept in a snapshot.
+	 */
+	private static final int MAX_MISSES = 10000;
+
+	/**
+	 * Generation of registrations, incremented when they change.
+	 */
+	private static final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Current snapshot, null if not loaded.
+	 */
+	private static volatile Snapshot snapshot = null;
+
+	/**
+	 * Locks of discovery of clients.
+	 */
+	private static final LockStripes CLIENT_LOCKS = new LockStripes(64);
+
+	/**
+	 * Locks of discovery of deployments.
+	 */
+	private static final LockStripes DEPLOYMENT_LOCKS = new LockStripes(64);
+
+	/**
+	 * Immutable view of registrations.
+	 */
+	private static final class Snapshot {
+		/**
+		 * Generation of registrations when loading started.
+		 */
+		private final long generation;
+		/**
+		 * Expiration time in milliseconds.
+		 */
+		private final long expires;
+		/**
+		 * Platforms by issuer.
+		 */
+		private final Map<String, LtiPlatform> platforms = new HashMap<>();
+		/**
+		 * Clients by platform ID and client_id.
+		 */
+		private final Map<String, LtiClient> clients = new HashMap<>();
+		/**
+		 * Deployments by client ID and deployment_id.
+		 */
+		private final Map<String, LtiDeployment> deployments = new HashMap<>();
+		/**
+		 * Tool configurations by client_id.
+		 */
+		private final Map<String, Lti13ToolConfig> configs = new HashMap<>();
+		/**
+		 * Registrations not found in db, with their expiration time in
+		 * milliseconds. They are discarded with the snapshot when registrations
+		 * change.
+		 */
+		private final Map<String, Long> misses = new ConcurrentHashMap<>();
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param generation generation of registrations
+		 */
+		private Snapshot(long generation) {
+			this.generation = generation;
+			this.expires = System.currentTimeMillis() + TTL_MILLIS;
+		}
+
+		/**
+		 * Checks if it is still valid.
+		 *
+		 * @return true if it is valid
+		 */
+		private boolean isValid() {
+			return generation == Lti13Registry.generation.get() && expires > System.currentTimeMillis();
+		}
+
+		/**
+		 * Checks if a registration was recently not found in db.
+		 *
+		 * @param key key of the registration
+		 * @return true if it was not found
+		 */
+		private boolean isMissing(String key) {
+			final Long missExpires = misses.get(key);
+			return missExpires != null && missExpires > System.currentTimeMillis();
+		}
+
+		/**
+		 * Records that a registration was not found in db.
+		 *
+		 * @param key key of the registration
+		 */
+		private void addMissing(String key) {
+			if (misses.size() >= MAX_MISSES) {
+				misses.clear();
+			}
+			misses.put(key, System.currentTimeMillis() + MISS_TTL_MILLIS);
+		}
+	}
+
+	/**
+	 * Can not create objects.
+	 */
+	private Lti13Registry() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Invalidates the registry, so it is loaded again in the next access.
+	 *
+	 * <p>It must be called after changing platforms, clients or deployments.
+	 */
+	public static void invalidate() {
+		generation.incrementAndGet();
+		snapshot = null;
+	}
+
+	/**
+	 * Gets a valid snapshot, loading it if necessary.
+	 *
+	 * @return the snapshot
+	 */
+	private static Snapshot getSnapshot() {
+		Snapshot s = snapshot;
+		if (s == null || !s.isValid()) {
+			synchronized (Lti13Registry.class) {
+				s = snapshot;
+				if (s == null || !s.isValid()) {
+					s = load();
+					snapshot = s;
+				}
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Loads all registrations from db.
+	 *
+	 * <p>If they change while loading, the snapshot is born invalid and it is
+	 * only used by the current access.
+	 *
+	 * @return the new snapshot
+	 */
+	private static Snapshot load() {
+		final Snapshot s = new Snapshot(generation.get());
+		final Map<Integer, LtiPlatform> platformsById = new HashMap<>();
+		for (final LtiPlatform p : new LtiPlatformDao().findAll()) {
+			s.platforms.putIfAbsent(p.getIssuer(), p);
+			platformsById.put(p.getId(), p);
+		}
+		final Map<Integer, LtiDeployment> firstDeployments = new HashMap<>();
+		for (final LtiDeployment d : new LtiDeploymentDao().findAll()) {
+			s.deployments.putIfAbsent(deploymentKey(d.getClientIdPk(), d.getDeploymentId()), d);
+			firstDeployments.putIfAbsent(d.getClientIdPk(), d);
+		}
+		for (final LtiClient c : new LtiClientDao().findAll()) {
+			s.clients.putIfAbsent(clientKey(c.getPlatformId(), c.getClientId()), c);
+			final LtiPlatform p = platformsById.get(c.getPlatformId());
+			if (p != null && !s.configs.containsKey(c.getClientId())) {
+				final LtiDeployment d = firstDeployments.get(c.getId());
+				s.configs.put(c.getClientId(), new Lti13ToolConfig(p.getName(), c.getClientId(), p.getIssuer(),
+						p.getOidcAuthUrl(), p.getJwksUrl(), d != null ? d.getDeploymentId() : null, p.getTokenUrl()));
+			}
+		}
+		logger.debug("LTI 1.3 registry loaded: {} platforms, {} clients, {} deployments", s.platforms.size(),
+				s.clients.size(), s.deployments.size());
+		return s;
+	}
+
+	/**
+	 * Gets the key of a client.
+	 *
+	 * @param platformId ID of platform
+	 * @param clientId   client_id
+	 * @return the key
+	 */
+	private static String clientKey(int platformId, String clientId) {
+		return platformId + ":" + clientId;
+	}
+
+	/**
+	 * Gets the key of a deployment.
+	 *
+	 * @param clientIdPk ID of client
+	 * @param deploymentId deployment_id
+	 * @return the key
+	 */
+	private static String deploymentKey(int clientIdPk, String deploymentId) {
+		return clientIdPk + ":" + deploymentId;
+	}
+
+	/**
+	 * Gets a platform by its issuer.
+	 *
+	 * @param issuer the issuer
+	 * @return a copy of the platform or null if it does not exist
+	 */
+	public static LtiPlatform findPlatformByIssuer(String issuer) {
+		final Snapshot s = getSnapshot();
+		LtiPlatform p = s.platforms.get(issuer);
+		if (p == null) {
+			final String missKey = "platform:" + issuer;
+			if (s.isMissing(missKey)) {
+				return null;
+			}
+			p = new LtiPlatformDao().findByIssuer(issuer);
+			if (p != null) {
+				invalidate();
+			} else {
+				s.addMissing(missKey);
+			}
+			return p;
+		}
+		return new LtiPlatform(p.getId(), p.getIssuer(), p.getOidcAuthUrl(), p.getJwksUrl(), p.getTokenUrl(),
+				p.getName());
+	}
+
+	/**
+	 * Gets a client of a platform.
+	 *
+	 * @param platformId ID of platform
+	 * @param clientId   client_id
+	 * @return a copy of the client or null if it does not exist
+	 */
+	public static LtiClient findClient(int platformId, String clientId) {
+		final Snapshot s = getSnapshot();
+		final String key = clientKey(platformId, clientId);
+		LtiClient c = s.clients.get(key);
+		if (c == null) {
+			final String missKey = "client:" + key;
+			if (s.isMissing(missKey)) {
+				return null;
+			}
+			c = new LtiClientDao().findByPlatformAndClientId(platformId, clientId);
+			if (c != null) {
+				invalidate();
+			} else {
+				s.addMissing(missKey);
+			}
+			return c;
+		}
+		return new LtiClient(c.getId(), c.getPlatformId(), c.getClientId());
+	}
+
+	/**
+	 * Gets a deployment of a client.
+	 *
+	 * @param clientIdPk   ID of client
+	 * @param deploymentId deployment_id
+	 * @return a copy of the deployment or null if it does not exist
+	 */
+	public static LtiDeployment findDeployment(int clientIdPk, String deploymentId) {
+		final Snapshot s = getSnapshot();
+		final String key = deploymentKey(clientIdPk, deploymentId);
+		LtiDeployment d = s.deployments.get(key);
+		if (d == null) {
+			final String missKey = "deployment:" + key;
+			if (s.isMissing(missKey)) {
+				return null;
+			}
+			d = new LtiDeploymentDao().findByClientIdAndDeploymentId(clientIdPk, deploymentId);
+			if (d != null) {
+				invalidate();
+			} else {
+				s.addMissing(missKey);
+			}
+			return d;
+		}
+		return new LtiDeployment(d.getId(), d.getClientIdPk(), d.getDeploymentId());
+	}
+
+	/**
+	 * Gets the configuration of the tool of a client_id.
+	 *
+	 * @param clientId client_id
+	 * @return the configuration or null if it does not exist
+	 * @see ToolLti13Dao#findByClientId(String)
+	 */
+	public static Lti13ToolConfig findConfigByClientId(String clientId) {
+		final Snapshot s = getSnapshot();
+		Lti13ToolConfig config = s.configs.get(clientId);
+		if (config == null) {
+			final String missKey = "config:" + clientId;
+			if (s.isMissing(missKey)) {
+				return null;
+			}
+			config = new ToolLti13Dao().findByClientId(clientId);
+			if (config != null) {
+				invalidate();
+			} else {
+				s.addMissing(missKey);
+			}
+		}
+		return config;
+	}
+
+	/**
+	 * Gets a client of a platform, inserting it if it does not exist.
+	 *
+	 * <p>Concurrent calls with the same key insert it once.
+	 *
+	 * @param platformId ID of platform
+	 * @param clientId   client_id
+	 * @return the client or null if error
+	 */
+	public static LtiClient discoverClient(int platformId, String clientId) {
+		LtiClient c = findClient(platformId, clientId);
+		if (c == null) {
+			final ReentrantLock lock = CLIENT_LOCKS.get(clientKey(platformId, clientId).hashCode());
+			lock.lock();
+			try {
+				final LtiClientDao dao = new LtiClientDao();
+				// Other thread may have inserted it
+				c = dao.findByPlatformAndClientId(platformId, clientId);
+				if (c == null) {
+					c = new LtiClient();
+					c.setPlatformId(platformId);
+					c.setClientId(clientId);
+					if (dao.insert(c)) {
+						logger.info("LTI 1.3 client discovered: {}", clientId);
+					} else {
+						// Maybe inserted by other node
+						c = dao.findByPlatformAndClientId(platformId, clientId);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Gets a deployment of a client, inserting it if it does not exist.
+	 *
+	 * <p>Concurrent calls with the same key insert it once.
+	 *
+	 * @param clientIdPk   ID of client
+	 * @param deploymentId deployment_id
+	 * @return the deployment or null if error
+	 */
+	public static LtiDeployment discoverDeployment(int clientIdPk, String deploymentId) {
+		LtiDeployment d = findDeployment(clientIdPk, deploymentId);
+		if (d == null) {
+			final ReentrantLock lock = DEPLOYMENT_LOCKS.get(deploymentKey(clientIdPk, deploymentId).hashCode());
+			lock.lock();
+			try {
+				final LtiDeploymentDao dao = new LtiDeploymentDao();
+				// Other thread may have inserted it
+				d = dao.findByClientIdAndDeploymentId(clientIdPk, deploymentId);
+				if (d == null) {
+					d = new LtiDeployment();
+					d.setClientIdPk(clientIdPk);
+					d.setDeploymentId(deploymentId);
+					if (dao.insert(d)) {
+						logger.info("LTI 1.3 deployment discovered: {}", deploymentId);
+					} else {
+						// Maybe inserted by other node
+						d = dao.findByClientIdAndDeploymentId(clientIdPk, deploymentId);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return d;
+	}
+}
@@ -127,6 +127,7 @@ public class LtiClientDao {
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             if (conn != null && dbUtil != null) {
                 dbUtil.closeConnection(conn);
             }
@@ -149,6 +150,7 @@ public class LtiClientDao {
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             if (conn != null && dbUtil != null) {
                 dbUtil.closeConnection(conn);
             }
@@ -183,6 +185,7 @@ public class LtiClientDao {
             }
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             try {
                 if (conn != null) conn.setAutoCommit(true);
             } catch (SQLException ex) {
@@ -160,6 +160,7 @@ public class LtiDeploymentDao {
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             if (conn != null && dbUtil != null) {
                 dbUtil.closeConnection(conn);
             }
@@ -182,6 +183,7 @@ public class LtiDeploymentDao {
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             if (conn != null && dbUtil != null) {
                 dbUtil.closeConnection(conn);
             }
@@ -202,6 +204,7 @@ public class LtiDeploymentDao {
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             if (conn != null && dbUtil != null) {
                 dbUtil.closeConnection(conn);
             }
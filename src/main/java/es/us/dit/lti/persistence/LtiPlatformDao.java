@@ -144,6 +144,7 @@ public class LtiPlatformDao {
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             if (conn != null && dbUtil != null) {
                 dbUtil.closeConnection(conn);
             }
@@ -169,6 +170,7 @@ public class LtiPlatformDao {
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             if (conn != null && dbUtil != null) {
                 dbUtil.closeConnection(conn);
             }
@@ -208,6 +210,7 @@ public class LtiPlatformDao {
             }
             e.printStackTrace();
         } finally {
+            Lti13Registry.invalidate();
             try {
                 if (conn != null) conn.setAutoCommit(true);
             } catch (SQLException ex) {
@@ -0,0 +1,178 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import es.us.dit.lti.entity.Nonce;
+
+/**
+ * Store of used nonces in memory.
+ *
+ * <p>Nonces are kept in a map with their expiration tick, and in a timer wheel:
+ * a ring of slots, one per tick, with the nonces that expire in that tick.
+ * {@link #deleteExpired()} only visits the slots of the ticks elapsed since the
+ * last call. Nonces whose expiration is beyond the ring stay in their slot until
+ * a later turn.
+ *
+ * <p>It is only valid if there is a single node. Otherwise use
+ * {@link DbNonceStore}.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public class MemoryNonceStore implements INonceStore {
+	/**
+	 * Default duration of a tick in milliseconds.
+	 */
+	public static final long DEFAULT_TICK_MILLIS = 10000;
+	/**
+	 * Default number of slots (one hour with default tick).
+	 */
+	public static final int DEFAULT_SLOTS = 360;
+
+	/**
+	 * Duration of a tick in milliseconds.
+	 */
+	private final long tickMillis;
+	/**
+	 * Expiration tick of each nonce.
+	 */
+	private final Map<String, Long> entries = new ConcurrentHashMap<>();
+	/**
+	 * Slots of the wheel.
+	 */
+	private final List<Set<String>> wheel;
+	/**
+	 * Last tick swept.
+	 */
+	private long lastSweptTick;
+
+	/**
+	 * Class constructor with default values.
+	 */
+	public MemoryNonceStore() {
+		this(DEFAULT_TICK_MILLIS, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param tickMillis duration of a tick in milliseconds
+	 * @param slots      number of slots of the wheel
+	 */
+	public MemoryNonceStore(long tickMillis, int slots) {
+		this.tickMillis = Math.max(1, tickMillis);
+		final int size = Math.max(2, slots);
+		wheel = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			wheel.add(ConcurrentHashMap.newKeySet());
+		}
+		lastSweptTick = currentTick();
+	}
+
+	/**
+	 * Gets the current tick.
+	 *
+	 * @return the current tick
+	 */
+	private long currentTick() {
+		return System.currentTimeMillis() / tickMillis;
+	}
+
+	/**
+	 * Gets the slot of a tick.
+	 *
+	 * @param tick the tick
+	 * @return the slot
+	 */
+	private Set<String> slot(long tick) {
+		return wheel.get((int) Math.floorMod(tick, (long) wheel.size()));
+	}
+
+	/**
+	 * Gets the key of a nonce.
+	 *
+	 * @param nonce nonce data
+	 * @return the key
+	 */
+	private static String key(Nonce nonce) {
+		return nonce.getKeyId() + ":" + nonce.getConsumerId() + ":" + nonce.getTs() + ":" + nonce.getValue();
+	}
+
+	@Override
+	public boolean add(Nonce nonce) {
+		final String key = key(nonce);
+		final long now = currentTick();
+		// Round up, never expire before time
+		final long expires = Math.max(now + 1,
+				(nonce.getExpires().getTimeInMillis() + tickMillis - 1) / tickMillis);
+		final Long previous = entries.putIfAbsent(key, expires);
+		if (previous != null) {
+			if (previous > now || !entries.replace(key, previous, expires)) {
+				// Exists and not expired, or added by other thread now
+				return false;
+			}
+		}
+		slot(expires).add(key);
+		return true;
+	}
+
+	@Override
+	public synchronized void deleteExpired() {
+		final long now = currentTick();
+		// A whole turn at most
+		final long from = Math.max(lastSweptTick + 1, now - wheel.size() + 1);
+		for (long tick = from; tick <= now; tick++) {
+			slot(tick).removeIf(key -> {
+				final Long expires = entries.get(key);
+				if (expires == null) {
+					return true;
+				} else if (expires <= now) {
+					entries.remove(key, expires);
+					return true;
+				}
+				return false;
+			});
+		}
+		lastSweptTick = now;
+	}
+
+	@Override
+	public synchronized void deleteAll() {
+		entries.clear();
+		for (final Set<String> s : wheel) {
+			s.clear();
+		}
+	}
+
+	/**
+	 * Gets the number of nonces stored, including expired ones not deleted yet.
+	 *
+	 * @return the number of nonces
+	 */
+	public int size() {
+		return entries.size();
+	}
+}
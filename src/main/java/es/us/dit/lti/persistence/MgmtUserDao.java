@@ -28,6 +28,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -129,6 +130,11 @@ public final class MgmtUserDao {
 	 * Utility class that provides methods for managing connections to a database.
 	 */
 	private static IDbUtil dbUtil = null;
+	/**
+	 * Lock of {@link #add(MgmtUser)}, which checks that the username does not
+	 * exist before inserting it.
+	 */
+	private static final ReentrantLock ADD_LOCK = new ReentrantLock();
 
 	/**
 	 * Can not create objects.
@@ -162,7 +168,25 @@ public final class MgmtUserDao {
 	 * @return true if successful
 	 * @throws InvalidKeySpecException when could not generate a password hash
 	 */
-	public static synchronized boolean add(MgmtUser user) throws InvalidKeySpecException {
+	public static boolean add(MgmtUser user) throws InvalidKeySpecException {
+		ADD_LOCK.lock();
+		try {
+			return addLocked(user);
+		} finally {
+			ADD_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Add a new record to db.
+	 *
+	 * <p>The caller must hold the add lock.
+	 *
+	 * @param user user data
+	 * @return true if successful
+	 * @throws InvalidKeySpecException when could not generate a password hash
+	 */
+	private static boolean addLocked(MgmtUser user) throws InvalidKeySpecException {
 		boolean result = false;
 		final String username = user.getUsername();
 		// If the user does not exist we register it
@@ -208,7 +232,7 @@ public final class MgmtUserDao {
 	 * @param user user data
 	 * @return true if successful
 	 */
-	public static synchronized boolean delete(MgmtUser user) {
+	public static boolean delete(MgmtUser user) {
 
 		boolean delUser = true;
 		final Connection conn = dbUtil.getConnection();
@@ -266,7 +290,7 @@ public final class MgmtUserDao {
 	 * @param password new password
 	 * @return true if successful
 	 */
-	public static synchronized boolean changePassword(MgmtUser user, String password) {
+	public static boolean changePassword(MgmtUser user, String password) {
 		boolean result = true;
 
 		final Connection conn = dbUtil.getConnection();
@@ -293,7 +317,7 @@ public final class MgmtUserDao {
 	 * @param username the username
 	 * @return the management user or null if it not exists
 	 */
-	public static synchronized MgmtUser get(String username) {
+	public static MgmtUser get(String username) {
 		final Connection conn = dbUtil.getConnection();
 		MgmtUser bean = null;
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET);) {
@@ -326,7 +350,7 @@ public final class MgmtUserDao {
 	 *
 	 * @return the list of management users
 	 */
-	public static synchronized List<MgmtUser> getAll() {
+	public static List<MgmtUser> getAll() {
 		final ArrayList<MgmtUser> users = new ArrayList<>();
 		final Connection conn = dbUtil.getConnection();
 		try (Statement stmt = conn.createStatement();) {
@@ -357,7 +381,7 @@ public final class MgmtUserDao {
 	 * @param mgmtUser user data
 	 * @return true if successful
 	 */
-	public static synchronized boolean login(MgmtUser mgmtUser) {
+	public static boolean login(MgmtUser mgmtUser) {
 		final Connection conn = dbUtil.getConnection();
 		if (conn == null) {
 			mgmtUser.setSid(0);
@@ -395,7 +419,7 @@ public final class MgmtUserDao {
 	 * @param toolId the tool
 	 * @return list of management usernames
 	 */
-	public static synchronized List<String> getNamesForDisassociate(MgmtUser user, int toolId) {
+	public static List<String> getNamesForDisassociate(MgmtUser user, int toolId) {
 		final ArrayList<String> users = new ArrayList<>();
 		final Connection conn = dbUtil.getConnection();
 
@@ -424,7 +448,7 @@ public final class MgmtUserDao {
 	 * @param toolId the tool
 	 * @return list of management user names
 	 */
-	public static synchronized List<String> getNamesForAssociate(int toolId) {
+	public static List<String> getNamesForAssociate(int toolId) {
 		final ArrayList<String> users = new ArrayList<>();
 		final Connection conn = dbUtil.getConnection();
 
@@ -450,7 +474,7 @@ public final class MgmtUserDao {
 	 * @param user record data
 	 * @return true if successful
 	 */
-	public static synchronized boolean update(MgmtUser user) {
+	public static boolean update(MgmtUser user) {
 		boolean result = true;
 		final Connection conn = dbUtil.getConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_UPDATE);) {
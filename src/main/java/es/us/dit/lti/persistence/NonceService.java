@@ -0,0 +1,135 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.us.dit.lti.entity.Nonce;
+
+/**
+ * Service that checks the nonces of LTI 1.1 launches to detect replayed
+ * requests.
+ *
+ * <p>Nonces are saved in a {@link INonceStore} and the expired ones are deleted
+ * by a background sweeper, not by the requests.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class NonceService {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(NonceService.class);
+
+	/**
+	 * Default period of the sweeper in seconds.
+	 */
+	public static final long DEFAULT_SWEEP_SECONDS = 60;
+
+	/**
+	 * Store of nonces.
+	 */
+	private static volatile INonceStore store = new MemoryNonceStore();
+
+	/**
+	 * Executor of the sweeper, null if not started.
+	 */
+	private static ScheduledExecutorService sweeper = null;
+
+	/**
+	 * Can not create objects.
+	 */
+	private NonceService() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Sets the store and starts the sweeper.
+	 *
+	 * @param nonceStore   the store
+	 * @param sweepSeconds period of the sweeper in seconds
+	 */
+	public static synchronized void init(INonceStore nonceStore, long sweepSeconds) {
+		destroy();
+		store = nonceStore;
+		sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread t = new Thread(r, "nonce-sweeper");
+			t.setDaemon(true);
+			return t;
+		});
+		final long period = Math.max(1, sweepSeconds);
+		sweeper.scheduleWithFixedDelay(NonceService::sweep, period, period, TimeUnit.SECONDS);
+		logger.info("Nonce store: {}", nonceStore.getClass().getSimpleName());
+	}
+
+	/**
+	 * Stops the sweeper.
+	 */
+	public static synchronized void destroy() {
+		if (sweeper != null) {
+			sweeper.shutdownNow();
+			sweeper = null;
+		}
+	}
+
+	/**
+	 * Gets the store.
+	 *
+	 * @return the store
+	 */
+	public static INonceStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Checks that a nonce has not been used and saves it.
+	 *
+	 * @param nonce nonce data
+	 * @return true if it is valid (not used), false if it is a replayed request
+	 */
+	public static boolean checkAndAdd(Nonce nonce) {
+		return store.add(nonce);
+	}
+
+	/**
+	 * Deletes all nonces.
+	 */
+	public static void deleteAll() {
+		store.deleteAll();
+	}
+
+	/**
+	 * Deletes expired nonces, called by the sweeper.
+	 */
+	private static void sweep() {
+		try {
+			store.deleteExpired();
+		} catch (final RuntimeException e) {
+			// Keep sweeping
+			logger.error("Error deleting expired nonces", e);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the pending schema migrations of the database.
+ *
+ * <p>Migrations are SQL scripts in the resources folder
+ * <code>es/us/dit/lti/persistence/migration/&lt;dialect&gt;/</code>, listed in
+ * order in the file <code>migrations.txt</code> of that folder. Script names
+ * start with their version: <code>V&lt;n&gt;__&lt;description&gt;.sql</code>.
+ * The applied versions are recorded in the table
+ * <code>schema_version</code>.
+ *
+ * <p>Each migration is applied in a transaction together with its record, so
+ * it is applied once even if several nodes start at the same time (MySQL
+ * commits DDL statements implicitly, so its scripts must be idempotent).
+ * Scripts of new installations already include the changes of the first
+ * migrations, so statements must not fail if the change exists.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class SchemaMigrator {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+	/**
+	 * Name of table of applied versions.
+	 */
+	public static final String VERSION_TABLE_NAME = "schema_version";
+
+	/**
+	 * Folder of migrations in the classpath.
+	 */
+	private static final String MIGRATION_FOLDER = "/es/us/dit/lti/persistence/migration/";
+
+	/**
+	 * Name of file with the ordered list of scripts.
+	 */
+	private static final String LIST_FILENAME = "migrations.txt";
+
+	/**
+	 * MySQL error code of duplicate index name.
+	 */
+	private static final int MYSQL_DUPLICATE_KEY_NAME = 1061;
+
+	/**
+	 * MySQL error code of duplicate column name.
+	 */
+	private static final int MYSQL_DUPLICATE_FIELD_NAME = 1060;
+
+	/**
+	 * SQL statement to create the table of versions.
+	 */
+	private static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + VERSION_TABLE_NAME
+			+ " (version integer PRIMARY KEY NOT NULL, description varchar(255), applied bigint NOT NULL)";
+
+	/**
+	 * SQL statement to get the current version.
+	 */
+	private static final String SQL_GET_VERSION = "SELECT MAX(version) FROM " + VERSION_TABLE_NAME;
+
+	/**
+	 * SQL statement to record an applied version.
+	 */
+	private static final String SQL_ADD_VERSION = "INSERT INTO " + VERSION_TABLE_NAME
+			+ " (version, description, applied) VALUES (?,?,?)";
+
+	/**
+	 * A migration script.
+	 */
+	private static final class Migration {
+		/**
+		 * Version.
+		 */
+		private final int version;
+		/**
+		 * Description, from the name of the script.
+		 */
+		private final String description;
+		/**
+		 * Path of the script in the classpath.
+		 */
+		private final String path;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param version     version
+		 * @param description description
+		 * @param path        path of the script
+		 */
+		private Migration(int version, String description, String path) {
+			this.version = version;
+			this.description = description;
+			this.path = path;
+		}
+	}
+
+	/**
+	 * Can not create objects.
+	 */
+	private SchemaMigrator() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Gets the folder of the scripts of a dialect.
+	 *
+	 * @param dialect the dialect
+	 * @return the folder name or null if there are no scripts for it
+	 */
+	private static String getDialectFolder(SqlDialect dialect) {
+		switch (dialect) {
+		case SQLITE:
+			return "sqlite";
+		case POSTGRESQL:
+			return "psql";
+		case MYSQL:
+			return "mysql";
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Applies the pending migrations.
+	 *
+	 * <p>It stops at the first migration that fails, so the next start retries
+	 * it.
+	 *
+	 * @param conn a connection to the database
+	 * @return true if the schema is up to date
+	 */
+	public static boolean migrate(Connection conn) {
+		final SqlDialect dialect = SqlDialect.of(conn);
+		final String folder = getDialectFolder(dialect);
+		if (folder == null) {
+			logger.warn("No schema migrations for database dialect {}", dialect);
+			return true;
+		}
+		boolean ok = true;
+		try {
+			final List<Migration> migrations = getMigrations(folder);
+			int current;
+			try (Statement stmt = conn.createStatement()) {
+				stmt.executeUpdate(SQL_CREATE_TABLE);
+				try (ResultSet rs = stmt.executeQuery(SQL_GET_VERSION)) {
+					current = rs.next() ? rs.getInt(1) : 0;
+				}
+			}
+			for (final Migration m : migrations) {
+				if (m.version > current) {
+					apply(conn, dialect, m);
+					current = m.version;
+					logger.info("Schema migration {} applied: {}", m.version, m.description);
+				}
+			}
+			logger.info("Schema version {}", current);
+		} catch (final SQLException | IOException e) {
+			logger.error("Error migrating schema", e);
+			ok = false;
+		}
+		return ok;
+	}
+
+	/**
+	 * Reads the ordered list of migrations of a dialect.
+	 *
+	 * @param folder folder of the dialect
+	 * @return the list of migrations
+	 * @throws IOException if the list can not be read or is not valid
+	 */
+	private static List<Migration> getMigrations(String folder) throws IOException {
+		final List<Migration> migrations = new ArrayList<>();
+		try (BufferedReader reader = open(MIGRATION_FOLDER + folder + "/" + LIST_FILENAME)) {
+			String line;
+			int last = 0;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				final int sep = line.indexOf("__");
+				if (!line.startsWith("V") || sep < 2 || !line.endsWith(".sql")) {
+					throw new IOException("Invalid migration name: " + line);
+				}
+				final int version;
+				try {
+					version = Integer.parseInt(line.substring(1, sep));
+				} catch (final NumberFormatException e) {
+					throw new IOException("Invalid migration version: " + line, e);
+				}
+				if (version <= last) {
+					throw new IOException("Migrations out of order: " + line);
+				}
+				last = version;
+				migrations.add(new Migration(version, line.substring(sep + 2, line.length() - 4).replace('_', ' '),
+						MIGRATION_FOLDER + folder + "/" + line));
+			}
+		}
+		return migrations;
+	}
+
+	/**
+	 * Opens a resource of the classpath.
+	 *
+	 * @param path path of the resource
+	 * @return a reader of the resource
+	 * @throws IOException if it does not exist
+	 */
+	private static BufferedReader open(String path) throws IOException {
+		final InputStream in = SchemaMigrator.class.getResourceAsStream(path);
+		if (in == null) {
+			throw new IOException("Resource not found: " + path);
+		}
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Splits a script in statements.
+	 *
+	 * <p>Statements end with <code>;</code> at the end of a line. Lines starting
+	 * with <code>--</code> are comments.
+	 *
+	 * @param path path of the script
+	 * @return the statements
+	 * @throws IOException if the script can not be read
+	 */
+	private static List<String> readStatements(String path) throws IOException {
+		final List<String> statements = new ArrayList<>();
+		try (BufferedReader reader = open(path)) {
+			final StringBuilder sb = new StringBuilder();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+					continue;
+				}
+				if (trimmed.endsWith(";")) {
+					sb.append(trimmed, 0, trimmed.length() - 1);
+					statements.add(sb.toString());
+					sb.setLength(0);
+				} else {
+					sb.append(trimmed).append('\n');
+				}
+			}
+			if (sb.length() > 0) {
+				statements.add(sb.toString());
+			}
+		}
+		return statements;
+	}
+
+	/**
+	 * Applies a migration and records its version in a transaction.
+	 *
+	 * <p>The version is recorded first, so a node that applies the same migration
+	 * concurrently waits and then fails.
+	 *
+	 * @param conn      the connection
+	 * @param dialect   the dialect
+	 * @param migration the migration
+	 * @throws SQLException if a database error occurs
+	 * @throws IOException  if the script can not be read
+	 */
+	private static void apply(Connection conn, SqlDialect dialect, Migration migration)
+			throws SQLException, IOException {
+		final List<String> statements = readStatements(migration.path);
+		final boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try (PreparedStatement pstmt = conn.prepareStatement(SQL_ADD_VERSION);
+				Statement stmt = conn.createStatement()) {
+			pstmt.setInt(1, migration.version);
+			pstmt.setString(2, migration.description);
+			pstmt.setLong(3, System.currentTimeMillis());
+			pstmt.executeUpdate();
+			for (final String sql : statements) {
+				try {
+					stmt.executeUpdate(sql);
+				} catch (final SQLException e) {
+					if (isExisting(dialect, e)) {
+						// MySQL has not CREATE INDEX IF NOT EXISTS, MySQL and SQLite have not ADD
+						// COLUMN IF NOT EXISTS
+						logger.debug("Change exists: {}", sql);
+					} else {
+						throw e;
+					}
+				}
+			}
+			conn.commit();
+		} catch (final SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Checks if a statement has failed because its change already exists.
+	 *
+	 * <p>Only used for the statements without <code>IF NOT EXISTS</code> in a
+	 * dialect: indexes in MySQL and columns in MySQL and SQLite. SQLite has not
+	 * a specific error code, so its message is checked.
+	 *
+	 * @param dialect the dialect
+	 * @param e       the error
+	 * @return true if the change exists
+	 */
+	private static boolean isExisting(SqlDialect dialect, SQLException e) {
+		if (dialect == SqlDialect.MYSQL) {
+			return e.getErrorCode() == MYSQL_DUPLICATE_KEY_NAME || e.getErrorCode() == MYSQL_DUPLICATE_FIELD_NAME;
+		}
+		return dialect == SqlDialect.SQLITE && e.getMessage() != null
+				&& e.getMessage().contains("duplicate column name");
+	}
+}
@@ -24,6 +24,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Calendar;
@@ -121,6 +122,28 @@ public final class SettingsDao {
 				Settings.init(rs.getString("app_name"), rs.getBoolean("datasource_mode"), rs.getString("tools_folder"),
 						rs.getInt("max_upload_size"), rs.getInt("concurrent_users"), rs.getString("corrector_filename"),
 						rs.getString("default_css_path"), rs.getString("notice"));
+				// Optional columns, they may not exist in old databases
+				if (hasColumn(rs, "pool_mode")) {
+					Settings.setPoolMode(rs.getBoolean("pool_mode"));
+				}
+				if (hasColumn(rs, "sqlite_wal_mode")) {
+					Settings.setSqliteWalMode(rs.getBoolean("sqlite_wal_mode"));
+				}
+				if (hasColumn(rs, "pool_config")) {
+					Settings.setPoolConfig(rs.getString("pool_config"));
+				}
+				if (hasColumn(rs, "counter_block_size")) {
+					Settings.setCounterBlockSize(rs.getInt("counter_block_size"));
+				}
+				if (hasColumn(rs, "nonce_db_mode")) {
+					Settings.setNonceDbMode(rs.getBoolean("nonce_db_mode"));
+				}
+				if (hasColumn(rs, "key_rotation_days")) {
+					Settings.setKeyRotationDays(rs.getInt("key_rotation_days"));
+				}
+				if (hasColumn(rs, "http_pool_config")) {
+					Settings.setHttpPoolConfig(rs.getString("http_pool_config"));
+				}
 			}
 			rs.close();
 		} catch (final Exception ex) {
@@ -130,6 +153,24 @@ public final class SettingsDao {
 		}
 	}
 
+	/**
+	 * Checks if a result set has a column.
+	 *
+	 * @param rs     the result set
+	 * @param column column name
+	 * @return true if the column exists
+	 * @throws SQLException if a database error occurs
+	 */
+	private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+		final ResultSetMetaData md = rs.getMetaData();
+		for (int i = 1; i <= md.getColumnCount(); i++) {
+			if (column.equalsIgnoreCase(md.getColumnLabel(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Save application settings to db.
 	 *
@@ -161,8 +202,8 @@ public final class SettingsDao {
 	}
 
 	/**
-	 * Check if application settings and default superuser exist in db, and create
-	 * default ones if they do not exist.
+	 * Apply pending schema migrations and check if application settings and
+	 * default superuser exist in db, and create default ones if they do not exist.
 	 *
 	 * @return true if successful
 	 */
@@ -178,6 +219,8 @@ public final class SettingsDao {
 				PreparedStatement pstmt2 = conn.prepareStatement(SQL_CREATE_SUPER);) {
 			final DatabaseMetaData dbm = conn.getMetaData();
 			logger.info("DB product {} {}", dbm.getDatabaseProductName(), dbm.getDatabaseProductVersion());
+			// Apply pending schema changes before using the tables
+			ok = SchemaMigrator.migrate(conn);
 
 			ResultSet rs = stmt.executeQuery(SQL_GET_APP_NAME);
 			if (!rs.next()) {
@@ -0,0 +1,101 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Database products with specific SQL syntax.
+ *
+ * <p>Only the products with a script in <code>src/scripts/sql</code> are
+ * recognized, the rest use standard SQL.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public enum SqlDialect {
+	/**
+	 * SQLite (3.35 or later, with <code>RETURNING</code> and
+	 * <code>ON CONFLICT</code>).
+	 */
+	SQLITE,
+	/**
+	 * PostgreSQL.
+	 */
+	POSTGRESQL,
+	/**
+	 * MySQL or MariaDB.
+	 */
+	MYSQL,
+	/**
+	 * Other product, standard SQL.
+	 */
+	OTHER;
+
+	/**
+	 * Gets the dialect of a product name.
+	 *
+	 * @param productName database product name (from JDBC metadata)
+	 * @return the dialect
+	 */
+	public static SqlDialect fromProductName(String productName) {
+		SqlDialect dialect = OTHER;
+		if (productName != null) {
+			final String name = productName.toLowerCase(Locale.ROOT);
+			if (name.contains("sqlite")) {
+				dialect = SQLITE;
+			} else if (name.contains("postgres")) {
+				dialect = POSTGRESQL;
+			} else if (name.contains("mysql") || name.contains("mariadb")) {
+				dialect = MYSQL;
+			}
+		}
+		return dialect;
+	}
+
+	/**
+	 * Gets the dialect of the database of a connection.
+	 *
+	 * @param conn the connection
+	 * @return the dialect, OTHER if it can not be known
+	 */
+	public static SqlDialect of(Connection conn) {
+		SqlDialect dialect = OTHER;
+		if (conn != null) {
+			try {
+				dialect = fromProductName(conn.getMetaData().getDatabaseProductName());
+			} catch (final SQLException e) {
+				// Unknown, standard SQL
+			}
+		}
+		return dialect;
+	}
+
+	/**
+	 * Gets if <code>UPDATE/INSERT ... RETURNING</code> is supported.
+	 *
+	 * @return true if supported
+	 */
+	public boolean hasReturning() {
+		return this == SQLITE || this == POSTGRESQL;
+	}
+}
@@ -96,6 +96,18 @@ public final class ToolAttemptDao {
 	 */
 	private static final String SQL_UPDATE = "UPDATE " + AT_TABLE_NAME + " SET score=?, errorCode=? WHERE sid=?";
 
+	/**
+	 * SQL statement to update the error code of an attempt.
+	 */
+	private static final String SQL_UPDATE_ERROR_CODE = "UPDATE " + AT_TABLE_NAME + " SET errorCode=? WHERE sid=?";
+
+	/**
+	 * SQL statement to update the error code of an attempt and of the previous
+	 * attempts of its resource user with a score pending (error code 2).
+	 */
+	private static final String SQL_UPDATE_OUTCOME_ERROR_CODE = "UPDATE " + AT_TABLE_NAME
+			+ " SET errorCode=? WHERE resource_user_sid=? AND (sid=? OR sid<? AND errorCode=2)";
+
 	/**
 	 * SQL statement to delete an attempt.
 	 */
@@ -109,7 +121,7 @@ public final class ToolAttemptDao {
 			+ ToolResourceUserDao.RU_TABLE_NAME + ".sid AND " + ToolResourceUserDao.RU_TABLE_NAME
 			+ ".lti_user_sid=? AND " + ToolResourceUserDao.RU_TABLE_NAME + ".resource_sid="
 			+ ToolResourceLinkDao.RL_TABLE_NAME + ".sid AND " + ToolResourceLinkDao.RL_TABLE_NAME
-			+ ".tool_key_sid=? AND errorCode<=1";
+			+ ".tool_key_sid=? AND errorCode<=2";
 
 	/**
 	 * SQL statement to count the attempts of a LTI user for an specific file name.
@@ -119,7 +131,7 @@ public final class ToolAttemptDao {
 			+ " WHERE resource_user_sid=" + ToolResourceUserDao.RU_TABLE_NAME + ".sid AND "
 			+ ToolResourceUserDao.RU_TABLE_NAME + ".lti_user_sid=? AND " + ToolResourceUserDao.RU_TABLE_NAME
 			+ ".resource_sid=" + ToolResourceLinkDao.RL_TABLE_NAME + ".sid AND "
-			+ ToolResourceLinkDao.RL_TABLE_NAME + ".tool_key_sid=? AND errorCode<=1 AND filename=?";
+			+ ToolResourceLinkDao.RL_TABLE_NAME + ".tool_key_sid=? AND errorCode<=2 AND filename=?";
 
 	/**
 	 * SQL statement to get all attempts of a LTI user.
@@ -211,7 +223,7 @@ public final class ToolAttemptDao {
 	 */
 	public static Attempt getById(int resourceUserSid, Instant instant) {
 		Attempt attempt = null;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_BY_ID);) {
 			stmt.setInt(1, resourceUserSid);
 			stmt.setLong(2, instant.getEpochSecond());
@@ -258,7 +270,7 @@ public final class ToolAttemptDao {
 	 */
 	public static Attempt getBySid(int sid) {
 		Attempt attempt = null;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_BY_SID);) {
 			stmt.setInt(1, sid);
 			final ResultSet rs = stmt.executeQuery();
@@ -322,7 +334,7 @@ public final class ToolAttemptDao {
 	 */
 	public static boolean getSidByIds(Attempt attempt) {
 		boolean res = false;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_SID);) {
 			stmt.setInt(1, attempt.getResourceUser().getSid());
 			stmt.setLong(2, attempt.getInstant().getEpochSecond());
@@ -367,6 +379,61 @@ public final class ToolAttemptDao {
 		return res;
 	}
 
+	/**
+	 * Update the error code of a record.
+	 *
+	 * @param sid       serial ID of the attempt
+	 * @param errorCode the new error code
+	 * @return true if successful
+	 */
+	public static boolean updateErrorCode(int sid, int errorCode) {
+		boolean res;
+		final Connection connection = dbUtil.getConnection();
+		try (PreparedStatement stmt = connection.prepareStatement(SQL_UPDATE_ERROR_CODE);) {
+			stmt.setInt(1, errorCode);
+			stmt.setInt(2, sid);
+			res = stmt.executeUpdate() == 1;
+
+		} catch (final SQLException e) {
+			logger.error("Update error code: ", e);
+			res = false;
+		} finally {
+			dbUtil.closeConnection(connection);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Update the error code of an attempt whose score has been sent or discarded,
+	 * and of the previous attempts of the same resource user whose score is still
+	 * pending (error code 2), because their scores were replaced by this one.
+	 *
+	 * @param resourceUserSid serial ID of the resource user of the attempt
+	 * @param sid             serial ID of the attempt
+	 * @param errorCode       the new error code
+	 * @return true if successful
+	 */
+	public static boolean updateOutcomeErrorCode(int resourceUserSid, int sid, int errorCode) {
+		boolean res;
+		final Connection connection = dbUtil.getConnection();
+		try (PreparedStatement stmt = connection.prepareStatement(SQL_UPDATE_OUTCOME_ERROR_CODE);) {
+			stmt.setInt(1, errorCode);
+			stmt.setInt(2, resourceUserSid);
+			stmt.setInt(3, sid);
+			stmt.setInt(4, sid);
+			res = stmt.executeUpdate() >= 1;
+
+		} catch (final SQLException e) {
+			logger.error("Update outcome error code: ", e);
+			res = false;
+		} finally {
+			dbUtil.closeConnection(connection);
+		}
+
+		return res;
+	}
+
 	/**
 	 * Create a record.
 	 *
@@ -435,7 +502,7 @@ public final class ToolAttemptDao {
 	 */
 	public static int countUserAttempts(LtiUser user, ToolKey tk) {
 		int count = 0;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_COUNT);) {
 			stmt.setInt(1, user.getSid());
 			stmt.setInt(2, tk.getSid());
@@ -462,7 +529,7 @@ public final class ToolAttemptDao {
 	 */
 	public static int countUserAttempts(LtiUser user, ToolKey tk, String filename) {
 		int count = 0;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_COUNT_FILENAME);) {
 			stmt.setInt(1, user.getSid());
 			stmt.setInt(2, tk.getSid());
@@ -491,7 +558,7 @@ public final class ToolAttemptDao {
 		final List<Attempt> list = new ArrayList<>();
 		final List<Attempt> listWithoutOriginalUser = new ArrayList<>();
 
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_ALL_USER);) {
 			stmt.setInt(1, user.getSid());
 			stmt.setInt(2, tk.getSid());
@@ -557,7 +624,7 @@ public final class ToolAttemptDao {
 		final List<Attempt> list = new ArrayList<>();
 		final List<Attempt> listWithoutOriginalUser = new ArrayList<>();
 
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_ALL_USER_BY_RESOURCE);) {
 			stmt.setInt(1, user.getSid());
 			stmt.setInt(2, tk.getSid());
@@ -624,7 +691,7 @@ public final class ToolAttemptDao {
 		final List<Attempt> listWithoutOriginalUser = new ArrayList<>();
 		final Map<Integer, LtiUser> knownUsers = new HashMap<>();
 
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_ALL_TK_BY_RESOURCE);) {
 			stmt.setInt(1, tk.getSid());
 			stmt.setString(2, resourceId);
@@ -702,7 +769,7 @@ public final class ToolAttemptDao {
 		final List<Attempt> listWithoutOriginalUser = new ArrayList<>();
 		final Map<Integer, LtiUser> knownUsers = new HashMap<>();
 
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_ALL_TK);) {
 			stmt.setInt(1, tk.getSid());
 			final ResultSet rs = stmt.executeQuery();
@@ -107,6 +107,11 @@ public final class ToolConsumerDao {
 	 */
 	private static IDbUtil dbUtil = null;
 
+	/**
+	 * Cache of consumers by GUID.
+	 */
+	static final EntityCache<String, Consumer> cache = new EntityCache<>("consumer", ToolConsumerDao::copy);
+
 	/**
 	 * Can not create objects.
 	 */
@@ -139,7 +144,10 @@ public final class ToolConsumerDao {
 	 * @return a consumer or null if not exists
 	 */
 	public static Consumer getByGuid(String guid) {
-		Consumer consumer = null;
+		Consumer consumer = cache.get(guid);
+		if (consumer != null) {
+			return consumer;
+		}
 		final Connection connection = dbUtil.getConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_BY_GUID);) {
 			stmt.setString(1, guid);
@@ -161,9 +169,65 @@ public final class ToolConsumerDao {
 		} finally {
 			dbUtil.closeConnection(connection);
 		}
+		if (consumer != null) {
+			cache.put(guid, consumer);
+		}
 		return consumer;
 	}
 
+	/**
+	 * Sets the fields of a consumer, except the serial ID, from the columns of
+	 * {@link #SQL_GET_BY_SID}.
+	 *
+	 * @param consumer the consumer
+	 * @param rs       result set positioned in a row
+	 * @param first    index of the first column (guid)
+	 * @throws SQLException if a database error occurs
+	 */
+	static void fill(Consumer consumer, ResultSet rs, int first) throws SQLException {
+		consumer.setGuid(rs.getString(first));
+		consumer.setLtiVersion(rs.getString(first + 1));
+		consumer.setName(rs.getString(first + 2));
+		consumer.setVersion(rs.getString(first + 3));
+		consumer.setCssPath(rs.getString(first + 4));
+		consumer.setCreated(DaoUtil.toCalendar(rs.getTimestamp(first + 5)));
+		consumer.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(first + 6)));
+	}
+
+	/**
+	 * Removes a consumer from cache.
+	 *
+	 * @param consumer the consumer
+	 */
+	private static void uncache(Consumer consumer) {
+		if (consumer.getGuid() != null) {
+			cache.remove(consumer.getGuid());
+		} else {
+			cache.clear();
+		}
+		// Cached tool keys have a copy
+		ToolKeyDao.clearCache();
+	}
+
+	/**
+	 * Copies a consumer.
+	 *
+	 * @param consumer the consumer
+	 * @return the copy
+	 */
+	static Consumer copy(Consumer consumer) {
+		final Consumer result = new Consumer();
+		result.setSid(consumer.getSid());
+		result.setGuid(consumer.getGuid());
+		result.setLtiVersion(consumer.getLtiVersion());
+		result.setName(consumer.getName());
+		result.setVersion(consumer.getVersion());
+		result.setCssPath(consumer.getCssPath());
+		result.setCreated(consumer.getCreated());
+		result.setUpdated(consumer.getUpdated());
+		return result;
+	}
+
 	/**
 	 * Gets a record by serial ID.
 	 *
@@ -179,13 +243,7 @@ public final class ToolConsumerDao {
 			if (rs.next()) {
 				consumer = new Consumer();
 				consumer.setSid(sid);
-				consumer.setGuid(rs.getString(1));
-				consumer.setLtiVersion(rs.getString(2));
-				consumer.setName(rs.getString(3));
-				consumer.setVersion(rs.getString(4));
-				consumer.setCssPath(rs.getString(5));
-				consumer.setCreated(DaoUtil.toCalendar(rs.getTimestamp(6)));
-				consumer.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(7)));
+				fill(consumer, rs, 1);
 			}
 			rs.close();
 		} catch (final SQLException e) {
@@ -250,6 +308,7 @@ public final class ToolConsumerDao {
 			dbUtil.closeConnection(connection);
 		}
 
+		uncache(consumer);
 		return res;
 	}
 
@@ -287,6 +346,7 @@ public final class ToolConsumerDao {
 			res = getSidByGuid(consumer);
 		}
 
+		uncache(consumer);
 		return res;
 	}
 
@@ -311,6 +371,7 @@ public final class ToolConsumerDao {
 		} finally {
 			dbUtil.closeConnection(conn);
 		}
+		uncache(consumer);
 		return deleted;
 	}
 
@@ -333,6 +394,8 @@ public final class ToolConsumerDao {
 		} finally {
 			dbUtil.closeConnection(conn);
 		}
+		cache.clear();
+		ToolKeyDao.clearCache();
 		return deleted;
 	}
 
@@ -343,7 +406,7 @@ public final class ToolConsumerDao {
 	 */
 	public static List<Integer> getUnused() {
 		List<Integer> res = new ArrayList<>();
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_UNUSED_CONSUMERS);) {
 			final ResultSet rs = stmt.executeQuery();
 			while (rs.next()) {
@@ -23,15 +23,25 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import es.us.dit.lti.entity.Consumer;
 import es.us.dit.lti.entity.LtiUser;
+import es.us.dit.lti.entity.ResourceLink;
 import es.us.dit.lti.entity.Tool;
 import es.us.dit.lti.entity.ToolKey;
 
@@ -147,6 +157,31 @@ public final class ToolConsumerUserDao {
 	private static final String SQL_DELETE_UNUSED_LTI_USERS = "DELETE FROM " + LTI_USER_TABLE_NAME + " WHERE "
 			+ LTI_USER_TABLE_NAME + ".sid IN (" + SQL_GET_UNUSED_LTI_USERS + ")";
 
+	/**
+	 * SQL statement to get the LTI users of a consumer with some user IDs. The
+	 * list of parameters of IN is appended.
+	 */
+	private static final String SQL_GET_MEMBERS = "SELECT sid, lti_user_id, name_given, name_family, name_full, email FROM "
+			+ LTI_USER_TABLE_NAME + " WHERE consumer_sid=? AND lti_user_id IN ";
+
+	/**
+	 * SQL statement to update the personal data of a LTI user.
+	 */
+	private static final String SQL_UPDATE_MEMBER = "UPDATE " + LTI_USER_TABLE_NAME
+			+ " SET name_given=?, name_family=?, name_full=?, email=?, updated=? WHERE sid = ?";
+
+	/**
+	 * SQL statement to get the LTI users of a resource link with some serial IDs.
+	 * The list of parameters of IN is appended.
+	 */
+	private static final String SQL_GET_RESOURCE_MEMBERS = "SELECT lti_user_sid FROM "
+			+ ToolResourceUserDao.RU_TABLE_NAME + " WHERE resource_sid=? AND lti_user_sid IN ";
+
+	/**
+	 * Maximum number of parameters of IN in a statement.
+	 */
+	private static final int MAX_IN_PARAMETERS = 100;
+
 	/**
 	 * Utility class that provides methods for managing connections to a database.
 	 */
@@ -186,7 +221,7 @@ public final class ToolConsumerUserDao {
 	 */
 	public static LtiUser getById(int consumerSid, String userId) {
 		LtiUser user = null;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_BY_ID);) {
 			stmt.setInt(1, consumerSid);
 			stmt.setString(2, userId);
@@ -223,7 +258,7 @@ public final class ToolConsumerUserDao {
 	 */
 	public static LtiUser getBySid(int sid) {
 		LtiUser user = null;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_BY_SID);) {
 			stmt.setInt(1, sid);
 			final ResultSet rs = stmt.executeQuery();
@@ -259,7 +294,7 @@ public final class ToolConsumerUserDao {
 	 */
 	public static boolean getSidByIds(LtiUser user) {
 		boolean res = false;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_SID);) {
 			stmt.setInt(1, user.getConsumer().getSid());
 			stmt.setString(2, user.getUserId());
@@ -349,6 +384,255 @@ public final class ToolConsumerUserDao {
 		return res;
 	}
 
+	/**
+	 * Creates or updates LTI users and adds them to a resource link, with batches
+	 * of statements in a transaction.
+	 *
+	 * <p>Users are identified by consumer and user ID; the serial ID is set in
+	 * each one. Name and email of existing users are updated if they changed; null
+	 * values do not replace stored ones. Repeated user IDs are saved once.
+	 *
+	 * @param consumer     the consumer of the users
+	 * @param resourceLink the resource link
+	 * @param users        the users, with user ID
+	 * @return true if successful
+	 */
+	public static boolean upsertMembers(Consumer consumer, ResourceLink resourceLink, List<LtiUser> users) {
+		boolean res = false;
+		final Connection conn = dbUtil.getConnection();
+		if (conn == null) {
+			return res;
+		}
+		try {
+			try {
+				upsertMembersInTransaction(conn, consumer.getSid(), resourceLink.getSid(), users);
+			} catch (final SQLException e) {
+				// Some user created by a launch meanwhile, it exists now
+				logger.debug("Upsert members retried: {}", e.getMessage());
+				upsertMembersInTransaction(conn, consumer.getSid(), resourceLink.getSid(), users);
+			}
+			res = true;
+		} catch (final SQLException e) {
+			logger.error("Upsert members: ", e);
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+		return res;
+	}
+
+	/**
+	 * Creates or updates LTI users and adds them to a resource link in a
+	 * transaction.
+	 *
+	 * @param conn        the connection
+	 * @param consumerSid serial ID of the consumer
+	 * @param resourceSid serial ID of the resource link
+	 * @param users       the users
+	 * @throws SQLException if a database error occurs
+	 */
+	private static void upsertMembersInTransaction(Connection conn, int consumerSid, int resourceSid,
+			List<LtiUser> users) throws SQLException {
+		final Map<String, LtiUser> byId = new LinkedHashMap<>();
+		for (final LtiUser user : users) {
+			byId.putIfAbsent(user.getUserId(), user);
+		}
+		final Timestamp now = DaoUtil.toTimestamp(Calendar.getInstance());
+		final boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			final Map<String, LtiUser> stored = getMembers(conn, consumerSid, byId.keySet());
+			final List<String> created = new ArrayList<>();
+			try (PreparedStatement insert = conn.prepareStatement(SQL_NEW);
+					PreparedStatement update = conn.prepareStatement(SQL_UPDATE_MEMBER)) {
+				int updated = 0;
+				for (final LtiUser user : byId.values()) {
+					final LtiUser old = stored.get(user.getUserId());
+					if (old == null) {
+						int i = 1;
+						insert.setInt(i++, consumerSid);
+						insert.setString(i++, user.getUserId());
+						insert.setString(i++, user.getSourceId());
+						insert.setString(i++, user.getNameGiven());
+						insert.setString(i++, user.getNameFamily());
+						insert.setString(i++, user.getNameFull());
+						insert.setString(i++, user.getEmail());
+						insert.setTimestamp(i++, now); // created
+						insert.setTimestamp(i, now); // updated
+						insert.addBatch();
+						created.add(user.getUserId());
+					} else {
+						user.setSid(old.getSid());
+						if (mergePersonalData(user, old)) {
+							int i = 1;
+							update.setString(i++, user.getNameGiven());
+							update.setString(i++, user.getNameFamily());
+							update.setString(i++, user.getNameFull());
+							update.setString(i++, user.getEmail());
+							update.setTimestamp(i++, now); // updated
+							update.setInt(i, user.getSid());
+							update.addBatch();
+							updated++;
+						}
+					}
+				}
+				if (!created.isEmpty()) {
+					insert.executeBatch();
+					for (final LtiUser user : getMembers(conn, consumerSid, created).values()) {
+						byId.get(user.getUserId()).setSid(user.getSid());
+					}
+				}
+				if (updated > 0) {
+					update.executeBatch();
+				}
+			}
+			final Set<Integer> linked = getResourceMembers(conn, resourceSid, byId.values());
+			try (PreparedStatement insert = conn.prepareStatement(ToolResourceUserDao.SQL_NEW)) {
+				boolean pending = false;
+				for (final LtiUser user : byId.values()) {
+					if (!linked.contains(user.getSid())) {
+						int i = 1;
+						insert.setInt(i++, resourceSid);
+						insert.setInt(i++, user.getSid());
+						insert.setNull(i++, Types.VARCHAR); // lti_result_sourcedid
+						insert.setTimestamp(i++, now); // created
+						insert.setTimestamp(i, now); // updated
+						insert.addBatch();
+						pending = true;
+					}
+				}
+				if (pending) {
+					insert.executeBatch();
+				}
+			}
+			if (autoCommit) {
+				conn.commit();
+			}
+		} catch (final SQLException e) {
+			if (autoCommit) {
+				conn.rollback();
+			}
+			throw e;
+		} finally {
+			if (autoCommit) {
+				conn.setAutoCommit(true);
+			}
+		}
+		// Set the serial ID of repeated users
+		for (final LtiUser user : users) {
+			user.setSid(byId.get(user.getUserId()).getSid());
+		}
+	}
+
+	/**
+	 * Completes the personal data of a user with the stored one.
+	 *
+	 * @param user new data, null values are replaced by the stored ones
+	 * @param old  stored data
+	 * @return true if the data changed
+	 */
+	private static boolean mergePersonalData(LtiUser user, LtiUser old) {
+		if (user.getNameGiven() == null) {
+			user.setNameGiven(old.getNameGiven());
+		}
+		if (user.getNameFamily() == null) {
+			user.setNameFamily(old.getNameFamily());
+		}
+		if (user.getNameFull() == null) {
+			user.setNameFull(old.getNameFull());
+		}
+		if (user.getEmail() == null) {
+			user.setEmail(old.getEmail());
+		}
+		return !Objects.equals(user.getNameGiven(), old.getNameGiven())
+				|| !Objects.equals(user.getNameFamily(), old.getNameFamily())
+				|| !Objects.equals(user.getNameFull(), old.getNameFull())
+				|| !Objects.equals(user.getEmail(), old.getEmail());
+	}
+
+	/**
+	 * Gets the LTI users of a consumer with some user IDs.
+	 *
+	 * @param conn        the connection
+	 * @param consumerSid serial ID of the consumer
+	 * @param userIds     the user IDs
+	 * @return the users found (serial ID, user ID, names and email) by user ID
+	 * @throws SQLException if a database error occurs
+	 */
+	private static Map<String, LtiUser> getMembers(Connection conn, int consumerSid, Collection<String> userIds)
+			throws SQLException {
+		final Map<String, LtiUser> found = new HashMap<>();
+		final List<String> ids = new ArrayList<>(userIds);
+		for (int from = 0; from < ids.size(); from += MAX_IN_PARAMETERS) {
+			final List<String> part = ids.subList(from, Math.min(ids.size(), from + MAX_IN_PARAMETERS));
+			try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_MEMBERS + inParameters(part.size()))) {
+				int i = 1;
+				stmt.setInt(i++, consumerSid);
+				for (final String id : part) {
+					stmt.setString(i++, id);
+				}
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						final LtiUser user = new LtiUser();
+						user.setSid(rs.getInt(1));
+						user.setUserId(rs.getString(2));
+						user.setNameGiven(rs.getString(3));
+						user.setNameFamily(rs.getString(4));
+						user.setNameFull(rs.getString(5));
+						user.setEmail(rs.getString(6));
+						found.put(user.getUserId(), user);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Gets which LTI users belong to a resource link.
+	 *
+	 * @param conn        the connection
+	 * @param resourceSid serial ID of the resource link
+	 * @param users       the users, with serial ID
+	 * @return serial IDs of the users that belong to the resource link
+	 * @throws SQLException if a database error occurs
+	 */
+	private static Set<Integer> getResourceMembers(Connection conn, int resourceSid, Collection<LtiUser> users)
+			throws SQLException {
+		final Set<Integer> found = new HashSet<>();
+		final List<LtiUser> list = new ArrayList<>(users);
+		for (int from = 0; from < list.size(); from += MAX_IN_PARAMETERS) {
+			final List<LtiUser> part = list.subList(from, Math.min(list.size(), from + MAX_IN_PARAMETERS));
+			try (PreparedStatement stmt = conn
+					.prepareStatement(SQL_GET_RESOURCE_MEMBERS + inParameters(part.size()))) {
+				int i = 1;
+				stmt.setInt(i++, resourceSid);
+				for (final LtiUser user : part) {
+					stmt.setInt(i++, user.getSid());
+				}
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						found.add(rs.getInt(1));
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the list of parameters of an IN clause.
+	 *
+	 * @param n number of parameters, greater than 0
+	 * @return the list, like <code>(?,?)</code>
+	 */
+	private static String inParameters(int n) {
+		final StringBuilder sb = new StringBuilder("(?");
+		for (int i = 1; i < n; i++) {
+			sb.append(",?");
+		}
+		return sb.append(')').toString();
+	}
+
 	/**
 	 * Delete a record.
 	 *
@@ -382,7 +666,7 @@ public final class ToolConsumerUserDao {
 	public static List<LtiUser> getToolLtiUsers(Tool tool) {
 		final List<LtiUser> list = new ArrayList<>();
 
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_TOOL_LTI_USERS);) {
 			stmt.setInt(1, tool.getSid());
 			final ResultSet rs = stmt.executeQuery();
@@ -413,7 +697,7 @@ public final class ToolConsumerUserDao {
 	public static List<LtiUser> getToolKeyLtiUsers(ToolKey tk) {
 		final List<LtiUser> list = new ArrayList<>();
 
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_TOOLKEY_LTI_USERS);) {
 			stmt.setInt(1, tk.getSid());
 			final ResultSet rs = stmt.executeQuery();
@@ -446,7 +730,7 @@ public final class ToolConsumerUserDao {
 	public static List<LtiUser> getToolKeyLtiUsersByResource(ToolKey tk, String resourceId) {
 		final List<LtiUser> list = new ArrayList<>();
 
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_TOOLKEY_LTI_USERS_BY_RESOURCE);) {
 			stmt.setInt(1, tk.getSid());
 			stmt.setString(2, resourceId);
@@ -481,7 +765,7 @@ public final class ToolConsumerUserDao {
 	public static List<LtiUser> getToolKeyLtiUsersByUserId(ToolKey tk, String userId) {
 		final List<LtiUser> list = new ArrayList<>();
 
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_TOOLKEY_LTI_USERS_BY_USER_ID);) {
 			stmt.setInt(1, tk.getSid());
 			stmt.setString(2, userId);
@@ -535,7 +819,7 @@ public final class ToolConsumerUserDao {
 	 */
 	public static List<Integer> getUnused() {
 		List<Integer> res = new ArrayList<>();
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_UNUSED_LTI_USERS);) {
 			final ResultSet rs = stmt.executeQuery();
 			while (rs.next()) {
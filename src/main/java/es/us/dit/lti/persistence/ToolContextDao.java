@@ -108,6 +108,11 @@ public final class ToolContextDao {
 	 */
 	private static IDbUtil dbUtil = null;
 
+	/**
+	 * Cache of contexts by consumer serial ID and context ID.
+	 */
+	static final EntityCache<String, Context> cache = new EntityCache<>("context", ToolContextDao::copy);
+
 	/**
 	 * Can not create objects.
 	 */
@@ -141,7 +146,12 @@ public final class ToolContextDao {
 	 * @return the attempt if exists or null
 	 */
 	public static Context getById(Consumer consumer, String contextId) {
-		Context context = null;
+		final String key = cacheKey(consumer.getSid(), contextId);
+		Context context = cache.get(key);
+		if (context != null) {
+			context.setConsumer(consumer);
+			return context;
+		}
 		final Connection connection = dbUtil.getConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_BY_ID);) {
 			stmt.setInt(1, consumer.getSid());
@@ -163,9 +173,78 @@ public final class ToolContextDao {
 		} finally {
 			dbUtil.closeConnection(connection);
 		}
+		if (context != null) {
+			cache.put(key, context);
+		}
 		return context;
 	}
 
+	/**
+	 * Sets the fields of a context, except the serial ID, from the columns of
+	 * {@link #SQL_GET_BY_SID}. The consumer only has the serial ID.
+	 *
+	 * @param context the context
+	 * @param rs      result set positioned in a row
+	 * @param first   index of the first column (consumer_sid)
+	 * @throws SQLException if a database error occurs
+	 */
+	static void fill(Context context, ResultSet rs, int first) throws SQLException {
+		final Consumer aux = new Consumer();
+		aux.setSid(rs.getInt(first));
+		context.setConsumer(aux);
+		context.setContextId(rs.getString(first + 1));
+		context.setLabel(rs.getString(first + 2));
+		context.setTitle(rs.getString(first + 3));
+		context.setCreated(DaoUtil.toCalendar(rs.getTimestamp(first + 4)));
+		context.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(first + 5)));
+	}
+
+	/**
+	 * Gets the cache key of a context.
+	 *
+	 * @param consumerSid serial ID of consumer
+	 * @param contextId   the context ID
+	 * @return the key
+	 */
+	static String cacheKey(int consumerSid, String contextId) {
+		return consumerSid + ":" + contextId;
+	}
+
+	/**
+	 * Removes a context from cache.
+	 *
+	 * @param context the context
+	 */
+	private static void uncache(Context context) {
+		if (context.getConsumer() != null && context.getContextId() != null) {
+			cache.remove(cacheKey(context.getConsumer().getSid(), context.getContextId()));
+		} else {
+			cache.clear();
+		}
+		// Cached tool keys have a copy
+		ToolKeyDao.clearCache();
+	}
+
+	/**
+	 * Copies a context, with a copy of its consumer.
+	 *
+	 * @param context the context
+	 * @return the copy
+	 */
+	static Context copy(Context context) {
+		final Context result = new Context();
+		result.setSid(context.getSid());
+		if (context.getConsumer() != null) {
+			result.setConsumer(ToolConsumerDao.copy(context.getConsumer()));
+		}
+		result.setContextId(context.getContextId());
+		result.setLabel(context.getLabel());
+		result.setTitle(context.getTitle());
+		result.setCreated(context.getCreated());
+		result.setUpdated(context.getUpdated());
+		return result;
+	}
+
 	/**
 	 * Gets a record by serial ID.
 	 *
@@ -181,14 +260,7 @@ public final class ToolContextDao {
 			if (rs.next()) {
 				context = new Context();
 				context.setSid(sid);
-				final Consumer aux = new Consumer();
-				aux.setSid(rs.getInt(1));
-				context.setConsumer(aux);
-				context.setContextId(rs.getString(2));
-				context.setLabel(rs.getString(3));
-				context.setTitle(rs.getString(4));
-				context.setCreated(DaoUtil.toCalendar(rs.getTimestamp(5)));
-				context.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(6)));
+				fill(context, rs, 1);
 			}
 			rs.close();
 		} catch (final SQLException e) {
@@ -252,6 +324,7 @@ public final class ToolContextDao {
 			dbUtil.closeConnection(connection);
 		}
 
+		uncache(context);
 		return res;
 	}
 
@@ -288,6 +361,7 @@ public final class ToolContextDao {
 			res = getSidByIds(context);
 		}
 
+		uncache(context);
 		return res;
 	}
 
@@ -312,6 +386,7 @@ public final class ToolContextDao {
 		} finally {
 			dbUtil.closeConnection(conn);
 		}
+		uncache(context);
 		return deleted;
 	}
 
@@ -334,6 +409,8 @@ public final class ToolContextDao {
 		} finally {
 			dbUtil.closeConnection(conn);
 		}
+		cache.clear();
+		ToolKeyDao.clearCache();
 		return deleted;
 	}
 
@@ -344,7 +421,7 @@ public final class ToolContextDao {
 	 */
 	public static List<Integer> getUnused() {
 		List<Integer> res = new ArrayList<>();
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_UNUSED_CONTEXTS);) {
 			final ResultSet rs = stmt.executeQuery();
 			while (rs.next()) {
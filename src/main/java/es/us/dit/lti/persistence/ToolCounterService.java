@@ -0,0 +1,392 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service that generates the values of the tool counters.
+ *
+ * <p>Each value is obtained with a single atomic statement in the database
+ * (<code>UPDATE ... RETURNING</code> in SQLite and PostgreSQL,
+ * <code>LAST_INSERT_ID(expr)</code> in MySQL, UPDATE and SELECT in a
+ * transaction otherwise), so several nodes sharing the database never get the
+ * same value.
+ *
+ * <p>If the block size is greater than 1, ranges of values are reserved in the
+ * database (hi/lo) and then handed out from memory without accessing the
+ * database. Values of a block not used when the application stops are lost, and
+ * the counter stored in the database is the last value reserved, not the last
+ * one used.
+ *
+ * <p>Counters wrap around to 0 after <code>Integer.MAX_VALUE</code>.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class ToolCounterService {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(ToolCounterService.class);
+
+	/**
+	 * Atomic increment of a counter, with wrap around.
+	 *
+	 * <p>Parameters: maximum value before wrap around, value after wrap around,
+	 * increment and tool SID.
+	 */
+	private static final String SQL_INCREMENT = "UPDATE " + ToolDao.COUNTER_TABLE_NAME
+			+ " SET counter=CASE WHEN counter>? THEN ? ELSE counter+? END WHERE tool_sid=?";
+
+	/**
+	 * Atomic increment of a counter that returns the new value.
+	 */
+	private static final String SQL_INCREMENT_RETURNING = SQL_INCREMENT + " RETURNING counter";
+
+	/**
+	 * Atomic increment of a counter for MySQL, the new value is got with
+	 * {@link #SQL_LAST_INSERT_ID}.
+	 */
+	private static final String SQL_INCREMENT_MYSQL = "UPDATE " + ToolDao.COUNTER_TABLE_NAME
+			+ " SET counter=LAST_INSERT_ID(CASE WHEN counter>? THEN ? ELSE counter+? END) WHERE tool_sid=?";
+
+	/**
+	 * Gets the last value set by {@link #SQL_INCREMENT_MYSQL} in the same
+	 * connection.
+	 */
+	private static final String SQL_LAST_INSERT_ID = "SELECT LAST_INSERT_ID()";
+
+	/**
+	 * Gets a counter.
+	 */
+	private static final String SQL_GET_COUNTER = "SELECT counter FROM " + ToolDao.COUNTER_TABLE_NAME
+			+ " WHERE tool_sid=?";
+
+	/**
+	 * Utility class that provides methods for managing connections to a database.
+	 */
+	private static IDbUtil dbUtil = null;
+
+	/**
+	 * Dialect of the database, null if unknown yet.
+	 */
+	private static volatile SqlDialect dialect = null;
+
+	/**
+	 * Number of values reserved each time in the database.
+	 */
+	private static volatile int blockSize = 1;
+
+	/**
+	 * Blocks of reserved values by tool SID.
+	 */
+	private static final Map<Integer, Block> blocks = new ConcurrentHashMap<>();
+
+	/**
+	 * Locks to reserve blocks, by tool SID.
+	 */
+	private static final LockStripes SID_LOCKS = new LockStripes(64);
+
+	/**
+	 * Range of reserved values.
+	 */
+	private static final class Block {
+		/**
+		 * First value.
+		 */
+		private final int first;
+		/**
+		 * Last value.
+		 */
+		private final int last;
+		/**
+		 * Next value to hand out.
+		 */
+		private final AtomicInteger next;
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param first first value
+		 * @param last  last value
+		 */
+		private Block(int first, int last) {
+			this.first = first;
+			this.last = last;
+			this.next = new AtomicInteger(first);
+		}
+
+		/**
+		 * Gets the next value.
+		 *
+		 * @return the next value or -1 if the block is exhausted
+		 */
+		private int take() {
+			final int value = next.getAndIncrement();
+			// Check first too, next may overflow
+			return value >= first && value <= last ? value : -1;
+		}
+	}
+
+	/**
+	 * Can not create objects.
+	 */
+	private ToolCounterService() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Sets the db utility class.
+	 *
+	 * @param dbu the db utility class to set
+	 */
+	public static synchronized void setDbUtil(IDbUtil dbu) {
+		dbUtil = dbu;
+		dialect = null;
+		blocks.clear();
+	}
+
+	/**
+	 * Gets the db utility class.
+	 *
+	 * @return the db utility class
+	 */
+	public static synchronized IDbUtil getDbUtil() {
+		return dbUtil;
+	}
+
+	/**
+	 * Gets the number of values reserved each time in the database.
+	 *
+	 * @return the block size
+	 */
+	public static int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Sets the number of values reserved each time in the database.
+	 *
+	 * <p>1 (or less) means that every value is obtained from the database. Blocks
+	 * already reserved are kept.
+	 *
+	 * @param blockSize the block size to set
+	 */
+	public static void setBlockSize(int blockSize) {
+		ToolCounterService.blockSize = Math.max(1, blockSize);
+	}
+
+	/**
+	 * Gets the next value of a tool counter.
+	 *
+	 * @param toolSid SID of tool
+	 * @return the next value or -1 if error
+	 */
+	public static int next(int toolSid) {
+		final int size = blockSize;
+		if (size <= 1) {
+			return increment(toolSid, 1);
+		}
+		int value = -1;
+		boolean error = false;
+		while (value < 0 && !error) {
+			final Block block = blocks.get(toolSid);
+			if (block != null) {
+				value = block.take();
+			}
+			if (value < 0) {
+				// Reserve a new block, only one thread per tool
+				final ReentrantLock lock = SID_LOCKS.get(toolSid);
+				lock.lock();
+				try {
+					if (blocks.get(toolSid) == block) {
+						final int last = increment(toolSid, size);
+						if (last < 0) {
+							error = true;
+						} else {
+							blocks.put(toolSid, new Block(last - size + 1, last));
+						}
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Discards the values reserved in memory for a tool.
+	 *
+	 * <p>It must be called when the counter is changed or the tool is deleted.
+	 * Other nodes keep their blocks until they are exhausted.
+	 *
+	 * @param toolSid SID of tool
+	 */
+	public static void reset(int toolSid) {
+		final ReentrantLock lock = SID_LOCKS.get(toolSid);
+		lock.lock();
+		try {
+			blocks.remove(toolSid);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the dialect of the database.
+	 *
+	 * @param conn a connection to the database
+	 * @return the dialect
+	 */
+	private static SqlDialect getDialect(Connection conn) {
+		SqlDialect d = dialect;
+		if (d == null) {
+			d = SqlDialect.of(conn);
+			dialect = d;
+			logger.info("Tool counter dialect: {}", d);
+		}
+		return d;
+	}
+
+	/**
+	 * Sets the parameters of an increment statement.
+	 *
+	 * @param stmt    the statement
+	 * @param toolSid SID of tool
+	 * @param n       increment
+	 * @throws SQLException if a database error occurs
+	 */
+	private static void setIncrementParameters(PreparedStatement stmt, int toolSid, int n) throws SQLException {
+		stmt.setInt(1, Integer.MAX_VALUE - n);
+		stmt.setInt(2, n - 1);
+		stmt.setInt(3, n);
+		stmt.setInt(4, toolSid);
+	}
+
+	/**
+	 * Increments a counter in the database atomically.
+	 *
+	 * <p>After <code>Integer.MAX_VALUE</code> the counter is set to
+	 * <code>n - 1</code>, so the range reserved starts at 0.
+	 *
+	 * @param toolSid SID of tool
+	 * @param n       increment
+	 * @return the new value or -1 if error
+	 */
+	private static int increment(int toolSid, int n) {
+		int counter = -1;
+		final Connection conn = dbUtil.getConnection();
+		if (conn == null) {
+			return counter;
+		}
+		final SqlDialect d = getDialect(conn);
+		try {
+			if (d.hasReturning()) {
+				try (PreparedStatement stmt = conn.prepareStatement(SQL_INCREMENT_RETURNING)) {
+					setIncrementParameters(stmt, toolSid, n);
+					counter = readInt(stmt);
+				}
+			} else if (d == SqlDialect.MYSQL) {
+				try (PreparedStatement stmt = conn.prepareStatement(SQL_INCREMENT_MYSQL);
+						PreparedStatement stmt2 = conn.prepareStatement(SQL_LAST_INSERT_ID)) {
+					setIncrementParameters(stmt, toolSid, n);
+					if (stmt.executeUpdate() == 1) {
+						counter = readInt(stmt2);
+					}
+				}
+			} else {
+				counter = incrementInTransaction(conn, toolSid, n);
+			}
+		} catch (final SQLException e) {
+			logger.error("Error incrementing counter", e);
+			counter = -1;
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+		return counter;
+	}
+
+	/**
+	 * Increments a counter with an UPDATE and a SELECT in the same transaction.
+	 *
+	 * <p>The row stays locked by the UPDATE until the end of the transaction.
+	 *
+	 * @param conn    the connection
+	 * @param toolSid SID of tool
+	 * @param n       increment
+	 * @return the new value or -1 if error
+	 * @throws SQLException if a database error occurs
+	 */
+	private static int incrementInTransaction(Connection conn, int toolSid, int n) throws SQLException {
+		int counter = -1;
+		final boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_INCREMENT);
+				PreparedStatement stmt2 = conn.prepareStatement(SQL_GET_COUNTER)) {
+			setIncrementParameters(stmt, toolSid, n);
+			if (stmt.executeUpdate() == 1) {
+				stmt2.setInt(1, toolSid);
+				counter = readInt(stmt2);
+			}
+			if (autoCommit) {
+				conn.commit();
+			}
+		} catch (final SQLException e) {
+			if (autoCommit) {
+				conn.rollback();
+			}
+			throw e;
+		} finally {
+			if (autoCommit) {
+				conn.setAutoCommit(true);
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Executes a query and gets the first column of the first row as int.
+	 *
+	 * @param stmt the statement
+	 * @return the value or -1 if there are no rows
+	 * @throws SQLException if a database error occurs
+	 */
+	private static int readInt(PreparedStatement stmt) throws SQLException {
+		int value = -1;
+		try (ResultSet rs = stmt.executeQuery()) {
+			if (rs.next()) {
+				value = rs.getInt(1);
+			}
+		}
+		return value;
+	}
+}
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -280,6 +281,18 @@ public final class ToolDao {
 	 * Tool cache, to reduce the use of db.
 	 */
 	private static ToolCache cache = new ToolCache();
+	/**
+	 * Locks of operations that modify data of a tool, by tool serial ID.
+	 *
+	 * <p>Readers do not use them.
+	 */
+	private static final LockStripes SID_LOCKS = new LockStripes(64);
+	/**
+	 * Lock of operations that create or change tool names.
+	 *
+	 * <p>If both are needed, it must be acquired after the lock of the tool.
+	 */
+	private static final ReentrantLock NAMES_LOCK = new ReentrantLock();
 
 	/**
 	 * Can not create objects.
@@ -309,42 +322,26 @@ public final class ToolDao {
 	/**
 	 * Tool counter atomic increment.
 	 *
+	 * <p>Values are obtained from {@link ToolCounterService}, without locks in
+	 * this class. If it fails, the counter of the tool object is incremented.
+	 *
 	 * @param tool the tool
 	 * @return the new counter value
 	 */
-	public static synchronized int incrementCounter(Tool tool) {
+	public static int incrementCounter(Tool tool) {
 		int counter = 0;
 		if (tool != null) {
-			// Counter may have changed from the time the first page was displayed until the
-			// file was sent.
-			// Refresh it.
-			counter = tool.getCounter();
-			final Connection conn = dbUtil.getConnection();
-			try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_COUNTER);) {
-				stmt.setInt(1, tool.getSid());
-				final ResultSet rs = stmt.executeQuery();
-				if (rs.next()) {
-					counter = rs.getInt(1);
+			counter = ToolCounterService.next(tool.getSid());
+			if (counter < 0) {
+				logger.error("Error incrementing database counter");
+				counter = tool.getCounter();
+				if (counter >= Integer.MAX_VALUE) {
+					counter = 0;
+				} else {
+					counter++;
 				}
-				rs.close();
-			} catch (final SQLException e) {
-				logger.error("Error retrieving database counter", e);
-			}
-			// We assume that the counter has been read, we increment
-			if (counter >= Integer.MAX_VALUE) {
-				counter = 0;
-			} else {
-				counter++;
 			}
 			tool.setCounter(counter);
-			try (PreparedStatement stmt = conn.prepareStatement(SQL_UPDATE_COUNTER);) {
-				stmt.setInt(1, counter);
-				stmt.setInt(2, tool.getSid());
-				stmt.executeUpdate();
-			} catch (final SQLException e) {
-				logger.error("Error incrementing counter", e);
-			}
-			dbUtil.closeConnection(conn);
 		}
 		return counter;
 	}
@@ -355,7 +352,7 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return counter value
 	 */
-	public static synchronized int getCounter(Tool tool) {
+	public static int getCounter(Tool tool) {
 		int counter = 0;
 		if (tool != null) {
 			final Connection conn = dbUtil.getConnection();
@@ -384,7 +381,26 @@ public final class ToolDao {
 	 * @param newCounter new counter value
 	 * @return true if successful
 	 */
-	public static synchronized boolean changeCounter(Tool tool, int newCounter) {
+	public static boolean changeCounter(Tool tool, int newCounter) {
+		final ReentrantLock lock = SID_LOCKS.get(tool == null ? 0 : tool.getSid());
+		lock.lock();
+		try {
+			return changeCounterLocked(tool, newCounter);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Changes tool counter.
+	 *
+	 * <p>The caller must hold the corresponding lock.
+	 *
+	 * @param tool       the tool
+	 * @param newCounter new counter value
+	 * @return true if successful
+	 */
+	private static boolean changeCounterLocked(Tool tool, int newCounter) {
 		boolean res = true;
 		if (tool != null) {
 			final Connection conn = dbUtil.getConnection();
@@ -398,6 +414,8 @@ public final class ToolDao {
 				res = false;
 			}
 			dbUtil.closeConnection(conn);
+			// Values reserved in memory are no longer valid
+			ToolCounterService.reset(tool.getSid());
 		}
 		return res;
 	}
@@ -415,7 +433,33 @@ public final class ToolDao {
 	 * @throws FileAlreadyExistsException when a tool with the same name exists
 	 * @throws FileSystemException        when it could not write files
 	 */
-	public static synchronized boolean create(MgmtUser user, Tool tool, UploadedFile correctorFile,
+	public static boolean create(MgmtUser user, Tool tool, UploadedFile correctorFile,
+			UploadedFile descriptionFile, UploadedFile extraZipFile)
+			throws FileAlreadyExistsException, FileSystemException {
+		NAMES_LOCK.lock();
+		try {
+			return createLocked(user, tool, correctorFile, descriptionFile, extraZipFile);
+		} finally {
+			NAMES_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Creates a new tool.
+	 *
+	 * <p>The caller must hold the corresponding lock.
+	 *
+	 * @param user            administrator user
+	 * @param tool            tool data
+	 * @param correctorFile   corrector file
+	 * @param descriptionFile user description file
+	 * @param extraZipFile    additional user zip file with the files referenced by
+	 *                        the description file
+	 * @return true if successful
+	 * @throws FileAlreadyExistsException when a tool with the same name exists
+	 * @throws FileSystemException        when it could not write files
+	 */
+	private static boolean createLocked(MgmtUser user, Tool tool, UploadedFile correctorFile,
 			UploadedFile descriptionFile, UploadedFile extraZipFile)
 			throws FileAlreadyExistsException, FileSystemException {
 
@@ -573,7 +617,52 @@ public final class ToolDao {
 	 * @throws FileAlreadyExistsException when a tool with the same name exists
 	 * @throws FileSystemException        when it could not write files
 	 */
-	public static synchronized boolean update(Tool tool, String oldName, UploadedFile correctorFile,
+	public static boolean update(Tool tool, String oldName, UploadedFile correctorFile,
+			UploadedFile descriptionFile, UploadedFile extraZipFile)
+			throws FileAlreadyExistsException, FileSystemException {
+		final boolean rename = oldName != null && !oldName.equals(tool.getName());
+		ReentrantLock lock;
+		while (true) {
+			final Tool current = oldName == null ? null : get(oldName);
+			final int sid = current == null ? 0 : current.getSid();
+			lock = SID_LOCKS.get(sid);
+			lock.lock();
+			// The name may have changed before taking the lock, check it in db
+			final Tool locked = oldName == null ? null : getByFieldValue("name", oldName, 0);
+			if ((locked == null ? 0 : locked.getSid()) == sid) {
+				break;
+			}
+			lock.unlock();
+		}
+		if (rename) {
+			NAMES_LOCK.lock();
+		}
+		try {
+			return updateLocked(tool, oldName, correctorFile, descriptionFile, extraZipFile);
+		} finally {
+			if (rename) {
+				NAMES_LOCK.unlock();
+			}
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Updates a tool.
+	 *
+	 * <p>The caller must hold the corresponding lock.
+	 *
+	 * @param tool            new tool data
+	 * @param oldName         old name
+	 * @param correctorFile   corrector file
+	 * @param descriptionFile description file
+	 * @param extraZipFile    additional user zip file with the files referenced by
+	 *                        the description file
+	 * @return true if successful
+	 * @throws FileAlreadyExistsException when a tool with the same name exists
+	 * @throws FileSystemException        when it could not write files
+	 */
+	private static boolean updateLocked(Tool tool, String oldName, UploadedFile correctorFile,
 			UploadedFile descriptionFile, UploadedFile extraZipFile)
 			throws FileAlreadyExistsException, FileSystemException {
 
@@ -610,10 +699,8 @@ public final class ToolDao {
 		}
 
 		// Remove cache
-		for (final String key : getAllKeys(oldTool)) {
-			ToolKeyDao.deleteCache(key);
-		}
-		cache.remove(oldTool.getName());
+		final List<String> keys = getAllKeys(oldTool);
+		removeCache(oldTool, keys);
 
 		// Modifying files and directories. The following variables allow undo.
 		boolean folderRenamed = false;
@@ -750,6 +837,8 @@ public final class ToolDao {
 			logger.error("Error deleting backups");
 		}
 		dbUtil.closeConnection(conn);
+		// Readers do not wait, remove what they may have cached meanwhile
+		removeCache(oldTool, keys);
 
 		return result;
 	}
@@ -762,7 +851,7 @@ public final class ToolDao {
 	 * @param type the type of association
 	 * @return true if successful
 	 */
-	public static synchronized boolean associateUser(MgmtUser user, Tool tool, MgmtUserType type) {
+	public static boolean associateUser(MgmtUser user, Tool tool, MgmtUserType type) {
 		boolean assign = true;
 		final Connection conn = dbUtil.getConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_ASSOCIATE_USER);) {
@@ -789,7 +878,7 @@ public final class ToolDao {
 	 * @param type the type of initiator user
 	 * @return true if successful
 	 */
-	public static synchronized boolean disassociateUser(MgmtUser user, Tool tool, MgmtUserType type) {
+	public static boolean disassociateUser(MgmtUser user, Tool tool, MgmtUserType type) {
 		boolean assign = true;
 		final Connection conn = dbUtil.getConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_UNASSIGN_USER);) {
@@ -813,7 +902,25 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return true if successful
 	 */
-	public static synchronized boolean deleteAttempts(Tool tool) {
+	public static boolean deleteAttempts(Tool tool) {
+		final ReentrantLock lock = SID_LOCKS.get(tool.getSid());
+		lock.lock();
+		try {
+			return deleteAttemptsLocked(tool);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes all attempts of a tool.
+	 *
+	 * <p>The caller must hold the corresponding lock.
+	 * 
+	 * @param tool the tool
+	 * @return true if successful
+	 */
+	private static boolean deleteAttemptsLocked(Tool tool) {
 		boolean deleted = true;
 		final Connection conn = dbUtil.getConnection();
 		try {
@@ -837,7 +944,25 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return true if successful
 	 */
-	public static synchronized boolean delete(Tool tool) {
+	public static boolean delete(Tool tool) {
+		final ReentrantLock lock = SID_LOCKS.get(tool == null ? 0 : tool.getSid());
+		lock.lock();
+		try {
+			return deleteLocked(tool);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes a tool and all dependences.
+	 *
+	 * <p>The caller must hold the corresponding lock.
+	 *
+	 * @param tool the tool
+	 * @return true if successful
+	 */
+	private static boolean deleteLocked(Tool tool) {
 		// Deleting a tool means:
 		// delete it from the database and
 		// delete files
@@ -855,10 +980,8 @@ public final class ToolDao {
 			logger.error(ERROR_AUTOCOMMIT);
 		}
 		// Remove cache
-		for (final String key : getAllKeys(tool)) {
-			ToolKeyDao.deleteCache(key);
-		}
-		cache.remove(tool.getName());
+		final List<String> keys = getAllKeys(tool);
+		removeCache(tool, keys);
 		boolean result = false;
 		try {
 			/*
@@ -869,6 +992,7 @@ public final class ToolDao {
 				stmt.setInt(1, tool.getSid());
 				stmt.executeUpdate();
 			}
+			ToolCounterService.reset(tool.getSid());
 			try (PreparedStatement stmt = conn.prepareStatement(SQL_DELETE_USERS);) {
 				stmt.setInt(1, tool.getSid());
 				stmt.executeUpdate();
@@ -933,17 +1057,34 @@ public final class ToolDao {
 			}
 		}
 		dbUtil.closeConnection(conn);
+		// Readers do not wait, remove what they may have cached meanwhile
+		removeCache(tool, keys);
+		// Resource links of the tool have been deleted
+		ToolResourceLinkDao.cache.clear();
 
 		return result;
 	}
 
+	/**
+	 * Removes a tool from the caches of tools by name and by tool key.
+	 *
+	 * @param tool the tool
+	 * @param keys all tool keys (consumer keys) of the tool
+	 */
+	private static void removeCache(Tool tool, List<String> keys) {
+		for (final String key : keys) {
+			ToolKeyDao.deleteCache(key);
+		}
+		cache.remove(tool.getName());
+	}
+
 	/**
 	 * Gets all tools for a management user.
 	 *
 	 * @param user the user
 	 * @return list of tools (serial IDs, names and user types only)
 	 */
-	public static synchronized List<Tool> getAll(MgmtUser user) {
+	public static List<Tool> getAll(MgmtUser user) {
 		final ArrayList<Tool> tools = new ArrayList<>();
 		final Connection conn = dbUtil.getConnection();
 
@@ -992,7 +1133,7 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return user type or UNKNOWN
 	 */
-	public static synchronized int getToolUserType(MgmtUser user, Tool tool) {
+	public static int getToolUserType(MgmtUser user, Tool tool) {
 		int type = MgmtUserType.UNKNOWN.getCode();
 
 		if (user.getType() == MgmtUserType.SUPER) {
@@ -1023,7 +1164,7 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return user name or null
 	 */
-	public static synchronized String getAdmin(Tool tool) {
+	public static String getAdmin(Tool tool) {
 		String user = null;
 		final Connection conn = dbUtil.getConnection();
 
@@ -1052,7 +1193,7 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return list of management users
 	 */
-	public static synchronized List<MgmtUser> getUsers(Tool tool) {
+	public static List<MgmtUser> getUsers(Tool tool) {
 		final ArrayList<MgmtUser> users = new ArrayList<>();
 		final Connection conn = dbUtil.getConnection();
 
@@ -1075,6 +1216,30 @@ public final class ToolDao {
 		return users;
 	}
 
+	/**
+	 * Sets the fields of a tool from the columns of {@link #SQL_GET}.
+	 *
+	 * @param tool  the tool
+	 * @param rs    result set positioned in a row
+	 * @param first index of the first column (sid)
+	 * @throws SQLException if a database error occurs
+	 */
+	static void fill(Tool tool, ResultSet rs, int first) throws SQLException {
+		tool.setSid(rs.getInt(first));
+		tool.setName(rs.getString(first + 1));
+		tool.setDescription(rs.getString(first + 2));
+		tool.setDeliveryPassword(rs.getString(first + 3));
+		tool.setEnabled(rs.getBoolean(first + 4));
+		tool.setEnabledFrom(DaoUtil.toCalendar(rs.getTimestamp(first + 5)));
+		tool.setEnabledUntil(DaoUtil.toCalendar(rs.getTimestamp(first + 6)));
+		tool.setOutcome(rs.getBoolean(first + 7));
+		tool.setExtraArgs(rs.getString(first + 8));
+		tool.setToolType(ToolRunnerType.fromInt(rs.getInt(first + 9)));
+		tool.setJsonConfig(rs.getString(first + 10));
+		tool.setCreated(DaoUtil.toCalendar(rs.getTimestamp(first + 11)));
+		tool.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(first + 12)));
+	}
+
 	/**
 	 * Gets a tool based on the value of a field.
 	 *
@@ -1083,7 +1248,7 @@ public final class ToolDao {
 	 * @param intValue value of the field (if it is a integer)
 	 * @return the tool or null
 	 */
-	private static synchronized Tool getByFieldValue(String field, String value, int intValue) {
+	private static Tool getByFieldValue(String field, String value, int intValue) {
 		Tool result = null;
 		final Connection conn = dbUtil.getConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET + " WHERE " + field + "=?");) {
@@ -1095,20 +1260,7 @@ public final class ToolDao {
 			final ResultSet rs = stmt.executeQuery();
 			if (rs.next()) {
 				result = new Tool();
-				result.setSid(rs.getInt(1));
-				result.setName(rs.getString(2));
-				result.setDescription(rs.getString(3));
-				result.setDeliveryPassword(rs.getString(4));
-				result.setEnabled(rs.getBoolean(5));
-				result.setEnabledFrom(DaoUtil.toCalendar(rs.getTimestamp(6)));
-				result.setEnabledUntil(DaoUtil.toCalendar(rs.getTimestamp(7)));
-				result.setOutcome(rs.getBoolean(8));
-				result.setExtraArgs(rs.getString(9));
-				result.setToolType(ToolRunnerType.fromInt(rs.getInt(10)));
-				result.setJsonConfig(rs.getString(11));
-				result.setCreated(DaoUtil.toCalendar(rs.getTimestamp(12)));
-				result.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(13)));
-
+				fill(result, rs, 1);
 			}
 			rs.close();
 		} catch (final Exception ex) {
@@ -1129,7 +1281,7 @@ public final class ToolDao {
 	 * @param toolName the tool name
 	 * @return the tool or null
 	 */
-	public static synchronized Tool get(String toolName) {
+	public static Tool get(String toolName) {
 		if (toolName == null) {
 			return null;
 		}
@@ -1149,7 +1301,7 @@ public final class ToolDao {
 	 * @param sid the serial ID
 	 * @return found tool or null
 	 */
-	public static synchronized Tool getBySid(int sid) {
+	public static Tool getBySid(int sid) {
 		return getByFieldValue("sid", null, sid);
 	}
 
@@ -1159,7 +1311,7 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return list of consumer keys
 	 */
-	public static synchronized List<String> getAllKeys(Tool tool) {
+	public static List<String> getAllKeys(Tool tool) {
 		final ArrayList<String> keys = new ArrayList<>();
 		final Connection conn = dbUtil.getConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_TK_KEYS);) {
@@ -1185,7 +1337,7 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return list of possible tool keys
 	 */
-	public static synchronized List<ToolKey> getAllPossibleToolKeys(Tool tool) {
+	public static List<ToolKey> getAllPossibleToolKeys(Tool tool) {
 		final ArrayList<ToolKey> possibleTk = new ArrayList<>();
 
 		final Connection conn = dbUtil.getConnection();
@@ -1404,7 +1556,7 @@ public final class ToolDao {
 	 * @param sourceId the source ID
 	 * @return list of LTI users with that source ID
 	 */
-	public static synchronized List<LtiUser> getLtiUserBySourceId(Tool tool, String sourceId) {
+	public static List<LtiUser> getLtiUserBySourceId(Tool tool, String sourceId) {
 		final ArrayList<LtiUser> users = new ArrayList<>();
 
 		final Connection conn = dbUtil.getConnection();
@@ -1449,7 +1601,25 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return true if successful
 	 */
-	public static synchronized boolean deleteResourceUsersWithoutAttempts(Tool tool) {
+	public static boolean deleteResourceUsersWithoutAttempts(Tool tool) {
+		final ReentrantLock lock = SID_LOCKS.get(tool.getSid());
+		lock.lock();
+		try {
+			return deleteResourceUsersWithoutAttemptsLocked(tool);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes resource users without attempts of a tool.
+	 *
+	 * <p>The caller must hold the corresponding lock.
+	 * 
+	 * @param tool the tool
+	 * @return true if successful
+	 */
+	private static boolean deleteResourceUsersWithoutAttemptsLocked(Tool tool) {
 		boolean deleted = true;
 		final Connection conn = dbUtil.getConnection();
 		try {
@@ -1473,7 +1643,25 @@ public final class ToolDao {
 	 * @param tool the tool
 	 * @return true if successful
 	 */
-	public static synchronized boolean deleteToolData(Tool tool) {
+	public static boolean deleteToolData(Tool tool) {
+		final ReentrantLock lock = SID_LOCKS.get(tool == null ? 0 : tool.getSid());
+		lock.lock();
+		try {
+			return deleteToolDataLocked(tool);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes tool data (attempts and resource users).
+	 *
+	 * <p>The caller must hold the corresponding lock.
+	 * 
+	 * @param tool the tool
+	 * @return true if successful
+	 */
+	private static boolean deleteToolDataLocked(Tool tool) {
 		boolean deleted = true;
 		if (tool == null) {
 			return false;
@@ -25,6 +25,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -95,14 +97,63 @@ public final class ToolKeyDao {
 	public static final String SQL_GET_DEFAULT = "SELECT sid, key, secret, address, enabled, created, updated FROM "
 			+ TK_TABLE_NAME + " WHERE tool_sid=? AND consumer_sid is NULL";
 
+	/**
+	 * SQL statement to get a tool key by the (consumer) key with its tool, counter,
+	 * consumer, context and resource link, in a single query.
+	 *
+	 * <p>Columns: tool key (1-7), tool (8-20), counter (21), consumer (22-29),
+	 * context (30-36) and resource link (37-47).
+	 */
+	private static final String SQL_GET_GRAPH = "SELECT " + TK_TABLE_NAME + ".sid, key, secret, address, "
+			+ TK_TABLE_NAME + ".enabled, " + TK_TABLE_NAME + ".created, " + TK_TABLE_NAME + ".updated, "
+			// Tool, same columns as ToolDao
+			+ ToolDao.TOOL_TABLE_NAME + ".sid, " + ToolDao.TOOL_TABLE_NAME + ".name, description, deliveryPassword, "
+			+ ToolDao.TOOL_TABLE_NAME + ".enabled, enabled_from, enabled_until, outcome, extra_args, "
+			+ ToolDao.TOOL_TABLE_NAME + ".type, json_config, " + ToolDao.TOOL_TABLE_NAME + ".created, "
+			+ ToolDao.TOOL_TABLE_NAME + ".updated, counter, "
+			// Consumer, same columns as ToolConsumerDao
+			+ ToolConsumerDao.CONSUMER_TABLE_NAME + ".sid, guid, " + ToolConsumerDao.CONSUMER_TABLE_NAME
+			+ ".lti_version, " + ToolConsumerDao.CONSUMER_TABLE_NAME + ".name, version, css_path, "
+			+ ToolConsumerDao.CONSUMER_TABLE_NAME + ".created, " + ToolConsumerDao.CONSUMER_TABLE_NAME + ".updated, "
+			// Context, same columns as ToolContextDao
+			+ ToolContextDao.CONTEXT_TABLE_NAME + ".sid, " + ToolContextDao.CONTEXT_TABLE_NAME + ".consumer_sid, "
+			+ "context_id, label, " + ToolContextDao.CONTEXT_TABLE_NAME + ".title, "
+			+ ToolContextDao.CONTEXT_TABLE_NAME + ".created, " + ToolContextDao.CONTEXT_TABLE_NAME + ".updated, "
+			// Resource link, same columns as ToolResourceLinkDao
+			+ ToolResourceLinkDao.RL_TABLE_NAME + ".sid, " + ToolResourceLinkDao.RL_TABLE_NAME + ".tool_sid, "
+			+ ToolResourceLinkDao.RL_TABLE_NAME + ".context_sid, resource_id, " + ToolResourceLinkDao.RL_TABLE_NAME
+			+ ".title, custom_properties, outcome_service_url, tool_key_sid, " + ToolResourceLinkDao.RL_TABLE_NAME
+			+ ".created, " + ToolResourceLinkDao.RL_TABLE_NAME + ".updated, mapped_toolname FROM " + TK_TABLE_NAME
+			+ " JOIN " + ToolDao.TOOL_TABLE_NAME + " ON " + ToolDao.TOOL_TABLE_NAME + ".sid=" + TK_TABLE_NAME
+			+ ".tool_sid LEFT JOIN " + ToolDao.COUNTER_TABLE_NAME + " ON " + ToolDao.COUNTER_TABLE_NAME + ".tool_sid="
+			+ TK_TABLE_NAME + ".tool_sid LEFT JOIN " + ToolConsumerDao.CONSUMER_TABLE_NAME + " ON "
+			+ ToolConsumerDao.CONSUMER_TABLE_NAME + ".sid=" + TK_TABLE_NAME + ".consumer_sid LEFT JOIN "
+			+ ToolContextDao.CONTEXT_TABLE_NAME + " ON " + ToolContextDao.CONTEXT_TABLE_NAME + ".sid=" + TK_TABLE_NAME
+			+ ".context_sid LEFT JOIN " + ToolResourceLinkDao.RL_TABLE_NAME + " ON " + ToolResourceLinkDao.RL_TABLE_NAME
+			+ ".sid=" + TK_TABLE_NAME + ".resource_link_sid WHERE key=?";
+
 	/**
 	 * Utility class that provides methods for managing connections to a database.
 	 */
 	private static IDbUtil dbUtil = null;
 	/**
-	 * Tool cache, to reduce the use of db.
+	 * Cache of complete tool keys by (consumer) key, to reduce the use of db.
+	 *
+	 * <p>Cached objects are not returned, only copies of them, except the tool,
+	 * that is shared.
+	 */
+	private static final EntityCache<String, ToolKey> cache = new EntityCache<>("tool_key", ToolKeyDao::copy);
+	/**
+	 * Generation of the cache, incremented by each invalidation. A tool key read
+	 * from db is only cached if no invalidation has happened since the read
+	 * began, so a stale tool key is not put back in the cache.
 	 */
-	private static ToolCache cache = new ToolCache();
+	private static final AtomicLong generation = new AtomicLong();
+	/**
+	 * Lock of operations that create, change or delete tool keys, because keys
+	 * must be unique. Readers do not use it.
+	 */
+	private static final ReentrantLock WRITE_LOCK = new ReentrantLock();
 
 	/**
 	 * Can not create objects.
@@ -135,28 +186,61 @@ public final class ToolKeyDao {
 	 * @param key key of cache
 	 */
 	public static void deleteCache(String key) {
+		logger.info("Remove cache: {}", key);
+		generation.incrementAndGet();
 		cache.remove(key);
 	}
 
 	/**
-	 * Gets a cached item.
+	 * Deletes all cached items.
+	 *
+	 * <p>Used when a consumer, context or resource link, whose copies are part of
+	 * the cached tool keys, is changed.
+	 */
+	public static void clearCache() {
+		generation.incrementAndGet();
+		cache.clear();
+	}
+
+	/**
+	 * Gets the tool of a cached item.
 	 *
 	 * @param key key of cache
-	 * @return cached item or null
+	 * @return cached tool or null
 	 */
 	public static Tool getCache(String key) {
-		return cache.get(key);
+		final ToolKey tk = cache.get(key);
+		return tk == null ? null : tk.getTool();
+	}
+
+	/**
+	 * Create a record.
+	 *
+	 * @param tk record data
+	 * @return true if successful
+	 * @throws FileAlreadyExistsException if there is a tool key with the same
+	 *                                    (consumer) key
+	 */
+	public static boolean create(ToolKey tk) throws FileAlreadyExistsException {
+		WRITE_LOCK.lock();
+		try {
+			return createLocked(tk);
+		} finally {
+			WRITE_LOCK.unlock();
+		}
 	}
 
 	/**
 	 * Create a record.
 	 *
+	 * <p>The caller must hold the write lock.
+	 *
 	 * @param tk record data
 	 * @return true if successful
 	 * @throws FileAlreadyExistsException if there is a tool key with the same
 	 *                                    (consumer) key
 	 */
-	public static synchronized boolean create(ToolKey tk) throws FileAlreadyExistsException {
+	private static boolean createLocked(ToolKey tk) throws FileAlreadyExistsException {
 		if (tk == null) {
 			return false;
 		}
@@ -222,7 +306,26 @@ public final class ToolKeyDao {
 	 * @throws FileAlreadyExistsException if there is a tool key with the same
 	 *                                    (consumer) key
 	 */
-	public static synchronized boolean update(ToolKey tk) throws FileAlreadyExistsException {
+	public static boolean update(ToolKey tk) throws FileAlreadyExistsException {
+		WRITE_LOCK.lock();
+		try {
+			return updateLocked(tk);
+		} finally {
+			WRITE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Update a record.
+	 *
+	 * <p>The caller must hold the write lock.
+	 *
+	 * @param tk record data
+	 * @return true if successful
+	 * @throws FileAlreadyExistsException if there is a tool key with the same
+	 *                                    (consumer) key
+	 */
+	private static boolean updateLocked(ToolKey tk) throws FileAlreadyExistsException {
 
 		// Get current values from the database
 		final ToolKey tkExist = getBySid(tk.getSid());
@@ -237,7 +340,7 @@ public final class ToolKeyDao {
 			throw new FileAlreadyExistsException(null);
 		}
 		// Delete cache
-		cache.remove(tkExist.getKey());
+		deleteCache(tkExist.getKey());
 
 		boolean result = true;
 		final Connection conn = dbUtil.getConnection();
@@ -255,6 +358,9 @@ public final class ToolKeyDao {
 		} finally {
 			dbUtil.closeConnection(conn);
 		}
+		// Readers do not wait, remove what they may have cached meanwhile
+		deleteCache(tkExist.getKey());
+		deleteCache(tk.getKey());
 		return result;
 
 	}
@@ -265,7 +371,24 @@ public final class ToolKeyDao {
 	 * @param tk record data
 	 * @return true if successful
 	 */
-	public static synchronized boolean delete(ToolKey tk) {
+	public static boolean delete(ToolKey tk) {
+		WRITE_LOCK.lock();
+		try {
+			return deleteLocked(tk);
+		} finally {
+			WRITE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Delete a record.
+	 *
+	 * <p>The caller must hold the write lock.
+	 *
+	 * @param tk record data
+	 * @return true if successful
+	 */
+	private static boolean deleteLocked(ToolKey tk) {
 		boolean delKey = true;
 		final Connection conn = dbUtil.getConnection();
 
@@ -284,23 +407,30 @@ public final class ToolKeyDao {
 			delKey = false;
 			logger.error("Error deleting tool_key_sid from RL", e);
 		}
-		// Delete cache
-		cache.remove(tk.getKey());
-
 		dbUtil.closeConnection(conn);
+		// Delete cache, after the changes so that readers do not cache it again
+		deleteCache(tk.getKey());
+		ToolResourceLinkDao.cache.clear();
+
 		return delKey;
 	}
 
 	/**
 	 * Gets a tool key by (consumer) key.
 	 *
+	 * <p>If not lazy, the tool key is got with all its references in a single
+	 * query and cached.
+	 *
 	 * @param key  the (consumer) key
 	 * @param lazy true if references should not be completed
 	 * @return the object or null if not found
 	 */
-	public static synchronized ToolKey get(String key, boolean lazy) {
+	public static ToolKey get(String key, boolean lazy) {
+		if (!lazy) {
+			return getComplete(key);
+		}
 		ToolKey result = null;
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_BY_ID);) {
 			stmt.setString(1, key);
 			final ResultSet rs = stmt.executeQuery();
@@ -308,65 +438,29 @@ public final class ToolKeyDao {
 				result = new ToolKey();
 				result.setSid(rs.getInt(1));
 
-				if (lazy) {
-					final Tool t = new Tool();
-					t.setSid(rs.getInt(2)); // not null always
-					result.setTool(t);
-				} else {
-					// With cache
-					Tool t = cache.get(key);
-					if (t == null) {
-						t = ToolDao.getBySid(rs.getInt(2));
-						if (t != null) {
-							cache.put(key, t);
-						}
-					}
-					result.setTool(t);
-				}
+				final Tool t = new Tool();
+				t.setSid(rs.getInt(2)); // not null always
+				result.setTool(t);
 
 				int lastId = rs.getInt(3);
 				if (!rs.wasNull()) {
-					if (lazy) {
-						final Consumer c = new Consumer();
-						c.setSid(lastId);
-						result.setConsumer(c);
-					} else {
-						result.setConsumer(ToolConsumerDao.getBySid(lastId));
-					}
+					final Consumer c = new Consumer();
+					c.setSid(lastId);
+					result.setConsumer(c);
 				}
 
 				lastId = rs.getInt(4);
 				if (!rs.wasNull()) {
-					if (lazy) {
-						final Context c = new Context();
-						c.setSid(lastId);
-						result.setContext(c);
-					} else {
-						final Context c = ToolContextDao.getBySid(lastId);
-						if (c.getConsumer().getSid() == result.getConsumer().getSid()) {
-							c.setConsumer(result.getConsumer());
-						}
-						result.setContext(ToolContextDao.getBySid(lastId));
-					}
+					final Context c = new Context();
+					c.setSid(lastId);
+					result.setContext(c);
 				}
 
 				lastId = rs.getInt(5);
 				if (!rs.wasNull()) {
-					if (lazy) {
-						final ResourceLink r = new ResourceLink();
-						r.setSid(lastId);
-						result.setResourceLink(r);
-					} else {
-						final ResourceLink r = ToolResourceLinkDao.getBySid(lastId);
-						if (r.getTool().getSid() == result.getTool().getSid()) {
-							r.setTool(result.getTool());
-						}
-						if (result.getContext() != null && r.getContext().getSid() == result.getContext().getSid()) {
-							r.setContext(result.getContext());
-						}
-						result.setResourceLink(r);
-					}
-
+					final ResourceLink r = new ResourceLink();
+					r.setSid(lastId);
+					result.setResourceLink(r);
 				}
 
 				result.setKey(rs.getString(6));
@@ -388,15 +482,155 @@ public final class ToolKeyDao {
 		return result;
 	}
 
+	/**
+	 * Gets a complete tool key by (consumer) key, from cache or db.
+	 *
+	 * @param key the (consumer) key
+	 * @return a copy of the object or null if not found
+	 */
+	private static ToolKey getComplete(String key) {
+		ToolKey tk = cache.get(key);
+		if (tk == null) {
+			final long readGeneration = generation.get();
+			tk = readComplete(key);
+			if (tk == null) {
+				return null;
+			}
+			if (generation.get() == readGeneration) {
+				logger.info("Cached: {}", key);
+				cache.put(key, tk);
+				if (generation.get() != readGeneration) {
+					// Invalidated while it was put
+					cache.remove(key);
+				}
+			}
+		}
+		// The cache stores and returns copies
+		return tk;
+	}
+
+	/**
+	 * Reads a complete tool key by (consumer) key from db.
+	 *
+	 * @param key the (consumer) key
+	 * @return the object or null if not found
+	 */
+	private static ToolKey readComplete(String key) {
+		ToolKey result = null;
+		final Connection conn = dbUtil.getReadConnection();
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_GRAPH);) {
+			stmt.setString(1, key);
+			final ResultSet rs = stmt.executeQuery();
+			if (rs.next()) {
+				result = new ToolKey();
+				result.setSid(rs.getInt(1));
+				result.setKey(rs.getString(2));
+				result.setSecret(rs.getString(3));
+				result.setAddress(rs.getString(4));
+				result.setEnabled(rs.getBoolean(5));
+				result.setCreated(DaoUtil.toCalendar(rs.getTimestamp(6)));
+				result.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(7)));
+
+				final Tool t = new Tool();
+				ToolDao.fill(t, rs, 8);
+				// 0 if there is not counter, as ToolDao.getCounter
+				t.setCounter(rs.getInt(21));
+				result.setTool(t);
+
+				int lastId = rs.getInt(22);
+				if (!rs.wasNull()) {
+					final Consumer c = new Consumer();
+					c.setSid(lastId);
+					ToolConsumerDao.fill(c, rs, 23);
+					result.setConsumer(c);
+				}
+
+				lastId = rs.getInt(30);
+				if (!rs.wasNull()) {
+					final Context c = new Context();
+					c.setSid(lastId);
+					ToolContextDao.fill(c, rs, 31);
+					if (result.getConsumer() != null && c.getConsumer().getSid() == result.getConsumer().getSid()) {
+						c.setConsumer(result.getConsumer());
+					}
+					result.setContext(c);
+				}
+
+				lastId = rs.getInt(37);
+				if (!rs.wasNull()) {
+					final ResourceLink r = new ResourceLink();
+					r.setSid(lastId);
+					ToolResourceLinkDao.fill(r, rs, 38);
+					if (r.getTool() != null && r.getTool().getSid() == t.getSid()) {
+						r.setTool(t);
+					}
+					if (result.getContext() != null && r.getContext() != null
+							&& r.getContext().getSid() == result.getContext().getSid()) {
+						r.setContext(result.getContext());
+					}
+					result.setResourceLink(r);
+				}
+			}
+			rs.close();
+
+		} catch (final Exception ex) {
+			logger.error("Error: ", ex);
+		} finally {
+			dbUtil.closeConnection(conn);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Copies a complete tool key, so that the cached one is not changed by its
+	 * users. The tool is not copied.
+	 *
+	 * @param tk the tool key
+	 * @return the copy
+	 */
+	private static ToolKey copy(ToolKey tk) {
+		final ToolKey result = new ToolKey();
+		result.setSid(tk.getSid());
+		result.setKey(tk.getKey());
+		result.setSecret(tk.getSecret());
+		result.setAddress(tk.getAddress());
+		result.setEnabled(tk.isEnabled());
+		result.setCreated(tk.getCreated());
+		result.setUpdated(tk.getUpdated());
+		result.setTool(tk.getTool());
+		if (tk.getConsumer() != null) {
+			result.setConsumer(ToolConsumerDao.copy(tk.getConsumer()));
+		}
+		if (tk.getContext() != null) {
+			final Context c = ToolContextDao.copy(tk.getContext());
+			if (tk.getContext().getConsumer() == tk.getConsumer()) {
+				c.setConsumer(result.getConsumer());
+			}
+			result.setContext(c);
+		}
+		if (tk.getResourceLink() != null) {
+			final ResourceLink r = ToolResourceLinkDao.copy(tk.getResourceLink());
+			if (tk.getResourceLink().getTool() == tk.getTool()) {
+				r.setTool(result.getTool());
+			}
+			if (tk.getResourceLink().getContext() == tk.getContext()) {
+				r.setContext(result.getContext());
+			}
+			result.setResourceLink(r);
+		}
+		return result;
+	}
+
 	/**
 	 * Gets a record by serial ID.
 	 *
 	 * @param sid the serial ID
 	 * @return the object or null if not found
 	 */
-	public static synchronized ToolKey getBySid(int sid) {
+	public static ToolKey getBySid(int sid) {
 		ToolKey result = null;
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_BY_SID);) {
 			stmt.setInt(1, sid);
 			final ResultSet rs = stmt.executeQuery();
@@ -453,9 +687,9 @@ public final class ToolKeyDao {
 	 * @param tool the tool
 	 * @return the tool key if found or null
 	 */
-	public static synchronized ToolKey getDefault(Tool tool) {
+	public static ToolKey getDefault(Tool tool) {
 		ToolKey result = null;
-		final Connection conn = dbUtil.getConnection();
+		final Connection conn = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = conn.prepareStatement(SQL_GET_DEFAULT);) {
 			stmt.setInt(1, tool.getSid());
 			final ResultSet rs = stmt.executeQuery();
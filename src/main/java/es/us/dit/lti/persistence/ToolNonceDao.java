@@ -166,6 +166,21 @@ public final class ToolNonceDao {
 		return ok;
 	}
 
+	/**
+	 * Adds a nonce if it does not exist.
+	 *
+	 * <p>The primary key of the table makes the insert fail if it exists, so it
+	 * is atomic between nodes and only needs one statement in the usual case.
+	 *
+	 * @param nonce nonce data
+	 * @return true if it has been added (or could not be checked), false if it
+	 *         exists
+	 */
+	public static boolean add(Nonce nonce) {
+		// If insert fails, check if it was because the nonce exists
+		return create(nonce) || !exist(nonce);
+	}
+
 	/**
 	 * Create a nonce.
 	 *
@@ -111,6 +111,13 @@ public final class ToolResourceLinkDao {
 	 */
 	private static IDbUtil dbUtil = null;
 
+	/**
+	 * Cache of resource links by tool serial ID, context serial ID and resource
+	 * link ID.
+	 */
+	static final EntityCache<String, ResourceLink> cache = new EntityCache<>("resource_link",
+			ToolResourceLinkDao::copy);
+
 	/**
 	 * Can not create objects.
 	 */
@@ -145,7 +152,11 @@ public final class ToolResourceLinkDao {
 	 * @return the resource link if exists or null
 	 */
 	public static ResourceLink getById(Integer toolSid, Integer contextSid, String rlId) {
-		ResourceLink rl = null;
+		final String key = cacheKey(toolSid, contextSid, rlId);
+		ResourceLink rl = cache.get(key);
+		if (rl != null) {
+			return rl;
+		}
 		final Connection connection = dbUtil.getConnection();
 		
 		StringBuilder sql = new StringBuilder("SELECT sid, title, custom_properties, outcome_service_url, tool_key_sid, created, updated, mapped_toolname FROM " + RL_TABLE_NAME + " WHERE resource_id=?");
@@ -207,9 +218,116 @@ public final class ToolResourceLinkDao {
 		} finally {
 			dbUtil.closeConnection(connection);
 		}
+		if (rl != null) {
+			cache.put(key, rl);
+		}
 		return rl;
 	}
 
+	/**
+	 * Sets the fields of a resource link, except the serial ID, from the columns
+	 * of {@link #SQL_GET_BY_SID}. The tool, context and tool key only have the
+	 * serial ID.
+	 *
+	 * @param rl    the resource link
+	 * @param rs    result set positioned in a row
+	 * @param first index of the first column (tool_sid)
+	 * @throws SQLException if a database error occurs
+	 */
+	static void fill(ResourceLink rl, ResultSet rs, int first) throws SQLException {
+		int aux = rs.getInt(first);
+		if (!rs.wasNull()) {
+			final Tool auxTool = new Tool();
+			auxTool.setSid(aux);
+			rl.setTool(auxTool);
+		}
+		aux = rs.getInt(first + 1);
+		if (!rs.wasNull()) {
+			final Context auxContext = new Context();
+			auxContext.setSid(aux);
+			rl.setContext(auxContext);
+		}
+		rl.setResourceId(rs.getString(first + 2));
+		rl.setTitle(rs.getString(first + 3));
+		// Custom properties
+		rl.setCustomPropertiesFromString(rs.getString(first + 4));
+		rl.setOutcomeServiceUrl(rs.getString(first + 5));
+
+		aux = rs.getInt(first + 6);
+		if (!rs.wasNull()) {
+			final ToolKey tk = new ToolKey();
+			tk.setSid(aux);
+			rl.setToolKey(tk);
+		}
+
+		rl.setCreated(DaoUtil.toCalendar(rs.getTimestamp(first + 7)));
+		rl.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(first + 8)));
+		rl.setMappedToolname(rs.getString(first + 9));
+	}
+
+	/**
+	 * Gets the cache key of a resource link.
+	 *
+	 * @param toolSid    the tool serial ID or null
+	 * @param contextSid the context serial ID or null
+	 * @param rlId       the resource link ID
+	 * @return the key
+	 */
+	static String cacheKey(Integer toolSid, Integer contextSid, String rlId) {
+		return toolSid + ":" + contextSid + ":" + rlId;
+	}
+
+	/**
+	 * Removes a resource link from cache.
+	 *
+	 * @param rl the resource link
+	 */
+	private static void uncache(ResourceLink rl) {
+		if (rl.getResourceId() != null) {
+			cache.remove(cacheKey(rl.getTool() == null ? null : rl.getTool().getSid(),
+					rl.getContext() == null ? null : rl.getContext().getSid(), rl.getResourceId()));
+		} else {
+			cache.clear();
+		}
+		// Cached tool keys have a copy
+		ToolKeyDao.clearCache();
+	}
+
+	/**
+	 * Copies a resource link. The tool, context and tool key of the copy only
+	 * have the serial ID.
+	 *
+	 * @param rl the resource link
+	 * @return the copy
+	 */
+	static ResourceLink copy(ResourceLink rl) {
+		final ResourceLink result = new ResourceLink();
+		result.setSid(rl.getSid());
+		if (rl.getTool() != null) {
+			final Tool t = new Tool();
+			t.setSid(rl.getTool().getSid());
+			result.setTool(t);
+		}
+		if (rl.getContext() != null) {
+			final Context c = new Context();
+			c.setSid(rl.getContext().getSid());
+			result.setContext(c);
+		}
+		result.setResourceId(rl.getResourceId());
+		result.setTitle(rl.getTitle());
+		result.setCustomPropertiesFromString(rl.customPropertiesToString());
+		result.setOutcomeServiceUrl(rl.getOutcomeServiceUrl());
+		if (rl.getToolKey() != null) {
+			final ToolKey tk = new ToolKey();
+			tk.setSid(rl.getToolKey().getSid());
+			result.setToolKey(tk);
+		}
+		result.setCreated(rl.getCreated());
+		result.setUpdated(rl.getUpdated());
+		result.setMappedToolname(rl.getMappedToolname());
+		return result;
+	}
+
 	/**
 	 * Gets a record by serial ID.
 	 *
@@ -225,34 +343,7 @@ public final class ToolResourceLinkDao {
 			if (rs.next()) {
 				rl = new ResourceLink();
 				rl.setSid(sid);
-				int aux = rs.getInt(1);
-				if (!rs.wasNull()) {
-					final Tool auxTool = new Tool();
-					auxTool.setSid(aux);
-					rl.setTool(auxTool);
-				}
-				aux = rs.getInt(2);
-				if (!rs.wasNull()) {
-					final Context auxContext = new Context();
-					auxContext.setSid(aux);
-					rl.setContext(auxContext);
-				}
-				rl.setResourceId(rs.getString(3));
-				rl.setTitle(rs.getString(4));
-				// Custom properties
-				rl.setCustomPropertiesFromString(rs.getString(5));
-				rl.setOutcomeServiceUrl(rs.getString(6));
-
-				aux = rs.getInt(7);
-				if (!rs.wasNull()) {
-					final ToolKey tk = new ToolKey();
-					tk.setSid(aux);
-					rl.setToolKey(tk);
-				}
-
-				rl.setCreated(DaoUtil.toCalendar(rs.getTimestamp(8)));
-				rl.setUpdated(DaoUtil.toCalendar(rs.getTimestamp(9)));
-				rl.setMappedToolname(rs.getString(10));
+				fill(rl, rs, 1);
 			}
 			rs.close();
 		} catch (final SQLException e) {
@@ -343,6 +434,7 @@ public final class ToolResourceLinkDao {
 			dbUtil.closeConnection(connection);
 		}
 
+		uncache(rl);
 		return res;
 	}
 
@@ -395,6 +487,7 @@ public final class ToolResourceLinkDao {
 			res = getSidByIds(rl);
 		}
 
+		uncache(rl);
 		return res;
 	}
 
@@ -419,6 +512,7 @@ public final class ToolResourceLinkDao {
 		} finally {
 			dbUtil.closeConnection(conn);
 		}
+		uncache(rl);
 		return deleted;
 	}
 
@@ -441,6 +535,8 @@ public final class ToolResourceLinkDao {
 		} finally {
 			dbUtil.closeConnection(conn);
 		}
+		cache.clear();
+		ToolKeyDao.clearCache();
 		return deleted;
 	}
 
@@ -451,7 +547,7 @@ public final class ToolResourceLinkDao {
 	 */
 	public static List<Integer> getUnused() {
 		List<Integer> res = new ArrayList<>();
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_UNUSED_RL);) {
 			final ResultSet rs = stmt.executeQuery();
 			while (rs.next()) {
@@ -471,7 +567,7 @@ public final class ToolResourceLinkDao {
 	 */
 	public static int getMappedCount() {
 		int count = 0;
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(*) FROM " + RL_TABLE_NAME + " WHERE mapped_toolname IS NOT NULL");) {
 			final ResultSet rs = stmt.executeQuery();
 			if (rs.next()) {
@@ -500,6 +596,8 @@ public final class ToolResourceLinkDao {
 		} finally {
 			dbUtil.closeConnection(conn);
 		}
+		cache.clear();
+		ToolKeyDao.clearCache();
 		return success;
 	}
 
@@ -519,6 +617,9 @@ public final class ToolResourceLinkDao {
 		} finally {
 			dbUtil.closeConnection(connection);
 		}
+		// Any tool and context
+		cache.clear();
+		ToolKeyDao.clearCache();
 		return res;
 	}
 
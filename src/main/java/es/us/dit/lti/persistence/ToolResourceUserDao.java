@@ -409,7 +409,7 @@ public final class ToolResourceUserDao {
 	 */
 	public static List<Integer> getUnused() {
 		List<Integer> res = new ArrayList<>();
-		final Connection connection = dbUtil.getConnection();
+		final Connection connection = dbUtil.getReadConnection();
 		try (PreparedStatement stmt = connection.prepareStatement(SQL_GET_UNUSED_RU);) {
 			final ResultSet rs = stmt.executeQuery();
 			while (rs.next()) {
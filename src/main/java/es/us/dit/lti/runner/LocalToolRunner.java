@@ -69,6 +69,22 @@ public class LocalToolRunner implements ToolRunner {
 		}
 	}
 
+	/**
+	 * Gets the command of the corrector: prefixed arguments and executable.
+	 *
+	 * @return new list with the command
+	 */
+	protected List<String> getCommand() {
+		final ArrayList<String> command = new ArrayList<>();
+		if (preArgs != null) {
+			for (String arg : preArgs) {
+				command.add(arg != null ? arg : "");
+			}
+		}
+		command.add(exe != null ? exe : "");
+		return command;
+	}
+
 	/**
 	 * Execute the tool.
 	 */
@@ -80,13 +96,7 @@ public class LocalToolRunner implements ToolRunner {
 		Process program;
 		final File output = new File(outputPath);
 		final File outputErr = new File(outputPath + Settings.OUTPUT_ERROR_EXT);
-		final ArrayList<String> args = new ArrayList<>();
-		if (preArgs != null) {
-			for (String arg : preArgs) {
-				args.add(arg != null ? arg : "");
-			}
-		}
-		args.add(exe != null ? exe : "");
+		final List<String> args = getCommand();
 		args.add(filePath != null ? filePath : "");
 		args.add(userId != null ? userId : "");
 		args.add(originalFilename != null ? originalFilename : "");
@@ -0,0 +1,587 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.runner;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pools of persistent corrector processes, used by
+ * {@link LocalWorkerToolRunner}.
+ *
+ * <p>There is a pool per command (prefixed arguments and executable). Workers
+ * are started with the environment variable <code>TPM_WORKER=1</code> and no
+ * arguments, and they must follow this protocol through their standard input
+ * and output (UTF-8):
+ * <ul>
+ * <li>At start, the worker writes the line <code>READY</code>.</li>
+ * <li>A job is the line <code>JOB n</code> followed by n arguments, each one
+ * a line with its length in bytes, the bytes and a line feed. The arguments
+ * are the path of the output file, the path of the error file and the
+ * arguments that {@link LocalToolRunner} passes to the executable. The worker
+ * writes the output and errors of the job to those files and answers with the
+ * line <code>DONE score</code>, where score is the exit code that the
+ * executable would return.</li>
+ * <li>Health check: the line <code>PING</code>, answered with
+ * <code>PONG</code>.</li>
+ * <li>When its standard input is closed, the worker must exit.</li>
+ * </ul>
+ *
+ * <p>Workers are recycled after {@link #MAX_JOBS_PER_WORKER} jobs, when they
+ * crash or exceed the time of a job. Idle workers are checked before use if
+ * they have not been used for {@link #HEALTH_CHECK_MILLIS} and stopped after
+ * {@link #IDLE_MILLIS}. If a worker can not be started or it does not follow
+ * the protocol, {@link #NOT_RUN} is returned so the job is run in a new
+ * process, and workers of that command are not started again for
+ * {@link #RETRY_MILLIS}.
+ *
+ * <p>The standard error of the workers of a pool is appended to a private
+ * temporary file, emptied when it exceeds {@link #MAX_ERROR_LOG_BYTES}.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class LocalWorkerPool {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(LocalWorkerPool.class);
+
+	/**
+	 * Result when the job could not be run by a worker.
+	 */
+	public static final int NOT_RUN = -1;
+	/**
+	 * Maximum number of idle workers per command.
+	 */
+	public static final int MAX_IDLE_WORKERS = 2;
+	/**
+	 * Number of jobs after which a worker is replaced.
+	 */
+	public static final int MAX_JOBS_PER_WORKER = 100;
+	/**
+	 * Maximum time to start a worker in seconds.
+	 */
+	public static final long STARTUP_TIMEOUT_SECONDS = 30;
+	/**
+	 * Maximum time to answer a health check in seconds.
+	 */
+	public static final long PING_TIMEOUT_SECONDS = 5;
+	/**
+	 * Time without use after which a worker is checked before use.
+	 */
+	public static final long HEALTH_CHECK_MILLIS = 60 * 1000L;
+	/**
+	 * Time without use after which a worker is stopped.
+	 */
+	public static final long IDLE_MILLIS = 10 * 60 * 1000L;
+	/**
+	 * Time that workers are not started again after a failed start.
+	 */
+	public static final long RETRY_MILLIS = 5 * 60 * 1000L;
+	/**
+	 * Size of the error file of a pool after which it is emptied.
+	 */
+	public static final long MAX_ERROR_LOG_BYTES = 1024 * 1024L;
+	/**
+	 * Period of removal of idle workers in milliseconds.
+	 */
+	private static final long SWEEP_MILLIS = 60 * 1000L;
+
+	/**
+	 * Environment variable set in workers.
+	 */
+	private static final String WORKER_ENV = "TPM_WORKER";
+
+	/**
+	 * A corrector process.
+	 */
+	private static final class Worker {
+		/**
+		 * The process.
+		 */
+		private final Process process;
+		/**
+		 * Standard input of the process.
+		 */
+		private final OutputStream in;
+		/**
+		 * Standard output of the process.
+		 */
+		private final BufferedReader out;
+		/**
+		 * Number of jobs run.
+		 */
+		private int jobs = 0;
+		/**
+		 * Time of last use.
+		 */
+		private long lastUsed = System.currentTimeMillis();
+
+		/**
+		 * Class constructor.
+		 *
+		 * @param process the process
+		 */
+		private Worker(Process process) {
+			this.process = process;
+			this.in = new BufferedOutputStream(process.getOutputStream());
+			this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Writes a line.
+		 *
+		 * @param line the line, without line feed
+		 * @throws IOException if the process is closed
+		 */
+		private void writeLine(String line) throws IOException {
+			in.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Reads a line waiting a limited time.
+		 *
+		 * @param seconds maximum time in seconds, 0 or less to wait without limit
+		 * @return the line or null if the process closed its output
+		 * @throws IOException          if error reading
+		 * @throws TimeoutException     if the time is exceeded
+		 * @throws InterruptedException if interrupted
+		 */
+		private String readLine(long seconds) throws IOException, TimeoutException, InterruptedException {
+			final Future<String> line = getReaders().submit(out::readLine);
+			try {
+				return seconds > 0 ? line.get(seconds, TimeUnit.SECONDS) : line.get();
+			} catch (final ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+
+		/**
+		 * Checks that the worker answers.
+		 *
+		 * @return true if it answered
+		 */
+		private boolean ping() {
+			boolean ok = false;
+			try {
+				writeLine("PING");
+				in.flush();
+				ok = "PONG".equals(readLine(PING_TIMEOUT_SECONDS));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (final IOException | TimeoutException e) {
+				logger.debug("Worker not answering: {}", e.toString());
+			}
+			return ok;
+		}
+
+		/**
+		 * Stops the worker: closes its input and kills it if it does not exit.
+		 */
+		private void close() {
+			try {
+				in.close();
+			} catch (final IOException e) {
+				// Already closed
+			}
+			try {
+				if (!process.waitFor(1, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+				}
+			} catch (final InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Idle workers of a command.
+	 */
+	private static final class Pool {
+		/**
+		 * Idle workers, the last used first. Guarded by this.
+		 */
+		private final Deque<Worker> idle = new ArrayDeque<>();
+		/**
+		 * Time until workers are not started, after a failed start.
+		 */
+		private volatile long disabledUntil = 0;
+		/**
+		 * If the pool was removed. Guarded by this.
+		 */
+		private boolean removed = false;
+		/**
+		 * File of the standard error of the workers, null if not created. Guarded
+		 * by this.
+		 */
+		private File errorLog = null;
+	}
+
+	/**
+	 * Pools by command.
+	 */
+	private static final Map<List<String>, Pool> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * Executor of reads with timeout, null if not started.
+	 */
+	private static ExecutorService readers = null;
+	/**
+	 * Time of last removal of idle workers in milliseconds.
+	 */
+	private static volatile long lastSweep = System.currentTimeMillis();
+
+	/**
+	 * Number of workers started.
+	 */
+	private static final LongAdder started = new LongAdder();
+	/**
+	 * Number of jobs run by workers.
+	 */
+	private static final LongAdder jobs = new LongAdder();
+	/**
+	 * Number of workers replaced after {@link #MAX_JOBS_PER_WORKER} jobs.
+	 */
+	private static final LongAdder recycled = new LongAdder();
+	/**
+	 * Number of workers that crashed or failed a health check.
+	 */
+	private static final LongAdder crashed = new LongAdder();
+	/**
+	 * Number of jobs that exceeded the time.
+	 */
+	private static final LongAdder timeouts = new LongAdder();
+	/**
+	 * Number of jobs run in a new process because no worker was available.
+	 */
+	private static final LongAdder fallbacks = new LongAdder();
+
+	/**
+	 * Can not create objects.
+	 */
+	private LocalWorkerPool() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Gets the executor of reads, starting it if necessary.
+	 *
+	 * @return the executor
+	 */
+	private static synchronized ExecutorService getReaders() {
+		if (readers == null) {
+			final AtomicInteger count = new AtomicInteger();
+			readers = Executors.newCachedThreadPool(r -> {
+				final Thread t = new Thread(r, "worker-reader-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return readers;
+	}
+
+	/**
+	 * Stops all idle workers. Busy workers are stopped when they finish.
+	 */
+	public static void destroy() {
+		for (final Iterator<Pool> it = pools.values().iterator(); it.hasNext();) {
+			final Pool pool = it.next();
+			it.remove();
+			synchronized (pool) {
+				pool.removed = true;
+				pool.idle.forEach(Worker::close);
+				pool.idle.clear();
+				if (pool.errorLog != null && !pool.errorLog.delete()) {
+					logger.warn("Error deleting worker error file: {}", pool.errorLog);
+				}
+			}
+		}
+		synchronized (LocalWorkerPool.class) {
+			if (readers != null) {
+				readers.shutdownNow();
+				readers = null;
+			}
+		}
+	}
+
+	/**
+	 * Runs a job in a worker.
+	 *
+	 * @param command        command of the corrector (prefixed arguments and
+	 *                       executable)
+	 * @param args           arguments of the job (output file, error file and
+	 *                       arguments of the executable)
+	 * @param maxSecondsWait maximum number of seconds of the job, 0 or less
+	 *                       without limit
+	 * @return the score, {@link ToolRunner#ERROR_TIMEOUT} if the time is
+	 *         exceeded or {@link #NOT_RUN} if it must be run in a new process
+	 */
+	public static int exec(List<String> command, List<String> args, long maxSecondsWait) {
+		removeIdle();
+		final Pool pool = pools.computeIfAbsent(command, k -> new Pool());
+		final Worker worker = checkout(pool, command);
+		if (worker == null) {
+			fallbacks.increment();
+			return NOT_RUN;
+		}
+		int result = NOT_RUN;
+		try {
+			worker.writeLine("JOB " + args.size());
+			for (final String arg : args) {
+				final byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+				worker.writeLine(String.valueOf(bytes.length));
+				worker.in.write(bytes);
+				worker.writeLine("");
+			}
+			worker.in.flush();
+			final String answer = worker.readLine(maxSecondsWait);
+			if (answer != null && answer.startsWith("DONE ")) {
+				result = Integer.parseInt(answer.substring(5).trim());
+			} else {
+				logger.warn("Invalid answer of worker {}: {}", command, answer);
+			}
+		} catch (final TimeoutException e) {
+			timeouts.increment();
+			result = ToolRunner.ERROR_TIMEOUT;
+		} catch (final InterruptedException e) {
+			result = ToolRunner.ERROR_CORRECTOR_EXCEPTION;
+			Thread.currentThread().interrupt();
+		} catch (final IOException | NumberFormatException e) {
+			logger.warn("Worker error {}: {}", command, e.toString());
+		}
+		if (result == NOT_RUN) {
+			// Crashed or invalid answer
+			crashed.increment();
+			fallbacks.increment();
+			worker.process.destroyForcibly();
+		} else if (result == ToolRunner.ERROR_TIMEOUT || result == ToolRunner.ERROR_CORRECTOR_EXCEPTION) {
+			// The job may be running
+			worker.process.destroyForcibly();
+		} else {
+			jobs.increment();
+			worker.jobs++;
+			checkin(pool, worker);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets an idle worker that answers or starts a new one.
+	 *
+	 * @param pool    the pool
+	 * @param command command of the corrector
+	 * @return the worker or null if it could not be started
+	 */
+	private static Worker checkout(Pool pool, List<String> command) {
+		final long now = System.currentTimeMillis();
+		Worker worker;
+		while (true) {
+			synchronized (pool) {
+				worker = pool.idle.pollFirst();
+			}
+			if (worker == null) {
+				break;
+			} else if (worker.process.isAlive()
+					&& (now - worker.lastUsed <= HEALTH_CHECK_MILLIS || worker.ping())) {
+				return worker;
+			}
+			crashed.increment();
+			worker.process.destroyForcibly();
+		}
+		if (now >= pool.disabledUntil) {
+			worker = start(pool, command);
+			if (worker == null) {
+				pool.disabledUntil = now + RETRY_MILLIS;
+			}
+		}
+		return worker;
+	}
+
+	/**
+	 * Returns a worker to the pool, or stops it if it must be replaced or there
+	 * are enough idle workers.
+	 *
+	 * @param pool   the pool
+	 * @param worker the worker
+	 */
+	private static void checkin(Pool pool, Worker worker) {
+		worker.lastUsed = System.currentTimeMillis();
+		boolean keep = false;
+		if (worker.jobs >= MAX_JOBS_PER_WORKER) {
+			recycled.increment();
+		} else {
+			synchronized (pool) {
+				if (!pool.removed && pool.idle.size() < MAX_IDLE_WORKERS) {
+					pool.idle.addFirst(worker);
+					keep = true;
+				}
+			}
+		}
+		if (!keep) {
+			worker.close();
+		}
+	}
+
+	/**
+	 * Starts a worker and waits for it to be ready.
+	 *
+	 * @param pool    the pool
+	 * @param command command of the corrector
+	 * @return the worker or null if error
+	 */
+	private static Worker start(Pool pool, List<String> command) {
+		Worker worker = null;
+		try {
+			final ProcessBuilder pb = new ProcessBuilder(command);
+			pb.environment().put(WORKER_ENV, "1");
+			pb.redirectError(getErrorLog(pool, command));
+			worker = new Worker(pb.start());
+			final String line = worker.readLine(STARTUP_TIMEOUT_SECONDS);
+			if (!"READY".equals(line)) {
+				logger.warn("Corrector is not a worker {}: {}", command, line);
+				worker.process.destroyForcibly();
+				worker = null;
+			} else {
+				started.increment();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			worker = stopped(worker);
+		} catch (final IOException | TimeoutException e) {
+			logger.warn("Error starting worker {}: {}", command, e.toString());
+			worker = stopped(worker);
+		}
+		return worker;
+	}
+
+	/**
+	 * Gets the destination of the standard error of a new worker: the error file
+	 * of the pool, created or emptied if necessary.
+	 *
+	 * @param pool    the pool
+	 * @param command command of the corrector
+	 * @return append to the file of the pool, or discard if it can not be created
+	 */
+	private static ProcessBuilder.Redirect getErrorLog(Pool pool, List<String> command) {
+		synchronized (pool) {
+			try {
+				if (pool.errorLog == null) {
+					// Only readable by this user
+					pool.errorLog = Files.createTempFile("tpm-worker-", ".log").toFile();
+					logger.info("Standard error of workers {}: {}", command, pool.errorLog);
+				} else if (pool.errorLog.length() > MAX_ERROR_LOG_BYTES) {
+					// Workers append, so they continue at the new end
+					Files.newOutputStream(pool.errorLog.toPath()).close();
+				}
+				return ProcessBuilder.Redirect.appendTo(pool.errorLog);
+			} catch (final IOException e) {
+				logger.warn("Error creating worker error file: {}", e.getMessage());
+				return ProcessBuilder.Redirect.DISCARD;
+			}
+		}
+	}
+
+	/**
+	 * Kills a worker that failed to start.
+	 *
+	 * @param worker the worker, may be null
+	 * @return null
+	 */
+	private static Worker stopped(Worker worker) {
+		if (worker != null) {
+			worker.process.destroyForcibly();
+		}
+		return null;
+	}
+
+	/**
+	 * Stops the workers not used for {@link #IDLE_MILLIS}, at most once per
+	 * {@link #SWEEP_MILLIS}.
+	 */
+	private static void removeIdle() {
+		final long now = System.currentTimeMillis();
+		if (now - lastSweep < SWEEP_MILLIS) {
+			return;
+		}
+		lastSweep = now;
+		for (final Pool pool : pools.values()) {
+			synchronized (pool) {
+				for (final Iterator<Worker> it = pool.idle.iterator(); it.hasNext();) {
+					final Worker w = it.next();
+					if (now - w.lastUsed > IDLE_MILLIS || !w.process.isAlive()) {
+						it.remove();
+						w.process.destroyForcibly();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the statistics of the pools.
+	 *
+	 * @return name, pools, idle workers and counters
+	 */
+	public static Map<String, Object> getStatistics() {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		int idle = 0;
+		for (final Pool pool : pools.values()) {
+			synchronized (pool) {
+				idle += pool.idle.size();
+			}
+		}
+		info.put("name", "localWorkers");
+		info.put("pools", pools.size());
+		info.put("idle", idle);
+		info.put("started", started.sum());
+		info.put("jobs", jobs.sum());
+		info.put("recycled", recycled.sum());
+		info.put("crashed", crashed.sum());
+		info.put("timeouts", timeouts.sum());
+		info.put("fallbacks", fallbacks.sum());
+		return info;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.runner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import es.us.dit.lti.entity.Settings;
+
+/**
+ * Tool Runner with local corrector kept running between assessments, for
+ * correctors whose start (JVM, interpreter...) is slow.
+ *
+ * <p>Jobs are sent to persistent workers of {@link LocalWorkerPool} (see the
+ * protocol there). If the corrector does not support it or the worker crashes,
+ * the job is run in a new process, as {@link LocalToolRunner} does.
+ *
+ * @author Francisco José Fernández Jiménez
+ */
+public class LocalWorkerToolRunner extends LocalToolRunner {
+
+	/**
+	 * Execute the tool in a worker.
+	 */
+	@Override
+	public int exec(String filePath, String outputPath, String userId, String originalFilename, int counter,
+			boolean isInstructor, List<String> extraArgs, long maxSecondsWait) {
+		final List<String> args = new ArrayList<>();
+		args.add(outputPath);
+		args.add(outputPath + Settings.OUTPUT_ERROR_EXT);
+		args.add(filePath != null ? filePath : "");
+		args.add(userId != null ? userId : "");
+		args.add(originalFilename != null ? originalFilename : "");
+		args.add(String.valueOf(counter));
+		args.add(String.valueOf(isInstructor));
+		if (extraArgs != null) {
+			for (String arg : extraArgs) {
+				args.add(arg != null ? arg : "");
+			}
+		}
+		final long start = System.currentTimeMillis();
+		int result = LocalWorkerPool.exec(getCommand(), args, maxSecondsWait);
+		if (result == LocalWorkerPool.NOT_RUN) {
+			// One-shot process, only with the time left by the worker
+			long seconds = maxSecondsWait;
+			if (maxSecondsWait > 0) {
+				seconds -= (System.currentTimeMillis() - start) / 1000;
+			}
+			if (maxSecondsWait > 0 && seconds <= 0) {
+				result = ERROR_TIMEOUT;
+			} else {
+				result = super.exec(filePath, outputPath, userId, originalFilename, counter, isInstructor,
+						extraArgs, seconds);
+			}
+		}
+		return result;
+	}
+}
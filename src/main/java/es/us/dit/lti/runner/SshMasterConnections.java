@@ -0,0 +1,307 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared SSH connections of {@link SshToolRunner}, using OpenSSH connection
+ * multiplexing.
+ *
+ * <p>Each tool with {@link SshToolConfig#isConnectionReuse()} gets a private
+ * directory for the control sockets, inside a directory of the temporary
+ * folder that only the user of the application can use. The options returned by
+ * {@link #open(String, String, List, int)} make the first <code>ssh</code> or
+ * <code>scp</code> to a server start a master connection in background, and the
+ * following ones use it without a new handshake. The master is closed by
+ * OpenSSH when it has not been used for the configured time, and by
+ * {@link #destroy()} when the application stops.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class SshMasterConnections {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(SshMasterConnections.class);
+
+	/**
+	 * Default seconds that an unused master connection is kept open.
+	 */
+	public static final int DEFAULT_PERSIST_SECONDS = 600;
+	/**
+	 * Interval of keepalive messages in seconds, so broken masters are detected.
+	 */
+	public static final int ALIVE_INTERVAL_SECONDS = 15;
+	/**
+	 * Maximum time to close a master connection in seconds.
+	 */
+	private static final long CLOSE_TIMEOUT_SECONDS = 5;
+	/**
+	 * Maximum length of a Unix socket path (the lowest of supported systems).
+	 */
+	private static final int MAX_SOCKET_PATH = 104;
+	/**
+	 * Maximum length of the socket names created by OpenSSH (<code>%C</code> and
+	 * a temporary suffix).
+	 */
+	private static final int SOCKET_NAME_LENGTH = 64;
+
+	/**
+	 * Shared connections of a tool.
+	 */
+	private static final class Entry {
+		/**
+		 * Directory of the control sockets.
+		 */
+		private final Path dir;
+		/**
+		 * Private key file, or null.
+		 */
+		private final String keyFile;
+		/**
+		 * Servers of the tool.
+		 */
+		private final List<String> servers;
+		/**
+		 * Options for <code>ssh</code> and <code>scp</code>.
+		 */
+		private final String options;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param dir      directory of the control sockets
+		 * @param keyFile  private key file, or null
+		 * @param servers  servers of the tool
+		 * @param options  options for <code>ssh</code> and <code>scp</code>
+		 */
+		private Entry(Path dir, String keyFile, List<String> servers, String options) {
+			this.dir = dir;
+			this.keyFile = keyFile;
+			this.servers = servers;
+			this.options = options;
+		}
+	}
+
+	/**
+	 * Shared connections by tool identifier.
+	 */
+	private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	/**
+	 * Number of master connections closed.
+	 */
+	private static final LongAdder closed = new LongAdder();
+
+	/**
+	 * Can not create objects.
+	 */
+	private SshMasterConnections() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Prepares the shared connections of a tool.
+	 *
+	 * @param id             identifier of the tool (path of its configuration)
+	 * @param keyFile        private key file, or null for system default keys
+	 * @param servers        servers of the tool
+	 * @param persistSeconds seconds that an unused master connection is kept
+	 *                       open, 0 or less for {@link #DEFAULT_PERSIST_SECONDS}
+	 * @return options for <code>ssh</code> and <code>scp</code>, or null if
+	 *         connections can not be shared
+	 */
+	public static String open(String id, String keyFile, List<String> servers, int persistSeconds) {
+		final Path dir = Path.of(System.getProperty("java.io.tmpdir"), "tpm-ssh", hash(id));
+		final String controlPath = dir.toAbsolutePath() + File.separator + "%C";
+		if (controlPath.length() - 2 + SOCKET_NAME_LENGTH >= MAX_SOCKET_PATH
+				|| controlPath.chars().anyMatch(Character::isWhitespace)) {
+			logger.warn("Invalid path for SSH control sockets: {}", dir);
+			return null;
+		}
+		try {
+			final UserPrincipal user = FileSystems.getDefault().getUserPrincipalLookupService()
+					.lookupPrincipalByName(System.getProperty("user.name"));
+			// Only this user can use the sockets
+			if (!createPrivate(dir.getParent(), user) || !createPrivate(dir, user)) {
+				logger.warn("Directory of SSH control sockets not owned by {}: {}", user.getName(), dir);
+				return null;
+			}
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.warn("Error creating directory of SSH control sockets {}: {}", dir, e.getMessage());
+			return null;
+		}
+		final String options = "-oControlMaster=auto -oControlPath=" + controlPath + " -oControlPersist="
+				+ (persistSeconds > 0 ? persistSeconds : DEFAULT_PERSIST_SECONDS) + " -oServerAliveInterval="
+				+ ALIVE_INTERVAL_SECONDS;
+		final Entry old = entries.put(id,
+				new Entry(dir, keyFile, servers != null ? List.copyOf(servers) : List.of(), options));
+		if (old != null && !old.servers.equals(servers)) {
+			// Removed servers keep their masters until they are unused
+			logger.info("SSH servers changed: {}", id);
+		}
+		return options;
+	}
+
+	/**
+	 * Creates a directory if it does not exist and makes it private.
+	 *
+	 * @param dir  the directory
+	 * @param user user of the application
+	 * @return false if it exists but it is a link or belongs to other user
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static boolean createPrivate(Path dir, UserPrincipal user) throws IOException {
+		if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+			try {
+				Files.createDirectory(dir,
+						PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			} catch (final FileAlreadyExistsException e) {
+				// Created by other thread, checked below
+			}
+		}
+		if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)
+				|| !user.equals(Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS))) {
+			return false;
+		}
+		Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+		return true;
+	}
+
+	/**
+	 * Closes all master connections and removes their sockets.
+	 */
+	public static void destroy() {
+		for (final Entry entry : entries.values()) {
+			for (final String server : entry.servers) {
+				close(entry, server);
+			}
+			final File[] files = entry.dir.toFile().listFiles();
+			if (files != null) {
+				for (final File f : files) {
+					if (!f.delete()) {
+						logger.warn("Error deleting SSH control socket: {}", f);
+					}
+				}
+			}
+		}
+		entries.clear();
+	}
+
+	/**
+	 * Asks the master connection of a server to exit.
+	 *
+	 * @param entry  shared connections of the tool
+	 * @param server the server, as in {@link SshToolConfig#getServers()}
+	 */
+	private static void close(Entry entry, String server) {
+		final List<String> args = new ArrayList<>();
+		args.add("ssh");
+		if (entry.keyFile != null) {
+			args.add("-i");
+			args.add(entry.keyFile);
+		}
+		args.addAll(List.of(entry.options.split(" ")));
+		args.add("-oBatchMode=yes");
+		args.add("-Oexit");
+		// Same conversion as the script
+		args.add(server.indexOf(':') >= 0 ? "ssh://" + server : server);
+		try {
+			final ProcessBuilder pb = new ProcessBuilder(args);
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			final Process p = pb.start();
+			if (!p.waitFor(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				p.destroyForcibly();
+			} else if (p.exitValue() == 0) {
+				closed.increment();
+			}
+		} catch (final IOException e) {
+			logger.warn("Error closing SSH master of {}: {}", server, e.getMessage());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Short name of the directory of a tool.
+	 *
+	 * @param id identifier of the tool
+	 * @return hexadecimal hash
+	 */
+	private static String hash(String id) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(id.getBytes(StandardCharsets.UTF_8));
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 6; i++) {
+				sb.append(String.format("%02x", digest[i]));
+			}
+			return sb.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			return Integer.toHexString(id.hashCode());
+		}
+	}
+
+	/**
+	 * Gets statistics of shared connections.
+	 *
+	 * @return map with statistics
+	 */
+	public static Map<String, Object> getStatistics() {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		int servers = 0;
+		int sockets = 0;
+		for (final Entry entry : entries.values()) {
+			servers += entry.servers.size();
+			final String[] files = entry.dir.toFile().list();
+			if (files != null) {
+				sockets += files.length;
+			}
+		}
+		info.put("name", "sshMasters");
+		info.put("tools", entries.size());
+		info.put("servers", servers);
+		info.put("sockets", sockets);
+		info.put("closed", closed.sum());
+		return info;
+	}
+}
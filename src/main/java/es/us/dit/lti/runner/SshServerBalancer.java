@@ -0,0 +1,320 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.runner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load and health of correction servers of {@link SshToolRunner}.
+ *
+ * <p>The state of a server is shared by all tools that use it: jobs in
+ * progress, recent latency (exponentially weighted average) and failures.
+ * A server is ejected after {@link #MAX_FAILURES} consecutive failures, for
+ * {@link #MIN_EJECT_MILLIS} doubled on each new failure up to
+ * {@link #MAX_EJECT_MILLIS}. After that time it is tried again, and a success
+ * returns it to normal.
+ *
+ * <p>{@link #order(List)} puts first the less loaded of two random healthy
+ * servers (power of two choices), then the rest of healthy servers from less
+ * to more loaded and then the ejected servers, that are only used if the
+ * others fail.
+ *
+ * @author Francisco José Fernández Jiménez
+ * @version 1.0
+ */
+public final class SshServerBalancer {
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(SshServerBalancer.class);
+
+	/**
+	 * Consecutive failures after which a server is ejected.
+	 */
+	public static final int MAX_FAILURES = 2;
+	/**
+	 * Initial time of ejection in milliseconds.
+	 */
+	public static final long MIN_EJECT_MILLIS = 30 * 1000L;
+	/**
+	 * Maximum time of ejection in milliseconds.
+	 */
+	public static final long MAX_EJECT_MILLIS = 10 * 60 * 1000L;
+	/**
+	 * Weight of the last job in the average latency.
+	 */
+	private static final double LATENCY_WEIGHT = 0.2;
+
+	/**
+	 * State of a server.
+	 */
+	private static final class Server {
+		/**
+		 * Jobs in progress.
+		 */
+		private int inFlight;
+		/**
+		 * Successful jobs.
+		 */
+		private long completed;
+		/**
+		 * Failed jobs or checks.
+		 */
+		private long failures;
+		/**
+		 * Consecutive failures.
+		 */
+		private int consecutiveFailures;
+		/**
+		 * Average latency in milliseconds, negative if unknown.
+		 */
+		private double latency = -1;
+		/**
+		 * Number of ejections.
+		 */
+		private long ejections;
+		/**
+		 * Current time of ejection in milliseconds, 0 if not ejected.
+		 */
+		private long ejectMillis;
+		/**
+		 * End of ejection (epoch milliseconds).
+		 */
+		private long ejectedUntil;
+
+		/**
+		 * Checks if the server is ejected.
+		 *
+		 * @param now current time in milliseconds
+		 * @return true if ejected
+		 */
+		private synchronized boolean isEjected(long now) {
+			return now < ejectedUntil;
+		}
+
+		/**
+		 * Gets the end of ejection.
+		 *
+		 * @return epoch milliseconds
+		 */
+		private synchronized long getEjectedUntil() {
+			return ejectedUntil;
+		}
+
+		/**
+		 * Gets the load of the server, to compare servers.
+		 *
+		 * @return jobs in progress and latency
+		 */
+		private synchronized double getLoad() {
+			// Latency only breaks ties
+			return inFlight + (latency > 0 ? latency / (latency + 1000.0) : 0);
+		}
+	}
+
+	/**
+	 * State of servers by name.
+	 */
+	private static final Map<String, Server> servers = new ConcurrentHashMap<>();
+
+	/**
+	 * Can not create objects.
+	 */
+	private SshServerBalancer() {
+		throw new IllegalStateException("Utility class");
+	}
+
+	/**
+	 * Gets the state of a server, creating it if necessary.
+	 *
+	 * @param name name of server
+	 * @return the state
+	 */
+	private static Server get(String name) {
+		return servers.computeIfAbsent(name, k -> new Server());
+	}
+
+	/**
+	 * Orders servers by load and health.
+	 *
+	 * @param list servers of a tool
+	 * @return servers in order of use
+	 */
+	public static List<String> order(List<String> list) {
+		final long now = System.currentTimeMillis();
+		final List<String> healthy = new ArrayList<>();
+		final List<String> ejected = new ArrayList<>();
+		for (final String s : list) {
+			(get(s).isEjected(now) ? ejected : healthy).add(s);
+		}
+		final List<String> result = new ArrayList<>(list.size());
+		if (healthy.size() > 1) {
+			// Two random choices
+			final ThreadLocalRandom random = ThreadLocalRandom.current();
+			final int a = random.nextInt(healthy.size());
+			int b = random.nextInt(healthy.size() - 1);
+			if (b >= a) {
+				b++;
+			}
+			final String first = get(healthy.get(a)).getLoad() <= get(healthy.get(b)).getLoad() ? healthy.get(a)
+					: healthy.get(b);
+			result.add(first);
+			healthy.remove(first);
+		}
+		final Map<String, Double> loads = new HashMap<>();
+		healthy.forEach(s -> loads.put(s, get(s).getLoad()));
+		healthy.sort(Comparator.comparing(loads::get));
+		result.addAll(healthy);
+		// Ejected servers that return before first
+		final Map<String, Long> returns = new HashMap<>();
+		ejected.forEach(s -> returns.put(s, get(s).getEjectedUntil()));
+		ejected.sort(Comparator.comparing(returns::get));
+		result.addAll(ejected);
+		return result;
+	}
+
+	/**
+	 * Records the start of a job.
+	 *
+	 * @param name server expected to run the job
+	 */
+	public static void start(String name) {
+		final Server server = get(name);
+		synchronized (server) {
+			server.inFlight++;
+		}
+	}
+
+	/**
+	 * Moves a job in progress to another server, when the expected one failed.
+	 *
+	 * @param from server passed to {@link #start(String)}
+	 * @param to   server that runs the job
+	 */
+	public static void move(String from, String to) {
+		final Server old = get(from);
+		synchronized (old) {
+			old.inFlight--;
+		}
+		start(to);
+	}
+
+	/**
+	 * Records the end of a job.
+	 *
+	 * @param charged server of the job: the one passed to {@link #start(String)}
+	 *                or to {@link #move(String, String)}, or null
+	 * @param used    server that ran the job, or null if none or unknown result
+	 * @param failed  servers that failed
+	 * @param millis  duration of the job in milliseconds
+	 */
+	public static void finish(String charged, String used, Collection<String> failed, long millis) {
+		if (charged != null) {
+			final Server server = get(charged);
+			synchronized (server) {
+				server.inFlight--;
+			}
+		}
+		for (final String name : failed) {
+			failure(name);
+		}
+		if (used != null && !failed.contains(used)) {
+			final Server server = get(used);
+			synchronized (server) {
+				server.completed++;
+				server.consecutiveFailures = 0;
+				server.ejectMillis = 0;
+				server.ejectedUntil = 0;
+				server.latency = server.latency < 0 ? millis
+						: server.latency + LATENCY_WEIGHT * (millis - server.latency);
+			}
+		}
+	}
+
+	/**
+	 * Records a failure of a server, ejecting it if necessary.
+	 *
+	 * @param name name of server
+	 */
+	private static void failure(String name) {
+		final Server server = get(name);
+		synchronized (server) {
+			server.failures++;
+			server.consecutiveFailures++;
+			final long now = System.currentTimeMillis();
+			if (server.consecutiveFailures >= MAX_FAILURES && !server.isEjected(now)) {
+				server.ejectMillis = server.ejectMillis == 0 ? MIN_EJECT_MILLIS
+						: Math.min(server.ejectMillis * 2, MAX_EJECT_MILLIS);
+				server.ejectedUntil = now + server.ejectMillis;
+				server.ejections++;
+				logger.warn("SSH server ejected for {} s: {}", server.ejectMillis / 1000, name);
+			}
+		}
+	}
+
+	/**
+	 * Gets statistics of some servers.
+	 *
+	 * @param list servers
+	 * @return list of maps with the statistics of each server
+	 */
+	public static List<Map<String, Object>> getServerStatistics(List<String> list) {
+		final long now = System.currentTimeMillis();
+		final List<Map<String, Object>> result = new ArrayList<>();
+		for (final String name : list) {
+			final Server server = get(name);
+			final Map<String, Object> info = new LinkedHashMap<>();
+			synchronized (server) {
+				info.put("server", name);
+				info.put("inFlight", server.inFlight);
+				info.put("completed", server.completed);
+				info.put("failures", server.failures);
+				info.put("latencyMillis", Math.round(server.latency));
+				info.put("ejections", server.ejections);
+				info.put("ejectedSeconds", server.isEjected(now) ? (server.ejectedUntil - now + 999) / 1000 : 0);
+			}
+			result.add(info);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets statistics of all servers.
+	 *
+	 * @return map with statistics
+	 */
+	public static Map<String, Object> getStatistics() {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		info.put("name", "sshServers");
+		info.put("servers", getServerStatistics(new ArrayList<>(servers.keySet())));
+		return info;
+	}
+}
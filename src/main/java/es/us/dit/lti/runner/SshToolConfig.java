@@ -52,6 +52,11 @@ public class SshToolConfig {
 	 */
 	private boolean roundRobin;
 
+	/**
+	 * Selection of servers by load and health (replaces round robin).
+	 */
+	private boolean loadBalancing;
+
 	/**
 	 * Private SSH key. It can consist of a single line with
 	 * <code>\n</code> as a separator or multiple lines. 
@@ -74,6 +79,18 @@ public class SshToolConfig {
 	 */
 	private String specialCorrector;
 
+	/**
+	 * Reuse of SSH connections between assessments (OpenSSH connection
+	 * multiplexing).
+	 */
+	private boolean connectionReuse;
+
+	/**
+	 * Seconds that an unused shared connection is kept open. Default (0) is
+	 * {@link SshMasterConnections#DEFAULT_PERSIST_SECONDS}.
+	 */
+	private int controlPersist;
+
 	/**
 	 * Gets the name of the remote corrector executable.
 	 * 
@@ -189,6 +206,28 @@ public class SshToolConfig {
 		this.roundRobin = roundRobin;
 	}
 
+	/**
+	 * Gets if servers are selected by load and health.
+	 *
+	 * @return true if servers are selected by load and health
+	 */
+	public boolean isLoadBalancing() {
+		return loadBalancing;
+	}
+
+	/**
+	 * Sets selection of servers by load and health.
+	 *
+	 * <p>If true, {@link #isRoundRobin()} is ignored and the servers are
+	 * ordered by {@link SshServerBalancer}: less loaded first and servers that
+	 * have failed recently last.
+	 *
+	 * @param loadBalancing true for selection by load and health
+	 */
+	public void setLoadBalancing(boolean loadBalancing) {
+		this.loadBalancing = loadBalancing;
+	}
+
 	/**
 	 * Gets the username of authorized user for special deliveries.
 	 *
@@ -256,6 +295,46 @@ public class SshToolConfig {
 		this.specialCorrector = specialCorrector;
 	}
 
+	/**
+	 * Gets if SSH connections are reused between assessments.
+	 *
+	 * @return true if SSH connections are reused
+	 */
+	public boolean isConnectionReuse() {
+		return connectionReuse;
+	}
+
+	/**
+	 * Sets if SSH connections are reused between assessments.
+	 *
+	 * <p>If true, a master connection is kept open per server and the
+	 * connections of the assessments are multiplexed over it (see
+	 * {@link SshMasterConnections}).
+	 *
+	 * @param connectionReuse true to reuse SSH connections
+	 */
+	public void setConnectionReuse(boolean connectionReuse) {
+		this.connectionReuse = connectionReuse;
+	}
+
+	/**
+	 * Gets the seconds that an unused shared connection is kept open.
+	 *
+	 * @return the seconds, 0 or less for the default value
+	 */
+	public int getControlPersist() {
+		return controlPersist;
+	}
+
+	/**
+	 * Sets the seconds that an unused shared connection is kept open.
+	 *
+	 * @param controlPersist the seconds, 0 or less for the default value
+	 */
+	public void setControlPersist(int controlPersist) {
+		this.controlPersist = controlPersist;
+	}
+
 	/**
 	 * Deserialize from JSON string.
 	 *
@@ -27,11 +27,14 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -122,6 +125,24 @@ public class SshToolRunner implements ToolRunner {
 	 * Environment variable name with special corrector name.
 	 */
 	public static final String VAR_SPECIAL_CORRECTOR = "TPMspecialcorrector";
+	/**
+	 * Environment variable name with extra options of <code>ssh</code> and
+	 * <code>scp</code>.
+	 */
+	public static final String VAR_SSH_OPTIONS = "TPMsshopts";
+	/**
+	 * Environment variable name with the file where the script writes the
+	 * servers used and the servers that failed.
+	 */
+	public static final String VAR_STATUS_FILE = "TPMstatusfile";
+	/**
+	 * Extension of the status file, added to the output path.
+	 */
+	public static final String STATUS_EXT = ".servers";
+	/**
+	 * Period of the check of the server used by the script, in milliseconds.
+	 */
+	private static final long STATUS_POLL_MILLIS = 200;
 
 	/**
 	 * Prefixed arguments.
@@ -147,15 +168,19 @@ public class SshToolRunner implements ToolRunner {
 	/**
 	 * Generates a counter-based server list.
 	 *
+	 * <p>Counter values are unique across nodes sharing the database (see
+	 * ToolCounterService) and consecutive in each node, so the first server rotates
+	 * in each node.
+	 *
 	 * @param counter the counter value
 	 * @return list of servers
 	 */
 	private String generateServersLine(int counter) {
 		final StringBuilder sb = new StringBuilder();
 		final List<String> servers = tc.getServers();
-		if (servers != null) {
+		if (servers != null && !servers.isEmpty()) {
 			final int total = servers.size();
-			final int modulus = counter % total;
+			final int modulus = Math.floorMod(counter, total);
 			for (int i = modulus; i < total; i++) {
 				sb.append(servers.get(i));
 				sb.append(" ");
@@ -266,7 +291,7 @@ public class SshToolRunner implements ToolRunner {
 		if (tc.getSpecialCorrector() != null) {
 			env.put(VAR_SPECIAL_CORRECTOR, tc.getSpecialCorrector());
 		}
-		if (!tc.isRoundRobin()) {
+		if (!tc.isRoundRobin() && !tc.isLoadBalancing()) {
 			// generate list of server now
 			env.put(VAR_SERVERS, generateServersLine(0));
 		}
@@ -286,6 +311,82 @@ public class SshToolRunner implements ToolRunner {
 				logger.error("Error deleting old key file.");
 			}
 		}
+		if (tc.isConnectionReuse()) {
+			// master connections kept open between executions
+			final String options = SshMasterConnections.open(exeData, env.get(VAR_SSHKEY), tc.getServers(),
+					tc.getControlPersist());
+			if (options != null) {
+				env.put(VAR_SSH_OPTIONS, options);
+			}
+		}
+	}
+
+	/**
+	 * Reads the status file written by the script.
+	 *
+	 * <p>Each line of the file is <code>USING server</code> or
+	 * <code>KO server</code>. Servers are only reported as KO when the test, the
+	 * copy of the file or the connection fail.
+	 *
+	 * @param statusFile status file
+	 * @param failed     receives the servers that failed, or null
+	 * @return server used, or null if none yet
+	 */
+	private String readStatus(File statusFile, Set<String> failed) {
+		String used = null;
+		if (statusFile.exists()) {
+			try {
+				for (final String line : Files.readAllLines(statusFile.toPath(), StandardCharsets.UTF_8)) {
+					if (line.startsWith("USING ")) {
+						used = line.substring(6).trim();
+					} else if (line.startsWith("KO ") && failed != null) {
+						failed.add(line.substring(3).trim());
+					}
+				}
+			} catch (final IOException e) {
+				logger.warn("Error reading status of servers: {}", e.getMessage());
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Updates the state of servers with the status file written by the script,
+	 * and deletes it.
+	 *
+	 * @param statusFile status file
+	 * @param charged    server charged with the job, or null
+	 * @param timeout    true if the execution was stopped; it is not a failure of
+	 *                   the server, only a slow corrector or delivery
+	 * @param millis     duration of the execution
+	 */
+	private void updateServers(File statusFile, String charged, boolean timeout, long millis) {
+		final Set<String> failed = new HashSet<>();
+		final String used = readStatus(statusFile, failed);
+		if (statusFile.exists() && !statusFile.delete()) {
+			logger.warn("Error deleting status of servers: {}", statusFile);
+		}
+		SshServerBalancer.finish(charged, timeout ? null : used, failed, millis);
+	}
+
+	/**
+	 * Gets statistics of the servers of a tool.
+	 *
+	 * @param exeData configuration file of the tool
+	 * @return list of maps with the statistics of each server, empty if the
+	 *         configuration can not be read
+	 */
+	public static List<Map<String, Object>> getServerStatistics(String exeData) {
+		SshToolConfig config = null;
+		try (FileReader fr = new FileReader(exeData, StandardCharsets.UTF_8)) {
+			config = SshToolConfig.fromString(fr);
+		} catch (final IOException e) {
+			// Ignore
+			config = null;
+		}
+		return config != null && config.getServers() != null
+				? SshServerBalancer.getServerStatistics(config.getServers())
+				: List.of();
 	}
 
 	/**
@@ -299,6 +400,10 @@ public class SshToolRunner implements ToolRunner {
 		final File output = new File(outputPath);
 		final File outputErr = new File(outputPath + Settings.OUTPUT_ERROR_EXT);
 		final ArrayList<String> args = new ArrayList<>();
+		final File statusFile = new File(outputPath + STATUS_EXT);
+		String charged = null;
+		final long startMillis = System.currentTimeMillis();
+		boolean timeout = false;
 		final String fileUrlEncoded = URLEncoder.encode(new File(filePath).getName(), StandardCharsets.UTF_8);
 		if (preArgs != null) {
 			for (String arg : preArgs) {
@@ -320,9 +425,24 @@ public class SshToolRunner implements ToolRunner {
 			penvs.put(VAR_COUNTER, String.valueOf(counter));
 			penvs.put(VAR_INSTRUCTOR, String.valueOf(isInstructor));
 			penvs.put(VAR_EXTRA, String.join(" ", extraArgs));
-			if (tc != null && tc.isRoundRobin()) {
+			final String servers;
+			if (tc != null && tc.isLoadBalancing() && tc.getServers() != null) {
+				// less loaded and healthy servers first
+				servers = String.join(" ", SshServerBalancer.order(tc.getServers()));
+				penvs.put(VAR_SERVERS, servers);
+			} else if (tc != null && tc.isRoundRobin()) {
 				// generate list of server in counter-based order
-				penvs.put(VAR_SERVERS, generateServersLine(counter));
+				servers = generateServersLine(counter);
+				penvs.put(VAR_SERVERS, servers);
+			} else {
+				servers = penvs.getOrDefault(VAR_SERVERS, "");
+			}
+			penvs.put(VAR_STATUS_FILE, statusFile.getPath());
+			final String[] serverList = servers.trim().split(" +");
+			final String expected = serverList[0].isEmpty() ? null : serverList[0];
+			if (expected != null) {
+				SshServerBalancer.start(expected);
+				charged = expected;
 			}
 
 			// start
@@ -331,15 +451,28 @@ public class SshToolRunner implements ToolRunner {
 			final PrintStream ps = new PrintStream(program.getOutputStream(), true, StandardCharsets.UTF_8);
 			ps.println(script);
 			ps.close();
-			if (maxSecondsWait > 0) {
-				final boolean terminado = program.waitFor(maxSecondsWait, TimeUnit.SECONDS);
-				if (!terminado) {
+			final long deadline = maxSecondsWait > 0
+					? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(maxSecondsWait)
+					: Long.MAX_VALUE;
+			boolean moved = charged == null;
+			while (!program.waitFor(STATUS_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (!moved) {
+					// The load goes to the server used, if the first one failed
+					final String used = readStatus(statusFile, null);
+					if (used != null) {
+						moved = true;
+						if (!used.equals(charged)) {
+							SshServerBalancer.move(charged, used);
+							charged = used;
+						}
+					}
+				}
+				if (System.currentTimeMillis() >= deadline) {
+					timeout = true;
 					program.destroyForcibly().waitFor(1, TimeUnit.MINUTES);
 					// wait 1 minute after kill for security
+					break;
 				}
-			} else {
-				// infinite wait
-				program.waitFor();
 			}
 
 			result = program.exitValue();
@@ -355,6 +488,7 @@ public class SshToolRunner implements ToolRunner {
 			result = ERROR_CORRECTOR_EXCEPTION;
 			logger.error("{}", e.getMessage());
 		}
+		updateServers(statusFile, charged, timeout, System.currentTimeMillis() - startMillis);
 
 		return result;
 
@@ -54,6 +54,9 @@ public final class ToolRunnerFactory {
 		case TR_STORAGE:
 			tr = new StorageRunner();
 			break;
+		case TR_LOCAL_WORKER:
+			tr = new LocalWorkerToolRunner();
+			break;
 		default:
 			tr = new DummyRunner();
 			break;
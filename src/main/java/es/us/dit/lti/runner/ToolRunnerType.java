@@ -45,7 +45,11 @@ public enum ToolRunnerType {
 	/**
 	 * No execution, only storage.
 	 */
-	TR_STORAGE(4);
+	TR_STORAGE(4),
+	/**
+	 * Local execution with persistent worker processes.
+	 */
+	TR_LOCAL_WORKER(5);
 
 	/**
 	 * Code associated to type, for saving in db.
@@ -70,6 +74,15 @@ public enum ToolRunnerType {
 		return code;
 	}
 
+	/**
+	 * Checks if the type runs correctors in the local machine.
+	 *
+	 * @return true if local
+	 */
+	public boolean isLocal() {
+		return this == TR_LOCAL || this == TR_LOCAL_WORKER;
+	}
+
 	/**
 	 * Gets the type from a code.
 	 *
@@ -0,0 +1,210 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package es.us.dit.lti.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+import es.us.dit.lti.AssessmentQueue;
+import es.us.dit.lti.ToolSession;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * Servlet that returns the state and result of an assessment run in
+ * background (see {@link AssessmentQueue}).
+ *
+ * <p>Parameter <code>id</code> is the ID of the job. If the request accepts
+ * <code>text/event-stream</code>, the response is a stream of server-sent
+ * events: <code>state</code> events when the position in the queue changes
+ * and a <code>result</code> event when the assessment finishes. Otherwise,
+ * the response is the current state in JSON.
+ *
+ * @author Francisco José Fernández Jiménez
+ */
+@WebServlet(urlPatterns = { "/learner/assessjob" }, asyncSupported = true)
+public class AssessJobServlet extends HttpServlet {
+	/**
+	 * Serializable requirement.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * Logger.
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(AssessJobServlet.class);
+	/**
+	 * Maximum time of an event stream in milliseconds. The browser reconnects
+	 * after it.
+	 */
+	private static final long STREAM_TIMEOUT_MILLIS = 60000;
+
+	/**
+	 * Gets the owner of the jobs of a tool session.
+	 *
+	 * @param ts the tool session
+	 * @return the owner (user and launch)
+	 */
+	static String getOwner(ToolSession ts) {
+		return ts.getSessionUserId() + " " + ts.getLaunchId();
+	}
+
+	/**
+	 * Processes GET request to get the state or wait for the result of an
+	 * assessment.
+	 *
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse
+	 *      response)
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		final HttpSession session = request.getSession();
+		final ToolSession ts = (ToolSession) session.getAttribute(ToolSession.class.getName());
+		final AssessmentQueue.Job job = ts != null
+				? AssessmentQueue.get(request.getParameter("id"), getOwner(ts))
+				: null;
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		response.setHeader("Cache-Control", "no-cache");
+		if (job == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		} else {
+			final String accept = request.getHeader("Accept");
+			if (accept != null && accept.contains("text/event-stream") && request.isAsyncSupported()) {
+				stream(request, response, job);
+			} else {
+				response.setContentType("application/json");
+				response.getWriter().append(new Gson().toJson(getInfo(job)));
+			}
+		}
+	}
+
+	/**
+	 * Sends the state and waits for the result in an event stream, without
+	 * keeping the request thread.
+	 *
+	 * @param request  HTTP request
+	 * @param response HTTP response
+	 * @param job      the job
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void stream(HttpServletRequest request, HttpServletResponse response, AssessmentQueue.Job job)
+			throws IOException {
+		response.setContentType("text/event-stream");
+		final PrintWriter out = response.getWriter();
+		send(out, "state", getInfo(job));
+		response.flushBuffer();
+		final AsyncContext async = request.startAsync();
+		async.setTimeout(STREAM_TIMEOUT_MILLIS);
+		// Completed once, by the job or by the timeout
+		final AtomicBoolean done = new AtomicBoolean();
+		// New position in the queue
+		final Runnable update = () -> {
+			synchronized (out) {
+				if (!done.get()) {
+					send(out, "state", getInfo(job));
+				}
+			}
+		};
+		async.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				done.set(true);
+				job.removeUpdated(update);
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				if (done.compareAndSet(false, true)) {
+					event.getAsyncContext().complete();
+				}
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+				done.set(true);
+				job.removeUpdated(update);
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+				// Nothing to do
+			}
+		});
+		job.whenUpdated(update);
+		job.whenFinished(() -> {
+			if (done.compareAndSet(false, true)) {
+				try {
+					synchronized (out) {
+						send(out, "result", getInfo(job));
+					}
+				} catch (final RuntimeException e) {
+					logger.warn("Error sending assessment result: {}", e.getMessage());
+				}
+				async.complete();
+			}
+		});
+	}
+
+	/**
+	 * Writes a server-sent event.
+	 *
+	 * @param out  writer of the response
+	 * @param name name of the event
+	 * @param data data of the event, sent as JSON
+	 */
+	private void send(PrintWriter out, String name, Map<String, Object> data) {
+		out.append("event: ").append(name).append("\ndata: ").append(new Gson().toJson(data)).append("\n\n");
+		out.flush();
+	}
+
+	/**
+	 * Gets the state of a job.
+	 *
+	 * @param job the job
+	 * @return state, position in the queue and result (HTML) if finished
+	 */
+	private Map<String, Object> getInfo(AssessmentQueue.Job job) {
+		final Map<String, Object> info = new LinkedHashMap<>();
+		final AssessmentQueue.State state = job.getState();
+		info.put("state", state.name());
+		info.put("position", job.getPosition());
+		if (state == AssessmentQueue.State.DONE) {
+			info.put("html", job.getResult());
+		}
+		return info;
+	}
+}
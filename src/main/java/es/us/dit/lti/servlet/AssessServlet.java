@@ -27,6 +27,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
@@ -37,17 +38,15 @@ import java.util.ConcurrentModificationException;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.output.WriterOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.us.dit.lti.AssessmentQueue;
+import es.us.dit.lti.GradeOutbox;
 import es.us.dit.lti.MessageMap;
-import es.us.dit.lti.OutcomeService;
 import es.us.dit.lti.SecurityUtil;
 import es.us.dit.lti.ToolSession;
 import es.us.dit.lti.config.ToolUiConfig;
@@ -62,10 +61,6 @@ import es.us.dit.lti.persistence.ToolAttemptDao;
 import es.us.dit.lti.persistence.ToolDao;
 import es.us.dit.lti.runner.ToolRunner;
 import es.us.dit.lti.runner.ToolRunnerFactory;
-import es.us.dit.lti.runner.ToolRunnerType;
-import es.us.dit.lti.persistence.KeyService;
-import es.us.dit.lti.persistence.ToolLti13Dao;
-import es.us.dit.lti.persistence.Lti13ToolConfig;
 
 import jakarta.el.ELContext;
 import jakarta.el.ExpressionFactory;
@@ -104,19 +99,60 @@ public class AssessServlet extends HttpServlet {
 	 * Error code if assessment was successful and no outcome must be written.
 	 */
 	private static final int OK_WITHOUT_OUTCOME = 0;
-	/**
-	 * Error code if assessment was successful and outcome was written in consumer.
-	 */
-	private static final int OK_WITH_OUTCOME = 1;
 	/**
 	 * Default grace period to add to delivery deadline.
 	 */
 	private static final int DEFAULT_GRACE_TIME = 5;
+	/**
+	 * Maximum time of the corrector in seconds.
+	 */
+	private static final int MAX_CORRECTION_SECONDS = 60;
 
 	/**
-	 * Number of concurrent users being assessed.
+	 * Data of a delivery to assess, collected from the request.
 	 */
-	private final SortedSet<String> concurrentUsers = Collections.synchronizedSortedSet(new TreeSet<String>());
+	private static final class Delivery {
+		/**
+		 * Tool session of the user.
+		 */
+		private ToolSession ts;
+		/**
+		 * The tool.
+		 */
+		private Tool tool;
+		/**
+		 * Texts in the language of the user.
+		 */
+		private MessageMap text;
+		/**
+		 * Attempt to save.
+		 */
+		private Attempt attempt;
+		/**
+		 * Path of the delivered file.
+		 */
+		private String userFilePath;
+		/**
+		 * Path of the output of the corrector.
+		 */
+		private String outputPath;
+		/**
+		 * Name of the delivered file.
+		 */
+		private String filename;
+		/**
+		 * If it is a new assessment of a previous attempt.
+		 */
+		private boolean reassessment;
+		/**
+		 * If the file is only saved, without assessment.
+		 */
+		private boolean onlyStore;
+		/**
+		 * Extra arguments of the corrector.
+		 */
+		private List<String> extraArgs = Collections.emptyList();
+	}
 
 	/**
 	 * Processes an assessment or redirect attempt.
@@ -143,7 +179,6 @@ public class AssessServlet extends HttpServlet {
 		final boolean isInstructor = ts.isInstructor();
 		final MessageMap text = (MessageMap) session.getAttribute("text");
 		boolean isReassessment = false;
-		boolean maxConcurrencyOnlyStoreMode = false;
 
 		if (tool != null && userId != null && (ts.isLearner() || isInstructor)) {
 
@@ -179,38 +214,6 @@ public class AssessServlet extends HttpServlet {
 				out.println(formatError(text.get("T_AVISO_DESHABILITADA")));
 			}
 
-			// Init values and previous checks
-			if (!error) {
-				// Check concurrent users
-				synchronized (concurrentUsers) {
-					try {
-						if (addConcurrentUser(userId, tool)) {
-							request.setAttribute("concurrence", concurrentUsers.size());
-						} else {
-							out.println(formatError(text.get("T_ERROR_CONCURRENCIA_MAXIMA")));
-							logger.error("Max. concurrent users: {}", concurrentUsers.size());
-							if (tui.isKeepFiles()
-									&& tool.getEnabledUntil() != null
-									&& tool.getToolUiConfig().getMaxConcurrentUsers() != 0
-									&& !tool.isEnabledByDate(Calendar.getInstance(), -DEFAULT_GRACE_TIME * 2)) {
-								// If the remaining time is short and the files must be saved, we activate this
-								// mode (if global limit is not reached)
-								if (addConcurrentUserIgnoringTool(userId, tool.getName())) {
-									maxConcurrencyOnlyStoreMode = true;
-									logger.info("Max Concurrency Only Store Mode ON: {}", userId);
-								}
-							} else {
-								error = true;
-							}
-						}
-					} catch (final ConcurrentModificationException e) {
-						out.println(formatError(text.get("T_ERROR_CORRECCION_SIMULTANEA")));
-						logger.error("Concurrent delivery: {}", userId);
-						error = true;
-					}
-				}
-			}
-
 			if (!error) {
 				Part item = null;
 
@@ -348,295 +351,291 @@ public class AssessServlet extends HttpServlet {
 				if (!validDeliveryPassword) {
 					out.println(formatError(text.get("T_ERROR_AUTORIZACION")));
 				} else if (userFilePath != null && filename != null) {
-					int scoreInt = 1000;
-					logger.info("Diagnostico para debug");
-					logger.info("¿Está permitido enviar notas ? : " + ts.isOutcomeAllowed());
-					logger.info("¿El ResourceUser es nulo? : " + (ts.getLtiResourceUser() == null));
-					final boolean nocal = !ts.isOutcomeAllowed();
-					if (nocal) {
-						logger.warn(
-								"El LMS NO envió el claim de calificaciones en el JWT de inicio (https://purl.imsglobal.org/spec/lti-ags/claim/endpoint).");
-					}
-					final File resultFile = new File(outputPath);
-					if (maxConcurrencyOnlyStoreMode) {
-						scoreInt = ToolRunner.ERROR_CONCURRENT_EXCEPTION;
-						// this modo is only enabled if keep files is enabled.
-						attempt.setOutputSaved(false);
-					} else {
-						final ToolRunner executer = getToolRunner(tool);
-						if (executer != null) {
-							// Assess
-							final int counter = ToolDao.incrementCounter(tool);
-							// Add extra arguments
-							final List<String> extraArgs = generateExtraArguments(request, ts);
-
-							logger.info("{}:{} > {} > concurrence={}", tool.getName(), counter, userId,
-									concurrentUsers.size());
-							try {
-								scoreInt = executer.exec(userFilePath, outputPath, userId, filename, counter,
-										isInstructor,
-										extraArgs, 60); // 1 minute max correction
-							} catch (Throwable t) {
-								scoreInt = ToolRunner.ERROR_RUNNER_EXCEPTION;
-								logger.error("FATAL ERROR during ToolRunner.exec for tool {}: {}", tool.getName(),
-										t.getMessage(), t);
-							}
-							logger.info("{}:{} > {} > result={}", tool.getName(), counter, userId, scoreInt);
-
-							// Output of execution
-							if (resultFile.exists() && resultFile.length() > 0) {
-								attempt.setOutputSaved(true);
-							}
-							// Delete unnecessary files
-							try {
-								if (!tui.isKeepFiles() && !tui.isKeepOutput()) {
-									clean(outputPath); // Clean error output
-									if (!new File(userFilePath).delete()) {
-										logger.error("Error deleting files");
-									}
-									attempt.setFileSaved(false);
-									attempt.setOutputSaved(false);
-								} else if (tui.isEnableInstructorCommand() && filename.equals(tui.getCommandFilename())
-										&& isInstructor || scoreInt > 100) {
-									// command or execution error, delete files and output
-									// if isReassessment do not delete original file
-									if (!isReassessment && !new File(userFilePath).delete()) {
-										logger.error("Error deleting delivery file");
-									} else {
-										attempt.setFileSaved(false);
-									}
-									clean(outputPath); // Clean error output
-									attempt.setOutputSaved(false);
-								} else if (!tui.isKeepFiles() || !tui.isKeepOutput()) {
-									// not keep all
-									if (tui.isKeepFiles()) {
-										// keep files, delete error output
-										clean(outputPath); // Clean error output
-										attempt.setOutputSaved(false);
-									} else if (tui.isKeepOutput() && !new File(userFilePath).delete()) {
-										// keep output, delete files
-										logger.error("Error deleting files");
-									} else {
-										attempt.setFileSaved(false);
-									}
-								}
-							} catch (final Exception e) {
-								logger.info("Some file could not be deleted.");
-							}
-						}
-					}
-
-					if (scoreInt == ToolRunner.ERROR_CORRECTOR_EXCEPTION) {
-						// Error in corrector (settings, params, servers...)
-						out.println(formatError(text.get("T_ERROR_CORRECTOR_EXCEPTION")));
-						attempt.setErrorCode(scoreInt);
-					} else if (scoreInt == ToolRunner.ERROR_RUNNER_EXCEPTION) {
-						// Exception in ToolRunner
-						out.println(formatError(text.get("T_ERROR_RUNNER_EXCEPTION")));
-						attempt.setErrorCode(scoreInt);
-					} else if (scoreInt == ToolRunner.ERROR_TIMEOUT) {
-						// Timeout
-						out.println(formatError(text.get("T_ERROR_TIMEOUT")));
-						attempt.setErrorCode(scoreInt);
-					} else if (maxConcurrencyOnlyStoreMode) {
-						out.println(formatError(text.get("T_ERROR_CONCURRENT_EXCEPTION")));
-						out.println(formatError("ID=" + attempt.getId()));
-						attempt.setErrorCode(scoreInt);
-					} else if (scoreInt >= ToolRunner.ERROR_GENERIC) {
-						// Unknown error
-						out.println(formatError(text.get("T_ERROR_GENERIC") + " " + scoreInt));
-						attempt.setErrorCode(scoreInt);
-					} else if (!nocal && ts.getLtiResourceUser() != null) {
-						logger.info("Flujo LTI 1.3 Iniciado");
-						logger.info("Client ID: " + ts.getLti13ClientId());
-						// logger.info("URL de Calificaciones (lisOutcomeServiceUrl): " +
-						// ts.getLisOutcomeServiceUrl());
-
-						attempt.setScore(scoreInt);
-						if (isInstructor) {
-							// Instructor is only testing
-							out.println("<p id='score'><strong>(TEST) " + text.get("T_NOTA") + ":</strong> "
-									+ String.format("%.1f", scoreInt * 0.1)
-									+ "</p>");
-							attempt.setErrorCode(OK_WITHOUT_OUTCOME);
-						} else {
-							boolean outcomeSuccess = false;
-							String scoreStr = String.valueOf(scoreInt * 0.01);
-
-							if (ts.getLti13ClientId() != null) {
-								// FLUJO LTI 1.3
-								try {
-									ToolLti13Dao lti13Dao = new ToolLti13Dao();
-									Lti13ToolConfig config = lti13Dao
-											.findByClientId(ts.getLti13ClientId());
-									if (config != null) {
-										KeyService keyService = new KeyService();
-										if (KeyService.getDbUtil() == null) {
-											KeyService.setDbUtil(ToolAttemptDao.getDbUtil());
-										}
-										String kid = keyService.getFirstKid(); // Recuperamos el Key ID
-										// logger.info("URL de la columna de notas (LineItem) "+ ts.getLineItemUrl());
-										outcomeSuccess = OutcomeService.writeLti13Outcome(
-												ts.getLtiResourceUser(),
-												ts.getLti13ClientId(),
-												config.getTokenUrl(),
-												kid,
-												scoreStr,
-												"1.0");
-									}
-								} catch (Exception e) {
-									logger.error("Error enviando nota LTI 1.3", e);
-								}
-							} else {
-								// === FLUJO LTI 1.1 (Clásico XML) ===
-								outcomeSuccess = OutcomeService.writeOutcome(ts.getLtiResourceUser(), ts.getToolKey(),
-										scoreStr);
-							}
-
-							// Evaluamos si el envío fue un éxito en cualquiera de los dos estándares
-							if (outcomeSuccess) {
-								attempt.setErrorCode(OK_WITH_OUTCOME);
-								out.println("<p id='score'><strong>" + text.get("T_NOTA") + ":</strong> "
-										+ String.format("%.1f", scoreInt * 0.1)
-										+ "</p>");
+					final Delivery delivery = new Delivery();
+					delivery.ts = ts;
+					delivery.tool = tool;
+					delivery.text = text;
+					delivery.attempt = attempt;
+					delivery.userFilePath = userFilePath;
+					delivery.outputPath = outputPath;
+					delivery.filename = filename;
+					delivery.reassessment = isReassessment;
+					// Evaluated here, it needs the request
+					delivery.extraArgs = generateExtraArguments(request, ts);
+					AssessmentQueue.Job job = null;
+					try {
+						job = AssessmentQueue.submit(AssessJobServlet.getOwner(ts), tool, userId, isInstructor,
+								() -> assess(delivery), () -> assessLate(delivery));
+						if (job == null) {
+							logger.error("Assessment queue full: {}", userId);
+							if (tui.isKeepFiles()
+									&& tool.getEnabledUntil() != null
+									&& tui.getMaxConcurrentUsers() != 0
+									&& !tool.isEnabledByDate(Calendar.getInstance(), -DEFAULT_GRACE_TIME * 2)) {
+								// If the remaining time is short and the files must be saved, we activate this
+								// mode
+								delivery.onlyStore = true;
+								logger.info("Max Concurrency Only Store Mode ON: {}", userId);
 							} else {
-								out.println(formatError(text.get("T_ERROR_WRITE_OUTCOME")));
-								attempt.setErrorCode(ToolRunner.ERROR_WRITE_OUTCOME);
+								out.println(formatError(text.get("T_ERROR_CONCURRENCIA_MAXIMA")));
 							}
 						}
-
-					} else {
-						attempt.setScore(scoreInt);
-						attempt.setErrorCode(OK_WITHOUT_OUTCOME);
+					} catch (final ConcurrentModificationException e) {
+						out.println(formatError(text.get("T_ERROR_CORRECCION_SIMULTANEA")));
+						logger.error("Concurrent delivery: {}", userId);
 					}
-					// Create attempt if not exist
-					if (!isReassessment) {
-						ToolAttemptDao.create(attempt);
-					} else if (attempt.getResourceUser().getSid() != attempt.getOriginalResourceUser().getSid()) {
-						// Check if exist
-						final Attempt aux = ToolAttemptDao.getById(attempt.getResourceUser().getSid(),
-								attempt.getInstant());
-						if (aux == null) {
-							ToolAttemptDao.create(attempt);
+					if (delivery.onlyStore) {
+						// There is no correction
+						out.print(assess(delivery));
+					} else if (job == null) {
+						// Not assessed, the delivery is not saved
+						if (!isReassessment && !new File(userFilePath).delete()) {
+							logger.error("Error deleting delivery file");
 						}
+					} else if (tui.isRedirectMode()) {
+						// The response is the output of the corrector, that may take as much
+						// again to be killed
+						final String html = job.await(2 * MAX_CORRECTION_SECONDS * 1000L);
+						out.print(html != null ? html : formatError(text.get("T_ERROR_TIMEOUT")));
 					} else {
-						ToolAttemptDao.update(attempt);
-					}
-					// Send output
-					if (resultFile.exists() && resultFile.length() > 0) {
-						if (!tui.isRedirectMode()) {
-							// Generate iframe
-							String secureId = SecurityUtil.getSecureSid(attempt);
-							out.println(
-									"<div class='resizer'><iframe class='resized outputframe' src='attempt/"
-											+ java.net.URLEncoder
-													.encode(userId != null ? userId : "user", StandardCharsets.UTF_8)
-													.replace("+", "%20")
-											+ "/output/" + secureId + "'></iframe></div>");
-						} else {
-							// Copy to response
-							try (BufferedInputStream br = new BufferedInputStream(new FileInputStream(resultFile));) {
-								WriterOutputStream wos = WriterOutputStream.builder().setWriter(out)
-										.setCharset(StandardCharsets.UTF_8).get();
-								br.transferTo(wos);
-								wos.flush();
-							} catch (final IOException e) {
-								out.println(formatError(text.get("T_ERROR_IO")));
-							}
-
-							if (!attempt.isOutputSaved() && !resultFile.delete()) {
-								logger.error("Error deleting file");
-							}
-						}
+						out.println("<div class='assessjob' data-job='" + job.getId() + "'><p>"
+								+ text.get("T_CORRECCION_EN_CURSO") + "</p></div>");
 					}
 				}
-
-				removeConcurrentUser(userId, concurrentUsers, tool);
 			}
 		}
 	}
 
 	/**
-	 * Forwards request capturing exceptions.
+	 * Handles a delivery that waited too long in the queue: it is only stored if
+	 * the files of the tool are kept, else it is discarded.
 	 *
-	 * @param request    HTTP request
-	 * @param response   HTTP response
-	 * @param forwardUrl forward URL
+	 * @param delivery the delivery
+	 * @return the result (HTML)
 	 */
-	private void forward(HttpServletRequest request, HttpServletResponse response, String forwardUrl) {
-		try {
-			request.getRequestDispatcher(forwardUrl).forward(request, response);
-		} catch (ServletException | IOException e) {
-			logger.error("Error al reenviar");
+	private String assessLate(Delivery delivery) {
+		if (delivery.tool.getToolUiConfig().isKeepFiles()) {
+			delivery.onlyStore = true;
+			logger.info("Max Concurrency Only Store Mode ON: {}", delivery.ts.getSessionUserId());
+			return assess(delivery);
+		}
+		if (!delivery.reassessment && !new File(delivery.userFilePath).delete()) {
+			logger.error("Error deleting delivery file");
 		}
+		return formatError(delivery.text.get("T_ERROR_CONCURRENCIA_MAXIMA"));
 	}
 
 	/**
-	 * Adds user to concurrent users set.
+	 * Runs the corrector on a delivery and saves the attempt.
 	 *
-	 * @param userId          user name
-	 * @param concurrentUsers set of concurrent users
-	 * @param tool            the used tool
-	 * @return true if successful
-	 * @throws ConcurrentModificationException if could not add to the set
+	 * @param delivery the delivery
+	 * @return the result (HTML or output of redirect tools)
 	 */
-	private boolean addConcurrentUser(String userId, Tool tool)
-			throws ConcurrentModificationException {
-		final int numAlumnos = concurrentUsers.size();
-		boolean result = false;
-		// Check global limits
-		if (numAlumnos < Settings.getConcurrentUsers()) {
-			// Check tool limits
-			final int max = tool.getToolUiConfig().getMaxConcurrentUsers();
-			if (max < 0 || tool.getConcurrentUsers().size() < max) {
-				// add to set
-				if (!concurrentUsers.add(tool.getName() + ":" + userId)) {
-					throw new ConcurrentModificationException(); // This shouldn't happen
-				} else {
-					tool.getConcurrentUsers().add(userId);
-					result = true;
+	private String assess(Delivery delivery) {
+		final StringWriter result = new StringWriter();
+		final PrintWriter out = new PrintWriter(result);
+		final ToolSession ts = delivery.ts;
+		final Tool tool = delivery.tool;
+		final ToolUiConfig tui = tool.getToolUiConfig();
+		final String userId = ts.getSessionUserId();
+		final boolean isInstructor = ts.isInstructor();
+		final MessageMap text = delivery.text;
+		final Attempt attempt = delivery.attempt;
+		final String userFilePath = delivery.userFilePath;
+		final String outputPath = delivery.outputPath;
+		final String filename = delivery.filename;
+		final boolean isReassessment = delivery.reassessment;
+		final boolean maxConcurrencyOnlyStoreMode = delivery.onlyStore;
+		int scoreInt = 1000;
+		boolean queueOutcome = false;
+		logger.info("Diagnostico para debug");
+		logger.info("¿Está permitido enviar notas ? : " + ts.isOutcomeAllowed());
+		logger.info("¿El ResourceUser es nulo? : " + (ts.getLtiResourceUser() == null));
+		final boolean nocal = !ts.isOutcomeAllowed();
+		if (nocal) {
+			logger.warn(
+					"El LMS NO envió el claim de calificaciones en el JWT de inicio (https://purl.imsglobal.org/spec/lti-ags/claim/endpoint).");
+		}
+		final File resultFile = new File(outputPath);
+		if (maxConcurrencyOnlyStoreMode) {
+			scoreInt = ToolRunner.ERROR_CONCURRENT_EXCEPTION;
+			// this modo is only enabled if keep files is enabled.
+			attempt.setOutputSaved(false);
+		} else {
+			final ToolRunner executer = getToolRunner(tool);
+			if (executer != null) {
+				// Assess
+				final int counter = ToolDao.incrementCounter(tool);
+				// Add extra arguments
+				final List<String> extraArgs = delivery.extraArgs;
+
+				logger.info("{}:{} > {}", tool.getName(), counter, userId);
+				try {
+					scoreInt = executer.exec(userFilePath, outputPath, userId, filename, counter,
+							isInstructor,
+							extraArgs, MAX_CORRECTION_SECONDS);
+				} catch (Throwable t) {
+					scoreInt = ToolRunner.ERROR_RUNNER_EXCEPTION;
+					logger.error("FATAL ERROR during ToolRunner.exec for tool {}: {}", tool.getName(),
+							t.getMessage(), t);
+				}
+				logger.info("{}:{} > {} > result={}", tool.getName(), counter, userId, scoreInt);
+
+				// Output of execution
+				if (resultFile.exists() && resultFile.length() > 0) {
+					attempt.setOutputSaved(true);
+				}
+				// Delete unnecessary files
+				try {
+					if (!tui.isKeepFiles() && !tui.isKeepOutput()) {
+						clean(outputPath); // Clean error output
+						if (!new File(userFilePath).delete()) {
+							logger.error("Error deleting files");
+						}
+						attempt.setFileSaved(false);
+						attempt.setOutputSaved(false);
+					} else if (tui.isEnableInstructorCommand() && filename.equals(tui.getCommandFilename())
+							&& isInstructor || scoreInt > 100) {
+						// command or execution error, delete files and output
+						// if isReassessment do not delete original file
+						if (!isReassessment && !new File(userFilePath).delete()) {
+							logger.error("Error deleting delivery file");
+						} else {
+							attempt.setFileSaved(false);
+						}
+						clean(outputPath); // Clean error output
+						attempt.setOutputSaved(false);
+					} else if (!tui.isKeepFiles() || !tui.isKeepOutput()) {
+						// not keep all
+						if (tui.isKeepFiles()) {
+							// keep files, delete error output
+							clean(outputPath); // Clean error output
+							attempt.setOutputSaved(false);
+						} else if (tui.isKeepOutput() && !new File(userFilePath).delete()) {
+							// keep output, delete files
+							logger.error("Error deleting files");
+						} else {
+							attempt.setFileSaved(false);
+						}
+					}
+				} catch (final Exception e) {
+					logger.info("Some file could not be deleted.");
 				}
 			}
 		}
-		return result;
-	}
 
-	/**
-	 * Adds user to concurrent users set (ignoring tool).
-	 *
-	 * @param userId          user name
-	 * @param concurrentUsers set of concurrent users
-	 * @param toolName        the used tool name
-	 * @return true if successful
-	 * @throws ConcurrentModificationException if could not add to the set
-	 */
-	private boolean addConcurrentUserIgnoringTool(String userId, String toolName)
-			throws ConcurrentModificationException {
-		final int numAlumnos = concurrentUsers.size();
-		boolean result = false;
-		// Check global limits
-		if (numAlumnos < Settings.getConcurrentUsers()) {
-			// Check tool limits
-			// add to set
-			if (!concurrentUsers.add(toolName + ":" + userId)) {
-				throw new ConcurrentModificationException(); // This shouldn't happen
+		if (scoreInt == ToolRunner.ERROR_CORRECTOR_EXCEPTION) {
+			// Error in corrector (settings, params, servers...)
+			out.println(formatError(text.get("T_ERROR_CORRECTOR_EXCEPTION")));
+			attempt.setErrorCode(scoreInt);
+		} else if (scoreInt == ToolRunner.ERROR_RUNNER_EXCEPTION) {
+			// Exception in ToolRunner
+			out.println(formatError(text.get("T_ERROR_RUNNER_EXCEPTION")));
+			attempt.setErrorCode(scoreInt);
+		} else if (scoreInt == ToolRunner.ERROR_TIMEOUT) {
+			// Timeout
+			out.println(formatError(text.get("T_ERROR_TIMEOUT")));
+			attempt.setErrorCode(scoreInt);
+		} else if (maxConcurrencyOnlyStoreMode) {
+			out.println(formatError(text.get("T_ERROR_CONCURRENT_EXCEPTION")));
+			out.println(formatError("ID=" + attempt.getId()));
+			attempt.setErrorCode(scoreInt);
+		} else if (scoreInt >= ToolRunner.ERROR_GENERIC) {
+			// Unknown error
+			out.println(formatError(text.get("T_ERROR_GENERIC") + " " + scoreInt));
+			attempt.setErrorCode(scoreInt);
+		} else if (!nocal && ts.getLtiResourceUser() != null) {
+			logger.info("Flujo LTI 1.3 Iniciado");
+			logger.info("Client ID: " + ts.getLti13ClientId());
+			// logger.info("URL de Calificaciones (lisOutcomeServiceUrl): " +
+			// ts.getLisOutcomeServiceUrl());
+
+			attempt.setScore(scoreInt);
+			if (isInstructor) {
+				// Instructor is only testing
+				out.println("<p id='score'><strong>(TEST) " + text.get("T_NOTA") + ":</strong> "
+						+ String.format("%.1f", scoreInt * 0.1)
+						+ "</p>");
+				attempt.setErrorCode(OK_WITHOUT_OUTCOME);
+			} else {
+				// Sent in background by the outbox, once the attempt is saved
+				attempt.setErrorCode(GradeOutbox.OUTCOME_PENDING);
+				queueOutcome = true;
+			}
+
+		} else {
+			attempt.setScore(scoreInt);
+			attempt.setErrorCode(OK_WITHOUT_OUTCOME);
+		}
+		// Create attempt if not exist
+		if (!isReassessment) {
+			ToolAttemptDao.create(attempt);
+		} else if (attempt.getResourceUser().getSid() != attempt.getOriginalResourceUser().getSid()) {
+			// Check if exist
+			final Attempt aux = ToolAttemptDao.getById(attempt.getResourceUser().getSid(),
+					attempt.getInstant());
+			if (aux == null) {
+				ToolAttemptDao.create(attempt);
+			}
+		} else {
+			ToolAttemptDao.update(attempt);
+		}
+		if (queueOutcome) {
+			if (GradeOutbox.enqueue(ts.getLtiResourceUser(), attempt.getSid(), scoreInt,
+					ts.getLti13ClientId(), ts.getToolKey())) {
+				out.println("<p id='score'><strong>" + text.get("T_NOTA") + ":</strong> "
+						+ String.format("%.1f", scoreInt * 0.1)
+						+ "</p>");
+			} else {
+				out.println(formatError(text.get("T_ERROR_WRITE_OUTCOME")));
+				attempt.setErrorCode(ToolRunner.ERROR_WRITE_OUTCOME);
+				ToolAttemptDao.update(attempt);
+			}
+		}
+		// Send output
+		if (resultFile.exists() && resultFile.length() > 0) {
+			if (!tui.isRedirectMode()) {
+				// Generate iframe
+				String secureId = SecurityUtil.getSecureSid(attempt);
+				out.println(
+						"<div class='resizer'><iframe class='resized outputframe' src='attempt/"
+								+ java.net.URLEncoder
+										.encode(userId != null ? userId : "user", StandardCharsets.UTF_8)
+										.replace("+", "%20")
+								+ "/output/" + secureId + "'></iframe></div>");
 			} else {
-				result = true;
+				// Copy to response
+				try (BufferedInputStream br = new BufferedInputStream(new FileInputStream(resultFile));) {
+					WriterOutputStream wos = WriterOutputStream.builder().setWriter(out)
+							.setCharset(StandardCharsets.UTF_8).get();
+					br.transferTo(wos);
+					wos.flush();
+				} catch (final IOException e) {
+					out.println(formatError(text.get("T_ERROR_IO")));
+				}
+
+				if (!attempt.isOutputSaved() && !resultFile.delete()) {
+					logger.error("Error deleting file");
+				}
 			}
 		}
-		return result;
+		out.flush();
+		return result.toString();
 	}
 
 	/**
-	 * Removes user from concurrent user set.
+	 * Forwards request capturing exceptions.
 	 *
-	 * @param userId              user name
-	 * @param alumnosConcurrentes set of concurrent users
-	 * @param tool                the used tool
+	 * @param request    HTTP request
+	 * @param response   HTTP response
+	 * @param forwardUrl forward URL
 	 */
-	private void removeConcurrentUser(String userId, Set<String> alumnosConcurrentes, Tool tool) {
-		alumnosConcurrentes.remove(tool.getName() + ":" + userId);
-		tool.getConcurrentUsers().remove(userId);
+	private void forward(HttpServletRequest request, HttpServletResponse response, String forwardUrl) {
+		try {
+			request.getRequestDispatcher(forwardUrl).forward(request, response);
+		} catch (ServletException | IOException e) {
+			logger.error("Error al reenviar");
+		}
 	}
 
 	/**
@@ -671,7 +670,7 @@ public class AssessServlet extends HttpServlet {
 		if (executer == null) {
 			final MgmtUser admin = MgmtUserDao.get(ToolDao.getAdmin(tool));
 			if (admin != null) {
-				if (!admin.isLocal() && tool.getToolType() == ToolRunnerType.TR_LOCAL) {
+				if (!admin.isLocal() && tool.getToolType().isLocal()) {
 					// Not allowed
 					logger.info("ToolRunner: Local execute permission not allowed: user={}", admin.getUsername());
 				} else {
@@ -1,21 +1,22 @@
 package es.us.dit.lti.servlet;
 
 import es.us.dit.lti.persistence.KeyService;
-import com.nimbusds.jose.jwk.JWKSet;
-import com.google.gson.Gson;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 
 /**
  * Endpoint público que expone el conjunto de claves (JWK Set) del TPM.
  * El LMS consultará esta URL para verificar las firmas de los mensajes que
  * enviamos.
  * Requisito LTI 1.3: Security Framework.
+ *
+ * El documento se sirve ya serializado desde {@link KeyService}, con un ETag
+ * fuerte, y se responde 304 si el LMS envía un If-None-Match que coincide.
  
  * @author Juan López Suárez
 */
@@ -24,25 +25,61 @@ public class JWKSServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Tiempo de caché en segundos. Menor que el tiempo que se publica una
+     * clave nueva antes de usarla, para que el LMS la conozca a tiempo.
+     */
+    private static final long MAX_AGE_SECONDS = KeyService.PUBLISH_MILLIS / 2000;
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-
-        resp.setContentType("application/json");
-        resp.setCharacterEncoding("UTF-8");
-
-        // resp.setHeader("Cache-Control", "max-age=3600");
-
-        try (PrintWriter out = resp.getWriter()) {
-
-            KeyService keyService = new KeyService();
-
-            JWKSet publicKeys = keyService.getPublicJWKSet();
-            Gson gson = new Gson();
-            out.print(gson.toJson(publicKeys.toJSONObject()));
-
+        KeyService.PublishedKeySet keySet;
+        try {
+            keySet = new KeyService().getPublishedKeySet();
         } catch (Exception e) {
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             e.printStackTrace();
+            return;
+        }
+
+        resp.setHeader("Cache-Control", "public, max-age=" + MAX_AGE_SECONDS);
+        resp.setHeader("ETag", keySet.getETag());
+
+        if (matches(req.getHeader("If-None-Match"), keySet.getETag())) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            resp.setContentType("application/json");
+            resp.setCharacterEncoding("UTF-8");
+            byte[] json = keySet.getJson();
+            resp.setContentLength(json.length);
+            try (OutputStream out = resp.getOutputStream()) {
+                out.write(json);
+            }
+        }
+    }
+
+    /**
+     * Comprueba si la cabecera If-None-Match incluye el ETag actual.
+     *
+     * @param ifNoneMatch valor de la cabecera, puede ser null
+     * @param etag ETag actual
+     * @return true si coincide
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        boolean result = false;
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // Comparación débil, como indica RFC 9110 para If-None-Match
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    result = true;
+                    break;
+                }
+            }
         }
+        return result;
     }
-}
\ No newline at end of file
+}
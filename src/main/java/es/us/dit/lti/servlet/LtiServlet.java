@@ -23,6 +23,7 @@ import es.us.dit.lti.SecurityUtil;
 import es.us.dit.lti.ToolSession;
 import es.us.dit.lti.entity.MgmtUser;
 import es.us.dit.lti.persistence.Lti13ToolConfig;
+import es.us.dit.lti.persistence.Lti13Registry;
 import es.us.dit.lti.persistence.ToolLti13Dao;
 import es.us.dit.lti.persistence.ToolKeyDao;
 import es.us.dit.lti.entity.ToolKey;
@@ -30,7 +31,7 @@ import es.us.dit.lti.persistence.ToolResourceLinkDao;
 import es.us.dit.lti.runner.ToolRunnerFactory;
 import es.us.dit.lti.entity.Consumer;
 import es.us.dit.lti.entity.ResourceLink;
-import es.us.dit.lti.NrpsService;
+import es.us.dit.lti.NrpsSyncScheduler;
 
 /**
  * Servlet for receiving initial tool request. LTI initial contact URL.
@@ -100,8 +101,7 @@ public class LtiServlet extends HttpServlet {
                     response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid ID Token: Missing audience.");
                 } else {
                     String clientId = audiences.get(0);
-                    ToolLti13Dao dao = new ToolLti13Dao();
-                    Lti13ToolConfig config = dao.findByClientId(clientId);
+                    Lti13ToolConfig config = Lti13Registry.findConfigByClientId(clientId);
 
                     if (config == null || !config.getIssuer().equals(issuer)) {
                         logger.error("LTI 1.3 Error: Unknown Configuration for client_id {} and issuer {}", clientId,
@@ -190,14 +190,13 @@ public class LtiServlet extends HttpServlet {
                                                 Consumer consumerNrps = ts.getConsumer();
                                                 ResourceLink resLinkNrps = ts.getResourceLink();
 
-                                                new Thread(() -> {
-                                                    NrpsService.syncRoster(contextMembershipsUrl, clientIdNrps,
-                                                            tokenUrlNrps, consumerNrps, resLinkNrps);
-                                                }).start();
+                                                // En segundo plano, una a la vez por contexto
+                                                NrpsSyncScheduler.request(contextMembershipsUrl, clientIdNrps,
+                                                        tokenUrlNrps, consumerNrps, resLinkNrps, false);
                                             }
                                         } catch (Exception e) {
                                             logger.error(
-                                                    "LTI 1.3: Error extrayendo claim NRPS o lanzando hilo de sincronización",
+                                                    "LTI 1.3: Error extrayendo claim NRPS o programando la sincronización",
                                                     e);
                                         }
                                     }
@@ -22,12 +22,22 @@ package es.us.dit.lti.servlet;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 
+import es.us.dit.lti.AccessTokenManager;
+import es.us.dit.lti.AssessmentQueue;
+import es.us.dit.lti.GradeOutbox;
+import es.us.dit.lti.HttpClientManager;
+import es.us.dit.lti.NrpsSyncScheduler;
+import es.us.dit.lti.persistence.EntityCache;
+import es.us.dit.lti.persistence.NonceService;
 import es.us.dit.lti.persistence.SettingsDao;
 import es.us.dit.lti.persistence.ToolConsumerDao;
 import es.us.dit.lti.persistence.ToolConsumerUserDao;
@@ -35,6 +45,9 @@ import es.us.dit.lti.persistence.ToolContextDao;
 import es.us.dit.lti.persistence.ToolNonceDao;
 import es.us.dit.lti.persistence.ToolResourceLinkDao;
 import es.us.dit.lti.persistence.ToolResourceUserDao;
+import es.us.dit.lti.runner.LocalWorkerPool;
+import es.us.dit.lti.runner.SshMasterConnections;
+import es.us.dit.lti.runner.SshServerBalancer;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -47,7 +60,7 @@ import jakarta.servlet.http.HttpServletResponse;
  */
 @WebServlet({ "/super/optimize", "/super/getunused", "/super/deleteunusedusers", "/super/deleteunusedresourceusers",
 		"/super/deleteunusedresourcelinks", "/super/deleteunusedcontexts", "/super/deleteunusedconsumers",
-		"/super/unmapall" })
+		"/super/unmapall", "/super/cachestats" })
 
 public class MaintenanceServlet extends HttpServlet {
 	/**
@@ -85,6 +98,18 @@ public class MaintenanceServlet extends HttpServlet {
 			info.put("users", ToolConsumerUserDao.getUnused().size());
 			info.put("unmapAllBtn", ToolResourceLinkDao.getMappedCount());
 			out.append(new Gson().toJson(info));
+		} else if (request.getServletPath().equals("/super/cachestats")) {
+			response.setContentType("application/json");
+			final List<Map<String, Object>> stats = new ArrayList<>(EntityCache.getStatistics());
+			stats.add(AccessTokenManager.getStatistics());
+			stats.add(HttpClientManager.getStatistics());
+			stats.add(GradeOutbox.getStatistics());
+			stats.add(NrpsSyncScheduler.getStatistics());
+			stats.add(AssessmentQueue.getStatistics());
+			stats.add(LocalWorkerPool.getStatistics());
+			stats.add(SshMasterConnections.getStatistics());
+			stats.add(SshServerBalancer.getStatistics());
+			out.append(new Gson().toJson(stats));
 		} else {
 			response.setStatus(HttpServletResponse.SC_FORBIDDEN);
 			try {
@@ -136,7 +161,9 @@ public class MaintenanceServlet extends HttpServlet {
 				out.print(ToolContextDao.deleteUnused());
 				break;
 			case "/super/deleteunusedconsumers":
-				ToolNonceDao.deleteAll(); // Nonce depends on consumer
+				// Nonce depends on consumer (the table may have nonces of db mode)
+				NonceService.deleteAll();
+				ToolNonceDao.deleteAll();
 				out.print(ToolConsumerDao.deleteUnused());
 				break;
 			case "/super/unmapall":
@@ -1,8 +1,9 @@
 package es.us.dit.lti.servlet;
 
 import java.io.IOException;
+import java.text.ParseException;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.List;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
@@ -19,10 +20,11 @@ import com.nimbusds.jwt.JWTClaimsSet;
 import com.google.gson.Gson;
 
 import es.us.dit.lti.NrpsService;
+import es.us.dit.lti.NrpsSyncScheduler;
 import es.us.dit.lti.ToolSession;
 import es.us.dit.lti.entity.Consumer;
 import es.us.dit.lti.entity.ResourceLink;
-import es.us.dit.lti.persistence.ToolLti13Dao;
+import es.us.dit.lti.persistence.Lti13Registry;
 import es.us.dit.lti.persistence.Lti13ToolConfig;
 
 /**
@@ -44,6 +46,11 @@ public class NrpsSyncServlet extends HttpServlet {
 	 */
 	private static final Logger logger = LoggerFactory.getLogger(NrpsSyncServlet.class);
 
+	/**
+	 * Maximum time that a request waits for the synchronization, in milliseconds.
+	 */
+	private static final long MAX_WAIT_MILLIS = 25000;
+
 	/**
 	 * Processes POST request to synchronize students via NRPS.
 	 */
@@ -55,33 +62,36 @@ public class NrpsSyncServlet extends HttpServlet {
 		boolean success = false;
 		String errorMessage = "Not available or not instructor";
 
-		List<Map<String, Object>> syncedUsers = null;
+		NrpsService.SyncResult syncResult = null;
+		NrpsSyncScheduler.Job job = null;
 
 		if (ts != null && ts.isInstructor()) {
 			String idToken = (String) session.getAttribute("lti13_id_token");
 			if (idToken != null) {
 				try {
-					ToolLti13Dao lti13Dao = new ToolLti13Dao();
-					Lti13ToolConfig config = lti13Dao.findByClientId(ts.getLti13ClientId());
+					Lti13ToolConfig config = Lti13Registry.findConfigByClientId(ts.getLti13ClientId());
 					if (config != null) {
-						SignedJWT parsedJWT = SignedJWT.parse(idToken);
-						JWTClaimsSet claims = parsedJWT.getJWTClaimsSet();
-						Map<String, Object> nrpsClaim = claims
-								.getJSONObjectClaim("https://purl.imsglobal.org/spec/lti-nrps/claim/namesroleservice");
-						if (nrpsClaim != null && nrpsClaim.containsKey("context_memberships_url")) {
-							String contextMembershipsUrl = (String) nrpsClaim.get("context_memberships_url");
+						String contextMembershipsUrl = getContextMembershipsUrl(idToken);
+						if (contextMembershipsUrl != null) {
 
 							String clientIdNrps = config.getClientId();
 							String tokenUrlNrps = config.getTokenUrl();
 							Consumer consumerNrps = ts.getConsumer();
 							ResourceLink resLinkNrps = ts.getResourceLink();
 
-							syncedUsers = NrpsService.syncRoster(contextMembershipsUrl, clientIdNrps, tokenUrlNrps,
-									consumerNrps,
-									resLinkNrps);
-							if (syncedUsers != null) {
+							// Joins the synchronization in progress, if any
+							job = NrpsSyncScheduler.request(contextMembershipsUrl, clientIdNrps, tokenUrlNrps,
+									consumerNrps, resLinkNrps, true);
+							syncResult = job.await(MAX_WAIT_MILLIS);
+							if (syncResult == null && job.getState() == NrpsSyncScheduler.State.DONE) {
+								// Finished just after the timeout
+								syncResult = job.await(0);
+							}
+							if (syncResult != null) {
 								success = true;
 								errorMessage = null;
+							} else if (job.getState() != NrpsSyncScheduler.State.FAILED) {
+								errorMessage = null;
 							} else {
 								errorMessage = "Error during NRPS sync";
 							}
@@ -102,10 +112,72 @@ public class NrpsSyncServlet extends HttpServlet {
 
 		response.setContentType("application/json");
 		if (success) {
-			String usersJson = new Gson().toJson(syncedUsers);
-			response.getWriter().write("{\"success\": true, \"users\": " + usersJson + "}");
+			String usersJson = new Gson().toJson(syncResult.getMembers());
+			response.getWriter().write("{\"success\": true, \"total\": " + syncResult.getTotal()
+					+ ", \"differential\": " + job.isDifferential() + ", \"users\": " + usersJson + "}");
+		} else if (errorMessage == null) {
+			// Still running
+			response.getWriter().write("{\"success\": true, \"pending\": true, \"state\": \"" + job.getState() + "\"}");
 		} else {
 			response.getWriter().write("{\"success\": false, \"error\": \"" + errorMessage + "\"}");
 		}
 	}
+
+	/**
+	 * Processes GET request to get the state of the last synchronization.
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		final HttpSession session = request.getSession();
+		final ToolSession ts = (ToolSession) session.getAttribute(ToolSession.class.getName());
+		final Map<String, Object> status = new LinkedHashMap<>();
+		String idToken = (String) session.getAttribute("lti13_id_token");
+		if (ts != null && ts.isInstructor() && idToken != null) {
+			try {
+				String contextMembershipsUrl = getContextMembershipsUrl(idToken);
+				NrpsSyncScheduler.Job job = contextMembershipsUrl != null
+						? NrpsSyncScheduler.getLast(contextMembershipsUrl, ts.getResourceLink())
+						: null;
+				status.put("success", true);
+				if (job != null) {
+					status.put("state", job.getState());
+					status.put("differential", job.isDifferential());
+					status.put("requested", job.getRequested());
+					status.put("finished", job.getFinished());
+					NrpsService.SyncResult syncResult = job.await(0);
+					if (syncResult != null) {
+						status.put("total", syncResult.getTotal());
+					}
+				}
+			} catch (Exception e) {
+				logger.error("Error getting NRPS sync state", e);
+				status.put("success", false);
+				status.put("error", "Internal error");
+			}
+		} else {
+			status.put("success", false);
+			status.put("error", "Not available or not instructor");
+		}
+		response.setContentType("application/json");
+		response.getWriter().write(new Gson().toJson(status));
+	}
+
+	/**
+	 * Gets the NRPS endpoint of the context from the id_token.
+	 *
+	 * @param idToken the id_token of the launch
+	 * @return the URL or null if there is no NRPS claim
+	 * @throws ParseException if the token is not valid
+	 */
+	private static String getContextMembershipsUrl(String idToken) throws ParseException {
+		SignedJWT parsedJWT = SignedJWT.parse(idToken);
+		JWTClaimsSet claims = parsedJWT.getJWTClaimsSet();
+		Map<String, Object> nrpsClaim = claims
+				.getJSONObjectClaim("https://purl.imsglobal.org/spec/lti-nrps/claim/namesroleservice");
+		if (nrpsClaim != null && nrpsClaim.get("context_memberships_url") instanceof String) {
+			return (String) nrpsClaim.get("context_memberships_url");
+		}
+		return null;
+	}
 }
@@ -1,6 +1,7 @@
 package es.us.dit.lti.servlet;
 
-import es.us.dit.lti.persistence.ToolLti13Dao;
+import es.us.dit.lti.PlatformKeyCache;
+import es.us.dit.lti.persistence.Lti13Registry;
 import es.us.dit.lti.persistence.Lti13ToolConfig;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
@@ -11,12 +12,8 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
-import es.us.dit.lti.persistence.LtiPlatformDao;
-import es.us.dit.lti.persistence.LtiClientDao;
-import es.us.dit.lti.persistence.LtiDeploymentDao;
 import es.us.dit.lti.entity.LtiPlatform;
 import es.us.dit.lti.entity.LtiClient;
-import es.us.dit.lti.entity.LtiDeployment;
 
 /**
  * Maneja el flujo de inicio de sesión iniciado por terceros (Third-party
@@ -55,8 +52,7 @@ public class OIDCLoginServlet extends HttpServlet {
 
         } else {
             // Buscamos la plataforma
-            LtiPlatformDao ltiPlatformDao = new LtiPlatformDao();
-            LtiPlatform ltiPlatform = ltiPlatformDao.findByIssuer(iss);
+            LtiPlatform ltiPlatform = Lti13Registry.findPlatformByIssuer(iss);
             if (ltiPlatform == null) {
                 resp.sendError(HttpServletResponse.SC_UNAUTHORIZED,
                         "Acceso Denegado: Plataforma LTI no registrada en el TPM.");
@@ -64,31 +60,12 @@ public class OIDCLoginServlet extends HttpServlet {
             } else {
                 // Extraemos la URL de autenticación OIDC de la Plataforma
                 String oidcAuthUrl = ltiPlatform.getOidcAuthUrl();
-                // Descubrimos los clientes
-                LtiClientDao clientDao = new LtiClientDao();
-                LtiClient client = clientDao.findByPlatformAndClientId(ltiPlatform.getId(), client_id);
-                if (client == null) {
-                    client = new LtiClient();
-                    client.setPlatformId(ltiPlatform.getId());
-                    client.setClientId(client_id);
-                    clientDao.insert(client);
-
-                    // Lo recuperamos para obtener su id autogenerado
-                    client = clientDao.findByPlatformAndClientId(ltiPlatform.getId(), client_id);
-                    System.out.println("Cliente descubierto e insertado: " + client.getId());
-                }
+                // Descargamos en segundo plano las claves del LMS, para validar el id_token del lanzamiento
+                PlatformKeyCache.prefetch(ltiPlatform.getJwksUrl());
+                // Descubrimos los clientes (una sola inserción aunque haya logins concurrentes)
+                LtiClient client = Lti13Registry.discoverClient(ltiPlatform.getId(), client_id);
                 if (deployment_id != null && client != null) {
-                    LtiDeploymentDao ltiDeploymentDao = new LtiDeploymentDao();
-                    LtiDeployment ltiDeployment = ltiDeploymentDao.findByClientIdAndDeploymentId(client.getId(),
-                            deployment_id);
-                    if (ltiDeployment == null) {
-                        ltiDeployment = new LtiDeployment();
-                        ltiDeployment.setClientIdPk(client.getId());
-                        ltiDeployment.setDeploymentId(deployment_id);
-                        ltiDeploymentDao.insert(ltiDeployment);
-                        System.out.println("Nuevo Despliegue descubierto: " + deployment_id);
-                        
-                    }
+                    Lti13Registry.discoverDeployment(client.getId(), deployment_id);
                 }
                 // Seguridad
                 String state = UUID.randomUUID().toString();
@@ -38,7 +38,7 @@ import com.google.gson.Gson;
 import es.us.dit.lti.OutcomeService;
 import es.us.dit.lti.ToolSession;
 import es.us.dit.lti.persistence.KeyService;
-import es.us.dit.lti.persistence.ToolLti13Dao;
+import es.us.dit.lti.persistence.Lti13Registry;
 import es.us.dit.lti.persistence.Lti13ToolConfig;
 import es.us.dit.lti.entity.Attempt;
 import es.us.dit.lti.entity.ResourceLink;
@@ -98,8 +98,7 @@ public class ReadScoreServlet extends HttpServlet {
 		String result = null;
 		if (ts.getLti13ClientId() != null) {
 			try {
-				ToolLti13Dao lti13Dao = new ToolLti13Dao();
-				Lti13ToolConfig config = lti13Dao.findByClientId(ts.getLti13ClientId());
+				Lti13ToolConfig config = Lti13Registry.findConfigByClientId(ts.getLti13ClientId());
 				if (config != null) {
 					KeyService keyService = new KeyService();
 					if (KeyService.getDbUtil() == null) {
@@ -179,8 +178,7 @@ public class ReadScoreServlet extends HttpServlet {
 					String scoreValue = null;
 					if (ts.getLti13ClientId() != null) {
 						try {
-							ToolLti13Dao lti13Dao = new ToolLti13Dao();
-							Lti13ToolConfig config = lti13Dao.findByClientId(ts.getLti13ClientId());
+							Lti13ToolConfig config = Lti13Registry.findConfigByClientId(ts.getLti13ClientId());
 							if (config != null) {
 								KeyService keyService = new KeyService();
 								if (KeyService.getDbUtil() == null) {
@@ -0,0 +1,21 @@
+-- Indexes for the queries of the launch and assess paths
+
+-- Attempts of a user (ToolAttemptDao)
+CREATE INDEX `idx_resource_user_lti_user` ON `resource_user` (`lti_user_sid`, `resource_sid`);
+CREATE INDEX `idx_resource_link_tool_key` ON `resource_link` (`tool_key_sid`, `resource_id`);
+CREATE INDEX `idx_attempt_count` ON `attempt` (`resource_user_sid`, `errorCode`, `filename`);
+
+-- Resource links by resource id (LaunchDao, ToolResourceLinkDao)
+CREATE INDEX `idx_resource_link_resource_id` ON `resource_link` (`resource_id`);
+
+-- Expired nonces
+CREATE INDEX `idx_nonce_expires` ON `nonce` (`expires`);
+
+-- Keys of a tool
+CREATE INDEX `idx_tool_key_tool` ON `tool_key` (`tool_sid`, `consumer_sid`);
+
+-- Users by source id (outcomes)
+CREATE INDEX `idx_lti_user_source_id` ON `lti_user` (`source_id`);
+
+-- Contexts of a consumer (the unique index of the installation script uses a wrong column)
+CREATE INDEX `idx_context_consumer` ON `context` (`consumer_sid`, `context_id`);
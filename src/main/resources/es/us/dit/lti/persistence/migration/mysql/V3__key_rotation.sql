@@ -0,0 +1,7 @@
+-- Rotation of LTI 1.3 keys (KeyService)
+
+ALTER TABLE `settings` ADD COLUMN `key_rotation_days` integer DEFAULT 0;
+CREATE TABLE IF NOT EXISTS `lti_key_rotation` (
+  `replaced_kid` varchar(255) PRIMARY KEY NOT NULL,
+  `created` bigint NOT NULL
+);
@@ -0,0 +1,6 @@
+-- Settings of the connection pool, counter blocks and nonces
+
+ALTER TABLE `settings` ADD COLUMN `pool_mode` boolean DEFAULT FALSE;
+ALTER TABLE `settings` ADD COLUMN `pool_config` varchar(1000) DEFAULT NULL;
+ALTER TABLE `settings` ADD COLUMN `counter_block_size` integer DEFAULT 1;
+ALTER TABLE `settings` ADD COLUMN `nonce_db_mode` boolean DEFAULT FALSE;
@@ -0,0 +1,18 @@
+-- Indexes for the queries of the launch and assess paths
+
+-- Attempts of a user (ToolAttemptDao)
+CREATE INDEX IF NOT EXISTS "idx_resource_user_lti_user" ON "resource_user" ("lti_user_sid", "resource_sid");
+CREATE INDEX IF NOT EXISTS "idx_resource_link_tool_key" ON "resource_link" ("tool_key_sid", "resource_id");
+CREATE INDEX IF NOT EXISTS "idx_attempt_count" ON "attempt" ("resource_user_sid", "errorCode", "filename");
+
+-- Resource links by resource id (LaunchDao, ToolResourceLinkDao)
+CREATE INDEX IF NOT EXISTS "idx_resource_link_resource_id" ON "resource_link" ("resource_id");
+
+-- Expired nonces
+CREATE INDEX IF NOT EXISTS "idx_nonce_expires" ON "nonce" ("expires");
+
+-- Keys of a tool
+CREATE INDEX IF NOT EXISTS "idx_tool_key_tool" ON "tool_key" ("tool_sid", "consumer_sid");
+
+-- Users by source id (outcomes)
+CREATE INDEX IF NOT EXISTS "idx_lti_user_source_id" ON "lti_user" ("source_id");
@@ -0,0 +1,16 @@
+-- Scores pending to be sent to tool consumers (GradeOutbox)
+
+CREATE TABLE IF NOT EXISTS "grade_outbox" (
+  "sid" SERIAL PRIMARY KEY,
+  "resource_user_sid" integer NOT NULL,
+  "lineitem" varchar(255) NOT NULL,
+  "attempt_sid" integer NOT NULL,
+  "score" integer NOT NULL,
+  "client_id" varchar(255) DEFAULT NULL,
+  "tool_key_sid" integer NOT NULL,
+  "result_source_id" varchar(255) DEFAULT NULL,
+  "tries" integer NOT NULL DEFAULT 0,
+  "next_try" bigint NOT NULL,
+  UNIQUE("resource_user_sid", "lineitem")
+);
+CREATE INDEX IF NOT EXISTS "idx_grade_outbox_next_try" ON "grade_outbox" ("next_try");
@@ -0,0 +1,6 @@
+-- Settings of the connection pool, counter blocks and nonces
+
+ALTER TABLE "settings" ADD COLUMN IF NOT EXISTS "pool_mode" boolean DEFAULT FALSE;
+ALTER TABLE "settings" ADD COLUMN IF NOT EXISTS "pool_config" varchar DEFAULT NULL;
+ALTER TABLE "settings" ADD COLUMN IF NOT EXISTS "counter_block_size" integer DEFAULT 1;
+ALTER TABLE "settings" ADD COLUMN IF NOT EXISTS "nonce_db_mode" boolean DEFAULT FALSE;
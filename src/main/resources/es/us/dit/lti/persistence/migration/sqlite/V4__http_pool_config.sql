@@ -0,0 +1,3 @@
+-- Configuration of the HTTP client pool (HttpPoolConfig)
+
+ALTER TABLE "settings" ADD COLUMN "http_pool_config" varchar DEFAULT NULL;
@@ -0,0 +1,7 @@
+-- Settings of the connection pool, WAL mode, counter blocks and nonces
+
+ALTER TABLE "settings" ADD COLUMN "pool_mode" boolean DEFAULT FALSE;
+ALTER TABLE "settings" ADD COLUMN "pool_config" varchar DEFAULT NULL;
+ALTER TABLE "settings" ADD COLUMN "sqlite_wal_mode" boolean DEFAULT FALSE;
+ALTER TABLE "settings" ADD COLUMN "counter_block_size" integer DEFAULT 1;
+ALTER TABLE "settings" ADD COLUMN "nonce_db_mode" boolean DEFAULT FALSE;
@@ -20,6 +20,8 @@ SCP_SERVER=
 SSH_SERVER=
 SSH_URL=
 ERROR_CORRECTOR=111
+#ssh exit code when the connection fails
+ERROR_SSH=255
 
 #LOAD VARIABLES
 #check for the existence of required variables.
@@ -46,6 +48,15 @@ else
     SSH_OPTIONS=   
     SCP_OPTIONS= 
 fi
+#shared connections (ControlMaster) if enabled
+if [ "$TPMsshopts" ]; then
+    SSH_OPTIONS="$SSH_OPTIONS $TPMsshopts"
+    SCP_OPTIONS="$SCP_OPTIONS $TPMsshopts"
+fi
+#status of servers for the load balancer if requested
+if [ -z "$TPMstatusfile" ]; then
+    TPMstatusfile=/dev/null
+fi
 printf "%s\t%s\t%s\t%s\tSTART\n" "$(date -Ins)" "$TPMfilepath" "$TPMconsumerid" "$TPMfilename" >> "$LOGFILE"
 
 if [ "$TPMconsumerid" = "$TPMspecialuser" ]; then
@@ -75,19 +86,27 @@ server=""
 for s in $TPMservers; do
     echo "<p>Testing server $s..." 1>&2
     set_server "$s"
+    #a shared connection is only used if its master is alive, else the test
+    #connects directly so ConnectTimeout applies (first option value wins)
+    PROBE_OPTIONS="$SSH_OPTIONS"
+    if [ "$TPMsshopts" ] && ! ssh $SSH_OPTIONS -oBatchMode=yes -O check "$SSH_SERVER" 2>/dev/null; then
+        PROBE_OPTIONS="-oControlMaster=no -oControlPath=none $SSH_OPTIONS"
+    fi
     #call corrector with "test" to see what works
-    if ssh $SSH_OPTIONS -oBatchMode=yes -oConnectTimeout=1 "$SSH_SERVER" "$TPMcorrector test"; then
+    if ssh $PROBE_OPTIONS -oBatchMode=yes -oConnectTimeout=1 "$SSH_SERVER" "$TPMcorrector test"; then
         echo "OK" 1>&2
         server=$s
         break
     else
         echo "KO" 1>&2
+        echo "KO $s" >> "$TPMstatusfile"
     fi
 done
 if [ "$server" ]; then
     set_server "$server"
     echo "<p>Using server $server.</p>" 1>&2
     printf "%s\t%s\t%s\t%s\tUSING\t%s\n" "$(date -Ins)" "$TPMfilepath" "$TPMconsumerid" "$TPMfilename" "$server" >> "$LOGFILE"
+    echo "USING $server" >> "$TPMstatusfile"
     #the file to be delivered is copied, we use the base name
     fileremote="$TPMremotefolder"/$(basename "$TPMfilepath")
     if [ "$SSH_URL" ]; then
@@ -98,8 +117,15 @@ if [ "$server" ]; then
     if scp $SCP_OPTIONS -q "$TPMfilepath" "${SCP_SERVER}${scppath}" 2>&1; then
         #execute corrector
         ssh $SSH_OPTIONS "$SSH_SERVER" "$TPMcorrector \"$fileremote\" \"$TPMconsumerid\" \"$TPMfilename\" $TPMcounter \"$TPMinstructor\" $TPMextraargs"
+        nota=$?
+        if [ $nota -eq $ERROR_SSH ]; then
+            echo "KO $server" >> "$TPMstatusfile"
+        fi
+    else
+        #copy failed, not a score
+        nota=$ERROR_CORRECTOR
+        echo "KO $server" >> "$TPMstatusfile"
     fi
-    nota=$?
 else
     echo "<p>El servidor de corrección no está disponible. Inténtelo más tarde.</p>"
     echo "<p>The correction server is not available. Please try again later.</p>"
@@ -24,6 +24,12 @@ TPMfileurlencoded=file.ext
 #Private key file to make the connection, password access is not allowed.
 # If empty, the system default keys (shared by all projects)
 TPMsshkey=id.key
+#Extra options of ssh and scp. If connection reuse is enabled, options to
+# share a master connection per server (ControlMaster)
+TPMsshopts=
+#File where the servers used (USING server) and failed (KO server) are written
+# for the load balancer
+TPMstatusfile=
 #These will cause the file to be sent to all servers. They may be empty.
 # solo se permite a un usuario y un nombre de fichero
 TPMspecialuser="test"
@@ -70,7 +70,7 @@
 				<div title="Modo en la que se ejecuta la herramienta">Tipo de herramienta</div>
 				<div> <select name="tooltype" id="type" title="Modo en la que se ejecuta la herramienta" >
 				<% for (ToolRunnerType t: ToolRunnerType.values()) {
-					if (!t.equals(ToolRunnerType.TR_LOCAL) || mgmtUser.isLocal()) {%>
+					if (!t.isLocal() || mgmtUser.isLocal()) {%>
 					<option value="<%=t.getCode() %>"><%=text.get(t.toString()) %></option>
 				<% } } %>
 				</select></div>
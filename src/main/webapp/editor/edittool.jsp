@@ -117,7 +117,7 @@
 				<% if (toolPermission <= MgmtUserType.ADMIN.getCode()) { %>
 				<select name="tooltype" id="type">
 				<% for (ToolRunnerType t: ToolRunnerType.values()) {
-					if (!t.equals(ToolRunnerType.TR_LOCAL) || mgmtUser.isLocal()) {%>
+					if (!t.isLocal() || mgmtUser.isLocal()) {%>
 					<option value="<%=t.getCode() %>" <%=tool.getToolType()==t ? "selected" : ""%> > <%=text.get(t.toString()) %></option>
 				<% } } %>
 				</select>
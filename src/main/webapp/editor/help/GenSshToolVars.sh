@@ -22,6 +22,12 @@ TPMservers="usuario1@servidor1 usuario2@servidor2 //usuario3@servidor3:puerto"
 #Fichero de clave privada para hacer la conexión, no se permite acceso con clave
 # si está vacía las claves por defecto del sistema (compartida por todos los proyectos)
 TPMsshkey=id.key
+#Opciones adicionales de ssh y scp. Si se reutilizan las conexiones, opciones
+# para compartir una conexión maestra por servidor (ControlMaster)
+TPMsshopts=
+#Fichero donde se escriben los servidores usados (USING servidor) y los que
+# fallan (KO servidor) para el balanceo de carga
+TPMstatusfile=
 #Esto provocará que se envíen a todos los servidores. Pueden estar vacíos.
 # solo se permite a un usuario y un nombre de fichero
 TPMspecialuser="test"
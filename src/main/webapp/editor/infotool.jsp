@@ -4,6 +4,9 @@
 <%@page import="org.apache.commons.io.FileUtils"%>
 <%@page import="es.us.dit.lti.entity.Tool"%>
 <%@page import="java.util.List"%>
+<%@page import="java.util.Map"%>
+<%@page import="es.us.dit.lti.runner.SshToolRunner"%>
+<%@page import="es.us.dit.lti.runner.ToolRunnerType"%>
 <%@page import="es.us.dit.lti.entity.MgmtUserType"%>
 <%@page import="es.us.dit.lti.entity.MgmtUser,es.us.dit.lti.persistence.ToolDao"%>
 <%@page language="java" contentType="text/html; charset=UTF-8"
@@ -170,6 +173,31 @@
             <li><strong>Deep Linking (LTI-DL):</strong> Soportado. Se debe habilitar en el LMS indicando la misma URL de redirección.</li>
         </ul>
     </div>
+    <%
+    if (tool.getToolType() == ToolRunnerType.TR_SSH) {
+    	List<Map<String, Object>> servers = SshToolRunner.getServerStatistics(tool.getCorrectorPath());
+    %>
+    <h2>Servidores de corrección</h2>
+	<div class="toolservers scroll50">
+		<header>Servidor</header>
+		<header title="Correcciones en curso">En curso</header>
+		<header title="Correcciones terminadas">Terminadas</header>
+		<header title="Fallos de conexión o de tiempo">Fallos</header>
+		<header title="Media reciente de la duración de las correcciones">Duración</header>
+		<header title="Los servidores con fallos seguidos se dejan de usar temporalmente">Estado</header>
+	<%
+		for (Map<String, Object> server : servers) {
+			long ejected = (Long) server.get("ejectedSeconds");
+	%>
+		<div><e:forHtml value='<%=String.valueOf(server.get("server"))%>' /></div>
+		<div><%=server.get("inFlight")%></div>
+		<div><%=server.get("completed")%></div>
+		<div><%=server.get("failures")%> (<%=server.get("ejections")%> expulsiones)</div>
+		<div><%=(Long) server.get("latencyMillis") >= 0 ? server.get("latencyMillis") + " ms" : "-"%></div>
+		<div><%=ejected > 0 ? "Expulsado " + ejected + " s" : "Activo"%></div>
+	<%	} %>
+	</div>
+	<% } %>
     <h2>Usuarios asignados</h2>
 	<%
 	List<MgmtUser> users = ToolDao.getUsers(tool);
@@ -52,8 +52,11 @@ window.addEventListener("load", function() {
 				let resultDiv = document.getElementById("result");
 				if (resultDiv) resultDiv.innerHTML = "";
 				
-				if (data.success && data.users) {
-					let html = "<h3>Alumnos Sincronizados (" + data.users.length + ")</h3>";
+				if (data.success && data.pending) {
+					alert('La sincronización de alumnos está en curso. Inténtelo de nuevo en unos minutos.');
+				} else if (data.success && data.users) {
+					let total = data.total !== undefined ? data.total : data.users.length;
+					let html = "<h3>" + (data.differential ? "Cambios Sincronizados" : "Alumnos Sincronizados") + " (" + total + ")</h3>";
 					html += "<table class='infotable'><thead><tr><th>Nombre</th><th>Email</th><th>Rol</th></tr></thead><tbody>";
 					for (let u of data.users) {
 						let rolesStr = '';
@@ -22,6 +22,7 @@ mergeTexts({
 		"errorCode": 'El ejecutable de evaluación ha fallado. Error:',
 		"errorCode-0": 'No guardada',
 		"errorCode-1": 'Guardada',
+		"errorCode-2": 'Pendiente de guardar',
 		"errorCode-102": 'Error guardando nota',
 		"errorCode-137": 'Error: la evaluación ha tardado más de lo permitido',
 		"errorCode-112": 'Error: se ha producido una excepción durante la evaluación',
@@ -44,6 +45,7 @@ mergeTexts({
 		"errorCode": 'The validator has failed. Error:',
 		"errorCode-0": 'Not saved',
 		"errorCode-1": 'Saved',
+		"errorCode-2": 'Pending to be saved',
 		"errorCode-102": 'Error saving note',
 		"errorCode-137": 'Error: Assessment took longer than allowed',
 		"errorCode-112": 'Error: An exception occurred during assessment',
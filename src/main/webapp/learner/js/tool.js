@@ -2,6 +2,7 @@
 let TEXTS = {
 	"es": {
 		"waitMsg": "Espere mientras se carga su trabajo y se evalúa...",
+		"queuePosition": "Entregas por delante en la cola: ",
 		"loading": "cargando",
 		"errorFileName": 'Nombre de archivo no válido',
 		"errorSize": 'Tamaño de archivo excesivo',
@@ -16,6 +17,7 @@ let TEXTS = {
 	},
 	"en": {
 		"waitMsg": "Please wait while your work is uploaded and evaluated...",
+		"queuePosition": "Deliveries ahead in the queue: ",
 		"loading": "loading",
 		"errorFileName": 'Invalid filename',
 		"errorSize": 'Excessive file size',
@@ -197,7 +199,7 @@ function send(formData) {
 				if (text === "") {
 					createResult("<p class='error'>"+texts.errorClosedSession+"</p>");
 				} else {
-					createResult(text);
+					showResult(text);
 				}
 			});
 		} else if (response.status === 403) {
@@ -213,6 +215,72 @@ function send(formData) {
 	});
 }
 
+function showResult(text) {
+	// Assessment in background: wait for the result
+	let job = /class='assessjob' data-job='([^']+)'/.exec(text);
+	if (job) {
+		waitResult("../learner/assessjob?id=" + encodeURIComponent(job[1]));
+	} else {
+		createResult(text);
+	}
+}
+
+function waitResult(url) {
+	if (window.EventSource) {
+		let source = new EventSource(url);
+		source.addEventListener("state", event => {
+			showPosition(JSON.parse(event.data));
+		});
+		source.addEventListener("result", event => {
+			source.close();
+			createResult(JSON.parse(event.data).html);
+		});
+		source.onerror = () => {
+			// The browser reconnects unless the request failed
+			if (source.readyState === EventSource.CLOSED) {
+				pollResult(url);
+			}
+		};
+	} else {
+		pollResult(url);
+	}
+}
+
+function showPosition(data) {
+	let infoLabel = document.getElementById("result");
+	let p = document.getElementById("queueposition");
+	if (!p) {
+		p = document.createElement("p");
+		p.id = "queueposition";
+		infoLabel.insertBefore(p, infoLabel.firstChild.nextSibling);
+	}
+	p.textContent = data.state === "QUEUED" && data.position > 0 ? texts.queuePosition + data.position : "";
+}
+
+function pollResult(url) {
+	fetch(url, {
+		headers: { "Accept": "application/json" }
+	})
+	.then(response => {
+		if (!response.ok) {
+			throw new Error(response.status);
+		}
+		return response.json();
+	})
+	.then(data => {
+		if (data.state === "DONE") {
+			createResult(data.html);
+		} else {
+			showPosition(data);
+			setTimeout(() => pollResult(url), 2000);
+		}
+	})
+	.catch(error => {
+		console.error(error);
+		createResult("<p class='error'>"+texts.errorNoResponse+"</p>");
+	});
+}
+
 function createResult(text) {
 	let element = document.getElementById("result");
 	let fs = document.createElement("fieldset");
@@ -0,0 +1,258 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import es.us.dit.lti.entity.Tool;
+import es.us.dit.lti.persistence.IDbUtil;
+import es.us.dit.lti.persistence.MgmtUserDao;
+import es.us.dit.lti.persistence.ToolDao;
+import es.us.dit.lti.persistence.ToolKeyDao;
+
+/**
+ * Contention benchmark of the DAOs used in LTI launches.
+ *
+ * <p>Reader threads repeat the DAO calls of a launch (tool by name, its
+ * administrator and its default key) while one thread repeatedly deletes the
+ * data of another tool, a slow write. Each database connection waits a
+ * simulated network latency and connections are independent, so only the
+ * locks of the DAOs serialize the threads.
+ *
+ * <p>Run from the root of the project after <code>mvn compile</code>:
+ *
+ * <pre>
+ * java -cp "target/classes:$(cat cp.txt)" src/scripts/bench/DaoContentionBench.java [threads] [seconds] [latencyMs]
+ * </pre>
+ *
+ * <p>where <code>cp.txt</code> is generated with
+ * <code>mvn dependency:build-classpath -Dmdep.outputFile=cp.txt</code>.
+ * <code>threads</code> is a comma-separated list of reader thread counts
+ * (default 1,2,4,8), <code>seconds</code> the duration of each run (default 5)
+ * and <code>latencyMs</code> the latency of each connection (default 2).
+ *
+ * @author Francisco José Fernández Jiménez
+ */
+public class DaoContentionBench {
+	/**
+	 * Name of the tool used in launches.
+	 */
+	private static final String TOOL = "bench";
+	/**
+	 * Name of the tool whose data is deleted.
+	 */
+	private static final String OTHER_TOOL = "other";
+
+	/**
+	 * Database utility with a new connection per use and simulated latency.
+	 */
+	private static final class LatencyDbUtil implements IDbUtil {
+		/**
+		 * JDBC URL.
+		 */
+		private String url;
+		/**
+		 * Latency of each connection in milliseconds.
+		 */
+		private final long latencyMs;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param latencyMs latency of each connection in milliseconds
+		 */
+		LatencyDbUtil(long latencyMs) {
+			this.latencyMs = latencyMs;
+		}
+
+		@Override
+		public void init(String connectionString) {
+			url = connectionString;
+		}
+
+		@Override
+		public void destroy() {
+			// Nothing to do
+		}
+
+		@Override
+		public Connection getConnection() {
+			try {
+				Thread.sleep(latencyMs);
+				final Connection conn = DriverManager.getConnection(url);
+				try (Statement st = conn.createStatement()) {
+					st.execute("PRAGMA busy_timeout=10000");
+				}
+				return conn;
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (final SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public void closeConnection(Connection connection) {
+			try {
+				if (connection != null) {
+					connection.close();
+				}
+			} catch (final SQLException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args reader thread counts, seconds and latency
+	 * @throws Exception if the database can not be created
+	 */
+	public static void main(String[] args) throws Exception {
+		final int[] threads = Arrays.stream((args.length > 0 ? args[0] : "1,2,4,8").split(","))
+				.mapToInt(Integer::parseInt).toArray();
+		final long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+		final long latencyMs = args.length > 2 ? Long.parseLong(args[2]) : 2;
+
+		final File db = File.createTempFile("tpm-bench", ".db");
+		db.deleteOnExit();
+		final String url = "jdbc:sqlite:" + db.getAbsolutePath();
+		createDatabase(url);
+		final IDbUtil dbUtil = new LatencyDbUtil(latencyMs);
+		dbUtil.init(url);
+		ToolDao.setDbUtil(dbUtil);
+		ToolKeyDao.setDbUtil(dbUtil);
+		MgmtUserDao.setDbUtil(dbUtil);
+
+		System.out.println("cores=" + Runtime.getRuntime().availableProcessors() + " latencyMs=" + latencyMs);
+		System.out.println("readers\twriter\tlaunches/s\tp50 ms\tp99 ms\tmax ms");
+		for (final int n : threads) {
+			run(n, false, seconds);
+			run(n, true, seconds);
+		}
+	}
+
+	/**
+	 * Runs launches in some threads.
+	 *
+	 * @param readers number of threads
+	 * @param writer  true to delete data of another tool at the same time
+	 * @param seconds duration
+	 * @throws InterruptedException if interrupted
+	 */
+	private static void run(int readers, boolean writer, long seconds) throws InterruptedException {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final List<long[]> latencies = new ArrayList<>();
+		final List<Thread> all = new ArrayList<>();
+		for (int i = 0; i < readers; i++) {
+			final long[] samples = new long[1 << 20];
+			latencies.add(samples);
+			all.add(new Thread(() -> {
+				int count = 0;
+				while (!stop.get() && count < samples.length - 1) {
+					final long t0 = System.nanoTime();
+					final Tool tool = ToolDao.get(TOOL);
+					ToolDao.getAdmin(tool);
+					ToolKeyDao.getDefault(tool);
+					samples[++count] = System.nanoTime() - t0;
+				}
+				samples[0] = count;
+			}));
+		}
+		if (writer) {
+			all.add(new Thread(() -> {
+				final Tool other = ToolDao.get(OTHER_TOOL);
+				while (!stop.get()) {
+					ToolDao.deleteToolData(other);
+				}
+			}));
+		}
+		all.forEach(Thread::start);
+		Thread.sleep(seconds * 1000);
+		stop.set(true);
+		for (final Thread t : all) {
+			t.join();
+		}
+		int total = 0;
+		for (final long[] s : latencies) {
+			total += (int) s[0];
+		}
+		final long[] merged = new long[total];
+		int pos = 0;
+		for (final long[] s : latencies) {
+			System.arraycopy(s, 1, merged, pos, (int) s[0]);
+			pos += (int) s[0];
+		}
+		Arrays.sort(merged);
+		System.out.printf("%d\t%s\t%.0f\t%.1f\t%.1f\t%.1f%n", readers, writer ? "yes" : "no",
+				total / (double) seconds, percentile(merged, 0.5), percentile(merged, 0.99),
+				merged.length > 0 ? merged[merged.length - 1] / 1e6 : 0.0);
+	}
+
+	/**
+	 * Gets a percentile of sorted latencies.
+	 *
+	 * @param sorted sorted latencies in nanoseconds
+	 * @param p      percentile (0 to 1)
+	 * @return latency in milliseconds
+	 */
+	private static double percentile(long[] sorted, double p) {
+		return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, p * sorted.length)] / 1e6;
+	}
+
+	/**
+	 * Creates the schema and the tools of the benchmark.
+	 *
+	 * @param url JDBC URL
+	 * @throws Exception if there is an error
+	 */
+	private static void createDatabase(String url) throws Exception {
+		final String schema = Files.readString(Path.of("src/scripts/sql/LTI-sqlite.sql"), StandardCharsets.UTF_8);
+		try (Connection conn = DriverManager.getConnection(url); Statement st = conn.createStatement()) {
+			st.execute("PRAGMA journal_mode=WAL");
+			for (final String sql : schema.split(";")) {
+				if (!sql.isBlank()) {
+					st.execute(sql);
+				}
+			}
+			st.execute("INSERT INTO mgmt_user (sid, username, password, type, is_local, created, updated)"
+					+ " VALUES (1, 'admin', 'x', 0, 0, 0, 0)");
+			int sid = 1;
+			for (final String name : new String[] { TOOL, OTHER_TOOL }) {
+				st.execute("INSERT INTO tool (sid, name, description, deliveryPassword, created, updated) VALUES ("
+						+ sid + ", '" + name + "', '', '', 0, 0)");
+				st.execute("INSERT INTO tool_counter (tool_sid, counter) VALUES (" + sid + ", 0)");
+				st.execute("INSERT INTO tool_user (tool_sid, user_sid, type) VALUES (" + sid + ", 1, 0)");
+				sid++;
+			}
+		}
+	}
+}
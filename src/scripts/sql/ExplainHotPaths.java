@@ -0,0 +1,143 @@
+/*
+    This file is part of Tool Provider Manager - Manager of LTI Tool Providers
+    for learning platforms.
+    Copyright (C) 2022  Francisco José Fernández Jiménez.
+
+    Tool Provider Manager is free software: you can redistribute it and/or
+    modify it under the terms of the GNU General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or (at
+    your option) any later version.
+
+    Tool Provider Manager is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+    Public License for more details.
+
+    You should have received a copy of the GNU General Public License along
+    with Tool Provider Manager. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.us.dit.lti.persistence.SchemaMigrator;
+
+/**
+ * Checks that the queries of the launch and assess paths use indexes.
+ *
+ * <p>Creates a SQLite database with the installation script, applies the
+ * schema migrations and runs <code>EXPLAIN QUERY PLAN</code> for each query.
+ * The queries are read from the constants of the DAOs, so the check follows
+ * changes in them. It exits with status 1 if a query scans a whole table.
+ *
+ * <p>Run from the root of the project after <code>mvn compile</code>:
+ *
+ * <pre>
+ * java -cp "target/classes:$(cat cp.txt)" src/scripts/sql/ExplainHotPaths.java
+ * </pre>
+ *
+ * <p>where <code>cp.txt</code> is generated with
+ * <code>mvn dependency:build-classpath -Dmdep.outputFile=cp.txt</code>.
+ *
+ * @author Francisco José Fernández Jiménez
+ */
+public class ExplainHotPaths {
+	/**
+	 * Queries of the launch and assess paths, by DAO and constant name.
+	 */
+	private static final String[][] QUERIES = {
+			{ "ToolAttemptDao", "SQL_COUNT" },
+			{ "ToolAttemptDao", "SQL_COUNT_FILENAME" },
+			{ "ToolAttemptDao", "SQL_GET_ALL_USER" },
+			{ "ToolAttemptDao", "SQL_GET_ALL_USER_BY_RESOURCE" },
+			{ "ToolAttemptDao", "SQL_GET_BY_ID" },
+			{ "LaunchDao", "SQL_GET_CONSUMER" },
+			{ "LaunchDao", "SQL_GET_CONTEXT" },
+			{ "LaunchDao", "SQL_GET_RL" },
+			{ "LaunchDao", "SQL_GET_USER" },
+			{ "LaunchDao", "SQL_GET_RU" },
+			{ "ToolResourceLinkDao", "SQL_GET_BY_ID" },
+			{ "ToolResourceUserDao", "SQL_GET_BY_ID" },
+			{ "ToolKeyDao", "SQL_GET_BY_ID" },
+			{ "ToolKeyDao", "SQL_GET_DEFAULT" },
+			{ "ToolNonceDao", "SQL_GET" },
+			{ "ToolNonceDao", "SQL_DELETE" },
+			{ "ToolDao", "SQL_GET_TK_KEYS" },
+			{ "ToolDao", "SQL_GET_LTI_USERS_BY_SOURCEID" } };
+
+	/**
+	 * Queries of DAOs that build them in their methods.
+	 */
+	private static final Map<String, String> LITERAL_QUERIES = new LinkedHashMap<>();
+
+	static {
+		LITERAL_QUERIES.put("LtiClientDao.findByPlatformAndClientId",
+				"SELECT id, platform_id, client_id FROM lti_client WHERE platform_id = ? AND client_id = ?");
+		LITERAL_QUERIES.put("LtiDeploymentDao.findByClientIdAndDeploymentId",
+				"SELECT id, client_id, deployment_id FROM lti_deployment WHERE client_id = ? AND deployment_id = ?");
+	}
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args not used
+	 * @throws Exception if the database can not be created
+	 */
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> queries = new LinkedHashMap<>();
+		for (final String[] q : QUERIES) {
+			final Field f = Class.forName("es.us.dit.lti.persistence." + q[0]).getDeclaredField(q[1]);
+			f.setAccessible(true);
+			queries.put(q[0] + "." + q[1], (String) f.get(null));
+		}
+		queries.putAll(LITERAL_QUERIES);
+
+		final File db = File.createTempFile("tpm-explain", ".db");
+		db.deleteOnExit();
+		final List<String> failed = new ArrayList<>();
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getAbsolutePath());
+				Statement st = conn.createStatement()) {
+			final String schema = Files.readString(Path.of("src/scripts/sql/LTI-sqlite.sql"),
+					StandardCharsets.UTF_8);
+			for (final String sql : schema.split(";")) {
+				if (!sql.isBlank()) {
+					st.execute(sql);
+				}
+			}
+			if (!SchemaMigrator.migrate(conn)) {
+				System.out.println("Error applying migrations");
+				System.exit(1);
+			}
+			for (final Map.Entry<String, String> q : queries.entrySet()) {
+				System.out.println(q.getKey());
+				try (ResultSet rs = st.executeQuery("EXPLAIN QUERY PLAN " + q.getValue())) {
+					while (rs.next()) {
+						final String detail = rs.getString("detail");
+						System.out.println("    " + detail);
+						if (detail.startsWith("SCAN ") && !detail.contains(" INDEX ")) {
+							failed.add(q.getKey() + ": " + detail);
+						}
+					}
+				}
+			}
+		}
+		if (failed.isEmpty()) {
+			System.out.println("OK: all queries use indexes");
+		} else {
+			System.out.println("Table scans:");
+			failed.forEach(f -> System.out.println("    " + f));
+			System.exit(1);
+		}
+	}
+}
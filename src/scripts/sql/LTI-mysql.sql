@@ -185,3 +185,15 @@ ALTER TABLE `lti_user` ADD FOREIGN KEY (`consumer_sid`) REFERENCES `consumer` (`
 ALTER TABLE `resource_user` ADD FOREIGN KEY (`resource_sid`) REFERENCES `resource_link` (`sid`);
 
 ALTER TABLE `resource_user` ADD FOREIGN KEY (`lti_user_sid`) REFERENCES `lti_user` (`sid`);
+
+ALTER TABLE `settings` ADD COLUMN `pool_mode` boolean DEFAULT FALSE;
+
+ALTER TABLE `settings` ADD COLUMN `pool_config` varchar(1000) DEFAULT NULL;
+
+ALTER TABLE `settings` ADD COLUMN `counter_block_size` integer DEFAULT 1;
+
+ALTER TABLE `settings` ADD COLUMN `nonce_db_mode` boolean DEFAULT FALSE;
+
+ALTER TABLE `settings` ADD COLUMN `key_rotation_days` integer DEFAULT 0;
+
+ALTER TABLE `settings` ADD COLUMN `http_pool_config` varchar(1000) DEFAULT NULL;
@@ -214,3 +214,15 @@ ALTER TABLE "tool" ADD COLUMN "token_url" varchar(255);
 ALTER TABLE "tool" ADD CONSTRAINT "fk_tool_keyset" FOREIGN KEY ("key_set_id") REFERENCES "lti_key_set" ("id");
 
 CREATE INDEX "idx_tool_lookup" ON "tool" ("issuer", "client_id", "deployment_id");
+
+ALTER TABLE "settings" ADD COLUMN "pool_mode" boolean DEFAULT FALSE;
+
+ALTER TABLE "settings" ADD COLUMN "pool_config" varchar DEFAULT NULL;
+
+ALTER TABLE "settings" ADD COLUMN "counter_block_size" integer DEFAULT 1;
+
+ALTER TABLE "settings" ADD COLUMN "nonce_db_mode" boolean DEFAULT FALSE;
+
+ALTER TABLE "settings" ADD COLUMN "key_rotation_days" integer DEFAULT 0;
+
+ALTER TABLE "settings" ADD COLUMN "http_pool_config" varchar DEFAULT NULL;
@@ -205,4 +205,11 @@ CREATE TABLE lti_deployment (
 
 ALTER TABLE "resource_link" ADD COLUMN "mapped_toolname" VARCHAR(255) DEFAULT NULL;
 ALTER TABLE "tool" ADD COLUMN "deployment_fk" INTEGER REFERENCES "lti_deployment"("id");
-CREATE INDEX IF NOT EXISTS "idx_tool_lti13_lookup" ON "tool" ("issuer", "client_id", "deployment_id");
\ No newline at end of file
+CREATE INDEX IF NOT EXISTS "idx_tool_lti13_lookup" ON "tool" ("issuer", "client_id", "deployment_id");
+ALTER TABLE "settings" ADD COLUMN "pool_mode" boolean DEFAULT FALSE;
+ALTER TABLE "settings" ADD COLUMN "pool_config" varchar DEFAULT NULL;
+ALTER TABLE "settings" ADD COLUMN "sqlite_wal_mode" boolean DEFAULT FALSE;
+ALTER TABLE "settings" ADD COLUMN "counter_block_size" integer DEFAULT 1;
+ALTER TABLE "settings" ADD COLUMN "nonce_db_mode" boolean DEFAULT FALSE;
+ALTER TABLE "settings" ADD COLUMN "key_rotation_days" integer DEFAULT 0;
+ALTER TABLE "settings" ADD COLUMN "http_pool_config" varchar DEFAULT NULL;